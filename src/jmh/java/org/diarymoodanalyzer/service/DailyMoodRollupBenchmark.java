@@ -0,0 +1,123 @@
+package org.diarymoodanalyzer.service;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+/**
+ * Benchmark of daily stats by GROUP BY over diaries, and by {@link DailyMoodRollupService} rollup.
+ * <br/>
+ * Diaries of a user are spread over one year. Latency of rollup should not grow with <code>diaryCount</code>.
+ * Uses in-memory H2 with the columns used by the queries only.
+ * <br/>
+ * Run by <code>./gradlew jmh</code>
+ */
+@State(Scope.Benchmark)
+public class DailyMoodRollupBenchmark {
+
+    private static final int DAYS = 365;
+
+    private static final long USER_ID = 1;
+
+    /**
+     * Count of diaries of the user
+     */
+    @Param({"1000", "10000", "100000"})
+    public int diaryCount;
+
+    private Connection connection;
+
+    private PreparedStatement groupBy;
+
+    private PreparedStatement rollup;
+
+    @Setup
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:rollup-" + diaryCount + ";DB_CLOSE_DELAY=-1");
+
+        try(Statement st = connection.createStatement()) {
+            st.execute("CREATE TABLE users (id BIGINT PRIMARY KEY, email VARCHAR(255))");
+            st.execute("""
+                    CREATE TABLE diaries (id BIGINT AUTO_INCREMENT PRIMARY KEY, user_id BIGINT, created_at TIMESTAMP,
+                        depression_score INT, analyze_provisional BOOLEAN, classification VARCHAR(50),
+                        v REAL, a REAL, d REAL)
+                    """);
+            st.execute("CREATE INDEX idx_diaries_user_created_at ON diaries (user_id, created_at)");
+            st.execute("""
+                    CREATE TABLE daily_mood_rollup (user_id BIGINT, rollup_date DATE, diary_count BIGINT,
+                        sum_score BIGINT, min_score INT, max_score INT, vad_count BIGINT,
+                        sum_v DOUBLE, sum_a DOUBLE, sum_d DOUBLE, PRIMARY KEY (user_id, rollup_date))
+                    """);
+            st.execute("INSERT INTO users VALUES (" + USER_ID + ", 'bench@test.com')");
+        }
+
+        LocalDateTime start = LocalDateTime.now().minusDays(DAYS);
+        try(PreparedStatement ps = connection.prepareStatement("""
+                INSERT INTO diaries (user_id, created_at, depression_score, analyze_provisional, classification, v, a, d)
+                VALUES (?, ?, ?, FALSE, 'normal', 0.5, 0.5, 0.5)
+                """)) {
+            for(int i = 0; i < diaryCount; i++) {
+                ps.setLong(1, USER_ID);
+                ps.setTimestamp(2, Timestamp.valueOf(start.plusMinutes((long) i * DAYS * 24 * 60 / diaryCount)));
+                ps.setInt(3, i % 100);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+
+        try(PreparedStatement ps = connection.prepareStatement(DailyMoodRollupService.INSERT_USERS_SQL)) {
+            ps.setLong(1, 0);
+            ps.setLong(2, USER_ID);
+            ps.executeUpdate();
+        }
+
+        // Same shape as DiaryRepository.findDailyDepressionScoreAvg
+        groupBy = connection.prepareStatement("SELECT CAST(d.created_at AS DATE), AVG(d.depression_score)"
+                + " FROM diaries d INNER JOIN users u ON u.id = d.user_id"
+                + " WHERE u.email = ? AND " + DailyMoodRollupService.HAS_RESULT
+                + " GROUP BY CAST(d.created_at AS DATE)");
+        groupBy.setString(1, "bench@test.com");
+
+        // Same as DailyMoodRollupRepository.findByUserId
+        rollup = connection.prepareStatement("""
+                SELECT rollup_date, CAST(sum_score AS DOUBLE) / diary_count
+                FROM daily_mood_rollup WHERE user_id = ? ORDER BY rollup_date
+                """);
+        rollup.setLong(1, USER_ID);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        try(Statement st = connection.createStatement()) {
+            st.execute("DROP ALL OBJECTS");
+        }
+        connection.close();
+    }
+
+    @Benchmark
+    public void groupByDiaries(Blackhole bh) throws SQLException {
+        consume(groupBy, bh);
+    }
+
+    @Benchmark
+    public void readRollup(Blackhole bh) throws SQLException {
+        consume(rollup, bh);
+    }
+
+    private void consume(PreparedStatement ps, Blackhole bh) throws SQLException {
+        try(ResultSet rs = ps.executeQuery()) {
+            while(rs.next()) {
+                bh.consume(rs.getDate(1));
+                bh.consume(rs.getDouble(2));
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.diarymoodanalyzer.service;
+
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.diarymoodanalyzer.dto.ai.response.DiaryAnalyzeResponse;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.util.Optional;
+
+/**
+ * Benchmark of {@link LexiconMoodScorer}. Scoring should take well under 1 millisecond per diary.
+ * <br/>
+ * Run by <code>./gradlew jmh</code>
+ */
+@State(Scope.Benchmark)
+public class LexiconMoodScorerBenchmark {
+
+    private static final String SENTENCES = "오늘은 회사에서 조금 피곤했지만 그래도 친구를 만나서 즐거웠다. "
+            + "요즘 잠을 잘 못 자서 걱정이다. 행복하지 않은 건 아니지만 가끔 외롭다. ";
+
+    /**
+     * Repeat count of sentences. About 70 characters per repeat
+     */
+    @Param({"1", "10", "100"})
+    public int repeat;
+
+    private LexiconMoodScorer scorer;
+
+    private String content;
+
+    @Setup
+    public void setUp() {
+        scorer = new LexiconMoodScorer(new DiaryAnalyzeProperties(), new DefaultResourceLoader());
+        content = SENTENCES.repeat(repeat);
+    }
+
+    @Benchmark
+    public Optional<DiaryAnalyzeResponse> score() {
+        return scorer.score(content);
+    }
+}
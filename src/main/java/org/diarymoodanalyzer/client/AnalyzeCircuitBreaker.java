@@ -0,0 +1,190 @@
+package org.diarymoodanalyzer.client;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+/**
+ * Circuit breaker for requests to AI server.
+ * <br/>
+ * <ul>
+ *     <li>CLOSED : Requests are allowed. Opens after <code>failure-threshold</code> consecutive failures</li>
+ *     <li>OPEN : Requests are not allowed for <code>open-millis</code>. Tasks should be parked in queue</li>
+ *     <li>HALF_OPEN : Only a single probe request is allowed. Closes if it succeeds, otherwise opens again</li>
+ * </ul>
+ * Only timeout, connection error, 5xx and 429 are counted as failure. (See {@link AnalyzeConcurrencyLimiter#isOverload(Throwable)})
+ * <br/>
+ * Every transition is logged and counted by metric <code>diary.analyze.breaker.transitions</code>.
+ * Current state is exposed by gauge <code>diary.analyze.breaker.state</code>. (0 : CLOSED, 1 : HALF_OPEN, 2 : OPEN)
+ */
+@Component
+public class AnalyzeCircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(AnalyzeCircuitBreaker.class);
+
+    public enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    private final DiaryAnalyzeProperties.CircuitBreaker properties;
+
+    private final MeterRegistry meterRegistry;
+
+    private State state = State.CLOSED;
+
+    private int consecutiveFailures = 0;
+
+    /**
+     * Time to move OPEN to HALF_OPEN (epoch milliseconds)
+     */
+    private long openUntil = 0;
+
+    /**
+     * Whether the probe request is in flight on HALF_OPEN
+     */
+    private boolean probeInFlight = false;
+
+    /**
+     * Count of probes given on HALF_OPEN. Identifies the probe in flight
+     */
+    private long probeCount = 0;
+
+    private final List<BiConsumer<State, State>> listeners = new CopyOnWriteArrayList<>();
+
+    public AnalyzeCircuitBreaker(DiaryAnalyzeProperties diaryAnalyzeProperties, MeterRegistry meterRegistry) {
+        this.properties = diaryAnalyzeProperties.getCircuitBreaker();
+        this.meterRegistry = meterRegistry;
+
+        Gauge.builder("diary.analyze.breaker.state", this, breaker -> breaker.getState().ordinal())
+                .description("State of circuit breaker. 0 : CLOSED, 1 : HALF_OPEN, 2 : OPEN")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Acquire permission to send request.
+     * <br/>
+     * On OPEN, move to HALF_OPEN if <code>open-millis</code> has passed.
+     * On HALF_OPEN, only one permission is given until the probe is finished.
+     * @return true if request is allowed
+     */
+    public synchronized boolean tryAcquirePermission() {
+        if(state == State.OPEN && System.currentTimeMillis() >= openUntil) {
+            transitionTo(State.HALF_OPEN);
+        }
+
+        switch (state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if(probeInFlight) {
+                    return false;
+                }
+                probeInFlight = true;
+                probeCount++;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Give back permission acquired by {@link #tryAcquirePermission()} without sending request
+     */
+    public synchronized void cancelPermission() {
+        probeInFlight = false;
+    }
+
+    /**
+     * Get id of the last probe given by {@link #tryAcquirePermission()}
+     * @return id of probe. 0 if no probe is given yet
+     */
+    public synchronized long currentProbe() {
+        return probeCount;
+    }
+
+    /**
+     * Finish the probe without sending request. (e.g., all tasks are served from cache, or lookup of cache failed)
+     * <br/>
+     * Otherwise the breaker stays HALF_OPEN and refuses every permission.
+     * Does nothing if result of the probe is recorded already, or another probe is given after it.
+     * @param probe id of probe from {@link #currentProbe()}
+     */
+    public synchronized void finishProbe(long probe) {
+        if(state == State.HALF_OPEN && probeInFlight && probe == probeCount) {
+            probeInFlight = false;
+        }
+    }
+
+    /**
+     * Record successful response. Closes the breaker if it was the probe.
+     */
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+
+        if(state == State.HALF_OPEN) {
+            probeInFlight = false;
+            transitionTo(State.CLOSED);
+        }
+    }
+
+    /**
+     * Record failed request.
+     * Error not related to availability of AI server (e.g., 4xx) is recorded as success.
+     * @param e error of the request
+     */
+    public synchronized void onError(Throwable e) {
+        if(!AnalyzeConcurrencyLimiter.isOverload(e)) {
+            onSuccess();
+            return;
+        }
+
+        consecutiveFailures++;
+
+        if(state == State.HALF_OPEN
+                || (state == State.CLOSED && consecutiveFailures >= properties.getFailureThreshold())) {
+            probeInFlight = false;
+            openUntil = System.currentTimeMillis() + properties.getOpenMillis();
+            transitionTo(State.OPEN);
+        }
+    }
+
+    /**
+     * Whether requests are currently blocked (OPEN or HALF_OPEN)
+     * @return true if state is not CLOSED
+     */
+    public synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Register listener of state transition.
+     * @param listener called with (from, to) while holding the lock of breaker. Should be short
+     */
+    public void addListener(BiConsumer<State, State> listener) {
+        listeners.add(listener);
+    }
+
+    private void transitionTo(State next) {
+        State prev = state;
+        if(prev == next) {
+            return;
+        }
+        state = next;
+
+        logger.warn("Circuit breaker of AI server : {} -> {} (consecutive failures : {})", prev, next, consecutiveFailures);
+        meterRegistry.counter("diary.analyze.breaker.transitions", "to", next.name()).increment();
+
+        listeners.forEach(listener -> listener.accept(prev, next));
+    }
+}
@@ -0,0 +1,169 @@
+package org.diarymoodanalyzer.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Adaptive limiter of in-flight requests to AI server. (AIMD)
+ * <br/>
+ * Limit grows additively (about +1 per round trip) while latency stays under
+ * <code>rtt-tolerance</code> times of the long-term average,
+ * and shrinks multiplicatively by <code>backoff-ratio</code> on timeout, 5xx, 429 or latency increase.
+ * <br/>
+ * Exposes metrics <code>diary.analyze.limiter.*</code> (limit, in-flight, rtt, rejected, dropped).
+ */
+@Component
+public class AnalyzeConcurrencyLimiter {
+
+    /**
+     * Smoothing factor of long-term RTT average
+     */
+    private static final double RTT_SMOOTHING = 0.05;
+
+    private final DiaryAnalyzeProperties.Limiter properties;
+
+    private final int maxLimit;
+
+    private double limit;
+
+    private int inFlight = 0;
+
+    /**
+     * Long-term average of RTT (nanoseconds). 0 until the first sample
+     */
+    private double rttNanos = 0;
+
+    private final Counter rejectedCounter;
+
+    private final Counter droppedCounter;
+
+    public AnalyzeConcurrencyLimiter(DiaryAnalyzeProperties diaryAnalyzeProperties, MeterRegistry meterRegistry) {
+        this.properties = diaryAnalyzeProperties.getLimiter();
+        // Hard upper bound is max count of batches in flight
+        this.maxLimit = Math.max(1, diaryAnalyzeProperties.getBatch().getMaxInFlight());
+        this.limit = clamp(properties.getInitialLimit());
+
+        Gauge.builder("diary.analyze.limiter.limit", this, AnalyzeConcurrencyLimiter::getLimit)
+                .description("Current limit of in-flight requests to AI server")
+                .register(meterRegistry);
+        Gauge.builder("diary.analyze.limiter.in-flight", this, AnalyzeConcurrencyLimiter::getInFlight)
+                .description("Count of in-flight requests to AI server")
+                .register(meterRegistry);
+        Gauge.builder("diary.analyze.limiter.rtt", this, AnalyzeConcurrencyLimiter::getRttMillis)
+                .description("Long-term average of round trip time to AI server")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("diary.analyze.limiter.rejected")
+                .description("Count of dispatch rejected by the limit")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("diary.analyze.limiter.dropped")
+                .description("Count of requests timed out or overloaded")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Acquire a permit to send a request.
+     * @return true if in-flight count is under the limit, otherwise false (rejected)
+     */
+    public synchronized boolean tryAcquire() {
+        if(inFlight < (int) limit) {
+            inFlight++;
+            return true;
+        }
+
+        rejectedCounter.increment();
+        return false;
+    }
+
+    /**
+     * Acquire permits as many as available under the limit, without counting rejection.
+     * <br/>
+     * Used to send extra requests concurrently by the holder of a permit. (e.g., fallback to single requests)
+     * @param permits max count of permits to acquire
+     * @return count of permits acquired. 0 to <code>permits</code>
+     */
+    public synchronized int tryAcquireUpTo(int permits) {
+        int acquired = Math.max(0, Math.min(permits, (int) limit - inFlight));
+        inFlight += acquired;
+        return acquired;
+    }
+
+    /**
+     * Release a permit acquired by {@link #tryAcquire()}
+     */
+    public synchronized void release() {
+        release(1);
+    }
+
+    /**
+     * Release permits acquired by {@link #tryAcquireUpTo(int)}
+     * @param permits count of permits
+     */
+    public synchronized void release(int permits) {
+        inFlight = Math.max(0, inFlight - permits);
+    }
+
+    /**
+     * Adjust limit by successful response.
+     * @param rtt round trip time of the request (nanoseconds)
+     */
+    public synchronized void onSuccess(long rtt) {
+        rttNanos = rttNanos == 0 ? rtt : rttNanos * (1 - RTT_SMOOTHING) + rtt * RTT_SMOOTHING;
+
+        if(rtt > rttNanos * properties.getRttTolerance()) {
+            // Latency is growing. AI server is getting busy
+            limit = clamp(limit * properties.getBackoffRatio());
+        } else if(inFlight * 2 >= (int) limit) {
+            // Grow only when the limit is actually used
+            limit = clamp(limit + 1.0 / limit);
+        }
+    }
+
+    /**
+     * Adjust limit by failed request.
+     * Back off if the error means AI server is overloaded, otherwise keep the limit.
+     * @param e error of the request
+     */
+    public synchronized void onError(Throwable e) {
+        if(isOverload(e)) {
+            droppedCounter.increment();
+            limit = clamp(limit * properties.getBackoffRatio());
+        }
+    }
+
+    /**
+     * Reset limit to <code>initial-limit</code>. Used to ramp up slowly after recovery of AI server.
+     */
+    public synchronized void reset() {
+        limit = clamp(properties.getInitialLimit());
+    }
+
+    public synchronized double getLimit() {
+        return limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized double getRttMillis() {
+        return rttNanos / 1_000_000.0;
+    }
+
+    /**
+     * Check the error means AI server is overloaded or unreachable
+     * @param e error of the request
+     * @return true if timeout, connection error, 5xx or 429
+     */
+    public static boolean isOverload(Throwable e) {
+        AnalyzeErrorClass errorClass = AnalyzeErrorClass.of(e);
+        return errorClass == AnalyzeErrorClass.TIMEOUT || errorClass == AnalyzeErrorClass.SERVER_ERROR;
+    }
+
+    private double clamp(double value) {
+        return Math.max(Math.max(1, properties.getMinLimit()), Math.min(maxLimit, value));
+    }
+}
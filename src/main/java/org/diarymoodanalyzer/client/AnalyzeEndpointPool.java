@@ -0,0 +1,283 @@
+package org.diarymoodanalyzer.client;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pool of AI server replicas set by <code>diary-emotion.urls</code>.
+ * <br/>
+ * <ul>
+ *     <li>Balancing : least outstanding requests, or EWMA latency weighted by outstanding requests</li>
+ *     <li>Passive health check : replica is ejected for <code>eject-millis</code>
+ *     after <code>eject-failure-threshold</code> consecutive failures</li>
+ *     <li>Hedging : p95 latency of recent responses of the same {@link CallKind} is used as delay of hedged request</li>
+ * </ul>
+ * Exposes metrics <code>diary.analyze.pool.outstanding</code> and <code>diary.analyze.pool.ejected</code> tagged by <code>endpoint</code>.
+ */
+@Component
+public class AnalyzeEndpointPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(AnalyzeEndpointPool.class);
+
+    /**
+     * Kind of request. Batch request takes longer than single request, so latencies are kept separately
+     */
+    public enum CallKind {
+        SINGLE, BATCH
+    }
+
+    /**
+     * Smoothing factor of EWMA latency of replica
+     */
+    private static final double EWMA_SMOOTHING = 0.2;
+
+    /**
+     * Count of recent latencies used for p95
+     */
+    private static final int LATENCY_WINDOW = 256;
+
+    /**
+     * Min count of samples to start hedging
+     */
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    private final DiaryAnalyzeProperties.Pool properties;
+
+    private final List<Endpoint> endpoints;
+
+    /**
+     * Recent latencies per kind of request
+     */
+    private final Map<CallKind, LatencyWindow> latencies = new EnumMap<>(CallKind.class);
+
+    public AnalyzeEndpointPool(WebClient.Builder webClientBuilder, DiaryAnalyzeProperties diaryAnalyzeProperties,
+                               MeterRegistry meterRegistry) {
+        this.properties = diaryAnalyzeProperties.getPool();
+
+        this.endpoints = diaryAnalyzeProperties.getEndpointUrls().stream()
+                .map(url -> new Endpoint(url, webClientBuilder.clone()
+                        // Use property for set base url of AI server
+                        .baseUrl(url)
+                        // Default header
+                        .defaultHeaders(httpHeaders -> {
+                            httpHeaders.add(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
+                        })
+                        .build()))
+                .toList();
+
+        for(CallKind kind : CallKind.values()) {
+            latencies.put(kind, new LatencyWindow());
+        }
+
+        endpoints.forEach(endpoint -> {
+            Gauge.builder("diary.analyze.pool.outstanding", endpoint, Endpoint::getOutstanding)
+                    .tag("endpoint", endpoint.getUrl())
+                    .description("Count of in-flight requests to the replica")
+                    .register(meterRegistry);
+            Gauge.builder("diary.analyze.pool.ejected", endpoint, value -> value.isEjected() ? 1 : 0)
+                    .tag("endpoint", endpoint.getUrl())
+                    .description("1 if the replica is ejected by passive health check")
+                    .register(meterRegistry);
+        });
+    }
+
+    /**
+     * Select replica to send request.
+     * <br/>
+     * If all replicas are ejected, the one to be restored first is selected.
+     * @param exclude replica not to select. (e.g., replica of the primary request of hedging) nullable
+     * @return selected replica. null if there is no replica except <code>exclude</code>
+     */
+    public synchronized Endpoint select(Endpoint exclude) {
+        long now = System.currentTimeMillis();
+
+        Endpoint best = null;
+        Endpoint firstRestored = null;
+        for(Endpoint endpoint : endpoints) {
+            if(endpoint == exclude) {
+                continue;
+            }
+
+            if(endpoint.ejectedUntil > now) {
+                if(firstRestored == null || endpoint.ejectedUntil < firstRestored.ejectedUntil) {
+                    firstRestored = endpoint;
+                }
+                continue;
+            }
+
+            if(best == null || cost(endpoint) < cost(best)) {
+                best = endpoint;
+            }
+        }
+
+        return best != null ? best : firstRestored;
+    }
+
+    public int size() {
+        return endpoints.size();
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Record start of request to the replica
+     */
+    public synchronized void onStart(Endpoint endpoint) {
+        endpoint.outstanding++;
+    }
+
+    /**
+     * Record end of request to the replica. Called for success, error and cancel
+     */
+    public synchronized void onFinish(Endpoint endpoint) {
+        if(endpoint.outstanding > 0) {
+            endpoint.outstanding--;
+        }
+    }
+
+    /**
+     * Record successful response of the replica
+     * @param endpoint replica
+     * @param kind kind of the request
+     * @param rtt round trip time (nanoseconds)
+     */
+    public void onSuccess(Endpoint endpoint, CallKind kind, long rtt) {
+        synchronized (this) {
+            endpoint.ewmaNanos = endpoint.ewmaNanos == 0 ? rtt : endpoint.ewmaNanos * (1 - EWMA_SMOOTHING) + rtt * EWMA_SMOOTHING;
+            endpoint.consecutiveFailures = 0;
+        }
+        latencies.get(kind).record(rtt);
+    }
+
+    /**
+     * Record failed request to the replica. Eject it after consecutive failures.
+     * @param endpoint replica
+     * @param e error of the request
+     */
+    public synchronized void onError(Endpoint endpoint, Throwable e) {
+        if(!AnalyzeConcurrencyLimiter.isOverload(e)) {
+            endpoint.consecutiveFailures = 0;
+            return;
+        }
+
+        endpoint.consecutiveFailures++;
+        if(endpoint.consecutiveFailures >= properties.getEjectFailureThreshold()) {
+            endpoint.ejectedUntil = System.currentTimeMillis() + properties.getEjectMillis();
+            endpoint.consecutiveFailures = 0;
+            logger.warn("Eject AI server replica {} for {} ms", endpoint.getUrl(), properties.getEjectMillis());
+        }
+    }
+
+    /**
+     * Delay before sending hedged request.
+     * @param kind kind of the request
+     * @return p95 latency of recent responses of the same kind, at least <code>hedge-min-delay-millis</code>.
+     * null if hedging is disabled, there is only one replica, or not enough samples
+     */
+    public Duration hedgeDelay(CallKind kind) {
+        long p95Nanos = latencies.get(kind).p95Nanos;
+        if(!properties.isHedgeEnabled() || endpoints.size() < 2 || p95Nanos == 0) {
+            return null;
+        }
+        return Duration.ofNanos(Math.max(p95Nanos, Duration.ofMillis(properties.getHedgeMinDelayMillis()).toNanos()));
+    }
+
+    private double cost(Endpoint endpoint) {
+        if(properties.getBalancing() == DiaryAnalyzeProperties.Pool.Balancing.EWMA) {
+            // Unknown latency is treated as the fastest, to get samples
+            return endpoint.ewmaNanos * (endpoint.outstanding + 1);
+        }
+        // Break tie by latency
+        return endpoint.outstanding + endpoint.ewmaNanos / 1e12;
+    }
+
+    /**
+     * Ring buffer of recent latencies (nanoseconds)
+     */
+    private static class LatencyWindow {
+
+        private final long[] latencies = new long[LATENCY_WINDOW];
+
+        private int count = 0;
+
+        private int cursor = 0;
+
+        /**
+         * Cached p95 latency. Recalculated periodically
+         */
+        private volatile long p95Nanos = 0;
+
+        private synchronized void record(long rtt) {
+            latencies[cursor] = rtt;
+            cursor = (cursor + 1) % LATENCY_WINDOW;
+            count = Math.min(count + 1, LATENCY_WINDOW);
+
+            // Sort only sometimes
+            if(count >= MIN_LATENCY_SAMPLES && cursor % 16 == 0) {
+                long[] sorted = Arrays.copyOf(latencies, count);
+                Arrays.sort(sorted);
+                p95Nanos = sorted[(int) Math.ceil(count * 0.95) - 1];
+            }
+        }
+    }
+
+    /**
+     * Replica of AI server
+     */
+    public static class Endpoint {
+
+        @Getter
+        private final String url;
+
+        @Getter
+        private final WebClient webClient;
+
+        private int outstanding = 0;
+
+        /**
+         * EWMA of latency (nanoseconds). 0 until the first sample
+         */
+        private double ewmaNanos = 0;
+
+        private int consecutiveFailures = 0;
+
+        /**
+         * Ejected until this time (epoch milliseconds)
+         */
+        private long ejectedUntil = 0;
+
+        private Endpoint(String url, WebClient webClient) {
+            this.url = url;
+            this.webClient = webClient;
+        }
+
+        public int getOutstanding() {
+            return outstanding;
+        }
+
+        public boolean isEjected() {
+            return ejectedUntil > System.currentTimeMillis();
+        }
+
+        @Override
+        public String toString() {
+            return url;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.diarymoodanalyzer.client;
+
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Class of error thrown during analyze task. Used to select retry policy.
+ */
+public enum AnalyzeErrorClass {
+    /**
+     * Request to AI server timed out
+     */
+    TIMEOUT,
+
+    /**
+     * 5xx, 429 or connection error. AI server is overloaded or unreachable
+     */
+    SERVER_ERROR,
+
+    /**
+     * 4xx except 429. Request itself is invalid, so retry will fail again
+     */
+    CLIENT_ERROR,
+
+    /**
+     * Other errors. (e.g., failed to save result to DB)
+     */
+    OTHER;
+
+    /**
+     * Classify the error
+     * @param e error of the task
+     * @return class of the error
+     */
+    public static AnalyzeErrorClass of(Throwable e) {
+        if(e instanceof TimeoutException) {
+            return TIMEOUT;
+        }
+        if(e instanceof WebClientRequestException) {
+            return SERVER_ERROR;
+        }
+        if(e instanceof WebClientResponseException res) {
+            if(res.getStatusCode().is5xxServerError() || res.getStatusCode().value() == 429) {
+                return SERVER_ERROR;
+            }
+            if(res.getStatusCode().is4xxClientError()) {
+                return CLIENT_ERROR;
+            }
+        }
+        return OTHER;
+    }
+}
@@ -0,0 +1,115 @@
+package org.diarymoodanalyzer.client;
+
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.diarymoodanalyzer.dto.ai.response.DiaryAnalyzeResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+/**
+ * Version of model currently served by AI server.
+ * <br/>
+ * Learned from responses. <code>model_version</code> field of response first, then header <code>X-Model-Version</code>.
+ * If AI server sends neither, version of the result is left null,
+ * and <code>diary-emotion.model-version</code> is used only as {@link #current()} for keys of result cache.
+ * <br/>
+ * Current version is switched after <code>diary-emotion.model-version-settle-count</code> consecutive responses
+ * of the new version. So it does not flip while replicas serve different versions,
+ * and re-analysis and keys of result cache are not changed on every response.
+ */
+@Component
+public class AnalyzeModelVersion {
+
+    private static final Logger logger = LoggerFactory.getLogger(AnalyzeModelVersion.class);
+
+    public static final String HEADER = "X-Model-Version";
+
+    /**
+     * Max length of <code>model_version</code> column
+     */
+    public static final int MAX_LENGTH = 50;
+
+    private final String defaultVersion;
+
+    private final int settleCount;
+
+    private volatile String current;
+
+    /**
+     * Version different from current, seen in the latest responses. Guarded by this
+     */
+    private String candidate;
+
+    private int candidateCount = 0;
+
+    public AnalyzeModelVersion(DiaryAnalyzeProperties diaryAnalyzeProperties) {
+        this.defaultVersion = diaryAnalyzeProperties.getModelVersion();
+        this.settleCount = Math.max(1, diaryAnalyzeProperties.getModelVersionSettleCount());
+    }
+
+    /**
+     * Set version of the result from response, and observe it for current version.
+     * <br/>
+     * Version is left null if AI server sent nothing. Configured version is never saved as version of a result,
+     * so it does not trigger re-analysis of diaries by a version AI server never reported.
+     * @param headers headers of response
+     * @param res result of analyze
+     */
+    public void resolve(HttpHeaders headers, DiaryAnalyzeResponse res) {
+        if(res.getModel_version() == null || res.getModel_version().isBlank()) {
+            String header = headers == null ? null : headers.getFirst(HEADER);
+            if(header == null || header.isBlank()) {
+                res.setModel_version(null);
+                return;
+            }
+            res.setModel_version(header);
+        }
+        if(res.getModel_version().length() > MAX_LENGTH) {
+            res.setModel_version(res.getModel_version().substring(0, MAX_LENGTH));
+        }
+
+        observe(res.getModel_version());
+    }
+
+    /**
+     * Current version of model.
+     * @return version of the latest response. <code>diary-emotion.model-version</code> if not known yet
+     */
+    public String current() {
+        String value = current;
+        return value != null ? value : defaultVersion;
+    }
+
+    /**
+     * Whether current version is learned from AI server. False while AI server sends no version
+     */
+    public boolean isKnown() {
+        return current != null;
+    }
+
+    /**
+     * Switch current version after <code>settle-count</code> consecutive responses of the same new version
+     */
+    private synchronized void observe(String version) {
+        String previous = current;
+        if(version.equals(previous)) {
+            candidate = null;
+            candidateCount = 0;
+            return;
+        }
+
+        if(!version.equals(candidate)) {
+            candidate = version;
+            candidateCount = 0;
+        }
+        if(++candidateCount < settleCount) {
+            return;
+        }
+
+        current = version;
+        candidate = null;
+        candidateCount = 0;
+        logger.info("Model version of AI server : {} -> {}", previous, version);
+    }
+}
@@ -1,38 +1,87 @@
 package org.diarymoodanalyzer.client;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.diarymoodanalyzer.dto.ai.request.DiaryAnalyzeBatchRequest;
 import org.diarymoodanalyzer.dto.ai.request.DiaryAnalyzeRequest;
+import org.diarymoodanalyzer.dto.ai.response.DiaryAnalyzeBatchResponse;
 import org.diarymoodanalyzer.dto.ai.response.DiaryAnalyzeResponse;
-import org.springframework.http.HttpHeaders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 @Component
 public class DiaryAnalyzeClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiaryAnalyzeClient.class);
+
     /**
-     * Client for AI server. Using WebFlux
+     * Replicas of AI server. Each has own {@link WebClient}
      */
-    private final WebClient webClient;
+    private final AnalyzeEndpointPool pool;
 
     /**
-     * Inject {@link WebClient WebClient} and {@link DiaryAnalyzeProperties DiaryEmotionProperties} from Spring container <br/>
-     * Initialize {@link WebClient WebClient} by set base url and headers.
-     * @param webClientBuilder Builder of {@link WebClient WebClient}. Will be injected by Spring container
-     * @param diaryAnalyzeProperties Properties contain URL of AI server. Will be injected by Spring container
+     * Whether AI server supports <code>/analyze/batch</code>. <br/>
+     * It will be set to false when the server respond 404, 405 or 501 to batch request.
      */
-    public DiaryAnalyzeClient(WebClient.Builder webClientBuilder, DiaryAnalyzeProperties diaryAnalyzeProperties) {
+    private final AtomicBoolean batchSupported = new AtomicBoolean(true);
 
-        // Use property for set base url of AI server
-        this.webClient = webClientBuilder
-                .baseUrl(diaryAnalyzeProperties.getUrl())
-                // Default header
-                .defaultHeaders(httpHeaders -> {
-                    httpHeaders.add(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
-                })
-                .build();
+    /**
+     * Receives RTT and errors of each request to adjust the limit
+     */
+    private final AnalyzeConcurrencyLimiter limiter;
+
+    /**
+     * Receives result of each request to detect outage of AI server
+     */
+    private final AnalyzeCircuitBreaker circuitBreaker;
+
+    private final Duration timeout;
+
+    private final Counter hedgedCounter;
+
+    private final Counter hedgeSkippedCounter;
+
+    /**
+     * Set model version of each result
+     */
+    private final AnalyzeModelVersion modelVersion;
+
+    /**
+     * Inject {@link AnalyzeEndpointPool} and {@link DiaryAnalyzeProperties DiaryEmotionProperties} from Spring container
+     * @param diaryAnalyzeProperties Properties contain timeout of request. Will be injected by Spring container
+     * @param pool Pool of AI server replicas. Will be injected by Spring container
+     * @param limiter Adaptive limiter of in-flight requests. Will be injected by Spring container
+     * @param circuitBreaker Circuit breaker for AI server. Will be injected by Spring container
+     * @param modelVersion Version of model learned from responses. Will be injected by Spring container
+     */
+    public DiaryAnalyzeClient(DiaryAnalyzeProperties diaryAnalyzeProperties, AnalyzeEndpointPool pool,
+                              AnalyzeConcurrencyLimiter limiter, AnalyzeCircuitBreaker circuitBreaker,
+                              AnalyzeModelVersion modelVersion, MeterRegistry meterRegistry) {
+
+        this.pool = pool;
+        this.modelVersion = modelVersion;
+        this.limiter = limiter;
+        this.circuitBreaker = circuitBreaker;
+        this.timeout = Duration.ofMillis(diaryAnalyzeProperties.getTimeoutMillis());
+        this.hedgedCounter = Counter.builder("diary.analyze.pool.hedged")
+                .description("Count of hedged requests sent to second replica")
+                .register(meterRegistry);
+        this.hedgeSkippedCounter = Counter.builder("diary.analyze.pool.hedge.skipped")
+                .description("Count of hedged requests not sent because limiter has no permit left")
+                .register(meterRegistry);
     }
 
     /**
@@ -42,19 +91,216 @@ public class DiaryAnalyzeClient {
      * @throws RuntimeException Error in send
      */
     public DiaryAnalyzeResponse sendRequest(DiaryAnalyzeRequest req) throws RuntimeException {
-        // Send request and get response.
-        ResponseEntity<DiaryAnalyzeResponse> res = webClient.post()
+        // Get result synchronous
+        return analyze(req).block();
+    }
+
+    /**
+     * Send request to AI server without blocking.
+     * @param req DTO contain content of diary
+     * @return {@link Mono} emits result of analyze, or error if failed to send
+     */
+    public Mono<DiaryAnalyzeResponse> analyze(DiaryAnalyzeRequest req) {
+        return instrument(send(AnalyzeEndpointPool.CallKind.SINGLE, webClient -> webClient.post()
                 .uri("/analyze")
                 .bodyValue(req) // will be mapping automatically
                 .retrieve()
-                .toEntity(DiaryAnalyzeResponse.class) // Decode to ResponseEntity with DiaryAnalyzeResponse
-                .block(); // Get result synchronous (Because it will be called at @Async method)
-
-        // Will be replaced to custom exception class
-        if(res == null || (res.getStatusCode() != HttpStatus.OK)) {
-            throw new RuntimeException("Failed to analyze Diary content : " + req.getDiaryContent());
-        } else {
-            return res.getBody();
+                .toEntity(DiaryAnalyzeResponse.class)) // Decode to ResponseEntity with DiaryAnalyzeResponse
+                .map(res -> {
+                    // Will be replaced to custom exception class
+                    if(res.getStatusCode() != HttpStatus.OK || res.getBody() == null) {
+                        throw new RuntimeException("Failed to analyze Diary content : " + req.getDiaryContent());
+                    }
+                    modelVersion.resolve(res.getHeaders(), res.getBody());
+                    return res.getBody();
+                }));
+    }
+
+    /**
+     * Send batch request to AI server and receive analyze results in same order with <code>reqs</code>.
+     * <br/>
+     * Check {@link #isBatchSupported()} before calling this.
+     * Caller should fall back to {@link #sendRequest(DiaryAnalyzeRequest)} for each item
+     * when {@link UnsupportedOperationException} is thrown.
+     * @param reqs DTO list contain content of diaries
+     * @return results of analyze. Same size and order with <code>reqs</code>
+     * @throws UnsupportedOperationException AI server does not support batch request
+     * @throws RuntimeException Error in send
+     */
+    public List<DiaryAnalyzeResponse> sendBatchRequest(List<DiaryAnalyzeRequest> reqs) throws RuntimeException {
+        return analyzeBatch(reqs).block();
+    }
+
+    /**
+     * Send batch request to AI server without blocking.
+     * <br/>
+     * Emits {@link UnsupportedOperationException} when AI server does not support batch request.
+     * Caller should fall back to {@link #analyze(DiaryAnalyzeRequest)} for each item.
+     * @param reqs DTO list contain content of diaries
+     * @return {@link Mono} emits results of analyze in same order with <code>reqs</code>
+     */
+    public Mono<List<DiaryAnalyzeResponse>> analyzeBatch(List<DiaryAnalyzeRequest> reqs) {
+        if(!batchSupported.get()) {
+            return Mono.error(new UnsupportedOperationException("AI server does not support batch request"));
         }
+
+        return instrument(send(AnalyzeEndpointPool.CallKind.BATCH, webClient -> webClient.post()
+                .uri("/analyze/batch")
+                .bodyValue(new DiaryAnalyzeBatchRequest(reqs))
+                .retrieve()
+                .toEntity(DiaryAnalyzeBatchResponse.class))
+                .onErrorMap(WebClientResponseException.class, e -> {
+                    if(isBatchNotSupported(e)) {
+                        // Remember it and do not try batch request again
+                        batchSupported.set(false);
+                        logger.warn("AI server does not support batch request. Fall back to single request : {}", e.getStatusCode());
+                        return new UnsupportedOperationException("AI server does not support batch request", e);
+                    }
+                    return e;
+                })
+                .map(res -> {
+                    if(res.getStatusCode() != HttpStatus.OK
+                            || res.getBody() == null || res.getBody().getResults() == null) {
+                        throw new RuntimeException("Failed to analyze Diary batch. size : " + reqs.size());
+                    }
+
+                    List<DiaryAnalyzeResponse> results = res.getBody().getResults();
+
+                    // Response should be matched with request one by one
+                    if(results.size() != reqs.size()) {
+                        throw new RuntimeException("Size of batch response does not match. expected : "
+                                + reqs.size() + " actual : " + results.size());
+                    }
+
+                    results.forEach(result -> modelVersion.resolve(res.getHeaders(), result));
+                    return results;
+                }));
+    }
+
+    /**
+     * Send request to a replica selected by {@link AnalyzeEndpointPool}.
+     * <br/>
+     * If hedging is enabled and no response after p95 latency of the same kind,
+     * send duplicate request to another replica and take the first successful response.
+     * The hedge takes its own permit of {@link AnalyzeConcurrencyLimiter}, and is skipped if no permit is left,
+     * so requests in flight never exceed the limit.
+     * If the primary fails fast (e.g., 5xx or connection reset), the hedge still runs.
+     * If both fail, the error of the primary is emitted, so limiter and breaker see the original error.
+     * @param kind kind of the request. Hedge delay is decided by latencies of the same kind
+     * @param call request with {@link WebClient} of the replica
+     * @return response of the first replica responded successfully
+     */
+    private <T> Mono<T> send(AnalyzeEndpointPool.CallKind kind, Function<WebClient, Mono<T>> call) {
+        return Mono.defer(() -> {
+            AnalyzeEndpointPool.Endpoint primary = pool.select(null);
+            if(primary == null) {
+                return Mono.error(new IllegalStateException("URL of AI server is not set"));
+            }
+
+            Duration hedgeDelay = pool.hedgeDelay(kind);
+
+            if(hedgeDelay == null) {
+                return sendTo(primary, kind, call);
+            }
+
+            AtomicReference<Throwable> primaryError = new AtomicReference<>();
+
+            Mono<T> hedged = Mono.delay(hedgeDelay)
+                    .then(Mono.defer(() -> {
+                        AnalyzeEndpointPool.Endpoint secondary = pool.select(primary);
+                        if(secondary == null || secondary.isEjected()) {
+                            // No hedge. Result is decided by the primary
+                            return Mono.<T>empty();
+                        }
+                        // Caller holds the permit of the primary only
+                        if(limiter.tryAcquireUpTo(1) == 0) {
+                            hedgeSkippedCounter.increment();
+                            return Mono.<T>empty();
+                        }
+                        hedgedCounter.increment();
+                        return sendTo(secondary, kind, call)
+                                .doFinally(signal -> limiter.release());
+                    }));
+
+            // Loser is cancelled. Error of a source is ignored while the other is running
+            return Mono.firstWithValue(sendTo(primary, kind, call).doOnError(primaryError::set), hedged)
+                    .onErrorMap(NoSuchElementException.class,
+                            e -> primaryError.get() != null ? primaryError.get() : e);
+        });
+    }
+
+    /**
+     * Send request to the replica with timeout, and report result to {@link AnalyzeEndpointPool}
+     * @param endpoint replica
+     * @param kind kind of the request
+     * @param call request with {@link WebClient} of the replica
+     * @return response of the replica
+     */
+    private <T> Mono<T> sendTo(AnalyzeEndpointPool.Endpoint endpoint, AnalyzeEndpointPool.CallKind kind,
+                               Function<WebClient, Mono<T>> call) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            pool.onStart(endpoint);
+
+            return call.apply(endpoint.getWebClient())
+                    .timeout(timeout)
+                    .doOnSuccess(value -> pool.onSuccess(endpoint, kind, System.nanoTime() - start))
+                    .doOnError(e -> pool.onError(endpoint, e))
+                    .doFinally(signal -> pool.onFinish(endpoint));
+        });
+    }
+
+    /**
+     * Report RTT or error of the request to {@link AnalyzeConcurrencyLimiter}
+     * and {@link AnalyzeCircuitBreaker}
+     * @param call request to AI server
+     * @return instrumented request
+     */
+    private <T> Mono<T> instrument(Mono<T> call) {
+        return instrument(call, limiter, circuitBreaker);
+    }
+
+    /**
+     * Report RTT or error of the request to limiter and circuit breaker.
+     * Shared by clients of the same AI server. (e.g., {@link DiaryEmotionClient})
+     * @param call request to AI server
+     * @param limiter limiter of the AI server
+     * @param circuitBreaker circuit breaker of the AI server
+     * @return instrumented request
+     */
+    static <T> Mono<T> instrument(Mono<T> call, AnalyzeConcurrencyLimiter limiter, AnalyzeCircuitBreaker circuitBreaker) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+
+            return call
+                    .doOnSuccess(value -> {
+                        limiter.onSuccess(System.nanoTime() - start);
+                        circuitBreaker.onSuccess();
+                    })
+                    .doOnError(e -> {
+                        limiter.onError(e);
+                        circuitBreaker.onError(e);
+                    });
+        });
+    }
+
+    /**
+     * Whether AI server supports batch request. (As far as known)
+     * @return false if the server responded that batch endpoint is not supported, otherwise true
+     */
+    public boolean isBatchSupported() {
+        return batchSupported.get();
+    }
+
+    /**
+     * Check the error means batch endpoint does not exist on AI server
+     * @param e Exception thrown by WebClient
+     * @return true if status code is 404, 405 or 501
+     */
+    private boolean isBatchNotSupported(WebClientResponseException e) {
+        int status = e.getStatusCode().value();
+        return status == HttpStatus.NOT_FOUND.value()
+                || status == HttpStatus.METHOD_NOT_ALLOWED.value()
+                || status == HttpStatus.NOT_IMPLEMENTED.value();
     }
 }
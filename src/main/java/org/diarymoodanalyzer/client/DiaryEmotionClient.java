@@ -6,9 +6,11 @@ import org.diarymoodanalyzer.dto.ai.response.DiaryEmotionResponse;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
 
 /**
  * Diary 감정 분석 AI 서버와의 통신을 담당하는 클래스
@@ -20,11 +22,21 @@ public class DiaryEmotionClient {
 
     private final DiaryAnalyzeProperties diaryAnalyzeProperties;
 
+    /**
+     * Same AI server as {@link DiaryAnalyzeClient}, so RTT and errors are reported to the same limiter
+     */
+    private final AnalyzeConcurrencyLimiter limiter;
+
+    private final AnalyzeCircuitBreaker circuitBreaker;
+
     //자동으로 등록된 WebClient.Builder 를 주입받아서 구성한다.
-    public DiaryEmotionClient(WebClient.Builder webClientBuilder, DiaryAnalyzeProperties diaryAnalyzeProperties) {
+    public DiaryEmotionClient(WebClient.Builder webClientBuilder, DiaryAnalyzeProperties diaryAnalyzeProperties,
+                              AnalyzeConcurrencyLimiter limiter, AnalyzeCircuitBreaker circuitBreaker) {
 
         //프로퍼티 클래스 초기화
         this.diaryAnalyzeProperties = diaryAnalyzeProperties;
+        this.limiter = limiter;
+        this.circuitBreaker = circuitBreaker;
 
         //프로퍼티에 설정된 url 사용
         this.webClient = webClientBuilder
@@ -44,19 +56,30 @@ public class DiaryEmotionClient {
      * @throws RuntimeException 요청 중에러가 발생했을 경우. (예외 클래스 따로 만들 예정)
      */
     public DiaryEmotionResponse sendRequest(DiaryEmotionRequest req) throws RuntimeException {
-        //응답을 받아온다.
-        ResponseEntity<DiaryEmotionResponse> res = webClient.post()
+        //동기적으로 불러온다.
+        return analyze(req).block();
+    }
+
+    /**
+     * Send request to AI server without blocking.
+     * Used by {@link org.diarymoodanalyzer.service.EmotionAnalyzer EmotionAnalyzer}.
+     * RTT and errors are reported to {@link AnalyzeConcurrencyLimiter} and {@link AnalyzeCircuitBreaker}
+     * @param req 요청할 Diary 데이터
+     * @return {@link Mono} emits result of analyze, or error if status is not 200 OK
+     */
+    public Mono<DiaryEmotionResponse> analyze(DiaryEmotionRequest req) {
+        return DiaryAnalyzeClient.instrument(webClient.post()
                 .uri("/analyze")
                 .bodyValue(req) //자동으로 매핑될 것
                 .retrieve()
                 .toEntity(DiaryEmotionResponse.class)
-                .block(); //동기적으로 불러온다.
-
-        if(res == null || (res.getStatusCode() != HttpStatus.OK)) {
-            //예외 클래스 만들 예정
-            throw new RuntimeException("Failed to analyze Diary content : " + req.getDiary());
-        } else {
-            return res.getBody();
-        }
+                .timeout(Duration.ofMillis(diaryAnalyzeProperties.getTimeoutMillis()))
+                .map(res -> {
+                    if(res.getStatusCode() != HttpStatus.OK || res.getBody() == null) {
+                        //예외 클래스 만들 예정
+                        throw new RuntimeException("Failed to analyze Diary content : " + req.getDiary());
+                    }
+                    return res.getBody();
+                }), limiter, circuitBreaker);
     }
 }
@@ -0,0 +1,36 @@
+package org.diarymoodanalyzer.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Configuration of operators, who can access <code>/api/admin/**</code>.
+ * <br/>
+ * Used by {@link org.diarymoodanalyzer.service.AdminProvisioningService AdminProvisioningService}.
+ */
+@Component
+@ConfigurationProperties(prefix = "admin")
+@Getter
+@Setter
+public class AdminProperties {
+    /**
+     * Emails of users granted <code>ROLE_ADMIN</code>. (e.g., <code>admin.emails=ops@example.com</code>)
+     * <br/>
+     * Existing users are granted on startup, and new users on signup.
+     */
+    private List<String> emails = new ArrayList<>();
+
+    /**
+     * Check the email is configured as admin. Case-insensitive
+     * @param email email of user
+     * @return true if <code>emails</code> contains the email
+     */
+    public boolean isAdmin(String email) {
+        return email != null && emails.stream().anyMatch(email::equalsIgnoreCase);
+    }
+}
@@ -1,10 +1,17 @@
 package org.diarymoodanalyzer.config;
 
 import lombok.Getter;
+import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.diarymoodanalyzer.client.AnalyzeErrorClass;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Configuration file for {@link org.diarymoodanalyzer.service.DiaryAnalyzeService DiaryAnalyzeService}.
  */
@@ -13,5 +20,705 @@ import org.springframework.stereotype.Component;
 @Getter
 @Setter
 public class DiaryAnalyzeProperties {
+    /**
+     * URL of AI server. Used if <code>urls</code> is empty
+     */
     private String url;
+
+    /**
+     * URLs of AI server replicas. Requests are balanced by {@link Pool}
+     */
+    private List<String> urls = new ArrayList<>();
+
+    /**
+     * Timeout of request to AI server (milliseconds)
+     */
+    private long timeoutMillis = 30000;
+
+    /**
+     * Version of model served by AI server, used for keys of result cache until AI server sends it.
+     * Never saved as version of a result. (See {@link org.diarymoodanalyzer.client.AnalyzeModelVersion AnalyzeModelVersion})
+     */
+    private String modelVersion = "default";
+
+    /**
+     * Count of consecutive responses of a new model version to switch the current version.
+     * Keeps the current version stable while replicas serve different versions. (e.g., rolling deploy)
+     */
+    private int modelVersionSettleCount = 50;
+
+    /**
+     * Analyzers enabled by name. (See {@link org.diarymoodanalyzer.service.Analyzer Analyzer})
+     * Analyzer not in this map is enabled. <code>vad</code> should not be disabled, because it completes tasks.
+     */
+    private Map<String, Boolean> analyzers = new HashMap<>(Map.of("emotion", false));
+
+    /**
+     * Settings of batch dispatch. <code>diary-emotion.batch.*</code>
+     */
+    private Batch batch = new Batch();
+
+    /**
+     * Settings of persistent task store. <code>diary-emotion.task.*</code>
+     */
+    private Task task = new Task();
+
+    /**
+     * Settings of adaptive concurrency limiter. <code>diary-emotion.limiter.*</code>
+     */
+    private Limiter limiter = new Limiter();
+
+    /**
+     * Settings of circuit breaker. <code>diary-emotion.circuit-breaker.*</code>
+     */
+    private CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+    /**
+     * Settings of analyze result cache. <code>diary-emotion.cache.*</code>
+     */
+    private Cache cache = new Cache();
+
+    /**
+     * Settings of retry of failed tasks. <code>diary-emotion.retry.*</code>
+     */
+    private Retry retry = new Retry();
+
+    /**
+     * Settings of task queue. <code>diary-emotion.queue.*</code>
+     */
+    private Queue queue = new Queue();
+
+    /**
+     * Settings of chunking of long diary. <code>diary-emotion.chunk.*</code>
+     */
+    private Chunk chunk = new Chunk();
+
+    /**
+     * Settings of pool of AI server replicas. <code>diary-emotion.pool.*</code>
+     */
+    private Pool pool = new Pool();
+
+    /**
+     * Settings of write-behind of analyze results. <code>diary-emotion.writer.*</code>
+     */
+    private Writer writer = new Writer();
+
+    /**
+     * Settings of fair scheduling between users. <code>diary-emotion.fair.*</code>
+     */
+    private Fair fair = new Fair();
+
+    /**
+     * Settings of spilling overflow of task queue to disk. <code>diary-emotion.spill.*</code>
+     */
+    private Spill spill = new Spill();
+
+    /**
+     * Settings of provisional score by local lexicon. <code>diary-emotion.provisional.*</code>
+     */
+    private Provisional provisional = new Provisional();
+
+    /**
+     * Settings of re-analysis of results by older model. <code>diary-emotion.reanalyze.*</code>
+     */
+    private Reanalyze reanalyze = new Reanalyze();
+
+    /**
+     * Settings of backfill of diaries without result. <code>diary-emotion.backfill.*</code>
+     */
+    private Backfill backfill = new Backfill();
+
+    /**
+     * Settings of daily mood rollup. <code>diary-emotion.rollup.*</code>
+     */
+    private Rollup rollup = new Rollup();
+
+    /**
+     * Check analyzer is enabled by <code>analyzers</code>
+     * @param name name of analyzer
+     * @return false only if disabled explicitly
+     */
+    public boolean isAnalyzerEnabled(String name) {
+        return analyzers == null || analyzers.getOrDefault(name, true);
+    }
+
+    /**
+     * Get URLs of AI server replicas
+     * @return <code>urls</code>, or <code>url</code> if <code>urls</code> is empty
+     */
+    public List<String> getEndpointUrls() {
+        if(urls != null && !urls.isEmpty()) {
+            return urls;
+        }
+        return url == null ? List.of() : List.of(url);
+    }
+
+    /**
+     * Settings of batch dispatch to AI server.
+     */
+    @Getter
+    @Setter
+    public static class Batch {
+        /**
+         * If false, dispatch one task per request like before
+         */
+        private boolean enabled = true;
+
+        /**
+         * Max count of tasks in one batch request
+         */
+        private int size = 16;
+
+        /**
+         * Max time to wait for filling a batch (milliseconds).
+         * Also used as the polling interval of the dispatcher.
+         */
+        private long lingerMillis = 200;
+
+        /**
+         * Max count of batches in flight at the same time. Upper bound of adaptive limiter. <br/>
+         * Requests are non-blocking, so this does not hold threads of executor.
+         */
+        private int maxInFlight = 32;
+    }
+
+    /**
+     * Settings of persistent task store.
+     */
+    @Getter
+    @Setter
+    public static class Task {
+        /**
+         * Length of lease of in-flight task (seconds).
+         * In-flight task not finished within lease will be re-queued.
+         */
+        private long leaseSeconds = 300;
+
+        /**
+         * Interval to check in-flight tasks whose lease has expired (milliseconds)
+         */
+        private long reclaimIntervalMillis = 60000;
+
+        /**
+         * Max count of tasks loaded at once when re-queue tasks
+         */
+        private int recoveryPageSize = 500;
+    }
+
+    /**
+     * Settings of adaptive concurrency limiter.
+     * Upper bound of the limit is <code>batch.max-in-flight</code>.
+     */
+    @Getter
+    @Setter
+    public static class Limiter {
+        /**
+         * Limit at start, and after AI server recovered
+         */
+        private int initialLimit = 4;
+
+        private int minLimit = 1;
+
+        /**
+         * Ratio multiplied to the limit when backing off
+         */
+        private double backoffRatio = 0.9;
+
+        /**
+         * Back off when RTT is greater than this times of long-term average RTT
+         */
+        private double rttTolerance = 2.0;
+    }
+
+    /**
+     * Settings of circuit breaker for AI server.
+     */
+    @Getter
+    @Setter
+    public static class CircuitBreaker {
+        /**
+         * Count of consecutive failures to open the breaker
+         */
+        private int failureThreshold = 5;
+
+        /**
+         * Time to keep the breaker open before sending probe (milliseconds)
+         */
+        private long openMillis = 30000;
+    }
+
+    /**
+     * Settings of analyze result cache keyed by content hash.
+     */
+    @Getter
+    @Setter
+    public static class Cache {
+        private boolean enabled = true;
+
+        /**
+         * Max count of entries in in-process tier
+         */
+        private int maxSize = 10000;
+
+        /**
+         * If false, use in-process tier only
+         */
+        private boolean redisEnabled = true;
+
+        /**
+         * Time to live of entries in Redis tier (minutes)
+         */
+        private long redisTtlMinutes = 1440;
+    }
+
+    /**
+     * Settings of task queue.
+     */
+    @Getter
+    @Setter
+    public static class Queue {
+        /**
+         * memory : in-process queue for single node (default) <br/>
+         * redis : Redis Streams consumer group shared by all nodes
+         */
+        private String mode = "memory";
+
+        /**
+         * Key of Redis stream. (redis mode only)
+         */
+        private String streamKey = "analyze:tasks";
+
+        /**
+         * Name of consumer group. (redis mode only)
+         */
+        private String group = "analyze-workers";
+
+        /**
+         * Name of consumer of this node. If empty, <code>hostname-pid</code> is used. (redis mode only)
+         */
+        private String consumerName;
+
+        /**
+         * Max count of entries this node holds without acknowledgement. (redis mode only) <br/>
+         * Limits tasks taken by a node, so other nodes can take the rest.
+         */
+        private int maxPending = 64;
+
+        /**
+         * Entries not acknowledged for this time are claimed from other consumer (milliseconds). (redis mode only)
+         */
+        private long claimIdleMillis = 300000;
+
+        /**
+         * Interval to claim idle entries of crashed consumers (milliseconds). (redis mode only)
+         */
+        private long claimIntervalMillis = 30000;
+
+        /**
+         * Max time of recovery on startup (milliseconds). (redis mode only) <br/>
+         * Only one node recovers unfinished tasks at a time. Lock is released after this time even if the node crashed.
+         */
+        private long recoveryLockMillis = 60000;
+    }
+
+    /**
+     * Settings of chunking of long diary.
+     * <br/>
+     * Content over <code>max-tokens</code> is split on paragraph or sentence boundaries,
+     * and each chunk is analyzed concurrently. Results are aggregated into one result.
+     */
+    @Getter
+    @Setter
+    public static class Chunk {
+        /**
+         * If false, whole content is sent in one request like before
+         */
+        private boolean enabled = false;
+
+        /**
+         * Max count of tokens in a chunk
+         */
+        private int maxTokens = 512;
+
+        /**
+         * Average count of characters per token. Used to estimate count of tokens
+         */
+        private double charsPerToken = 2.0;
+
+        /**
+         * How to combine <code>depression_score</code> of chunks
+         */
+        private ScoreStrategy scoreStrategy = ScoreStrategy.WEIGHTED_MEAN;
+
+        /**
+         * How to combine <code>classification</code> of chunks
+         */
+        private ClassificationStrategy classificationStrategy = ClassificationStrategy.MAJORITY;
+
+        public enum ScoreStrategy {
+            /**
+             * Mean weighted by length of chunk
+             */
+            WEIGHTED_MEAN,
+            /**
+             * Max score of chunks
+             */
+            MAX
+        }
+
+        public enum ClassificationStrategy {
+            /**
+             * Classification with the largest total length of chunks
+             */
+            MAJORITY,
+            /**
+             * Classification of the chunk with the highest score
+             */
+            MAX_SEVERITY
+        }
+    }
+
+    /**
+     * Settings of pool of AI server replicas.
+     */
+    @Getter
+    @Setter
+    public static class Pool {
+        /**
+         * How to select replica for a request
+         */
+        private Balancing balancing = Balancing.LEAST_OUTSTANDING;
+
+        /**
+         * Count of consecutive failures (timeout, connection error, 5xx, 429) to eject the replica
+         */
+        private int ejectFailureThreshold = 3;
+
+        /**
+         * Time to exclude ejected replica from selection (milliseconds)
+         */
+        private long ejectMillis = 30000;
+
+        /**
+         * If true, send duplicate request to another replica when no response after p95 latency
+         */
+        private boolean hedgeEnabled = false;
+
+        /**
+         * Min delay before sending hedged request (milliseconds)
+         */
+        private long hedgeMinDelayMillis = 50;
+
+        public enum Balancing {
+            /**
+             * Replica with the least in-flight requests
+             */
+            LEAST_OUTSTANDING,
+            /**
+             * Replica with the least EWMA latency, weighted by in-flight requests
+             */
+            EWMA
+        }
+    }
+
+    /**
+     * Settings of write-behind of analyze results.
+     * Results are buffered and saved by one JDBC batch update when either limit is reached.
+     */
+    @Getter
+    @Setter
+    public static class Writer {
+        /**
+         * Max count of buffered results. Flushed when reached
+         */
+        private int batchSize = 100;
+
+        /**
+         * Max time to keep results in buffer (milliseconds)
+         */
+        private long flushIntervalMillis = 500;
+    }
+
+    /**
+     * Settings of fair scheduling of queued tasks between users. (memory mode only)
+     * <br/>
+     * Each user has its own sub-queue, dequeued by deficit round-robin.
+     * Users whose last result is high-severity get larger quantum.
+     */
+    @Getter
+    @Setter
+    public static class Fair {
+        /**
+         * If false, tasks are dequeued in FIFO order like before
+         */
+        private boolean enabled = true;
+
+        /**
+         * Count of tasks a user can dequeue per round
+         */
+        private double quantum = 1.0;
+
+        /**
+         * Quantum of boosted user is multiplied by this. 1 : no boost
+         */
+        private double boostWeight = 2.0;
+
+        /**
+         * User is boosted if depression score of the last result is greater than or equal to this
+         */
+        private int boostScoreThreshold = 15;
+
+        /**
+         * User is boosted if classification of the last result is one of these. (case-insensitive)
+         */
+        private List<String> boostClassifications = new ArrayList<>();
+
+        /**
+         * Max count of users whose last severity is kept. The oldest one is evicted
+         */
+        private int maxTrackedUsers = 10000;
+    }
+
+    /**
+     * Settings of spilling overflow of task queue to disk. (memory mode only)
+     * <br/>
+     * Tasks over <code>max-in-memory</code> are written to memory-mapped segment files without content,
+     * and loaded again in order with content from DB when the queue has room.
+     */
+    @Getter
+    @Setter
+    public static class Spill {
+        /**
+         * If false, in-memory queue is unbounded like before
+         */
+        private boolean enabled = true;
+
+        /**
+         * Max count of tasks kept in memory
+         */
+        private int maxInMemory = 10000;
+
+        /**
+         * Directory of segment files. Should not be shared by instances. Cleared on startup
+         */
+        private String dir = System.getProperty("java.io.tmpdir") + "/diary-analyze-spill";
+
+        /**
+         * Size of a segment file (bytes)
+         */
+        private int segmentBytes = 4 * 1024 * 1024;
+    }
+
+    /**
+     * Settings of provisional score.
+     * <br/>
+     * When diary is written, provisional score is set by local lexicon in the same transaction,
+     * and overwritten by the result of AI server later.
+     */
+    @Getter
+    @Setter
+    public static class Provisional {
+        /**
+         * If false, score is empty until AI server answers like before
+         */
+        private boolean enabled = true;
+
+        /**
+         * Location of lexicon file. (TSV of term, valence, arousal, dominance, depression)
+         */
+        private String lexicon = "classpath:lexicon/mood-lexicon.tsv";
+    }
+
+    /**
+     * Settings of re-analysis.
+     * <br/>
+     * When the model of AI server is changed, diaries analyzed by older model are re-analyzed in background,
+     * a page at a time in id order, only while the queue is not busy with live traffic.
+     * Diaries read by users are re-analyzed first.
+     */
+    @Getter
+    @Setter
+    public static class Reanalyze {
+        /**
+         * If false, results of older model are kept
+         */
+        private boolean enabled = true;
+
+        /**
+         * Interval between pages of background re-analysis (milliseconds)
+         */
+        private long intervalMillis = 10000;
+
+        /**
+         * Count of diaries submitted per page
+         */
+        private int pageSize = 50;
+
+        /**
+         * Page is skipped while the queue has more tasks than this
+         */
+        private int maxQueueDepth = 100;
+
+        /**
+         * If true, reading a diary of older model re-analyzes it on demand
+         */
+        private boolean onRead = true;
+
+        /**
+         * Max count of diaries remembered as requested on read
+         */
+        private int maxRequested = 10000;
+
+        /**
+         * If true, results saved before model version was recorded (null version) are also re-analyzed
+         */
+        private boolean includeUnversioned = false;
+    }
+
+    /**
+     * Settings of backfill job.
+     * <br/>
+     * Started by admin. Diaries without result of AI server are submitted page by page in id order,
+     * at most <code>page-size</code> per <code>interval-millis</code>, only while the queue is not busy.
+     * Progress is saved per page, and the job resumes after restart.
+     */
+    @Getter
+    @Setter
+    public static class Backfill {
+        /**
+         * If false, running job does not proceed
+         */
+        private boolean enabled = true;
+
+        /**
+         * Interval between pages (milliseconds)
+         */
+        private long intervalMillis = 1000;
+
+        /**
+         * Count of diaries submitted per page
+         */
+        private int pageSize = 100;
+
+        /**
+         * Page is skipped while the queue has more tasks than this
+         */
+        private int maxQueueDepth = 500;
+    }
+
+    /**
+     * Settings of daily mood rollup. (See {@link org.diarymoodanalyzer.service.DailyMoodRollupService DailyMoodRollupService})
+     */
+    @Getter
+    @Setter
+    public static class Rollup {
+        /**
+         * Count of users aggregated per transaction by rebuild
+         */
+        private int rebuildPageSize = 500;
+
+        /**
+         * Interval of retrying buckets failed to refresh (milliseconds)
+         */
+        private long retryIntervalMillis = 30000;
+
+        /**
+         * Max count of users whose time series are cached
+         */
+        private int seriesCacheSize = 10000;
+
+        /**
+         * Cached time series expires after this, to catch up rollups changed by other nodes (milliseconds)
+         */
+        private long seriesTtlMillis = 60000;
+
+        /**
+         * local : cached time series are invalidated on this node only (default) <br/>
+         * redis : invalidation is also sent to other nodes by Redis pub/sub
+         */
+        private String invalidation = "local";
+
+        /**
+         * Channel of Redis pub/sub for invalidation. (redis only)
+         */
+        private String invalidationChannel = "stats:invalidate";
+
+        /**
+         * Max count of invalidations waiting to be published. Overflow is dropped, and covered by TTL (redis only)
+         */
+        private int invalidationQueueCapacity = 1000;
+
+        /**
+         * Max count of days of moving average
+         */
+        private int maxMovingWindow = 365;
+
+        /**
+         * Trend of expert cohort is UP or DOWN if the 7-day average differs from the previous 23 days by more than this
+         */
+        private double trendThreshold = 5.0;
+
+        /**
+         * Max count of points of VAD trajectory. Longer trajectory is downsampled
+         */
+        private int maxTrajectoryPoints = 2000;
+    }
+
+    /**
+     * Retry policies of failed tasks per class of error. (See {@link AnalyzeErrorClass})
+     */
+    @Getter
+    @Setter
+    public static class Retry {
+        private RetryPolicy timeout = new RetryPolicy(5, 2000);
+
+        private RetryPolicy serverError = new RetryPolicy(5, 1000);
+
+        /**
+         * 4xx means the request itself is invalid. Not retried by default
+         */
+        private RetryPolicy clientError = new RetryPolicy(1, 1000);
+
+        private RetryPolicy other = new RetryPolicy(3, 500);
+
+        public RetryPolicy policyOf(AnalyzeErrorClass errorClass) {
+            return switch (errorClass) {
+                case TIMEOUT -> timeout;
+                case SERVER_ERROR -> serverError;
+                case CLIENT_ERROR -> clientError;
+                case OTHER -> other;
+            };
+        }
+    }
+
+    /**
+     * Exponential backoff with jitter. <br/>
+     * Delay of n-th retry is <code>min(initial-delay-millis * multiplier^(n-1), max-delay-millis)</code>,
+     * randomized by <code>jitter-ratio</code>.
+     */
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    public static class RetryPolicy {
+        /**
+         * Max count of attempts including the first one. Task is moved to dead letter after this
+         */
+        private int maxAttempts = 3;
+
+        private long initialDelayMillis = 1000;
+
+        private long maxDelayMillis = 300000;
+
+        private double multiplier = 2.0;
+
+        /**
+         * Ratio of delay to be randomized. 0 : no jitter, 1 : full jitter
+         */
+        private double jitterRatio = 0.5;
+
+        public RetryPolicy(int maxAttempts, long initialDelayMillis) {
+            this.maxAttempts = maxAttempts;
+            this.initialDelayMillis = initialDelayMillis;
+        }
+    }
 }
@@ -0,0 +1,27 @@
+package org.diarymoodanalyzer.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * Config of Redis pub/sub. Registered only if a feature uses it. (<code>diary-emotion.rollup.invalidation=redis</code>)
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "diary-emotion.rollup", name = "invalidation", havingValue = "redis")
+public class RedisPubSubConfig {
+
+    /**
+     * Container of subscriptions. Listeners register themselves
+     * @param connectionFactory connection factory of Redis
+     * @return container started with application context
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
+}
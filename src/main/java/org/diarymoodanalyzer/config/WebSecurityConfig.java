@@ -63,6 +63,7 @@ public class WebSecurityConfig {
                         "/api/email/send/verification-code", // email verification endpoint is allowed by anyone
                         "/api/email/verify" // email verification endpoint is allowed by anyone
                 ).permitAll() //로그인/회원가입 엔드 포인트는 인증 불필요. 누구나 접근 O
+                .requestMatchers("/api/admin/**").hasRole("ADMIN") // operation endpoints are allowed by ADMIN only
                 .anyRequest().authenticated() //다른 모든 요청은 인증이 필요
                 .and()
                 .build();
@@ -39,7 +39,7 @@ public class TokenProvider {
         //토큰의 클레임에 권한을 설정하기 위해 User에서 권한 추출
         String role = user.getAuthorities().stream()
                 .map(GrantedAuthority::getAuthority) //GrantedAuthority 인터페이스에 정의된 메소드로 매핑
-                .collect(Collectors.joining()); //스트림을 하나의 문자열로 결합한다.
+                .collect(Collectors.joining(",")); //스트림을 하나의 문자열로 결합한다. (관리자는 "ROLE_USER,ROLE_ADMIN")
 
         //jsonwebtoken 의 빌더로 토큰 생성 후 리턴
         return Jwts.builder()
@@ -0,0 +1,137 @@
+package org.diarymoodanalyzer.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.diarymoodanalyzer.dto.response.BackfillProgressResponse;
+import org.diarymoodanalyzer.dto.response.DeadLetterResponse;
+import org.diarymoodanalyzer.dto.response.QueueDepthResponse;
+import org.diarymoodanalyzer.service.AnalyzeTaskQueue;
+import org.diarymoodanalyzer.service.DailyMoodRollupService;
+import org.diarymoodanalyzer.service.DiaryAnalyzeService;
+import org.diarymoodanalyzer.service.DiaryAnalyzeTaskStore;
+import org.diarymoodanalyzer.service.DiaryBackfillService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Endpoints for operation of analyze pipeline. <br/>
+ * Only ADMIN can access <code>/api/admin/**</code> (See {@link org.diarymoodanalyzer.config.WebSecurityConfig})
+ */
+@RequiredArgsConstructor
+@RestController
+public class AdminApiController {
+
+    private final DiaryAnalyzeService diaryAnalyzeService;
+
+    private final DiaryAnalyzeTaskStore diaryAnalyzeTaskStore;
+
+    private final AnalyzeTaskQueue analyzeTaskQueue;
+
+    private final DiaryBackfillService diaryBackfillService;
+
+    private final DailyMoodRollupService dailyMoodRollupService;
+
+    /**
+     * Max page size of dead letters
+     */
+    private static final int MAX_PAGE_SIZE = 500;
+
+    /**
+     * Get analyze tasks moved to dead letter, in id order (keyset pagination)
+     * @param afterId last task id of previous page. 0 for first page
+     * @param size page size
+     * @return failed tasks with last error
+     */
+    @GetMapping("/api/admin/analysis/dead-letters")
+    public ResponseEntity<List<DeadLetterResponse>> getDeadLetters(
+            @RequestParam(defaultValue = "0") Long afterId,
+            @RequestParam(defaultValue = "50") int size
+    ) {
+        int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+
+        return ResponseEntity.ok(diaryAnalyzeTaskStore.findFailed(afterId, pageSize).stream()
+                .map(DeadLetterResponse::new).toList());
+    }
+
+    /**
+     * Re-queue dead letter with retry count reset
+     * @param taskId id of failed task
+     * @return 202 Accepted. 404 if there is no failed task or the diary has deleted
+     */
+    @PostMapping("/api/admin/analysis/dead-letters/{taskId}/replay")
+    public ResponseEntity<Void> replayDeadLetter(@PathVariable Long taskId) {
+        diaryAnalyzeService.replayDeadLetter(taskId);
+
+        return ResponseEntity.accepted().build();
+    }
+
+    /**
+     * Get count of tasks waiting in queue of this node per user, the deepest first
+     * @param size max count of users
+     * @return users and count of their tasks. Empty if the queue does not support it (redis mode)
+     */
+    @GetMapping("/api/admin/analysis/queue/users")
+    public ResponseEntity<List<QueueDepthResponse>> getQueueDepthByUser(
+            @RequestParam(defaultValue = "50") int size
+    ) {
+        int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+
+        return ResponseEntity.ok(analyzeTaskQueue.depthByUser().entrySet().stream()
+                .sorted(Map.Entry.<Long, Integer>comparingByValue().reversed())
+                .limit(pageSize)
+                .map(entry -> new QueueDepthResponse(entry.getKey(), entry.getValue()))
+                .toList());
+    }
+
+    /**
+     * Get progress of backfill of diaries failed or never analyzed
+     * @return progress. 404 if backfill has never started
+     */
+    @GetMapping("/api/admin/analysis/backfill")
+    public ResponseEntity<BackfillProgressResponse> getBackfillProgress() {
+        return ResponseEntity.ok(new BackfillProgressResponse(diaryBackfillService.getProgress()));
+    }
+
+    /**
+     * Start backfill from the first diary
+     * @return 202 Accepted with progress. 409 if backfill is running or paused
+     */
+    @PostMapping("/api/admin/analysis/backfill")
+    public ResponseEntity<BackfillProgressResponse> startBackfill() {
+        return ResponseEntity.accepted().body(new BackfillProgressResponse(diaryBackfillService.start()));
+    }
+
+    /**
+     * Pause running backfill
+     * @return progress. 409 if backfill is not running
+     */
+    @PostMapping("/api/admin/analysis/backfill/pause")
+    public ResponseEntity<BackfillProgressResponse> pauseBackfill() {
+        return ResponseEntity.ok(new BackfillProgressResponse(diaryBackfillService.pause()));
+    }
+
+    /**
+     * Resume paused backfill from the checkpoint
+     * @return progress. 409 if backfill is not paused
+     */
+    @PostMapping("/api/admin/analysis/backfill/resume")
+    public ResponseEntity<BackfillProgressResponse> resumeBackfill() {
+        return ResponseEntity.ok(new BackfillProgressResponse(diaryBackfillService.resume()));
+    }
+
+    /**
+     * Rebuild daily mood rollup from all diaries in background
+     * @return 202 Accepted. 409 if rebuild is running
+     */
+    @PostMapping("/api/admin/stats/rollup/rebuild")
+    public ResponseEntity<Void> rebuildRollup() {
+        if(!dailyMoodRollupService.startRebuild()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+
+        return ResponseEntity.accepted().build();
+    }
+}
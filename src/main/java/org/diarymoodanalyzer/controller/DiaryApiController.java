@@ -6,6 +6,7 @@ import org.diarymoodanalyzer.dto.response.*;
 import org.diarymoodanalyzer.service.CommentService;
 import org.diarymoodanalyzer.service.DiaryAnalyzeStatService;
 import org.diarymoodanalyzer.service.DiaryService;
+import org.diarymoodanalyzer.service.MoodTimeSeries;
 import org.diarymoodanalyzer.service.DiaryStatisticsService;
 import org.springframework.data.domain.Page;
 import org.springframework.http.HttpStatus;
@@ -143,4 +144,60 @@ public class DiaryApiController {
         return ResponseEntity.ok(diaryAnalyzeStatService.getDailyAvgDepressionScore(req));
     }
 
+    /**
+     * Get current user's weekly average depression score. Week starts on Monday
+     * @param req Request DTO contain date range
+     * @return ResponseEntity contain average depression score per week
+     */
+    @GetMapping("/api/diaries/statistics/average/depressionScore/weekly")
+    public ResponseEntity<MoodSeriesResponse> getWeeklyAverageDepressionScore(
+            @ModelAttribute DailyAvgDepressionScoreRequest req
+    ) {
+        return ResponseEntity.ok(diaryAnalyzeStatService.getDepressionScoreSeries(req,
+                MoodTimeSeries.Granularity.WEEK, 0));
+    }
+
+    /**
+     * Get current user's monthly average depression score
+     * @param req Request DTO contain date range
+     * @return ResponseEntity contain average depression score per month
+     */
+    @GetMapping("/api/diaries/statistics/average/depressionScore/monthly")
+    public ResponseEntity<MoodSeriesResponse> getMonthlyAverageDepressionScore(
+            @ModelAttribute DailyAvgDepressionScoreRequest req
+    ) {
+        return ResponseEntity.ok(diaryAnalyzeStatService.getDepressionScoreSeries(req,
+                MoodTimeSeries.Granularity.MONTH, 0));
+    }
+
+    /**
+     * Get current user's moving average depression score of <code>window</code> days
+     * @param req Request DTO contain date range
+     * @param window count of days
+     * @return ResponseEntity contain moving average depression score per day
+     */
+    @GetMapping("/api/diaries/statistics/average/depressionScore/moving")
+    public ResponseEntity<MoodSeriesResponse> getMovingAverageDepressionScore(
+            @ModelAttribute DailyAvgDepressionScoreRequest req,
+            @RequestParam(defaultValue = "7") int window
+    ) {
+        return ResponseEntity.ok(diaryAnalyzeStatService.getDepressionScoreSeries(req,
+                MoodTimeSeries.Granularity.MOVING, window));
+    }
+
+    /**
+     * Get current user's VAD score per diary over time. <br/>
+     * If there are more than <code>points</code> diaries in the range, representative points are selected.
+     * @param req Request DTO contain date range
+     * @param points max count of points
+     * @return ResponseEntity contain VAD score per diary in time order
+     */
+    @GetMapping("/api/diaries/statistics/vad")
+    public ResponseEntity<VadTrajectoryResponse> getVadTrajectory(
+            @ModelAttribute DailyAvgDepressionScoreRequest req,
+            @RequestParam(defaultValue = "500") int points
+    ) {
+        return ResponseEntity.ok(diaryAnalyzeStatService.getVadTrajectory(req, points));
+    }
+
 }
@@ -11,6 +11,8 @@ import org.diarymoodanalyzer.service.CommentService;
 import org.diarymoodanalyzer.service.DiaryAnalyzeStatService;
 import org.diarymoodanalyzer.service.DiaryService;
 import org.diarymoodanalyzer.service.DiaryStatisticsService;
+import org.diarymoodanalyzer.service.ExpertCohortService;
+import org.diarymoodanalyzer.service.MoodTimeSeries;
 import org.diarymoodanalyzer.util.AuthenticationUtils;
 import org.springframework.data.domain.Page;
 import org.springframework.http.HttpStatus;
@@ -38,6 +40,8 @@ public class ExpertApiController {
 
     private final DiaryAnalyzeStatService diaryAnalyzeStatService;
 
+    private final ExpertCohortService expertCohortService;
+
     /**
      * 현재 인증된 전문가가 관리하는 사용자 목록 반환
      * @return 관리하는 사용자 목록
@@ -125,6 +129,87 @@ public class ExpertApiController {
         return ResponseEntity.ok(diaryAnalyzeStatService.getDailyAvgDepressionScore(req, targetEmail));
     }
 
+    /**
+     * Get target user's weekly average depression score. Week starts on Monday <br/>
+     * User specified by <code>targetEmail</code> should have current authenticated user as own {@link Expert}.
+     * @param req Request DTO contain date range
+     * @param targetEmail email to specify target User
+     * @return ResponseEntity contain average depression score per week
+     */
+    @GetMapping("/api/expert/diaries/statistics/average/depressionScore/weekly")
+    public ResponseEntity<MoodSeriesResponse> getWeeklyAverageDepressionScoreForExpert(
+            @ModelAttribute DailyAvgDepressionScoreRequest req,
+            @RequestParam String targetEmail
+    ) {
+        return ResponseEntity.ok(diaryAnalyzeStatService.getDepressionScoreSeries(req, targetEmail,
+                MoodTimeSeries.Granularity.WEEK, 0));
+    }
+
+    /**
+     * Get target user's monthly average depression score. <br/>
+     * User specified by <code>targetEmail</code> should have current authenticated user as own {@link Expert}.
+     * @param req Request DTO contain date range
+     * @param targetEmail email to specify target User
+     * @return ResponseEntity contain average depression score per month
+     */
+    @GetMapping("/api/expert/diaries/statistics/average/depressionScore/monthly")
+    public ResponseEntity<MoodSeriesResponse> getMonthlyAverageDepressionScoreForExpert(
+            @ModelAttribute DailyAvgDepressionScoreRequest req,
+            @RequestParam String targetEmail
+    ) {
+        return ResponseEntity.ok(diaryAnalyzeStatService.getDepressionScoreSeries(req, targetEmail,
+                MoodTimeSeries.Granularity.MONTH, 0));
+    }
+
+    /**
+     * Get target user's moving average depression score of <code>window</code> days. <br/>
+     * User specified by <code>targetEmail</code> should have current authenticated user as own {@link Expert}.
+     * @param req Request DTO contain date range
+     * @param targetEmail email to specify target User
+     * @param window count of days
+     * @return ResponseEntity contain moving average depression score per day
+     */
+    @GetMapping("/api/expert/diaries/statistics/average/depressionScore/moving")
+    public ResponseEntity<MoodSeriesResponse> getMovingAverageDepressionScoreForExpert(
+            @ModelAttribute DailyAvgDepressionScoreRequest req,
+            @RequestParam String targetEmail,
+            @RequestParam(defaultValue = "7") int window
+    ) {
+        return ResponseEntity.ok(diaryAnalyzeStatService.getDepressionScoreSeries(req, targetEmail,
+                MoodTimeSeries.Granularity.MOVING, window));
+    }
+
+    /**
+     * Get target user's VAD score per diary over time. <br/>
+     * If there are more than <code>points</code> diaries in the range, representative points are selected.
+     * User specified by <code>targetEmail</code> should have current authenticated user as own {@link Expert}.
+     * @param req Request DTO contain date range
+     * @param targetEmail email to specify target User
+     * @param points max count of points
+     * @return ResponseEntity contain VAD score per diary in time order
+     */
+    @GetMapping("/api/expert/diaries/statistics/vad")
+    public ResponseEntity<VadTrajectoryResponse> getVadTrajectoryForExpert(
+            @ModelAttribute DailyAvgDepressionScoreRequest req,
+            @RequestParam String targetEmail,
+            @RequestParam(defaultValue = "500") int points
+    ) {
+        return ResponseEntity.ok(diaryAnalyzeStatService.getVadTrajectory(req, targetEmail, points));
+    }
+
+    /**
+     * Get mood statistics of all users managed by current expert in one call. <br/>
+     * Latest score, 7 and 30 days averages, trend and time of the last diary per user.
+     * @param req Request DTO contain page and sort. Highest risk (7 days average) first by default
+     * @return ResponseEntity contain page of statistics per user
+     */
+    @GetMapping("/api/expert/cohort")
+    public ResponseEntity<Page<CohortMemberResponse>> getCohort(
+            @ModelAttribute GetExpertCohortRequest req
+    ) {
+        return ResponseEntity.ok(expertCohortService.getCohort(req));
+    }
+
     //테스트용 임시 엔드 포인트
     @PostMapping("/api/expert/managedUsers/{userEmail}")
     public ResponseEntity<String> addManagedUser(@PathVariable String userEmail) {
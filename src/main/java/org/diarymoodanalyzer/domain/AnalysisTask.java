@@ -0,0 +1,59 @@
+package org.diarymoodanalyzer.domain;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Persistent record of analyze task for {@link Diary}.
+ * <br/>
+ * Keep state of tasks in <code>DiaryAnalyzeService</code>, so unfinished tasks can be re-queued after restart.
+ */
+@NoArgsConstructor
+@Getter
+@Setter
+@Table(name = "analysis_tasks", indexes = {
+        @Index(name = "idx_analysis_tasks_status", columnList = "status, id"),
+        @Index(name = "idx_analysis_tasks_diary_id", columnList = "diary_id, status")
+})
+@Entity
+public class AnalysisTask extends BaseEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /**
+     * <code>id</code> of {@link Diary} to analyze.
+     * Not mapped as relation to keep the task after the diary is deleted.
+     */
+    @Column(name = "diary_id", nullable = false)
+    private Long diaryId;
+
+    @Column(name = "status", nullable = false, length = 20)
+    @Enumerated(EnumType.STRING)
+    private AnalysisTaskStatus status = AnalysisTaskStatus.PENDING;
+
+    @Column(name = "retry_count", nullable = false)
+    private int retryCount = 0;
+
+    /**
+     * While status is <code>IN_FLIGHT</code>, task is owned by worker until this time.
+     * Expired task will be re-queued.
+     */
+    @Column(name = "lease_expires_at")
+    private LocalDateTime leaseExpiresAt;
+
+    /**
+     * Message of last exception
+     */
+    @Column(name = "last_error", length = 500)
+    private String lastError;
+
+    public AnalysisTask(Long diaryId) {
+        this.diaryId = diaryId;
+    }
+}
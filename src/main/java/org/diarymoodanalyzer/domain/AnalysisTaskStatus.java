@@ -0,0 +1,23 @@
+package org.diarymoodanalyzer.domain;
+
+/**
+ * State of {@link AnalysisTask}
+ */
+public enum AnalysisTaskStatus {
+    /**
+     * Waiting in queue
+     */
+    PENDING,
+    /**
+     * Sent to AI server. Hold lease until <code>leaseExpiresAt</code>
+     */
+    IN_FLIGHT,
+    /**
+     * Result has saved
+     */
+    DONE,
+    /**
+     * Exceeded max retry count
+     */
+    FAILED
+}
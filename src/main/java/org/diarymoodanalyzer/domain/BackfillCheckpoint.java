@@ -0,0 +1,102 @@
+package org.diarymoodanalyzer.domain;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Progress of backfill job of analyze results.
+ * <br/>
+ * Saved in the same transaction as the tasks of each page, so the job resumes after restart
+ * from the last diary submitted, without submitting a diary twice.
+ * Concurrent update by another node fails by {@link Version}.
+ */
+@NoArgsConstructor
+@Getter
+@Setter
+@Table(name = "backfill_checkpoints")
+@Entity
+public class BackfillCheckpoint extends BaseEntity {
+
+    /**
+     * Name of the job
+     */
+    @Id
+    @Column(name = "name", length = 50)
+    private String name;
+
+    @Column(name = "status", nullable = false, length = 20)
+    @Enumerated(EnumType.STRING)
+    private BackfillStatus status = BackfillStatus.RUNNING;
+
+    /**
+     * Last diary id submitted. Next page starts after it
+     */
+    @Column(name = "last_diary_id", nullable = false)
+    private long lastDiaryId = 0;
+
+    /**
+     * Max diary id when the job started. Diaries written after that are analyzed on write
+     */
+    @Column(name = "max_diary_id", nullable = false)
+    private long maxDiaryId = 0;
+
+    /**
+     * Count of diaries to backfill when the job started. Estimate of total
+     */
+    @Column(name = "total_count", nullable = false)
+    private long totalCount = 0;
+
+    /**
+     * Count of diaries submitted to analyze pipeline
+     */
+    @Column(name = "submitted_count", nullable = false)
+    private long submittedCount = 0;
+
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+
+    @Column(name = "completed_at")
+    private LocalDateTime completedAt;
+
+    @Version
+    @Column(name = "version")
+    private long version;
+
+    public BackfillCheckpoint(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Reset progress to start the job again
+     * @param maxDiaryId max diary id to backfill
+     * @param totalCount count of diaries to backfill
+     */
+    public void restart(long maxDiaryId, long totalCount) {
+        this.status = BackfillStatus.RUNNING;
+        this.lastDiaryId = 0;
+        this.maxDiaryId = maxDiaryId;
+        this.totalCount = totalCount;
+        this.submittedCount = 0;
+        this.startedAt = LocalDateTime.now();
+        this.completedAt = null;
+    }
+
+    /**
+     * Record a page submitted
+     * @param lastDiaryId last diary id of the page
+     * @param count count of diaries submitted
+     */
+    public void advance(long lastDiaryId, int count) {
+        this.lastDiaryId = lastDiaryId;
+        this.submittedCount += count;
+    }
+
+    public void complete() {
+        this.status = BackfillStatus.COMPLETED;
+        this.completedAt = LocalDateTime.now();
+    }
+}
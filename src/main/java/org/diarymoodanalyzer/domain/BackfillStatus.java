@@ -0,0 +1,19 @@
+package org.diarymoodanalyzer.domain;
+
+/**
+ * State of {@link BackfillCheckpoint}
+ */
+public enum BackfillStatus {
+    /**
+     * Submitting diaries page by page
+     */
+    RUNNING,
+    /**
+     * Paused by admin. Resumed from <code>lastDiaryId</code>
+     */
+    PAUSED,
+    /**
+     * All diaries up to <code>maxDiaryId</code> are submitted
+     */
+    COMPLETED
+}
@@ -0,0 +1,84 @@
+package org.diarymoodanalyzer.domain;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+/**
+ * Daily aggregate of analyze results of a user.
+ * <br/>
+ * Maintained by {@link org.diarymoodanalyzer.service.DailyMoodRollupService DailyMoodRollupService}
+ * whenever a result of the day is saved, changed or deleted, so statistics do not scan all diaries of the user.
+ * Only final results of AI server are aggregated. Failed, provisional and not analyzed diaries are excluded.
+ * <br/>
+ * Read only for JPA. Rows are written by SQL.
+ */
+@NoArgsConstructor
+@Getter
+@IdClass(DailyMoodRollup.Key.class)
+@Table(name = "daily_mood_rollup")
+@Entity
+public class DailyMoodRollup {
+
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+
+    /**
+     * Date of <code>createdAt</code> of diaries
+     */
+    @Id
+    @Column(name = "rollup_date")
+    private LocalDate day;
+
+    @Column(name = "diary_count", nullable = false)
+    private int count;
+
+    @Column(name = "sum_score", nullable = false)
+    private long sumScore;
+
+    @Column(name = "min_score", nullable = false)
+    private int minScore;
+
+    @Column(name = "max_score", nullable = false)
+    private int maxScore;
+
+    /**
+     * Count of diaries with VAD score. Denominator of averages of VAD
+     */
+    @Column(name = "vad_count", nullable = false)
+    private int vadCount;
+
+    @Column(name = "sum_v", nullable = false)
+    private double sumV;
+
+    @Column(name = "sum_a", nullable = false)
+    private double sumA;
+
+    @Column(name = "sum_d", nullable = false)
+    private double sumD;
+
+    /**
+     * Average depression score of the day
+     */
+    public double getAvgScore() {
+        return count == 0 ? 0 : (double) sumScore / count;
+    }
+
+    /**
+     * Composite key of {@link DailyMoodRollup}
+     */
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    @Getter
+    public static class Key implements Serializable {
+        private Long userId;
+        private LocalDate day;
+    }
+}
@@ -5,18 +5,27 @@ import lombok.Builder;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.DynamicUpdate;
 import org.diarymoodanalyzer.dto.ai.request.VadScore;
 import org.diarymoodanalyzer.dto.ai.response.DiaryAnalyzeResponse;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Diary 엔티티.
+ * <br/>
+ * Only changed columns are updated by {@link DynamicUpdate}, so editing title or content
+ * does not overwrite analyze result written concurrently.
  */
+@DynamicUpdate
 @NoArgsConstructor
 @Getter
-@Table(name = "diaries")
+@Table(name = "diaries", indexes = {
+        @Index(name = "idx_diaries_user_created_at", columnList = "user_id, created_at")
+})
 @Entity
 public class Diary extends BaseEntity { //공통 컬럼 상속
 
@@ -42,6 +51,15 @@ public class Diary extends BaseEntity { //공통 컬럼 상속
     @Column(name = "content", nullable = false, columnDefinition = "TEXT")
     private String content;
 
+    /**
+     * Version of <code>content</code>. Increased whenever the content is changed.
+     * <br/>
+     * Result of analyze for older version is discarded by {@link org.diarymoodanalyzer.service.DiaryAnalyzeService DiaryAnalyzeService}
+     */
+    @ColumnDefault("0")
+    @Column(name = "content_version", nullable = false)
+    private long contentVersion = 0;
+
     /**
      * 우울한 정도를 나타내는 수치
      * -2에서 10의 값을 가진다.
@@ -68,6 +86,22 @@ public class Diary extends BaseEntity { //공통 컬럼 상속
     @Column(name = "classification")
     private String classification;
 
+    /**
+     * True if the result of analyze is provisional score by local lexicon.
+     * Will be overwritten by the result of AI server.
+     */
+    @ColumnDefault("false")
+    @Column(name = "analyze_provisional", nullable = false)
+    private boolean analyzeProvisional = false;
+
+    /**
+     * Version of the model produced the result of analyze. Null if not analyzed by AI server, or AI server sent no version.
+     * <br/>
+     * Result of older model is re-analyzed by {@link org.diarymoodanalyzer.service.DiaryReanalyzeService DiaryReanalyzeService}
+     */
+    @Column(name = "model_version", length = 50)
+    private String modelVersion;
+
     /**
      * Diary에 달린 코멘트들.
      * Comment와 1대다 관계
@@ -89,6 +123,31 @@ public class Diary extends BaseEntity { //공통 컬럼 상속
         this.user = user; this.title = title; this.content = content;
     }
 
+    /**
+     * Update content and increase <code>contentVersion</code> if the content is changed.
+     * <br/>
+     * Result of analyze is cleared, because it is no longer for this content.
+     * So it is never kept as final result when provisional score of new content is not available.
+     * @param content new content
+     * @return true if the content is changed
+     */
+    public boolean updateContent(String content) {
+        if(Objects.equals(this.content, content)) {
+            return false;
+        }
+
+        this.content = content;
+        this.contentVersion++;
+
+        // Same as diary not analyzed yet
+        this.vadScore = null;
+        this.depressionScore = 0;
+        this.classification = null;
+        this.modelVersion = null;
+        this.analyzeProvisional = false;
+        return true;
+    }
+
     //setter를 통해 depressionLevel의 값이 DepressionLevel의 enum값을 가지도록 유지한다. 
 
     /**
@@ -123,6 +182,20 @@ public class Diary extends BaseEntity { //공통 컬럼 상속
         this.vadScore = dto.getVad_score();
         this.depressionScore = dto.getDepression_score();
         this.classification = dto.getClassification();
+        this.modelVersion = dto.getModel_version();
+        this.analyzeProvisional = false;
+    }
+
+    /**
+     * Set provisional result of analyze, until the result of AI server is saved.
+     * <br/>
+     * Used by {@link org.diarymoodanalyzer.service.DiaryService DiaryService} with {@link org.diarymoodanalyzer.service.LexiconMoodScorer LexiconMoodScorer}.
+     * @param dto provisional result
+     */
+    public void setProvisionalResult(DiaryAnalyzeResponse dto) {
+        setAnalyzeResult(dto);
+        this.modelVersion = null;
+        this.analyzeProvisional = true;
     }
 
     /**
@@ -134,6 +207,8 @@ public class Diary extends BaseEntity { //공통 컬럼 상속
         this.vadScore = null;
         this.depressionScore = -1;
         this.classification = null;
+        this.modelVersion = null;
+        this.analyzeProvisional = false;
     }
 
     /**
@@ -0,0 +1,23 @@
+package org.diarymoodanalyzer.domain;
+
+/**
+ * Direction of depression score of the last 7 days, compared with the 23 days before
+ */
+public enum MoodTrend {
+    /**
+     * Score is rising. (Getting worse)
+     */
+    UP,
+    /**
+     * Score is falling. (Getting better)
+     */
+    DOWN,
+    /**
+     * Difference is within threshold
+     */
+    FLAT,
+    /**
+     * No result in either period
+     */
+    UNKNOWN
+}
@@ -59,6 +59,14 @@ public class User extends BaseEntity implements UserDetails { //공통 컬럼 
     @Enumerated(EnumType.STRING)
     private UserAuthority authority = UserAuthority.USER;
 
+    /**
+     * 운영 권한(ROLE_ADMIN) 여부.
+     * authority와 별개로 부여되어, 관리자도 원래 권한(ROLE_USER)을 유지한다.
+     * (See {@link org.diarymoodanalyzer.service.AdminProvisioningService AdminProvisioningService})
+     */
+    @Column(name = "admin", nullable = false)
+    private boolean admin = false;
+
     /**
      * 받은 알림 목록 ( = targetUser가 해당 사용자인 알림 목록)
      */
@@ -91,7 +99,10 @@ public class User extends BaseEntity implements UserDetails { //공통 컬럼 
      */
     @Override
     public Collection<? extends GrantedAuthority> getAuthorities() {
-        //필드(컬럼)에 정의된 권한 정보 반환
+        //필드(컬럼)에 정의된 권한 정보 반환. 관리자이면 ROLE_ADMIN을 함께 반환
+        if(this.admin) {
+            return List.of(this.authority.getAuthority(), UserAuthority.ADMIN.getAuthority());
+        }
         return List.of(this.authority.getAuthority());
     }
 
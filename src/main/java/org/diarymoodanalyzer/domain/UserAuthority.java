@@ -13,7 +13,8 @@ import java.util.Arrays;
 @Getter
 public enum UserAuthority {
     USER(new SimpleGrantedAuthority("ROLE_USER")),
-    EXPERT(new SimpleGrantedAuthority("ROLE_EXPERT"))
+    EXPERT(new SimpleGrantedAuthority("ROLE_EXPERT")),
+    ADMIN(new SimpleGrantedAuthority("ROLE_ADMIN"))
     ;
 
     private final GrantedAuthority authority;
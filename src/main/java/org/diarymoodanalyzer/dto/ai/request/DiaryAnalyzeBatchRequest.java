@@ -0,0 +1,28 @@
+package org.diarymoodanalyzer.dto.ai.request;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * DTO for AI server batch request. (<code>POST /analyze/batch</code>)
+ * <br/>
+ * <code>
+ *     {
+ *     "requests": [
+ *         { "diaryContent": "..." },
+ *         ...
+ *     ]
+ * }
+ * </code>
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class DiaryAnalyzeBatchRequest {
+    private List<DiaryAnalyzeRequest> requests;
+}
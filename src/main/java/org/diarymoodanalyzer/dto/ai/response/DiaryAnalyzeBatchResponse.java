@@ -0,0 +1,22 @@
+package org.diarymoodanalyzer.dto.ai.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * DTO for AI server batch response.
+ * <br/>
+ * <code>results</code> has same order with <code>requests</code> of
+ * {@link org.diarymoodanalyzer.dto.ai.request.DiaryAnalyzeBatchRequest DiaryAnalyzeBatchRequest}.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class DiaryAnalyzeBatchResponse {
+    private List<DiaryAnalyzeResponse> results;
+}
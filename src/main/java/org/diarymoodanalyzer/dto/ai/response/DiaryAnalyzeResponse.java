@@ -19,7 +19,8 @@ import org.diarymoodanalyzer.dto.ai.request.VadScore;
  *         "d": "([1, 9], float)"
  *     },
  *     "depression_score": "[0, 100], int",
- *     "classification": "string"
+ *     "classification": "string",
+ *     "model_version": "string, optional"
  * }
  * </code>
  */
@@ -45,4 +46,14 @@ public class DiaryAnalyzeResponse {
      */
     private String classification;
 
+    /**
+     * Version of model produced this result.
+     * If AI server does not send it, set by {@link org.diarymoodanalyzer.client.DiaryAnalyzeClient DiaryAnalyzeClient}
+     * from header <code>X-Model-Version</code>. Null if the header is not sent either
+     */
+    private String model_version;
+
+    public DiaryAnalyzeResponse(VadScore vad_score, int depression_score, String classification) {
+        this(vad_score, depression_score, classification, null);
+    }
 }
@@ -0,0 +1,14 @@
+package org.diarymoodanalyzer.dto.request;
+
+/**
+ * Expert가 관리하는 사용자 전체의 통계를 페이지로 요청할 때 사용하는 DTO
+ * <br/>
+ * <code>sortBy</code> is one of <code>risk</code> (default), <code>latestScore</code>, <code>avg30</code>,
+ * <code>lastDiaryAt</code> and <code>email</code>.
+ */
+public class GetExpertCohortRequest extends BasePagingRequest {
+
+    public GetExpertCohortRequest() {
+        setSortBy("risk");
+    }
+}
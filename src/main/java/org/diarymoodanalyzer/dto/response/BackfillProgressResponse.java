@@ -0,0 +1,43 @@
+package org.diarymoodanalyzer.dto.response;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.diarymoodanalyzer.domain.BackfillCheckpoint;
+import org.diarymoodanalyzer.domain.BackfillStatus;
+
+import java.time.LocalDateTime;
+
+/**
+ * Response DTO of progress of backfill job
+ */
+@NoArgsConstructor
+@Getter
+@Setter
+public class BackfillProgressResponse extends TimeStampedResponse {
+    private BackfillStatus status;
+    private long lastDiaryId;
+    private long maxDiaryId;
+    private long totalCount;
+    private long submittedCount;
+
+    /**
+     * Ratio of id range passed, in [0, 1]
+     */
+    private double progress;
+
+    private LocalDateTime startedAt;
+    private LocalDateTime completedAt;
+
+    // constructor from Entity
+    public BackfillProgressResponse(BackfillCheckpoint checkpoint) {
+        this.status = checkpoint.getStatus();
+        this.lastDiaryId = checkpoint.getLastDiaryId(); this.maxDiaryId = checkpoint.getMaxDiaryId();
+        this.totalCount = checkpoint.getTotalCount(); this.submittedCount = checkpoint.getSubmittedCount();
+        this.progress = checkpoint.getStatus() == BackfillStatus.COMPLETED || checkpoint.getMaxDiaryId() == 0
+                ? 1.0 : Math.min(1.0, (double) checkpoint.getLastDiaryId() / checkpoint.getMaxDiaryId());
+        this.startedAt = checkpoint.getStartedAt(); this.completedAt = checkpoint.getCompletedAt();
+        this.setCreatedAt(checkpoint.getCreatedAt());
+        this.setUpdatedAt(checkpoint.getUpdatedAt());
+    }
+}
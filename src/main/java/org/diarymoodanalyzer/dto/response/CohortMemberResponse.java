@@ -0,0 +1,46 @@
+package org.diarymoodanalyzer.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.diarymoodanalyzer.domain.MoodTrend;
+
+import java.time.LocalDateTime;
+
+/**
+ * Response DTO of mood statistics of a user managed by expert
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+public class CohortMemberResponse {
+    private String email;
+
+    /**
+     * Depression score of the latest diary analyzed. null if none
+     */
+    private Integer latestScore;
+
+    /**
+     * Average depression score of the last 7 days including today. null if no result
+     */
+    private Double avg7;
+
+    /**
+     * Average depression score of the last 30 days including today. null if no result
+     */
+    private Double avg30;
+
+    private long count7;
+
+    private long count30;
+
+    private MoodTrend trend;
+
+    /**
+     * <code>createdAt</code> of the latest diary, analyzed or not. null if none
+     */
+    private LocalDateTime lastDiaryAt;
+}
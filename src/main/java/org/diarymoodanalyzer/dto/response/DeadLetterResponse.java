@@ -0,0 +1,27 @@
+package org.diarymoodanalyzer.dto.response;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.diarymoodanalyzer.domain.AnalysisTask;
+
+/**
+ * Response DTO of analyze task moved to dead letter (<code>FAILED</code>)
+ */
+@NoArgsConstructor
+@Getter
+@Setter
+public class DeadLetterResponse extends TimeStampedResponse {
+    private Long taskId;
+    private Long diaryId;
+    private int retryCount;
+    private String lastError;
+
+    // constructor from Entity
+    public DeadLetterResponse(AnalysisTask task) {
+        this.taskId = task.getId(); this.diaryId = task.getDiaryId();
+        this.retryCount = task.getRetryCount(); this.lastError = task.getLastError();
+        this.setCreatedAt(task.getCreatedAt());
+        this.setUpdatedAt(task.getUpdatedAt());
+    }
+}
@@ -3,15 +3,37 @@ package org.diarymoodanalyzer.dto.response;
 import lombok.Getter;
 import lombok.Setter;
 import org.diarymoodanalyzer.domain.Diary;
+import org.diarymoodanalyzer.dto.ai.request.VadScore;
 
 @Getter
 @Setter
 public class GetDiaryByIdResponse extends BaseGetDiaryResponse {
     private String content;
 
+    private VadScore vadScore;
+
+    private int depressionScore;
+
+    private String classification;
+
+    /**
+     * True if the scores are provisional by local lexicon, and will be replaced by the result of AI server
+     */
+    private boolean provisional;
+
+    /**
+     * Version of the model produced the scores. Null if provisional or not analyzed yet
+     */
+    private String modelVersion;
+
     //엔티티에서 DTO를 만듬
     public GetDiaryByIdResponse(Diary diary) {
         super(diary.getId(), diary.getTitle(), diary.getDepressionLevel(), diary.getCreatedAt(), diary.getUpdatedAt(), diary.getUser().getEmail());
         this.content = diary.getContent();
+        this.vadScore = diary.getVadScore();
+        this.depressionScore = diary.getDepressionScore();
+        this.classification = diary.getClassification();
+        this.provisional = diary.isAnalyzeProvisional();
+        this.modelVersion = diary.getModelVersion();
     }
 }
@@ -0,0 +1,51 @@
+package org.diarymoodanalyzer.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Response DTO of average depression score per period, as parallel arrays in date order
+ * <br/>
+ * Will be serialized to JSON like :
+ * <code>
+ *     {
+ *         "granularity": "WEEK",
+ *         "window": 0,
+ *         "periods": ["2024-01-01", "2024-01-08"],
+ *         "values": [45.3, 67.4],
+ *         "counts": [3, 5]
+ *     }
+ * </code>
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+public class MoodSeriesResponse {
+    /**
+     * DAY, WEEK, MONTH or MOVING
+     */
+    private String granularity;
+
+    /**
+     * Count of days of moving average. 0 for others
+     */
+    private int window;
+
+    /**
+     * Label of each period. Date for DAY and MOVING, Monday for WEEK, <code>yyyy-MM</code> for MONTH
+     */
+    private String[] periods;
+
+    /**
+     * Average depression score of each period
+     */
+    private double[] values;
+
+    /**
+     * Count of diaries of each period
+     */
+    private int[] counts;
+}
@@ -0,0 +1,18 @@
+package org.diarymoodanalyzer.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Response DTO of count of analyze tasks waiting in queue for a user
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+public class QueueDepthResponse {
+    private Long userId;
+    private int depth;
+}
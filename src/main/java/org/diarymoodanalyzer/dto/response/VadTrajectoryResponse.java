@@ -0,0 +1,47 @@
+package org.diarymoodanalyzer.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Response DTO of VAD score over time, as parallel arrays in <code>createdAt</code> order
+ * <br/>
+ * Will be serialized to JSON like :
+ * <code>
+ *     {
+ *         "total": 1520,
+ *         "downsampled": true,
+ *         "createdAt": ["2024-01-01T21:03:11", ...],
+ *         "v": [4.2, ...],
+ *         "a": [5.1, ...],
+ *         "d": [3.9, ...]
+ *     }
+ * </code>
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+public class VadTrajectoryResponse {
+    /**
+     * Count of diaries with VAD score in the range
+     */
+    private int total;
+
+    /**
+     * True if points are selected from <code>total</code> diaries
+     */
+    private boolean downsampled;
+
+    private LocalDateTime[] createdAt;
+
+    private float[] v;
+
+    private float[] a;
+
+    private float[] d;
+}
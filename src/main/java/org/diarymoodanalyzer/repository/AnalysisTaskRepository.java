@@ -0,0 +1,83 @@
+package org.diarymoodanalyzer.repository;
+
+import org.diarymoodanalyzer.domain.AnalysisTask;
+import org.diarymoodanalyzer.domain.AnalysisTaskStatus;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface AnalysisTaskRepository extends JpaRepository<AnalysisTask, Long> {
+
+    /**
+     * Set status of tasks to <code>IN_FLIGHT</code> and hold lease until <code>leaseExpiresAt</code>
+     * @param ids id list of tasks
+     * @param leaseExpiresAt end of lease
+     */
+    @Modifying
+    @Query("""
+            UPDATE AnalysisTask t SET t.status = org.diarymoodanalyzer.domain.AnalysisTaskStatus.IN_FLIGHT,
+                t.leaseExpiresAt = :leaseExpiresAt
+            WHERE t.id IN :ids
+            """)
+    void markInFlight(@Param("ids") List<Long> ids, @Param("leaseExpiresAt") LocalDateTime leaseExpiresAt);
+
+    /**
+     * Set status and retry count of task. Lease will be released.
+     * @param id id of task
+     * @param status status to set
+     * @param retryCount retry count to set
+     * @param lastError message of last exception. nullable
+     */
+    @Modifying
+    @Query("""
+            UPDATE AnalysisTask t SET t.status = :status, t.retryCount = :retryCount,
+                t.lastError = :lastError, t.leaseExpiresAt = NULL
+            WHERE t.id = :id
+            """)
+    void updateStatus(@Param("id") Long id, @Param("status") AnalysisTaskStatus status,
+                      @Param("retryCount") int retryCount, @Param("lastError") String lastError);
+
+    /**
+     * Set status of tasks to <code>DONE</code>. Lease and last error will be cleared.
+     * @param ids id list of tasks
+     */
+    @Modifying
+    @Query("""
+            UPDATE AnalysisTask t SET t.status = org.diarymoodanalyzer.domain.AnalysisTaskStatus.DONE,
+                t.lastError = NULL, t.leaseExpiresAt = NULL
+            WHERE t.id IN :ids
+            """)
+    void markDone(@Param("ids") List<Long> ids);
+
+    /**
+     * Return tasks with <code>status</code> in id order, after <code>afterId</code> (keyset pagination)
+     * @param status status of tasks
+     * @param afterId last id of previous page. Use 0 for first page
+     * @param pageable page size
+     * @return tasks
+     */
+    @Query("SELECT t FROM AnalysisTask t WHERE t.status = :status AND t.id > :afterId ORDER BY t.id ASC")
+    List<AnalysisTask> findByStatusAfter(@Param("status") AnalysisTaskStatus status,
+                                         @Param("afterId") Long afterId, Pageable pageable);
+
+    /**
+     * Return <code>IN_FLIGHT</code> tasks whose lease expired before <code>now</code>
+     * @param now current time
+     * @param pageable page size
+     * @return tasks with expired lease
+     */
+    @Query("""
+            SELECT t FROM AnalysisTask t
+            WHERE t.status = org.diarymoodanalyzer.domain.AnalysisTaskStatus.IN_FLIGHT
+                AND t.leaseExpiresAt < :now
+            ORDER BY t.id ASC
+            """)
+    List<AnalysisTask> findLeaseExpired(@Param("now") LocalDateTime now, Pageable pageable);
+}
@@ -0,0 +1,9 @@
+package org.diarymoodanalyzer.repository;
+
+import org.diarymoodanalyzer.domain.BackfillCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface BackfillCheckpointRepository extends JpaRepository<BackfillCheckpoint, String> {
+}
@@ -0,0 +1,33 @@
+package org.diarymoodanalyzer.repository;
+
+import org.diarymoodanalyzer.domain.DailyMoodRollup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface DailyMoodRollupRepository extends JpaRepository<DailyMoodRollup, DailyMoodRollup.Key> {
+
+    /**
+     * Return daily rollups of user between <code>start</code> and <code>end</code> (inclusive) in date order
+     * @param userId id of user
+     * @param start first date
+     * @param end last date
+     * @return rollups of days with at least one result
+     */
+    @Query("SELECT r FROM DailyMoodRollup r WHERE r.userId = :userId AND r.day BETWEEN :start AND :end ORDER BY r.day")
+    List<DailyMoodRollup> findByUserIdBetween(@Param("userId") Long userId, @Param("start") LocalDate start,
+                                              @Param("end") LocalDate end);
+
+    /**
+     * Return all daily rollups of user in date order
+     * @param userId id of user
+     * @return rollups of days with at least one result
+     */
+    @Query("SELECT r FROM DailyMoodRollup r WHERE r.userId = :userId ORDER BY r.day")
+    List<DailyMoodRollup> findByUserId(@Param("userId") Long userId);
+}
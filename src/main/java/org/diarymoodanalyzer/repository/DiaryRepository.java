@@ -1,17 +1,23 @@
 package org.diarymoodanalyzer.repository;
 
+import jakarta.persistence.QueryHint;
+import jakarta.transaction.Transactional;
 import org.diarymoodanalyzer.domain.Diary;
 import org.diarymoodanalyzer.dto.response.GetDiaryTitleByPageResponse;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface DiaryRepository extends JpaRepository<Diary, Long> {
@@ -44,6 +50,157 @@ public interface DiaryRepository extends JpaRepository<Diary, Long> {
     @Query("SELECT d.user.id FROM Diary d WHERE d.id = :id")
     Long findUserIdById(@Param("id") Long diaryId);
 
+    /**
+     * Return <code>contentVersion</code> of diary
+     * @param id id of diary
+     * @return version of content. null if there is no diary
+     */
+    @Query("SELECT d.contentVersion FROM Diary d WHERE d.id = :id")
+    Long findContentVersionById(@Param("id") Long id);
+
+    /**
+     * Update only analyze columns of diary, if content of diary is not changed since <code>contentVersion</code>.
+     * <br/>
+     * Title or content edited in the meantime is not overwritten. Provisional result is replaced.
+     * @param id id of diary
+     * @param contentVersion version of content analyzed
+     * @param v valence of VAD score. nullable
+     * @param a arousal of VAD score. nullable
+     * @param d dominance of VAD score. nullable
+     * @param depressionScore depression score. -1 if failed
+     * @param classification classification. nullable
+     * @param modelVersion version of the model produced the result. nullable
+     * @return count of updated rows. 0 if content has changed or there is no diary
+     */
+    @Transactional
+    @Modifying
+    @Query("""
+            UPDATE Diary d SET d.vadScore.v = :v, d.vadScore.a = :a, d.vadScore.d = :d,
+                d.depressionScore = :depressionScore, d.classification = :classification,
+                d.modelVersion = :modelVersion, d.analyzeProvisional = false
+            WHERE d.id = :id AND d.contentVersion = :contentVersion
+            """)
+    int updateAnalyzeResult(@Param("id") Long id, @Param("contentVersion") long contentVersion,
+                            @Param("v") Float v, @Param("a") Float a, @Param("d") Float d,
+                            @Param("depressionScore") int depressionScore,
+                            @Param("classification") String classification,
+                            @Param("modelVersion") String modelVersion);
+
+    /**
+     * Set analyze columns of diary to failure, if content of diary is not changed since <code>contentVersion</code>.
+     * <br/>
+     * Provisional result and result of previous model are kept, because they are better than nothing.
+     * @param id id of diary
+     * @param contentVersion version of content analyzed
+     * @return count of updated rows. 0 if content has changed, provisional result or result of AI server exists,
+     * or there is no diary
+     */
+    @Transactional
+    @Modifying
+    @Query("""
+            UPDATE Diary d SET d.vadScore.v = null, d.vadScore.a = null, d.vadScore.d = null,
+                d.depressionScore = -1, d.classification = null, d.modelVersion = null
+            WHERE d.id = :id AND d.contentVersion = :contentVersion AND d.analyzeProvisional = false
+                AND d.modelVersion IS NULL
+            """)
+    int updateAnalyzeFailure(@Param("id") Long id, @Param("contentVersion") long contentVersion);
+
+    /**
+     * Set <code>depressionLevel</code> of diary, if content of diary is not changed since <code>contentVersion</code>.
+     * @param id id of diary
+     * @param contentVersion version of content analyzed
+     * @param depressionLevel value of {@link org.diarymoodanalyzer.domain.DepressionLevel DepressionLevel}
+     * @return count of updated rows. 0 if content has changed or there is no diary
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE Diary d SET d.depressionLevel = :depressionLevel WHERE d.id = :id AND d.contentVersion = :contentVersion")
+    int updateDepressionLevel(@Param("id") Long id, @Param("contentVersion") long contentVersion,
+                              @Param("depressionLevel") Byte depressionLevel);
+
+    /**
+     * Return ids of diaries analyzed by AI server with a model other than <code>modelVersion</code>,
+     * after <code>afterId</code> in id order. (Keyset pagination)
+     * <br/>
+     * Results saved before model version was recorded have null version, and are included only if
+     * <code>includeUnversioned</code> is true. Failed, provisional or not analyzed diaries are excluded.
+     * @param afterId last id of previous page. 0 for the first page
+     * @param modelVersion current version of model
+     * @param includeUnversioned whether to include results with null version
+     * @param pageable size of page. Sort is ignored
+     * @return ids in ascending order
+     */
+    @Query("""
+            SELECT d.id FROM Diary d
+            WHERE d.id > :afterId AND d.analyzeProvisional = false AND d.depressionScore <> -1
+                AND (d.vadScore.v IS NOT NULL OR d.classification IS NOT NULL)
+                AND (d.modelVersion <> :modelVersion OR (d.modelVersion IS NULL AND :includeUnversioned = true))
+            ORDER BY d.id
+            """)
+    List<Long> findIdsAnalyzedByOtherModel(@Param("afterId") long afterId, @Param("modelVersion") String modelVersion,
+                                           @Param("includeUnversioned") boolean includeUnversioned,
+                                           Pageable pageable);
+
+    /**
+     * Return ids of diaries without result of AI server, after <code>afterId</code> in id order. (Keyset pagination)
+     * <br/>
+     * Failed, provisional and never analyzed diaries are included.
+     * Diaries with a task waiting or in flight are excluded.
+     * @param afterId last id of previous page. 0 for the first page
+     * @param maxId max id to include
+     * @param pageable size of page. Sort is ignored
+     * @return ids in ascending order
+     */
+    @Query("""
+            SELECT d.id FROM Diary d
+            WHERE d.id > :afterId AND d.id <= :maxId
+                AND (d.depressionScore = -1 OR d.analyzeProvisional = true
+                    OR (d.vadScore.v IS NULL AND d.classification IS NULL))
+                AND NOT EXISTS (SELECT t.id FROM AnalysisTask t WHERE t.diaryId = d.id
+                    AND t.status IN (org.diarymoodanalyzer.domain.AnalysisTaskStatus.PENDING,
+                        org.diarymoodanalyzer.domain.AnalysisTaskStatus.IN_FLIGHT))
+            ORDER BY d.id
+            """)
+    List<Long> findIdsWithoutResult(@Param("afterId") long afterId, @Param("maxId") long maxId, Pageable pageable);
+
+    /**
+     * Return count of diaries without result of AI server up to <code>maxId</code>.
+     * Same condition as {@link #findIdsWithoutResult(long, long, Pageable)} except tasks
+     * @param maxId max id to include
+     * @return count of diaries
+     */
+    @Query("""
+            SELECT COUNT(d) FROM Diary d
+            WHERE d.id <= :maxId
+                AND (d.depressionScore = -1 OR d.analyzeProvisional = true
+                    OR (d.vadScore.v IS NULL AND d.classification IS NULL))
+            """)
+    long countWithoutResult(@Param("maxId") long maxId);
+
+    /**
+     * Return max id of diaries
+     * @return max id. 0 if there is no diary
+     */
+    @Query("SELECT COALESCE(MAX(d.id), 0) FROM Diary d")
+    long findMaxId();
+
+    /**
+     * Return id of owner and <code>createdAt</code> of diaries specified by <code>ids</code>
+     * @param ids id list of diaries
+     * @return List of <code>userId</code> as <code>Long</code> and <code>createdAt</code> as {@link LocalDateTime}
+     */
+    @Query("SELECT d.user.id, d.createdAt FROM Diary d WHERE d.id IN :ids")
+    List<Object[]> findUserIdAndCreatedAtByIds(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Return <code>id</code>, <code>content</code>, <code>contentVersion</code> and id of owner of diaries specified by <code>ids</code>
+     * @param ids id list of diaries
+     * @return List of <code>id</code> as <code>Long</code>, <code>content</code> as <code>String</code>,
+     * <code>contentVersion</code> as <code>Long</code> and <code>userId</code> as <code>Long</code>
+     */
+    @Query("SELECT d.id, d.content, d.contentVersion, d.user.id FROM Diary d WHERE d.id IN :ids")
+    List<Object[]> findContentByIds(@Param("ids") List<Long> ids);
+
     /**
      * Return <code>createdAt</code> and <code>depressionScore</code>
      * where <code>createdAt</code> between <code>start</code> and <code>end</code>
@@ -58,6 +215,38 @@ public interface DiaryRepository extends JpaRepository<Diary, Long> {
     @Query(value="SELECT d.createdAt, d.depressionScore FROM Diary d WHERE (d.createdAt BETWEEN :start AND :end) AND d.user.email = :email")
     List<Object[]> findDepressionScoreBetween(@Param("email") String email, @Param("start") LocalDateTime start, @Param("end") LocalDateTime end);
 
+    /**
+     * Stream <code>createdAt</code> and {@link org.diarymoodanalyzer.dto.ai.request.VadScore VadScore}
+     * of final results of AI server, where <code>start &lt;= createdAt &lt; end</code>, in <code>createdAt</code> order.
+     * <br/>
+     * Rows are fetched in chunks, so the caller should consume the stream in a transaction and close it.
+     * @param userId id of owner
+     * @param start start of date range (inclusive)
+     * @param end end of date range (exclusive)
+     * @return Stream of <code>createdAt</code> as {@link LocalDateTime} and <code>v</code>, <code>a</code>,
+     * <code>d</code> as <code>float</code>
+     */
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "500"))
+    @Query("""
+            SELECT d.createdAt, d.vadScore.v, d.vadScore.a, d.vadScore.d FROM Diary d
+            WHERE d.user.id = :userId AND d.createdAt >= :start AND d.createdAt < :end
+                AND d.vadScore.v IS NOT NULL AND d.analyzeProvisional = false
+            ORDER BY d.createdAt, d.id
+            """)
+    Stream<Object[]> streamVadScoreBetween(@Param("userId") Long userId, @Param("start") LocalDateTime start,
+                                           @Param("end") LocalDateTime end);
+
+    /**
+     * Return count of rows of {@link #streamVadScoreBetween(Long, LocalDateTime, LocalDateTime)}
+     */
+    @Query("""
+            SELECT COUNT(d) FROM Diary d
+            WHERE d.user.id = :userId AND d.createdAt >= :start AND d.createdAt < :end
+                AND d.vadScore.v IS NOT NULL AND d.analyzeProvisional = false
+            """)
+    long countVadScoreBetween(@Param("userId") Long userId, @Param("start") LocalDateTime start,
+                              @Param("end") LocalDateTime end);
+
     /**
      * Return <code>createdAt</code> and daily average <code>depressionScore</code>
      * where <code>createdAt</code> between <code>start</code> and <code>end</code>
@@ -68,7 +257,9 @@ public interface DiaryRepository extends JpaRepository<Diary, Long> {
      * @param end end of date range
      * @return List of <code>createdAt</code> as {@link LocalDateTime LocalDateTime}
      * and daily average <code>depressionScore</code> as <code>double</code>
+     * @deprecated Aggregates every diary of user on each call. Use {@link DailyMoodRollupRepository} instead
      */
+    @Deprecated
     @Query(value= """
             SELECT DATE(d.created_at) AS date, AVG(d.depression_level)
             FROM diaries d
@@ -86,7 +277,9 @@ public interface DiaryRepository extends JpaRepository<Diary, Long> {
      * @param email owner's email
      * @return List of <code>createdAt</code> as {@link LocalDateTime LocalDateTime}
      * and daily average <code>depressionScore</code> as <code>double</code>
+     * @deprecated Aggregates every diary of user on each call. Use {@link DailyMoodRollupRepository} instead
      */
+    @Deprecated
     @Query(value= """
             SELECT DATE(d.created_at) AS date, AVG(d.depression_level)
             FROM diaries d
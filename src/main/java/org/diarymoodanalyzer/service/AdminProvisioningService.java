@@ -0,0 +1,78 @@
+package org.diarymoodanalyzer.service;
+
+import jakarta.transaction.Transactional;
+import org.diarymoodanalyzer.config.AdminProperties;
+import org.diarymoodanalyzer.domain.Expert;
+import org.diarymoodanalyzer.domain.User;
+import org.diarymoodanalyzer.domain.UserAuthority;
+import org.diarymoodanalyzer.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+/**
+ * Grant {@link UserAuthority#ADMIN} to users configured by <code>admin.emails</code>.
+ * <br/>
+ * Signup never grants ADMIN by request. So this is the only path to operation endpoints. (<code>/api/admin/**</code>)
+ * Existing users are granted on startup, and users signing up later are granted by {@link AuthService}.
+ * ADMIN is granted on top of the existing authority, so the user keeps <code>ROLE_USER</code>. (See {@link User#isAdmin()})
+ * Expert is not granted, because its authority decides the managed users.
+ */
+@Service
+public class AdminProvisioningService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdminProvisioningService.class);
+
+    private final AdminProperties adminProperties;
+
+    private final UserRepository userRepository;
+
+    public AdminProvisioningService(AdminProperties adminProperties, UserRepository userRepository) {
+        this.adminProperties = adminProperties;
+        this.userRepository = userRepository;
+    }
+
+    /**
+     * Grant ADMIN to existing users configured by <code>admin.emails</code>
+     * @return count of users granted
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public int provision() {
+        int count = 0;
+
+        for(String email : adminProperties.getEmails()) {
+            User user = userRepository.findByEmail(email).orElse(null);
+            if(user == null) {
+                // Granted on signup
+                logger.info("Admin is not signed up yet : {}", email);
+                continue;
+            }
+            if(grantIfConfigured(user)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Grant ADMIN to the user if its email is configured. Call before the user is saved
+     * @param user user entity
+     * @return true if ADMIN is newly granted
+     */
+    public boolean grantIfConfigured(User user) {
+        if(!adminProperties.isAdmin(user.getEmail()) || user.isAdmin()) {
+            return false;
+        }
+        if(user instanceof Expert) {
+            logger.warn("Expert can not be admin : {}", user.getEmail());
+            return false;
+        }
+
+        user.setAdmin(true);
+        logger.info("Granted admin : {}", user.getEmail());
+        return true;
+    }
+}
@@ -0,0 +1,66 @@
+package org.diarymoodanalyzer.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Dispatch side effects of a transaction only after it is committed.
+ * <br/>
+ * Action is registered to the current transaction, and run after commit. Action is dropped on rollback.
+ * If there is no transaction, action runs immediately. <br/>
+ * After commit, the committed transaction is still bound to the thread,
+ * so action runs in a new transaction. (e.g., saving notification) <br/>
+ * Used for offering analyze task and sending notification,
+ * so a worker never reads a diary not committed yet, and nothing is sent for rolled back diary.
+ */
+@Component
+public class AfterCommitDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(AfterCommitDispatcher.class);
+
+    private final TransactionTemplate requiresNew;
+
+    public AfterCommitDispatcher(PlatformTransactionManager transactionManager) {
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Run action after the current transaction is committed.
+     * <br/>
+     * Error of action after commit is logged and not propagated, because the transaction is already committed.
+     * @param name name of action for log
+     * @param action action to run
+     */
+    public void afterCommit(String name, Runnable action) {
+        if(!TransactionSynchronizationManager.isActualTransactionActive()
+                || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    requiresNew.executeWithoutResult(status -> action.run());
+                } catch (RuntimeException e) {
+                    logger.error("Failed to run {} after commit", name, e);
+                }
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if(status == STATUS_ROLLED_BACK) {
+                    logger.debug("Drop {} of rolled back transaction", name);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,204 @@
+package org.diarymoodanalyzer.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.diarymoodanalyzer.annotation.SkipLogging;
+import org.diarymoodanalyzer.client.AnalyzeModelVersion;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.diarymoodanalyzer.dto.ai.response.DiaryAnalyzeResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of {@link DiaryAnalyzeResponse} keyed by content of diary.
+ * <br/>
+ * Key is SHA-256 of normalized content and model version of AI server.
+ * So the same content is analyzed only once per model.
+ * <ul>
+ *     <li>1st tier : in-process LRU, bounded by <code>max-size</code></li>
+ *     <li>2nd tier : Redis via {@link RedisService}, expired by <code>redis-ttl-minutes</code></li>
+ * </ul>
+ * Hit, miss and eviction are exposed by metrics <code>diary.analyze.cache.*</code>
+ */
+@Service
+@SkipLogging // Called for every task
+public class AnalyzeResultCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(AnalyzeResultCache.class);
+
+    /**
+     * Prefix for key of Redis value contain analyze result
+     */
+    private static final String REDIS_KEY_PREFIX = "analyze:result:";
+
+    private final RedisService redisService;
+
+    private final ObjectMapper objectMapper;
+
+    private final DiaryAnalyzeProperties.Cache properties;
+
+    private final AnalyzeModelVersion modelVersion;
+
+    /**
+     * In-process LRU tier. Access order, guarded by itself
+     */
+    private final Map<String, DiaryAnalyzeResponse> local;
+
+    private final Counter localHitCounter;
+
+    private final Counter redisHitCounter;
+
+    private final Counter missCounter;
+
+    private final Counter evictionCounter;
+
+    public AnalyzeResultCache(RedisService redisService, ObjectMapper objectMapper,
+                              DiaryAnalyzeProperties diaryAnalyzeProperties, AnalyzeModelVersion modelVersion,
+                              MeterRegistry meterRegistry) {
+        this.redisService = redisService;
+        this.objectMapper = objectMapper;
+        this.properties = diaryAnalyzeProperties.getCache();
+        this.modelVersion = modelVersion;
+
+        int maxSize = Math.max(1, properties.getMaxSize());
+        this.local = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, DiaryAnalyzeResponse> eldest) {
+                if(size() > maxSize) {
+                    evictionCounter.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        this.localHitCounter = meterRegistry.counter("diary.analyze.cache.hits", "tier", "local");
+        this.redisHitCounter = meterRegistry.counter("diary.analyze.cache.hits", "tier", "redis");
+        this.missCounter = meterRegistry.counter("diary.analyze.cache.misses");
+        this.evictionCounter = meterRegistry.counter("diary.analyze.cache.evictions");
+        Gauge.builder("diary.analyze.cache.size", this, AnalyzeResultCache::localSize)
+                .description("Count of entries in in-process tier")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Find cached result of the content.
+     * @param content content of diary
+     * @return cached result. Empty if not cached or cache is disabled
+     */
+    public Optional<DiaryAnalyzeResponse> get(String content) {
+        if(!properties.isEnabled()) {
+            return Optional.empty();
+        }
+
+        String key = keyOf(content);
+
+        DiaryAnalyzeResponse res;
+        synchronized (local) {
+            res = local.get(key);
+        }
+        if(res != null) {
+            localHitCounter.increment();
+            return Optional.of(res);
+        }
+
+        res = getFromRedis(key);
+        if(res != null) {
+            redisHitCounter.increment();
+            // Promote to 1st tier
+            synchronized (local) {
+                local.put(key, res);
+            }
+            return Optional.of(res);
+        }
+
+        missCounter.increment();
+        return Optional.empty();
+    }
+
+    /**
+     * Save result of the content to both tiers.
+     * @param content content of diary
+     * @param res result of analyze
+     */
+    public void put(String content, DiaryAnalyzeResponse res) {
+        if(!properties.isEnabled() || res == null) {
+            return;
+        }
+
+        String key = keyOf(content);
+
+        synchronized (local) {
+            local.put(key, res);
+        }
+
+        if(properties.isRedisEnabled()) {
+            try {
+                redisService.saveWithTTL(REDIS_KEY_PREFIX + key, objectMapper.writeValueAsString(res),
+                        properties.getRedisTtlMinutes(), TimeUnit.MINUTES);
+            } catch (JsonProcessingException | RuntimeException e) {
+                // Redis tier is optional. Keep going with in-process tier
+                logger.debug("Failed to save analyze result to Redis : {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Create cache key from content. <br/>
+     * Content is normalized (NFC, trimmed, whitespace collapsed) before hashing,
+     * so re-saving the same text with different spacing hits the cache.
+     * @param content content of diary
+     * @return hex of SHA-256 with current model version. Results of previous model are not hit after model is changed
+     */
+    public String keyOf(String content) {
+        String normalized = Normalizer.normalize(content == null ? "" : content, Normalizer.Form.NFC)
+                .trim()
+                .replaceAll("\\s+", " ");
+
+        return modelVersion.current() + ":" + sha256(normalized);
+    }
+
+    private DiaryAnalyzeResponse getFromRedis(String key) {
+        if(!properties.isRedisEnabled()) {
+            return null;
+        }
+
+        try {
+            String value = redisService.get(REDIS_KEY_PREFIX + key);
+            return value == null ? null : objectMapper.readValue(value, DiaryAnalyzeResponse.class);
+        } catch (JsonProcessingException | RuntimeException e) {
+            logger.debug("Failed to load analyze result from Redis : {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private int localSize() {
+        synchronized (local) {
+            return local.size();
+        }
+    }
+
+    private static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is always supported by JVM
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package org.diarymoodanalyzer.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.diarymoodanalyzer.annotation.SkipLogging;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.diarymoodanalyzer.dto.ai.request.VadScore;
+import org.diarymoodanalyzer.dto.ai.response.DiaryAnalyzeResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Write-behind buffer of analyze results.
+ * <br/>
+ * Results are buffered and saved by one JDBC batch UPDATE of analyze columns only,
+ * when <code>batch-size</code> results are buffered or <code>flush-interval-millis</code> has passed.
+ * Buffer is flushed on shutdown.
+ * <br/>
+ * UPDATE is guarded by <code>content_version</code>. Result not applied (stale, deleted diary or failed batch)
+ * is passed to fallback set by {@link #setFallback(BiConsumer)}, which checks it one by one.
+ * Buckets of applied results are refreshed by {@link DailyMoodRollupService} after the batch.
+ * <br/>
+ * Exposes metrics <code>diary.analyze.writer.*</code> (buffered, flushed, fallback).
+ */
+@Component
+@SkipLogging // Use scheduled method
+public class AnalyzeResultWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(AnalyzeResultWriter.class);
+
+    private static final String UPDATE_SQL = """
+            UPDATE diaries SET v = ?, a = ?, d = ?, depression_score = ?, classification = ?,
+                model_version = ?, analyze_provisional = FALSE, updated_at = ?
+            WHERE id = ? AND content_version = ?
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final DiaryAnalyzeTaskStore taskStore;
+
+    private final DailyMoodRollupService rollupService;
+
+    private final int batchSize;
+
+    /**
+     * Results waiting for flush. Guarded by itself
+     */
+    private List<PendingResult> buffer = new ArrayList<>();
+
+    /**
+     * Only one flush runs at a time, to keep order of results
+     */
+    private final Object flushLock = new Object();
+
+    private BiConsumer<DiaryAnalyzeTask, DiaryAnalyzeResponse> fallback = (task, res) ->
+            logger.warn("Result is not applied : {}", task);
+
+    private final Counter flushedCounter;
+
+    private final Counter fallbackCounter;
+
+    public AnalyzeResultWriter(JdbcTemplate jdbcTemplate, DiaryAnalyzeTaskStore taskStore,
+                               DailyMoodRollupService rollupService, DiaryAnalyzeProperties diaryAnalyzeProperties,
+                               MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.taskStore = taskStore;
+        this.rollupService = rollupService;
+        this.batchSize = Math.max(1, diaryAnalyzeProperties.getWriter().getBatchSize());
+
+        Gauge.builder("diary.analyze.writer.buffered", this, AnalyzeResultWriter::bufferedSize)
+                .description("Count of results waiting for flush")
+                .register(meterRegistry);
+        this.flushedCounter = Counter.builder("diary.analyze.writer.flushed")
+                .description("Count of results saved by batch update")
+                .register(meterRegistry);
+        this.fallbackCounter = Counter.builder("diary.analyze.writer.fallback")
+                .description("Count of results not applied by batch update")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Set handler of result not applied by batch update.
+     * @param fallback called with task and result on the flushing thread
+     */
+    public void setFallback(BiConsumer<DiaryAnalyzeTask, DiaryAnalyzeResponse> fallback) {
+        this.fallback = fallback;
+    }
+
+    /**
+     * Buffer result. Flush on the caller thread if buffer is full.
+     * @param task finished task
+     * @param res result of the task
+     */
+    public void write(DiaryAnalyzeTask task, DiaryAnalyzeResponse res) {
+        boolean full;
+        synchronized (this) {
+            buffer.add(new PendingResult(task, res));
+            full = buffer.size() >= batchSize;
+        }
+
+        if(full) {
+            flush();
+        }
+    }
+
+    /**
+     * Save buffered results by one batch update.
+     */
+    @Scheduled(fixedDelayString = "${diary-emotion.writer.flush-interval-millis:500}")
+    public void flush() {
+        synchronized (flushLock) {
+            List<PendingResult> pending;
+            synchronized (this) {
+                if(buffer.isEmpty()) {
+                    return;
+                }
+                pending = buffer;
+                buffer = new ArrayList<>();
+            }
+
+            List<PendingResult> notApplied = new ArrayList<>();
+            try {
+                List<PendingResult> applied = update(pending, notApplied);
+                taskStore.markDone(applied.stream().map(PendingResult::task).toList());
+                flushedCounter.increment(applied.size());
+                rollupService.refreshDiaries(applied.stream().map(result -> result.task().getDiaryId()).toList());
+            } catch (RuntimeException e) {
+                logger.warn("Failed to flush analyze results. size : {}", pending.size(), e);
+                notApplied = pending;
+            }
+
+            fallbackCounter.increment(notApplied.size());
+            for(PendingResult result : notApplied) {
+                try {
+                    fallback.accept(result.task(), result.res());
+                } catch (RuntimeException e) {
+                    logger.error("Failed to handle result not applied : {}", result.task(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Flush remaining results before shutdown
+     */
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+    /**
+     * Run batch update
+     * @param pending results to save
+     * @param notApplied receive results not updated
+     * @return results updated
+     */
+    private List<PendingResult> update(List<PendingResult> pending, List<PendingResult> notApplied) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+
+        int[] counts = jdbcTemplate.batchUpdate(UPDATE_SQL, pending, pending.size(), (ps, result) -> {
+            VadScore vad = result.res().getVad_score();
+            if(vad != null) {
+                ps.setFloat(1, vad.getV());
+                ps.setFloat(2, vad.getA());
+                ps.setFloat(3, vad.getD());
+            } else {
+                ps.setNull(1, Types.FLOAT);
+                ps.setNull(2, Types.FLOAT);
+                ps.setNull(3, Types.FLOAT);
+            }
+            ps.setInt(4, result.res().getDepression_score());
+            ps.setString(5, result.res().getClassification());
+            ps.setString(6, result.res().getModel_version());
+            ps.setTimestamp(7, now);
+            ps.setLong(8, result.task().getDiaryId());
+            ps.setLong(9, result.task().getContentVersion());
+        })[0];
+
+        List<PendingResult> applied = new ArrayList<>(pending.size());
+        for(int i = 0; i < pending.size(); i++) {
+            // Driver may return SUCCESS_NO_INFO (-2)
+            if(counts[i] == 0) {
+                notApplied.add(pending.get(i));
+            } else {
+                applied.add(pending.get(i));
+            }
+        }
+        return applied;
+    }
+
+    private synchronized int bufferedSize() {
+        return buffer.size();
+    }
+
+    private record PendingResult(DiaryAnalyzeTask task, DiaryAnalyzeResponse res) {
+    }
+}
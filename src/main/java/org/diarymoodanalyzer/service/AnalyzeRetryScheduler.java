@@ -0,0 +1,133 @@
+package org.diarymoodanalyzer.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.diarymoodanalyzer.annotation.SkipLogging;
+import org.diarymoodanalyzer.client.AnalyzeErrorClass;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Hold failed {@link DiaryAnalyzeTask} until its backoff delay has passed.
+ * <br/>
+ * Delay is decided by {@link DiaryAnalyzeProperties.RetryPolicy} of the error class,
+ * so a transient outage of AI server is not hammered by immediate retries,
+ * and tasks behind it are not delayed.
+ * <br/>
+ * Count of waiting tasks is exposed by gauge <code>diary.analyze.retry.scheduled</code>.
+ */
+@Component
+@SkipLogging // Called on every dispatch
+public class AnalyzeRetryScheduler {
+
+    private final DelayQueue<DelayedTask> delayQueue = new DelayQueue<>();
+
+    private final DiaryAnalyzeProperties.Retry properties;
+
+    private final MeterRegistry meterRegistry;
+
+    public AnalyzeRetryScheduler(DiaryAnalyzeProperties diaryAnalyzeProperties, MeterRegistry meterRegistry) {
+        this.properties = diaryAnalyzeProperties.getRetry();
+        this.meterRegistry = meterRegistry;
+
+        Gauge.builder("diary.analyze.retry.scheduled", delayQueue, DelayQueue::size)
+                .description("Count of failed tasks waiting for retry")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Get retry policy of the error class
+     * @param errorClass class of error
+     * @return retry policy
+     */
+    public DiaryAnalyzeProperties.RetryPolicy policyOf(AnalyzeErrorClass errorClass) {
+        return properties.policyOf(errorClass);
+    }
+
+    /**
+     * Hold task until backoff delay of <code>retryCount</code> of the task has passed.
+     * @param task failed task. <code>retryCount</code> should be already increased
+     * @param errorClass class of error of last attempt
+     * @return delay until retry (milliseconds)
+     */
+    public long schedule(DiaryAnalyzeTask task, AnalyzeErrorClass errorClass) {
+        long delay = backoffMillis(policyOf(errorClass), task.getRetryCount());
+
+        delayQueue.offer(new DelayedTask(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay)));
+        meterRegistry.counter("diary.analyze.retry.attempts", "error", errorClass.name()).increment();
+
+        return delay;
+    }
+
+    /**
+     * Pass tasks whose delay has passed to <code>consumer</code>
+     * @param consumer receive tasks to retry
+     * @return count of released tasks
+     */
+    public int releaseDue(Consumer<DiaryAnalyzeTask> consumer) {
+        int count = 0;
+
+        DelayedTask delayed;
+        while((delayed = delayQueue.poll()) != null) {
+            consumer.accept(delayed.task);
+            count++;
+        }
+
+        return count;
+    }
+
+    public int size() {
+        return delayQueue.size();
+    }
+
+    /**
+     * Calculate delay by exponential backoff with jitter.
+     * @param policy retry policy
+     * @param attempt count of failed attempts. 1 for first retry
+     * @return delay (milliseconds)
+     */
+    static long backoffMillis(DiaryAnalyzeProperties.RetryPolicy policy, int attempt) {
+        double delay = policy.getInitialDelayMillis() * Math.pow(policy.getMultiplier(), Math.max(0, attempt - 1));
+        delay = Math.min(delay, policy.getMaxDelayMillis());
+
+        // Spread retries of tasks failed at the same time
+        double jitter = Math.min(1.0, Math.max(0.0, policy.getJitterRatio()));
+        delay = delay * (1 - jitter) + delay * jitter * ThreadLocalRandom.current().nextDouble();
+
+        return (long) delay;
+    }
+
+    private static class DelayedTask implements Delayed {
+
+        private final DiaryAnalyzeTask task;
+
+        /**
+         * Time to release (System.nanoTime)
+         */
+        private final long releaseAt;
+
+        private DelayedTask(DiaryAnalyzeTask task, long releaseAt) {
+            this.task = task;
+            this.releaseAt = releaseAt;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(releaseAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            if(o instanceof DelayedTask other) {
+                return Long.compare(releaseAt, other.releaseAt);
+            }
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), o.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package org.diarymoodanalyzer.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.diarymoodanalyzer.annotation.SkipLogging;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * FIFO buffer of {@link DiaryAnalyzeTask} spilled to disk, used by {@link CoalescingTaskQueue} on overflow.
+ * <br/>
+ * Tasks are encoded as fixed-size entries <code>(taskId, diaryId, userId, retryCount, contentHash)</code>
+ * without content, and written to memory-mapped segment files. A segment is deleted when all entries are read.
+ * So heap usage does not grow with backlog. Content is loaded from DB when entries are read.
+ * <br/>
+ * Segments are not recovered on restart, because spilled tasks are <code>PENDING</code> in DB
+ * and re-queued by {@link DiaryAnalyzeService#recoverTasks()}. Directory is cleared on startup.
+ * <br/>
+ * Exposes metrics <code>diary.analyze.spill.entries</code> and <code>diary.analyze.spill.segments</code>.
+ */
+@Component
+@SkipLogging // Called on every dispatch
+public class AnalyzeSpillBuffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(AnalyzeSpillBuffer.class);
+
+    /**
+     * taskId (8) + diaryId (8) + userId (8) + retryCount (4) + contentHash (8)
+     */
+    static final int ENTRY_BYTES = 36;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    private final Path dir;
+
+    private final int entriesPerSegment;
+
+    /**
+     * Segments in write order. Head is read, tail is written. Guarded by this
+     */
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    private long nextSequence = 0;
+
+    private long size = 0;
+
+    public AnalyzeSpillBuffer(DiaryAnalyzeProperties diaryAnalyzeProperties, MeterRegistry meterRegistry) {
+        DiaryAnalyzeProperties.Spill properties = diaryAnalyzeProperties.getSpill();
+        this.dir = Path.of(properties.getDir());
+        this.entriesPerSegment = Math.max(1, properties.getSegmentBytes() / ENTRY_BYTES);
+
+        if(properties.isEnabled()) {
+            deleteSegments();
+        }
+
+        Gauge.builder("diary.analyze.spill.entries", this, AnalyzeSpillBuffer::size)
+                .description("Count of tasks spilled to disk")
+                .register(meterRegistry);
+        Gauge.builder("diary.analyze.spill.segments", this, AnalyzeSpillBuffer::segmentCount)
+                .description("Count of segment files of spilled tasks")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Append task to tail of buffer. Content of task is not written.
+     * @param task task to spill
+     * @throws UncheckedIOException if failed to create segment file
+     */
+    public synchronized void append(DiaryAnalyzeTask task) {
+        Segment tail = segments.peekLast();
+        if(tail == null || tail.written == entriesPerSegment) {
+            tail = createSegment();
+            segments.addLast(tail);
+        }
+
+        int offset = tail.written * ENTRY_BYTES;
+        MappedByteBuffer buffer = tail.buffer;
+        buffer.putLong(offset, toRaw(task.getTaskId()));
+        buffer.putLong(offset + 8, task.getDiaryId());
+        buffer.putLong(offset + 16, toRaw(task.getUserId()));
+        buffer.putInt(offset + 24, task.getRetryCount());
+        buffer.putLong(offset + 28, contentHash(task.getContent()));
+
+        tail.written++;
+        size++;
+    }
+
+    /**
+     * Read at most <code>maxEntries</code> entries from head of buffer, in the order appended.
+     * Entries are kept until {@link #remove(int)} is called, so they are read again if loading them failed.
+     * @param maxEntries max count of entries
+     * @return entries at head
+     */
+    public synchronized List<Entry> peek(int maxEntries) {
+        List<Entry> entries = new ArrayList<>((int) Math.min(maxEntries, size));
+
+        Iterator<Segment> iterator = segments.iterator();
+        while(entries.size() < maxEntries && iterator.hasNext()) {
+            Segment segment = iterator.next();
+
+            for(int read = segment.read; entries.size() < maxEntries && read < segment.written; read++) {
+                int offset = read * ENTRY_BYTES;
+                MappedByteBuffer buffer = segment.buffer;
+                entries.add(new Entry(
+                        fromRaw(buffer.getLong(offset)),
+                        buffer.getLong(offset + 8),
+                        fromRaw(buffer.getLong(offset + 16)),
+                        buffer.getInt(offset + 24),
+                        buffer.getLong(offset + 28)));
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * Remove entries from head of buffer. Call after entries read by {@link #peek(int)} are handled
+     * @param count count of entries to remove
+     */
+    public synchronized void remove(int count) {
+        int remaining = (int) Math.min(count, size);
+
+        while(remaining > 0 && !segments.isEmpty()) {
+            Segment head = segments.peekFirst();
+
+            int removed = Math.min(remaining, head.written - head.read);
+            head.read += removed;
+            size -= removed;
+            remaining -= removed;
+
+            if(head.read < entriesPerSegment) {
+                // Wait for more entries written to head
+                break;
+            }
+
+            segments.pollFirst();
+            deleteSegment(head);
+        }
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Delete segments on shutdown. Spilled tasks are recovered from DB
+     */
+    @PreDestroy
+    public synchronized void close() {
+        segments.forEach(this::deleteSegment);
+        segments.clear();
+        size = 0;
+    }
+
+    /**
+     * 64-bit hash of content. Used to check content is not changed after spilled
+     * @param content content of diary. nullable
+     * @return FNV-1a hash of UTF-8 bytes of content
+     */
+    public static long contentHash(String content) {
+        long hash = 0xcbf29ce484222325L;
+        if(content == null) {
+            return hash;
+        }
+
+        for(byte b : content.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    private Segment createSegment() {
+        Path path = dir.resolve(SEGMENT_PREFIX + (nextSequence++) + SEGMENT_SUFFIX);
+
+        try {
+            Files.createDirectories(dir);
+            // Mapping is valid after the channel is closed
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) entriesPerSegment * ENTRY_BYTES);
+                return new Segment(path, buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create spill segment : " + path, e);
+        }
+    }
+
+    private void deleteSegment(Segment segment) {
+        try {
+            // Mapped pages are released when the buffer is garbage collected
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            logger.warn("Failed to delete spill segment : {}", segment.path, e);
+        }
+    }
+
+    /**
+     * Delete segments of previous run
+     */
+    private void deleteSegments() {
+        if(!Files.isDirectory(dir)) {
+            return;
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for(Path path : stream) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to clear spill directory : {}", dir, e);
+        }
+    }
+
+    /**
+     * Ids start from 1, so 0 is used for null
+     */
+    private static long toRaw(Long id) {
+        return id == null ? 0 : id;
+    }
+
+    private static Long fromRaw(long raw) {
+        return raw == 0 ? null : raw;
+    }
+
+    /**
+     * Task spilled to disk, without content
+     * @param taskId id of persisted task. nullable
+     * @param diaryId id of diary
+     * @param userId id of owner of diary. nullable
+     * @param retryCount retry count of task
+     * @param contentHash {@link #contentHash(String)} of content when spilled
+     */
+    public record Entry(Long taskId, Long diaryId, Long userId, int retryCount, long contentHash) {
+    }
+
+    private static class Segment {
+
+        private final Path path;
+
+        private final MappedByteBuffer buffer;
+
+        private int written = 0;
+
+        private int read = 0;
+
+        private Segment(Path path, MappedByteBuffer buffer) {
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+}
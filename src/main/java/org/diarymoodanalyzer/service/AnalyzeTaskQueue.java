@@ -0,0 +1,76 @@
+package org.diarymoodanalyzer.service;
+
+import org.diarymoodanalyzer.dto.ai.response.DiaryAnalyzeResponse;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Queue of {@link DiaryAnalyzeTask} waiting for dispatch by {@link DiaryAnalyzeService}.
+ * <br/>
+ * Implementation is selected by <code>diary-emotion.queue.mode</code>.
+ * <ul>
+ *     <li>memory (default) : {@link CoalescingTaskQueue}. In-process queue for single node</li>
+ *     <li>redis : {@link RedisStreamTaskQueue}. Shared by all nodes via Redis Streams consumer group</li>
+ * </ul>
+ */
+public interface AnalyzeTaskQueue {
+
+    /**
+     * Offer task to queue.
+     * @param task task to offer
+     * @return task dropped by coalescing. null if nothing is dropped
+     */
+    DiaryAnalyzeTask offer(DiaryAnalyzeTask task);
+
+    /**
+     * Remove at most <code>maxElements</code> tasks from head of queue and add them to <code>collection</code>
+     * @param collection collection to add tasks
+     * @param maxElements max count of tasks
+     * @return count of tasks added
+     */
+    int drainTo(Collection<DiaryAnalyzeTask> collection, int maxElements);
+
+    boolean isEmpty();
+
+    /**
+     * Count of tasks waiting in this node
+     */
+    int size();
+
+    /**
+     * Notify that the task drained from this queue is finished. (Saved, failed or re-offered)
+     * @param task finished task
+     */
+    default void acknowledge(DiaryAnalyzeTask task) {
+    }
+
+    /**
+     * Notify result of the task. Used to prioritize user by severity of the last result
+     * @param task finished task
+     * @param res result of the task
+     */
+    default void reportResult(DiaryAnalyzeTask task, DiaryAnalyzeResponse res) {
+    }
+
+    /**
+     * Run recovery of unfinished tasks on startup.
+     * <br/>
+     * By default, all unfinished tasks are offered. Queue shared by nodes and surviving restart
+     * runs it on one node at a time, and skips tasks already in the queue.
+     * @param recovery offers unfinished tasks accepted by the given filter
+     */
+    default void recover(Consumer<Predicate<DiaryAnalyzeTask>> recovery) {
+        recovery.accept(task -> true);
+    }
+
+    /**
+     * Count of tasks waiting in this node per user
+     * @return map of <code>userId</code> to count of tasks. Empty if not supported
+     */
+    default Map<Long, Integer> depthByUser() {
+        return Map.of();
+    }
+}
@@ -0,0 +1,129 @@
+package org.diarymoodanalyzer.service;
+
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+
+/**
+ * SPI of a model analyzing content of diary. Run by {@link DiaryAnalyzeService} for every task.
+ * <br/>
+ * Adapter maps content to request of its AI server, sends it, and applies the result to DB.
+ * Queue, batching, concurrency limit, retry with backoff and metrics are shared by all analyzers.
+ * Result of each analyzer is applied independently. If an analyzer fails for a task, only that analyzer is retried.
+ * All analyzers run again if the retry is not kept in memory (e.g., spilled, shared queue or restart),
+ * so applying a result must be idempotent. (Cached results are not requested again)
+ * <br/>
+ * Registered as Spring bean, and disabled by <code>diary-emotion.analyzers.&lt;name&gt;=false</code>.
+ * Results are applied in {@link org.springframework.core.annotation.Order Order} of beans.
+ * {@link VadAnalyzer} is applied last, and marks the task as <code>DONE</code> when its result is saved.
+ * @param <Q> type of request DTO
+ * @param <R> type of response DTO
+ */
+public interface Analyzer<Q, R> {
+
+    /**
+     * Name of analyzer. Used as key of settings and tag of metrics
+     */
+    String getName();
+
+    /**
+     * Map content to request DTO
+     * @param content content of diary, or a chunk of it
+     * @return request DTO
+     */
+    Q toRequest(String content);
+
+    /**
+     * Send request to AI server
+     * @param request request DTO
+     * @return {@link Mono} emits response DTO, or error
+     */
+    Mono<R> analyze(Q request);
+
+    /**
+     * Whether this analyzer marks the task as <code>DONE</code>. (e.g., {@link VadAnalyzer})
+     * <br/>
+     * Status of the task is changed only by tasks running such analyzer,
+     * so retry of the other analyzers never overwrites it. False by default
+     */
+    default boolean ownsTask() {
+        return false;
+    }
+
+    /**
+     * Whether {@link #analyzeBatch(List)} is available
+     */
+    default boolean isBatchSupported() {
+        return false;
+    }
+
+    /**
+     * Send requests to AI server by one request
+     * @param requests request DTOs
+     * @return {@link Mono} emits responses in the same order, or error.
+     * {@link UnsupportedOperationException} makes the engine fall back to {@link #analyze(Object)} per request
+     */
+    default Mono<List<R>> analyzeBatch(List<Q> requests) {
+        return Mono.error(new UnsupportedOperationException("Batch request is not supported : " + getName()));
+    }
+
+    /**
+     * Split content into chunks analyzed separately
+     * @param content content of diary
+     * @return chunks of content. Content itself by default
+     */
+    default List<String> split(String content) {
+        return List.of(content);
+    }
+
+    /**
+     * Aggregate results of chunks into the result of content
+     * @param chunks chunks split by {@link #split(String)}
+     * @param results results of each chunk, in the same order
+     * @return result of content. The first result by default
+     */
+    default R aggregate(List<String> chunks, List<R> results) {
+        return results.get(0);
+    }
+
+    /**
+     * Find result of the same content analyzed already
+     * @param content content of diary
+     * @return cached result. Empty by default
+     */
+    default Optional<R> findCached(String content) {
+        return Optional.empty();
+    }
+
+    /**
+     * Cache result of content. Does nothing by default
+     * @param content content of diary
+     * @param result result of content
+     */
+    default void cache(String content, R result) {
+    }
+
+    /**
+     * Apply result to DB. Called on write scheduler of the engine
+     * @param task task analyzed
+     * @param result result of content of the task
+     */
+    void applyResult(DiaryAnalyzeTask task, R result);
+
+    /**
+     * Apply failure to DB, after the task exceeded max retry count
+     * @param task task failed
+     */
+    void applyFailure(DiaryAnalyzeTask task);
+
+    /**
+     * Set handler of failure after {@link #applyResult(DiaryAnalyzeTask, Object)} has returned.
+     * (e.g., result written behind failed) Handler retries the task.
+     * Does nothing by default
+     * @param failureHandler called with task and cause
+     */
+    default void setFailureHandler(BiConsumer<DiaryAnalyzeTask, Exception> failureHandler) {
+    }
+}
@@ -45,6 +45,8 @@ public class AuthService {
 
     private final EmailService emailService;
 
+    private final AdminProvisioningService adminProvisioningService;
+
     /**
      * Login.
      * <br/>
@@ -125,6 +127,9 @@ public class AuthService {
                     .password(bCryptPasswordEncoder.encode(req.getPassword()))
                     .build();
 
+            // Operator configured by admin.emails
+            adminProvisioningService.grantIfConfigured(user);
+
             userRepository.save(user);
         }
 
@@ -0,0 +1,403 @@
+package org.diarymoodanalyzer.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.diarymoodanalyzer.annotation.SkipLogging;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.diarymoodanalyzer.dto.ai.response.DiaryAnalyzeResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * Queue of {@link DiaryAnalyzeTask} keyed by <code>diaryId</code>, scheduled fairly between users.
+ * <br/>
+ * At most one task per diary is queued. If a diary is submitted again while its task is still queued,
+ * the queued task is replaced by the task with newer content, keeping its position in the queue.
+ * So the model analyzes only the latest content of frequently edited diary.
+ * <br/>
+ * Each user has its own sub-queue, and sub-queues are dequeued by deficit round-robin.
+ * So a user writing many diaries at once (e.g., bulk import) does not delay diaries of other users.
+ * User whose last result is high-severity gets larger quantum. (See {@link DiaryAnalyzeProperties.Fair})
+ * <br/>
+ * At most <code>max-in-memory</code> tasks are kept in memory. When it is full, tasks of users holding
+ * their fair share of memory or more are spilled to {@link AnalyzeSpillBuffer} without content,
+ * and loaded again in order when the queue has room. While a user has spilled tasks, new tasks of the user are
+ * also spilled to keep the order. Other users are not blocked by them. (See {@link DiaryAnalyzeProperties.Spill})
+ * <br/>
+ * Exposes metrics <code>diary.analyze.queue.depth</code>, <code>diary.analyze.queue.users</code>,
+ * <code>diary.analyze.queue.max-user-depth</code> and <code>diary.analyze.queue.coalesced</code>.
+ */
+@Component
+@ConditionalOnProperty(prefix = "diary-emotion.queue", name = "mode", havingValue = "memory", matchIfMissing = true)
+@SkipLogging // Called on every dispatch
+public class CoalescingTaskQueue implements AnalyzeTaskQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(CoalescingTaskQueue.class);
+
+    /**
+     * Max count of spilled tasks loaded at once
+     */
+    private static final int REFILL_PAGE_SIZE = 256;
+
+    /**
+     * Lower bound of quantum, to make progress on every round
+     */
+    private static final double MIN_QUANTUM = 0.01;
+
+    private final DiaryAnalyzeProperties.Fair properties;
+
+    private final DiaryAnalyzeProperties.Spill spillProperties;
+
+    private final AnalyzeSpillBuffer spillBuffer;
+
+    /**
+     * Load content of spilled tasks
+     */
+    private final DiaryAnalyzeTaskStore taskStore;
+
+    /**
+     * Sub-queue of each user having queued tasks. Guarded by this
+     */
+    private final Map<Long, UserQueue> users = new HashMap<>();
+
+    /**
+     * Sub-queue of each queued diary. Guarded by this
+     */
+    private final Map<Long, UserQueue> diaries = new HashMap<>();
+
+    /**
+     * Sub-queues in round-robin order. Head is the one being dequeued. Guarded by this
+     */
+    private final Deque<UserQueue> rounds = new ArrayDeque<>();
+
+    /**
+     * Count of spilled tasks per sub-queue key. Guarded by this
+     */
+    private final Map<Long, Integer> spilled = new HashMap<>();
+
+    /**
+     * Whether spilled tasks are being loaded. Guarded by this
+     */
+    private boolean refilling = false;
+
+    /**
+     * Users whose last result is high-severity, in order of update. Guarded by this
+     */
+    private final Set<Long> boosted = new LinkedHashSet<>();
+
+    private final Set<String> boostClassifications;
+
+    /**
+     * Count of tasks in memory
+     */
+    private int size = 0;
+
+    private final Counter coalescedCounter;
+
+    public CoalescingTaskQueue(DiaryAnalyzeProperties diaryAnalyzeProperties, AnalyzeSpillBuffer spillBuffer,
+                               DiaryAnalyzeTaskStore taskStore, MeterRegistry meterRegistry) {
+        this.properties = diaryAnalyzeProperties.getFair();
+        this.spillProperties = diaryAnalyzeProperties.getSpill();
+        this.spillBuffer = spillBuffer;
+        this.taskStore = taskStore;
+        this.boostClassifications = new HashSet<>();
+        properties.getBoostClassifications().forEach(value -> boostClassifications.add(value.toLowerCase()));
+
+        Gauge.builder("diary.analyze.queue.depth", this, CoalescingTaskQueue::size)
+                .description("Count of tasks waiting for dispatch")
+                .register(meterRegistry);
+        Gauge.builder("diary.analyze.queue.users", this, CoalescingTaskQueue::userCount)
+                .description("Count of users having tasks waiting for dispatch")
+                .register(meterRegistry);
+        Gauge.builder("diary.analyze.queue.max-user-depth", this, CoalescingTaskQueue::maxUserDepth)
+                .description("Count of waiting tasks of the user having the most")
+                .register(meterRegistry);
+        this.coalescedCounter = Counter.builder("diary.analyze.queue.coalesced")
+                .description("Count of tasks replaced by newer content of the same diary")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Offer task to sub-queue of its user. If a task of the same diary is queued, keep the one with newer content.
+     * <br/>
+     * If the queue is full, the task is spilled to disk.
+     * @param task task to offer
+     * @return task dropped by coalescing (the queued one, or <code>task</code> itself if it is older).
+     * null if nothing is dropped
+     */
+    @Override
+    public synchronized DiaryAnalyzeTask offer(DiaryAnalyzeTask task) {
+        if(shouldSpill(task)) {
+            try {
+                spillBuffer.append(task);
+                spilled.merge(keyOf(task), 1, Integer::sum);
+                return null;
+            } catch (UncheckedIOException e) {
+                // Keep in memory rather than losing the task
+                logger.warn("Failed to spill task : {}", task, e);
+            }
+        }
+
+        return offerInMemory(task);
+    }
+
+    /**
+     * Dequeue tasks by deficit round-robin.
+     * <br/>
+     * Sub-queue at head earns its quantum when its deficit is used up, and dequeues one task per 1 deficit.
+     * Then it is moved to tail. Deficit left by <code>maxElements</code> is kept for the next call.
+     * <br/>
+     * Spilled tasks are loaded first if the queue has room.
+     */
+    @Override
+    public int drainTo(Collection<DiaryAnalyzeTask> collection, int maxElements) {
+        refill();
+
+        return drainInMemory(collection, maxElements);
+    }
+
+    private DiaryAnalyzeTask offerInMemory(DiaryAnalyzeTask task) {
+        UserQueue queue = diaries.get(task.getDiaryId());
+
+        if(queue == null) {
+            queue = users.computeIfAbsent(keyOf(task), UserQueue::new);
+            if(queue.tasks.isEmpty()) {
+                rounds.addLast(queue);
+            }
+
+            queue.tasks.put(task.getDiaryId(), task);
+            diaries.put(task.getDiaryId(), queue);
+            size++;
+            return null;
+        }
+
+        DiaryAnalyzeTask queued = queue.tasks.get(task.getDiaryId());
+
+        // Same task offered again. e.g., lease expired while it is queued
+        if(queued == task) {
+            return null;
+        }
+        // Retry of other analyzers of the same task
+        if(queued.getTaskId() != null && queued.getTaskId().equals(task.getTaskId())) {
+            queued.mergeAnalyzers(task);
+            return null;
+        }
+
+        coalescedCounter.increment();
+
+        if(task.getContentVersion() >= queued.getContentVersion()) {
+            // Replacing value of existing key keeps the position
+            queue.tasks.put(task.getDiaryId(), task);
+            return queued;
+        }
+        return task;
+    }
+
+    private synchronized int drainInMemory(Collection<DiaryAnalyzeTask> collection, int maxElements) {
+        int count = 0;
+
+        while(count < maxElements && !rounds.isEmpty()) {
+            UserQueue queue = rounds.peekFirst();
+
+            if(queue.deficit < 1) {
+                queue.deficit += quantumOf(queue.userId);
+            }
+
+            Iterator<DiaryAnalyzeTask> iterator = queue.tasks.values().iterator();
+            while(count < maxElements && queue.deficit >= 1 && iterator.hasNext()) {
+                DiaryAnalyzeTask task = iterator.next();
+                iterator.remove();
+                diaries.remove(task.getDiaryId());
+                size--;
+
+                collection.add(task);
+                queue.deficit -= 1;
+                count++;
+            }
+
+            if(queue.tasks.isEmpty()) {
+                // Idle user does not keep deficit
+                rounds.pollFirst();
+                users.remove(queue.userId);
+            } else if(queue.deficit < 1) {
+                rounds.addLast(rounds.pollFirst());
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Boost the user if the result is high-severity, otherwise remove boost.
+     */
+    @Override
+    public synchronized void reportResult(DiaryAnalyzeTask task, DiaryAnalyzeResponse res) {
+        if(task.getUserId() == null || res == null) {
+            return;
+        }
+
+        boosted.remove(task.getUserId());
+        if(isHighSeverity(res)) {
+            boosted.add(task.getUserId());
+
+            // Evict the oldest one
+            if(boosted.size() > properties.getMaxTrackedUsers()) {
+                Iterator<Long> iterator = boosted.iterator();
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public synchronized Map<Long, Integer> depthByUser() {
+        Map<Long, Integer> depths = new HashMap<>();
+        users.forEach((userId, queue) -> depths.put(userId, queue.tasks.size()));
+        return depths;
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return size == 0 && spillBuffer.isEmpty();
+    }
+
+    /**
+     * Count of tasks in memory and spilled to disk
+     */
+    @Override
+    public synchronized int size() {
+        return (int) Math.min(Integer.MAX_VALUE, size + spillBuffer.size());
+    }
+
+    /**
+     * Check the user is boosted by the last result
+     * @param userId id of user
+     * @return true if the last result of the user is high-severity
+     */
+    public synchronized boolean isBoosted(Long userId) {
+        return boosted.contains(userId);
+    }
+
+    private synchronized int userCount() {
+        return users.size();
+    }
+
+    private synchronized int maxUserDepth() {
+        return users.values().stream().mapToInt(queue -> queue.tasks.size()).max().orElse(0);
+    }
+
+    /**
+     * Spill if spilled tasks of the user remain, to keep the order of the user.
+     * Otherwise, spill only if the queue is full and the user has its fair share of memory or more.
+     * So a user with few tasks is not queued behind spilled tasks of others.
+     * Memory is bounded by twice of <code>max-in-memory</code>.
+     * <br/>
+     * Task coalesced with queued one is not spilled
+     */
+    private boolean shouldSpill(DiaryAnalyzeTask task) {
+        if(!spillProperties.isEnabled() || diaries.containsKey(task.getDiaryId())) {
+            return false;
+        }
+
+        Long key = keyOf(task);
+        if(spilled.containsKey(key)) {
+            return true;
+        }
+        if(size < spillProperties.getMaxInMemory()) {
+            return false;
+        }
+
+        UserQueue queue = users.get(key);
+        int depth = queue == null ? 0 : queue.tasks.size();
+        return depth >= spillProperties.getMaxInMemory() / (users.size() + 1)
+                || size >= 2L * spillProperties.getMaxInMemory();
+    }
+
+    /**
+     * Load spilled tasks with content from DB while the queue has room. DB is accessed without holding the lock.
+     * <br/>
+     * Entries are removed from spill buffer only after loaded. If loading failed, they are loaded again on next call.
+     */
+    private void refill() {
+        List<AnalyzeSpillBuffer.Entry> entries;
+        synchronized (this) {
+            int room = spillProperties.getMaxInMemory() - size;
+            if(refilling || room <= 0 || spillBuffer.isEmpty()) {
+                return;
+            }
+            entries = spillBuffer.peek(Math.min(room, REFILL_PAGE_SIZE));
+            refilling = true;
+        }
+
+        List<DiaryAnalyzeTask> tasks;
+        try {
+            tasks = taskStore.loadSpilled(entries);
+        } catch (RuntimeException e) {
+            logger.error("Failed to load spilled tasks. size : {}", entries.size(), e);
+            synchronized (this) {
+                refilling = false;
+            }
+            return;
+        }
+
+        List<DiaryAnalyzeTask> dropped = new ArrayList<>();
+        synchronized (this) {
+            spillBuffer.remove(entries.size());
+            for(AnalyzeSpillBuffer.Entry entry : entries) {
+                spilled.computeIfPresent(keyOf(entry.userId()), (key, count) -> count > 1 ? count - 1 : null);
+            }
+
+            for(DiaryAnalyzeTask task : tasks) {
+                DiaryAnalyzeTask value = offerInMemory(task);
+                if(value != null) {
+                    dropped.add(value);
+                }
+            }
+            refilling = false;
+        }
+        dropped.forEach(taskStore::markSuperseded);
+    }
+
+    /**
+     * Key of sub-queue. All tasks share one sub-queue if fair scheduling is disabled. (FIFO)
+     */
+    private Long keyOf(DiaryAnalyzeTask task) {
+        return keyOf(task.getUserId());
+    }
+
+    private Long keyOf(Long userId) {
+        return properties.isEnabled() ? userId : null;
+    }
+
+    private double quantumOf(Long userId) {
+        double quantum = Math.max(MIN_QUANTUM, properties.getQuantum());
+        return userId != null && boosted.contains(userId) ? quantum * Math.max(1, properties.getBoostWeight()) : quantum;
+    }
+
+    private boolean isHighSeverity(DiaryAnalyzeResponse res) {
+        return res.getDepression_score() >= properties.getBoostScoreThreshold()
+                || (res.getClassification() != null && boostClassifications.contains(res.getClassification().toLowerCase()));
+    }
+
+    /**
+     * Sub-queue of a user. Tasks in insertion order of diary
+     */
+    private static class UserQueue {
+
+        private final Long userId;
+
+        private final Map<Long, DiaryAnalyzeTask> tasks = new LinkedHashMap<>();
+
+        private double deficit = 0;
+
+        private UserQueue(Long userId) {
+            this.userId = userId;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package org.diarymoodanalyzer.service;
+
+import org.diarymoodanalyzer.annotation.SkipLogging;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.diarymoodanalyzer.domain.DailyMoodRollup;
+import org.diarymoodanalyzer.repository.DailyMoodRollupRepository;
+import org.diarymoodanalyzer.repository.DiaryRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Maintain {@link DailyMoodRollup} incrementally.
+ * <br/>
+ * When analyze result of a diary is saved, changed or the diary is deleted,
+ * only the bucket of the owner and the day is aggregated again from diaries of that day.
+ * So the cost is bounded by diaries of a day, not by the history of the user.
+ * <br/>
+ * Existing data is aggregated by {@link #rebuild()}, page by page of users. Started on startup if the table is empty.
+ * <br/>
+ * Each transaction locks rows of the users in id order first. So concurrent refreshes and rebuild of the same user
+ * are serialized without deadlock. Buckets failed to refresh are retried every <code>rollup.retry-interval-millis</code>.
+ * <br/>
+ * {@link MoodRollupChangedEvent} is published after rollups are committed. Not published for failed buckets,
+ * so cached stats are kept until the retry succeeds instead of being reloaded from the stale rollup.
+ */
+@Service
+@SkipLogging // Called on every flush of results
+public class DailyMoodRollupService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DailyMoodRollupService.class);
+
+    /**
+     * Condition of diary with final result of AI server
+     */
+    static final String HAS_RESULT = """
+            d.analyze_provisional = FALSE AND d.depression_score >= 0
+                AND (d.v IS NOT NULL OR d.classification IS NOT NULL)""";
+
+    static final String AGGREGATES = """
+            COUNT(*), SUM(d.depression_score), MIN(d.depression_score), MAX(d.depression_score),
+                COUNT(d.v), COALESCE(SUM(d.v), 0), COALESCE(SUM(d.a), 0), COALESCE(SUM(d.d), 0)""";
+
+    static final String COLUMNS = """
+            (user_id, rollup_date, diary_count, sum_score, min_score, max_score, vad_count, sum_v, sum_a, sum_d)""";
+
+    /**
+     * Condition of diaries of a bucket. Parameters : user id, start and end of the day
+     */
+    static final String BUCKET_DIARIES = "d.user_id = ? AND d.created_at >= ? AND d.created_at < ? AND " + HAS_RESULT;
+
+    static final String LOCK_USER_SQL = "SELECT id FROM users WHERE id = ? FOR UPDATE";
+
+    /**
+     * Aggregate a bucket, inserted or updated. Parameters : date, user id, start and end of the day
+     */
+    static final String MERGE_BUCKET_SQL = "MERGE INTO daily_mood_rollup " + COLUMNS + " KEY (user_id, rollup_date)"
+            + " SELECT d.user_id, CAST(? AS DATE), " + AGGREGATES
+            + " FROM diaries d WHERE " + BUCKET_DIARIES
+            + " GROUP BY d.user_id";
+
+    /**
+     * Delete a bucket without result. Parameters : user id, date, user id, start and end of the day
+     */
+    static final String DELETE_EMPTY_BUCKET_SQL = "DELETE FROM daily_mood_rollup WHERE user_id = ? AND rollup_date = ?"
+            + " AND NOT EXISTS (SELECT 1 FROM diaries d WHERE " + BUCKET_DIARIES + ")";
+
+    static final String LOCK_USERS_SQL = "SELECT id FROM users WHERE id > ? AND id <= ? ORDER BY id FOR UPDATE";
+
+    static final String DELETE_USERS_SQL = "DELETE FROM daily_mood_rollup WHERE user_id > ? AND user_id <= ?";
+
+    /**
+     * Aggregate all buckets of users in id range. Parameters : exclusive first id, inclusive last id
+     */
+    static final String INSERT_USERS_SQL = "INSERT INTO daily_mood_rollup " + COLUMNS
+            + " SELECT d.user_id, CAST(d.created_at AS DATE), " + AGGREGATES
+            + " FROM diaries d WHERE d.user_id > ? AND d.user_id <= ? AND " + HAS_RESULT
+            + " GROUP BY d.user_id, CAST(d.created_at AS DATE)";
+
+    static final String USER_PAGE_SQL = "SELECT id FROM users WHERE id > ? ORDER BY id LIMIT ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final DiaryRepository diaryRepository;
+
+    private final DailyMoodRollupRepository rollupRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ThreadPoolTaskExecutor executor;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final int rebuildPageSize;
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean(false);
+
+    /**
+     * Buckets failed to refresh, retried by {@link #retryFailed()}
+     */
+    private final Set<DailyMoodRollup.Key> failedKeys = ConcurrentHashMap.newKeySet();
+
+    public DailyMoodRollupService(JdbcTemplate jdbcTemplate, DiaryRepository diaryRepository,
+                                  DailyMoodRollupRepository rollupRepository, PlatformTransactionManager transactionManager,
+                                  ThreadPoolTaskExecutor executor, ApplicationEventPublisher eventPublisher,
+                                  DiaryAnalyzeProperties diaryAnalyzeProperties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.diaryRepository = diaryRepository;
+        this.rollupRepository = rollupRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.executor = executor;
+        this.eventPublisher = eventPublisher;
+        this.rebuildPageSize = Math.max(1, diaryAnalyzeProperties.getRollup().getRebuildPageSize());
+    }
+
+    /**
+     * Find buckets of diaries. Call before the diaries are deleted
+     * @param diaryIds id list of diaries
+     * @return keys of buckets. Deleted diaries are skipped
+     */
+    public Set<DailyMoodRollup.Key> keysOf(Collection<Long> diaryIds) {
+        Set<DailyMoodRollup.Key> keys = new LinkedHashSet<>();
+        if(diaryIds.isEmpty()) {
+            return keys;
+        }
+
+        for(Object[] row : diaryRepository.findUserIdAndCreatedAtByIds(diaryIds)) {
+            keys.add(new DailyMoodRollup.Key((Long) row[0], ((LocalDateTime) row[1]).toLocalDate()));
+        }
+        return keys;
+    }
+
+    /**
+     * Aggregate buckets of diaries again. Call after change of diaries is committed
+     * @param diaryIds id list of diaries
+     */
+    public void refreshDiaries(Collection<Long> diaryIds) {
+        Set<DailyMoodRollup.Key> keys;
+        try {
+            keys = keysOf(diaryIds);
+        } catch (RuntimeException e) {
+            // Repaired by rebuild
+            logger.warn("Failed to find daily mood rollup of diaries : {}", diaryIds, e);
+            return;
+        }
+        refresh(keys);
+    }
+
+    /**
+     * Aggregate buckets again. Bucket without result is deleted.
+     * <br/>
+     * Never throws, so the write path of results is not affected.
+     * If the batch failed, buckets are refreshed one by one, and buckets failed again are retried later.
+     * Cached stats are invalidated only for users of refreshed buckets.
+     * @param keys keys of buckets
+     */
+    public void refresh(Collection<DailyMoodRollup.Key> keys) {
+        if(keys.isEmpty()) {
+            return;
+        }
+
+        List<DailyMoodRollup.Key> refreshed = new ArrayList<>(keys);
+        try {
+            aggregate(refreshed);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to refresh daily mood rollup : {}", refreshed, e);
+            refreshed = retryEach(refreshed);
+        }
+
+        if(!refreshed.isEmpty()) {
+            eventPublisher.publishEvent(new MoodRollupChangedEvent(
+                    refreshed.stream().map(DailyMoodRollup.Key::getUserId).collect(Collectors.toSet())));
+        }
+    }
+
+    /**
+     * Refresh buckets failed before
+     */
+    @Scheduled(fixedDelayString = "${diary-emotion.rollup.retry-interval-millis:30000}")
+    public void retryFailed() {
+        if(failedKeys.isEmpty()) {
+            return;
+        }
+
+        List<DailyMoodRollup.Key> keys = new ArrayList<>(failedKeys);
+        failedKeys.removeAll(keys);
+        refresh(keys);
+    }
+
+    /**
+     * Count of buckets waiting for retry
+     */
+    public int failedCount() {
+        return failedKeys.size();
+    }
+
+    /**
+     * Refresh buckets one by one, so a failing bucket does not hold back the others. Failed ones are kept for retry
+     * @return buckets refreshed
+     */
+    private List<DailyMoodRollup.Key> retryEach(List<DailyMoodRollup.Key> keys) {
+        List<DailyMoodRollup.Key> refreshed = new ArrayList<>(keys.size());
+        for(DailyMoodRollup.Key key : keys) {
+            if(keys.size() > 1) {
+                try {
+                    aggregate(List.of(key));
+                    refreshed.add(key);
+                    continue;
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to refresh daily mood rollup : {}", key, e);
+                }
+            }
+            failedKeys.add(key);
+        }
+        return refreshed;
+    }
+
+    /**
+     * Merge aggregates of buckets, and delete buckets without result, in a transaction
+     */
+    private void aggregate(List<DailyMoodRollup.Key> keys) {
+        transactionTemplate.executeWithoutResult(status -> {
+            // Same order in every transaction, so concurrent refreshes do not deadlock
+            keys.stream().map(DailyMoodRollup.Key::getUserId).distinct().sorted()
+                    .forEach(userId -> jdbcTemplate.queryForList(LOCK_USER_SQL, Long.class, userId));
+
+            jdbcTemplate.batchUpdate(MERGE_BUCKET_SQL, keys, keys.size(), (ps, key) -> {
+                ps.setDate(1, Date.valueOf(key.getDay()));
+                setBucket(ps, 2, key);
+            });
+            jdbcTemplate.batchUpdate(DELETE_EMPTY_BUCKET_SQL, keys, keys.size(), (ps, key) -> {
+                ps.setLong(1, key.getUserId());
+                ps.setDate(2, Date.valueOf(key.getDay()));
+                setBucket(ps, 3, key);
+            });
+        });
+    }
+
+    /**
+     * Set parameters of {@link #BUCKET_DIARIES} from <code>index</code>
+     */
+    private static void setBucket(PreparedStatement ps, int index, DailyMoodRollup.Key key) throws SQLException {
+        ps.setLong(index, key.getUserId());
+        ps.setTimestamp(index + 1, Timestamp.valueOf(key.getDay().atStartOfDay()));
+        ps.setTimestamp(index + 2, Timestamp.valueOf(key.getDay().plusDays(1).atStartOfDay()));
+    }
+
+    /**
+     * Start rebuild on startup if rollup is empty. (e.g., existing data, or in-memory DB)
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildIfEmpty() {
+        if(rollupRepository.count() == 0 && diaryRepository.count() > 0) {
+            startRebuild();
+        }
+    }
+
+    /**
+     * Start {@link #rebuild()} on executor
+     * @return false if rebuild is running already
+     */
+    public boolean startRebuild() {
+        if(!rebuilding.compareAndSet(false, true)) {
+            return false;
+        }
+
+        executor.execute(() -> {
+            try {
+                rebuild();
+            } catch (RuntimeException e) {
+                logger.error("Failed to rebuild daily mood rollup", e);
+            } finally {
+                rebuilding.set(false);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Aggregate all buckets again from diaries, <code>rollup.rebuild-page-size</code> users per transaction.
+     * <br/>
+     * Aggregation runs in DB, so memory does not grow with count of diaries.
+     * @return count of users aggregated
+     */
+    public long rebuild() {
+        long start = System.currentTimeMillis();
+        long afterId = 0;
+        long count = 0;
+
+        List<Long> page;
+        do {
+            page = jdbcTemplate.queryForList(USER_PAGE_SQL, Long.class, afterId, rebuildPageSize);
+            if(page.isEmpty()) {
+                break;
+            }
+
+            long from = afterId;
+            long to = page.get(page.size() - 1);
+            transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.queryForList(LOCK_USERS_SQL, Long.class, from, to);
+                jdbcTemplate.update(DELETE_USERS_SQL, from, to);
+                jdbcTemplate.update(INSERT_USERS_SQL, from, to);
+            });
+            eventPublisher.publishEvent(new MoodRollupChangedEvent(Set.copyOf(page)));
+
+            afterId = to;
+            count += page.size();
+        } while(page.size() == rebuildPageSize);
+
+        logger.info("Rebuilt daily mood rollup of {} users in {} ms", count, System.currentTimeMillis() - start);
+        return count;
+    }
+
+    /**
+     * Whether rebuild is running
+     */
+    public boolean isRebuilding() {
+        return rebuilding.get();
+    }
+}
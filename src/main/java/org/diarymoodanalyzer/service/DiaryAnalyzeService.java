@@ -1,120 +1,666 @@
 package org.diarymoodanalyzer.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.transaction.Transactional;
-import org.diarymoodanalyzer.client.DiaryAnalyzeClient;
-import org.diarymoodanalyzer.client.DiaryEmotionClient;
-import org.diarymoodanalyzer.domain.DepressionLevel;
-import org.diarymoodanalyzer.domain.Diary;
-import org.diarymoodanalyzer.dto.ai.request.DiaryAnalyzeRequest;
-import org.diarymoodanalyzer.dto.ai.request.DiaryEmotionRequest;
-import org.diarymoodanalyzer.dto.ai.response.DiaryAnalyzeResponse;
-import org.diarymoodanalyzer.dto.ai.response.DiaryEmotionResponse;
-import org.diarymoodanalyzer.repository.DiaryRepository;
-import org.springframework.scheduling.annotation.Async;
+import org.diarymoodanalyzer.annotation.SkipLogging;
+import org.diarymoodanalyzer.client.AnalyzeCircuitBreaker;
+import org.diarymoodanalyzer.client.AnalyzeConcurrencyLimiter;
+import org.diarymoodanalyzer.client.AnalyzeErrorClass;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
- * Service class for analyze {@link org.diarymoodanalyzer.domain.Diary Diary} asynchronously.
+ * Engine to analyze {@link org.diarymoodanalyzer.domain.Diary Diary} asynchronously by {@link Analyzer}s.
  * <br/>
- * Limit request rate by scheduled polling to reduce load on the AI server. <br/>
- * This class created for replace <code>DiaryEmotionService</code> (already deprecated)
+ * Tasks are drained from queue as batch, and each enabled analyzer sends the batch to its AI server
+ * through non-blocking reactive pipeline. (e.g., <code>/analyze/batch</code> by {@link VadAnalyzer})
+ * Batch size, linger time and max in-flight batches are set by {@link DiaryAnalyzeProperties.Batch}. <br/>
+ * State of each task is persisted by {@link DiaryAnalyzeTaskStore}, and unfinished tasks are re-queued on startup. <br/>
+ * Queue, worker pool, concurrency limit, retry with backoff and metrics are shared by all analyzers.
+ * Exposes metrics <code>diary.analyze.analyzer.latency</code> and <code>diary.analyze.analyzer.results</code>
+ * tagged by analyzer. <br/>
+ * This class created for replace <code>DiaryEmotionService</code> (already deprecated),
+ * which is now run as {@link EmotionAnalyzer}
  */
 @Service
+@SkipLogging // Skip AOP logging because this class use scheduled methods
 public class DiaryAnalyzeService {
-    private final BlockingQueue<DiaryAnalyzeTask> taskQueue = new LinkedBlockingQueue<>();
 
-    private final DiaryAnalyzeClient client;
+    private static final Logger logger = LoggerFactory.getLogger(DiaryAnalyzeService.class);
 
-    private final DiaryRepository diaryRepository;
+    /**
+     * In-memory queue coalescing tasks per diary, or Redis stream shared by nodes. (<code>diary-emotion.queue.mode</code>)
+     */
+    private final AnalyzeTaskQueue taskQueue;
+
+    /**
+     * Enabled analyzers, in order of applying results
+     */
+    private final List<Analyzer<?, ?>> analyzers;
+
+    /**
+     * Names of enabled analyzers marking the task as <code>DONE</code>. (See {@link Analyzer#ownsTask()})
+     */
+    private final Set<String> taskOwners;
+
+    private final DiaryAnalyzeTaskStore taskStore;
+
+    /**
+     * Hold failed tasks until backoff delay has passed
+     */
+    private final AnalyzeRetryScheduler retryScheduler;
+
+    /**
+     * Offer submitted task to queue only after the transaction of caller is committed
+     */
+    private final AfterCommitDispatcher dispatcher;
+
+    /**
+     * Scheduler to write results to DB and look up caches. Dedicated bounded pool.
+     * <br/>
+     * Not backed by the shared executor, whose <code>CallerRunsPolicy</code> would run blocking JDBC
+     * on the event loop thread of HTTP client when its queue is full.
+     */
+    private final Scheduler writeScheduler;
+
+    private final DiaryAnalyzeProperties.Batch batchProperties;
+
+    private final DiaryAnalyzeProperties.Task taskProperties;
+
+    /**
+     * Adaptive limit of requests in flight. A batch holds one permit, and acquires more to send requests concurrently
+     */
+    private final AnalyzeConcurrencyLimiter limiter;
 
     /**
-     * Max retry count of task
+     * Park tasks in queue while AI server is down
      */
-    private static final int maxRetryCount = 3;
+    private final AnalyzeCircuitBreaker circuitBreaker;
+
+    /**
+     * Hard upper bound of batches in flight
+     */
+    private final int maxInFlight;
+
+    /**
+     * Batches drained from queue. Consumed by reactive pipeline
+     */
+    private final Sinks.Many<Dispatch> batchSink = Sinks.many().unicast().onBackpressureBuffer();
+
+    private Disposable pipeline;
+
+    /**
+     * Metrics per name of analyzer
+     */
+    private final Map<String, AnalyzerMetrics> metrics = new HashMap<>();
 
     // Will be injected by Spring container
-    public DiaryAnalyzeService(DiaryAnalyzeClient client, DiaryRepository diaryRepository) {
-        this.client = client;
-        this.diaryRepository = diaryRepository;
+    public DiaryAnalyzeService(AnalyzeTaskQueue taskQueue, List<Analyzer<?, ?>> analyzers, AnalyzeConcurrencyLimiter limiter,
+                               AnalyzeCircuitBreaker circuitBreaker, DiaryAnalyzeTaskStore taskStore, AnalyzeRetryScheduler retryScheduler,
+                               AfterCommitDispatcher dispatcher, DiaryAnalyzeProperties properties,
+                               MeterRegistry meterRegistry) {
+        this.taskQueue = taskQueue;
+        this.analyzers = analyzers.stream().filter(analyzer -> properties.isAnalyzerEnabled(analyzer.getName())).toList();
+        this.taskOwners = this.analyzers.stream().filter(Analyzer::ownsTask).map(Analyzer::getName)
+                .collect(Collectors.toUnmodifiableSet());
+        this.limiter = limiter;
+        this.circuitBreaker = circuitBreaker;
+        this.taskStore = taskStore;
+        this.retryScheduler = retryScheduler;
+        this.dispatcher = dispatcher;
+        this.batchProperties = properties.getBatch();
+        this.taskProperties = properties.getTask();
+        this.maxInFlight = Math.max(1, batchProperties.getMaxInFlight());
+        this.writeScheduler = Schedulers.newBoundedElastic(Schedulers.DEFAULT_BOUNDED_ELASTIC_SIZE,
+                Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE, "diary-analyze-write");
+
+        for(Analyzer<?, ?> analyzer : this.analyzers) {
+            // Failure after the result is applied. (e.g., write-behind) Only the analyzer is retried
+            analyzer.setFailureHandler((task, e) -> handleTaskFailure(task.retryAnalyzers(Set.of(analyzer.getName())), e));
+            metrics.put(analyzer.getName(), new AnalyzerMetrics(analyzer.getName(), meterRegistry));
+        }
+
+        logger.info("Analyzers : {}", this.analyzers.stream().map(Analyzer::getName).toList());
+
+        // Drain backlog from small limit after AI server recovered
+        circuitBreaker.addListener((from, to) -> {
+            if(to == AnalyzeCircuitBreaker.State.CLOSED) {
+                limiter.reset();
+            }
+        });
     }
 
     /**
-     * Offer task to queue.
+     * Persist task and offer it to queue.
+     * <br/>
+     * Persisting joins the transaction of caller. (e.g., <code>DiaryService.addDiary</code>)
+     * So no diary can exist without a task. <br/>
+     * Task is offered to queue after the transaction is committed, and dropped on rollback.
+     * So worker never reads a diary not committed yet.
      * @param task task to offer
      */
+    @Transactional
     public void submitTask(DiaryAnalyzeTask task) {
-        if(!taskQueue.offer(task)) {
-            // Will be replaced to Logger
-            System.err.println("taskQueue is full. drop task : " + task);
+        if(task.getTaskId() == null) {
+            task.setTaskId(taskStore.create(task.getDiaryId()));
+        }
+
+        dispatcher.afterCommit("analyze task of diary " + task.getDiaryId(), () -> enqueue(task));
+    }
+
+    /**
+     * Re-queue unfinished tasks when the application started.
+     * <br/>
+     * <code>PENDING</code> tasks and <code>IN_FLIGHT</code> tasks whose lease has expired are loaded page by page.
+     * Tasks rejected by the queue are skipped. (e.g., entry of shared queue still exists. See {@link AnalyzeTaskQueue#recover(java.util.function.Consumer)})
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverTasks() {
+        taskQueue.recover(filter -> {
+            int pageSize = taskProperties.getRecoveryPageSize();
+            long afterId = 0;
+            int count = 0;
+
+            List<DiaryAnalyzeTask> page;
+            do {
+                page = taskStore.findPending(afterId, pageSize);
+                count += enqueueIf(page, filter);
+
+                if(!page.isEmpty()) {
+                    afterId = page.get(page.size() - 1).getTaskId();
+                }
+            } while(page.size() == pageSize);
+
+            List<DiaryAnalyzeTask> expired;
+            do {
+                expired = taskStore.reclaimLeaseExpired(pageSize);
+                count += enqueueIf(expired, filter);
+            } while(expired.size() == pageSize);
+
+            if(count > 0) {
+                logger.info("Re-queued unfinished analyze tasks : {}", count);
+            }
+        });
+    }
+
+    private int enqueueIf(List<DiaryAnalyzeTask> tasks, Predicate<DiaryAnalyzeTask> filter) {
+        int count = 0;
+        for(DiaryAnalyzeTask task : tasks) {
+            if(filter.test(task)) {
+                enqueue(task);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Re-queue <code>IN_FLIGHT</code> tasks whose lease has expired.
+     * <br/>
+     * The worker holding the task may have crashed or hung.
+     */
+    @Scheduled(fixedDelayString = "${diary-emotion.task.reclaim-interval-millis:60000}")
+    public void reclaimLeaseExpiredTasks() {
+        int count = reclaimLeaseExpired();
+
+        if(count > 0) {
+            logger.warn("Re-queued analyze tasks with expired lease : {}", count);
+        }
+    }
+
+    private int reclaimLeaseExpired() {
+        int pageSize = taskProperties.getRecoveryPageSize();
+        int count = 0;
+
+        List<DiaryAnalyzeTask> page;
+        do {
+            page = taskStore.reclaimLeaseExpired(pageSize);
+            page.forEach(this::enqueue);
+            count += page.size();
+        } while(page.size() == pageSize);
+
+        return count;
+    }
+
+    /**
+     * Re-queue a dead letter (<code>FAILED</code> task) with retry count reset.
+     * @param taskId id of failed task
+     * @throws org.diarymoodanalyzer.exception.NotFoundException if there is no failed task, or the diary has deleted
+     */
+    public void replayDeadLetter(Long taskId) {
+        DiaryAnalyzeTask task = taskStore.replay(taskId);
+        enqueue(task);
+
+        logger.info("Replay dead letter : {}", task);
+    }
+
+    /**
+     * Offer task to {@link AnalyzeTaskQueue}.
+     * <br/>
+     * On memory mode, if a task of the same diary is queued, only the task with newer content is kept.
+     * Dropped task is marked as <code>DONE</code>.
+     * @param task task to offer
+     */
+    private void enqueue(DiaryAnalyzeTask task) {
+        DiaryAnalyzeTask dropped = taskQueue.offer(task);
+
+        if(dropped != null) {
+            logger.debug("Coalesced task of diary : {} version : {}", dropped.getDiaryId(), dropped.getContentVersion());
+            taskStore.markSuperseded(dropped);
+        }
+    }
+
+    /**
+     * Start reactive pipeline of batches.
+     * <br/>
+     * Batches emitted to <code>batchSink</code> are sent to AI server by <code>flatMap</code>
+     * with <code>max-in-flight</code> concurrency. No thread is held while waiting for the response.
+     * Actual concurrency is controlled by {@link AnalyzeConcurrencyLimiter}, one permit per request in flight.
+     */
+    @PostConstruct
+    public void startPipeline() {
+        pipeline = batchSink.asFlux()
+                .flatMap(dispatch -> analyzeBatch(dispatch.tasks())
+                        .doFinally(signal -> {
+                            limiter.release();
+                            // Probe may end without request. (e.g., served from cache)
+                            if(dispatch.isProbe()) {
+                                circuitBreaker.finishProbe(dispatch.probe());
+                            }
+                        }), maxInFlight)
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stopPipeline() {
+        if(pipeline != null) {
+            pipeline.dispose();
         }
+        writeScheduler.dispose();
     }
 
     /**
-     * Get task from queue and process it asynchronously.
+     * Drain tasks from queue as batches and emit them to reactive pipeline.
+     * <br/>
+     * Called every <code>linger-millis</code>. So a task waits at most <code>linger-millis</code> before dispatch,
+     * and each batch contains at most <code>size</code> tasks.
+     * Each batch takes a permit of {@link AnalyzeConcurrencyLimiter}, and dispatch stops when no permit is left.
+     * <br/>
+     * While {@link AnalyzeCircuitBreaker} is open, tasks are parked in queue.
+     * On half-open, a single task is sent as probe. If the probe ends without request, permission is given back.
      * <br/>
-     * Using {@link Scheduled Scheduled} with <code>fixedDelay</code> to limit request rate.
+     * Failed tasks whose backoff delay has passed are moved from {@link AnalyzeRetryScheduler} to queue first.
      */
-    @Scheduled(fixedDelay = 200) // Use fixed delay to limit request rate
+    @Scheduled(fixedDelayString = "${diary-emotion.batch.linger-millis:200}")
     public void processQueue() {
-        // pop from queue
-        DiaryAnalyzeTask task = taskQueue.poll();
+        retryScheduler.releaseDue(this::enqueue);
+
+        // If batch is disabled, dispatch one task per request
+        int batchSize = batchProperties.isEnabled() ? Math.max(1, batchProperties.getSize()) : 1;
+
+        while(!taskQueue.isEmpty() && circuitBreaker.tryAcquirePermission()) {
+            boolean probe = circuitBreaker.getState() == AnalyzeCircuitBreaker.State.HALF_OPEN;
+
+            if(!limiter.tryAcquire()) {
+                circuitBreaker.cancelPermission();
+                return;
+            }
+
+            // Probe with single task
+            int size = probe ? 1 : batchSize;
+            List<DiaryAnalyzeTask> batch = new ArrayList<>(size);
+            taskQueue.drainTo(batch, size);
+
+            if(batch.isEmpty()) {
+                limiter.release();
+                circuitBreaker.cancelPermission();
+                return;
+            }
+
+            // Hold lease while the batch is processed
+            try {
+                taskStore.markInFlight(batch.stream().filter(this::ownsStatus).toList(), taskProperties.getLeaseSeconds());
+            } catch (RuntimeException e) {
+                // Lease is only used for recovery. Keep processing
+                logger.warn("Failed to mark tasks as in-flight. size : {}", batch.size(), e);
+            }
+
+            // Only this method emits, so emission is serialized
+            Sinks.EmitResult result = batchSink.tryEmitNext(new Dispatch(batch, probe ? circuitBreaker.currentProbe() : 0));
+            if(result.isFailure()) {
+                // Pipeline is not available. Put tasks back to queue
+                limiter.release();
+                circuitBreaker.cancelPermission();
+                batch.forEach(task -> {
+                    enqueue(task);
+                    taskQueue.acknowledge(task);
+                });
+                logger.warn("Failed to dispatch batch. size : {} result : {}", batch.size(), result);
+                return;
+            }
+
+            // Wait result of the probe
+            if(probe) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Run all analyzers for batch of tasks and apply results.
+     * <br/>
+     * Analyzers run concurrently as many as permits of limiter. Results are applied on <code>writeScheduler</code>, not on the thread of HTTP client.
+     * Result of each analyzer is applied independently. Analyzers failed for a task are retried by calling <code>handleTaskFailure</code>.
+     * @param batch tasks to process
+     * @return {@link Mono} completes when all tasks in the batch are processed. Never emits error
+     */
+    private Mono<Void> analyzeBatch(List<DiaryAnalyzeTask> batch) {
+        logger.debug("Processing batch. size : {}", batch.size());
+
+        return withPermits(analyzers, analyzer -> run(analyzer, batch))
+                .collectList()
+                .publishOn(writeScheduler)
+                .doOnNext(outcomes -> applyOutcomes(batch, outcomes))
+                .then()
+                .onErrorResume(e -> {
+                    handleBatchFailure(batch, e);
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * Run an analyzer for batch of tasks.
+     * <br/>
+     * Tasks whose content is cached by the analyzer are not requested.
+     * Lookup may access Redis, so it runs on <code>writeScheduler</code>.
+     * Tasks retrying other analyzers only are skipped. (See {@link DiaryAnalyzeTask#runs(String)})
+     * @param analyzer analyzer to run
+     * @param batch tasks to process
+     * @return {@link Mono} emits result or error of each task. Never emits error
+     */
+    private <Q, R> Mono<Outcome<?, ?>> run(Analyzer<Q, R> analyzer, List<DiaryAnalyzeTask> batch) {
+        Outcome<Q, R> outcome = new Outcome<>(analyzer, batch);
+        AnalyzerMetrics analyzerMetrics = metrics.get(analyzer.getName());
+
+        return Mono.defer(() -> {
+                    long start = System.nanoTime();
+
+                    return Mono.fromCallable(() -> {
+                                List<Integer> misses = new ArrayList<>(batch.size());
+                                for(int i = 0; i < batch.size(); i++) {
+                                    if(outcome.isSkipped(i)) {
+                                        continue;
+                                    }
+                                    int index = i;
+                                    analyzer.findCached(batch.get(i).getContent()).ifPresentOrElse(
+                                            res -> outcome.succeed(index, res, true),
+                                            () -> misses.add(index));
+                                }
+                                return misses;
+                            })
+                            .subscribeOn(writeScheduler)
+                            .flatMap(misses -> request(analyzer, batch, misses, outcome))
+                            .onErrorResume(e -> {
+                                outcome.failRemaining(e);
+                                return Mono.empty();
+                            })
+                            .doFinally(signal -> analyzerMetrics.latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+                })
+                .then(Mono.<Outcome<?, ?>>fromCallable(() -> {
+                    analyzerMetrics.record(outcome);
+                    return outcome;
+                }));
+    }
+
+    /**
+     * Send tasks not cached to AI server of the analyzer.
+     * <br/>
+     * If the analyzer does not support batch request, fall back to single request per task.
+     * @param analyzer analyzer to run
+     * @param batch tasks of the batch
+     * @param misses indexes of tasks to send
+     * @param outcome receive result or error of each task
+     * @return {@link Mono} completes when all tasks are processed. Never emits error
+     */
+    private <Q, R> Mono<Void> request(Analyzer<Q, R> analyzer, List<DiaryAnalyzeTask> batch,
+                                      List<Integer> misses, Outcome<Q, R> outcome) {
+        if(misses.isEmpty()) {
+            return Mono.empty();
+        }
+
+        // Long content is split into chunks. Chunks of all tasks are sent in one batch
+        List<List<String>> chunks = misses.stream().map(i -> analyzer.split(batch.get(i).getContent())).toList();
+        List<Q> requests = chunks.stream().flatMap(List::stream).map(analyzer::toRequest).toList();
+
+        if(requests.size() == 1 || !analyzer.isBatchSupported()) {
+            return analyzeEach(analyzer, batch, misses, chunks, outcome);
+        }
+
+        return analyzer.analyzeBatch(requests)
+                .publishOn(writeScheduler)
+                .doOnNext(results -> {
+                    // Split responses back onto each task
+                    int offset = 0;
+                    for(int k = 0; k < misses.size(); k++) {
+                        List<String> taskChunks = chunks.get(k);
+                        R res = analyzer.aggregate(taskChunks, results.subList(offset, offset + taskChunks.size()));
+                        offset += taskChunks.size();
+
+                        DiaryAnalyzeTask task = batch.get(misses.get(k));
+                        analyzer.cache(task.getContent(), res);
+                        outcome.succeed(misses.get(k), res, false);
+                    }
+                })
+                .then()
+                // Fall back to single request
+                .onErrorResume(UnsupportedOperationException.class, e -> analyzeEach(analyzer, batch, misses, chunks, outcome))
+                .onErrorResume(e -> {
+                    misses.forEach(i -> outcome.fail(i, e));
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * Send each task to AI server of the analyzer concurrently, as many as permits of limiter. (See {@link #withPermits(List, Function)})
+     * @param analyzer analyzer to run
+     * @param batch tasks of the batch
+     * @param misses indexes of tasks to send
+     * @param chunks chunks of content of each task to send
+     * @param outcome receive result or error of each task
+     * @return {@link Mono} completes when all tasks are processed. Never emits error
+     */
+    private <Q, R> Mono<Void> analyzeEach(Analyzer<Q, R> analyzer, List<DiaryAnalyzeTask> batch, List<Integer> misses,
+                                          List<List<String>> chunks, Outcome<Q, R> outcome) {
+        return withPermits(IntStream.range(0, misses.size()).boxed().toList(), k -> {
+            DiaryAnalyzeTask task = batch.get(misses.get(k));
+            return analyzeChunks(analyzer, chunks.get(k))
+                    .publishOn(writeScheduler)
+                    .doOnNext(res -> {
+                        analyzer.cache(task.getContent(), res);
+                        outcome.succeed(misses.get(k), res, false);
+                    })
+                    .then()
+                    .onErrorResume(e -> {
+                        outcome.fail(misses.get(k), e);
+                        return Mono.empty();
+                    });
+        }).then();
+    }
 
-        if(task != null) {
-            // process asynchronously
-            processTask(task);
+    /**
+     * Send chunks of a task concurrently, as many as permits of limiter, and aggregate results.
+     * @param analyzer analyzer to run
+     * @param chunks chunks of content. Single element if content is not split
+     * @return {@link Mono} emits aggregated result
+     */
+    private <Q, R> Mono<R> analyzeChunks(Analyzer<Q, R> analyzer, List<String> chunks) {
+        if(chunks.size() == 1) {
+            return analyzer.analyze(analyzer.toRequest(chunks.get(0)));
         }
+
+        // Order of chunks is kept to match with results
+        return withPermits(chunks, chunk -> analyzer.analyze(analyzer.toRequest(chunk)))
+                .collectList()
+                .map(results -> analyzer.aggregate(chunks, results));
+    }
+
+    /**
+     * Map sources concurrently, keeping order, with one permit of {@link AnalyzeConcurrencyLimiter} per concurrent source.
+     * <br/>
+     * Caller holds one permit. (e.g., permit of the batch) Up to <code>size - 1</code> extra permits are acquired
+     * without waiting, and released when all sources are completed.
+     * So requests in flight never exceed the limit, and RTT of each request is sampled under its own permit.
+     * @param sources sources to map. (e.g., analyzers, tasks, chunks)
+     * @param mapper map source to request
+     * @return results in order of <code>sources</code>
+     */
+    private <T, U> Flux<U> withPermits(List<T> sources, Function<T, Publisher<U>> mapper) {
+        return Flux.defer(() -> {
+            int extra = sources.size() > 1 ? limiter.tryAcquireUpTo(sources.size() - 1) : 0;
+
+            return Flux.fromIterable(sources)
+                    .flatMapSequential(mapper, 1 + extra)
+                    .doFinally(signal -> limiter.release(extra));
+        });
     }
 
     /**
-     * Process task asynchronously.
+     * Apply result of each analyzer to each task independently, in order of analyzers.
      * <br/>
-     * If the task throw exception, try recovery by calling <code>handleTaskFailure</code>
-     * @param task task to process
+     * Analyzers failed for the task, or failed to apply the result, are retried by a copy of the task
+     * running only them. Results of the others are applied once.
+     * @param batch tasks of the batch
+     * @param outcomes outcome of each analyzer
      */
-    @Async
-    public void processTask(DiaryAnalyzeTask task) {
-        try {
-            // Will be replaced to Logger
-            System.out.println("Processing : " + task);
+    private void applyOutcomes(List<DiaryAnalyzeTask> batch, List<Outcome<?, ?>> outcomes) {
+        for(int i = 0; i < batch.size(); i++) {
+            DiaryAnalyzeTask task = batch.get(i);
+            Set<String> failed = new LinkedHashSet<>();
+            Exception error = null;
 
-            // Create request DTO instance
-            DiaryAnalyzeRequest req = new DiaryAnalyzeRequest();
-            req.setDiaryContent(task.getContent());
+            try {
+                for(Outcome<?, ?> outcome : outcomes) {
+                    if(outcome.isSkipped(i)) {
+                        continue;
+                    }
 
-            // Send request using WebClient
-            DiaryAnalyzeResponse res = client.sendRequest(req);
+                    Throwable e = outcome.errorOf(i);
+                    if(e == null) {
+                        try {
+                            outcome.apply(i, task);
+                            continue;
+                        } catch (Exception applyError) {
+                            e = applyError;
+                        }
+                    }
 
-            // Apply result to DB by calling `saveResult`
-            saveResult(task, res);
+                    failed.add(outcome.analyzer.getName());
+                    if(error == null) {
+                        error = e instanceof Exception ? (Exception) e : new RuntimeException(e);
+                    }
+                }
 
-        } catch(Exception e) {
-            // Try to recovery
-            handleTaskFailure(task, e);
+                if(!failed.isEmpty()) {
+                    handleTaskFailure(task.retryAnalyzers(failed), error);
+                } else if(ownsStatus(task) && taskOwners.stream().noneMatch(task::runs)) {
+                    // No analyzer of the task marks it as DONE. (e.g., only EmotionAnalyzer is submitted)
+                    taskStore.markDone(task);
+                }
+            } finally {
+                // Re-offered task is a new entry of queue
+                taskQueue.acknowledge(task);
+            }
         }
     }
 
     /**
-     * Increase retry count and submit task again.<br/>
-     * If retry count of the task exceed max value, drop it and save as failure.
+     * Try recovery of each task in failed batch. Run on <code>writeScheduler</code> because it accesses DB.
+     * @param batch failed tasks
+     * @param e error of the batch
+     */
+    private void handleBatchFailure(List<DiaryAnalyzeTask> batch, Throwable e) {
+        Exception cause = e instanceof Exception ? (Exception) e : new RuntimeException(e);
+        writeScheduler.schedule(() -> batch.forEach(task -> {
+            try {
+                handleTaskFailure(task, cause);
+            } finally {
+                // Re-offered task is a new entry of queue
+                taskQueue.acknowledge(task);
+            }
+        }));
+    }
+
+    /**
+     * Increase retry count and schedule retry of task with backoff.<br/>
+     * Delay and max attempts are decided by retry policy of the error class. (See {@link AnalyzeErrorClass})
+     * If retry count of the task exceed max attempts, move it to dead letter (<code>FAILED</code>) and save as failure.
+     * <br/>
+     * If AI server is down (circuit breaker is open), park the task in queue without increasing retry count.
+     * <br/>
+     * Status of the persisted task is changed only if the task owns it. (See {@link #ownsStatus(DiaryAnalyzeTask)})
      * @param task task to be saved
      * @param e Exception thrown during the task
      */
     private void handleTaskFailure(DiaryAnalyzeTask task, Exception e) {
+        AnalyzeErrorClass errorClass = AnalyzeErrorClass.of(e);
+        boolean ownsStatus = ownsStatus(task);
+
+        if(circuitBreaker.isOpen() && AnalyzeConcurrencyLimiter.isOverload(e)) {
+            if(ownsStatus) {
+                taskStore.markPending(task, e);
+            }
+            enqueue(task);
+            return;
+        }
+
         // Increase retry count
         task.incrementRetryCount();
 
-        // If retry count of the task does not exceed max value,
-        // insert it to queue again
-        if(!task.isRetryCountExceeded(maxRetryCount)) {
-            submitTask(task);
+        // If retry count of the task does not exceed max attempts,
+        // retry it after backoff delay
+        if(!task.isRetryCountExceeded(retryScheduler.policyOf(errorClass).getMaxAttempts())) {
+            if(ownsStatus) {
+                taskStore.markPending(task, e);
+            }
+            long delay = retryScheduler.schedule(task, errorClass);
+
+            logger.debug("Retry task after {} ms. error : {} task : {}", delay, errorClass, task);
         } else {
-            // Will be replaced to Logger
-            System.err.println(
-                    "Task exceeded max retry count : " + task + "\n" + e);
+            logger.error("Task exceeded max retry count. Move to dead letter. error : {} task : {}", errorClass, task, e);
+
+            // Result of the owner analyzer is saved already. Keep the task DONE
+            if(ownsStatus) {
+                taskStore.markFailed(task, e);
+            }
 
             // Save as failure
             saveResultAsFailure(task);
@@ -122,30 +668,157 @@ public class DiaryAnalyzeService {
     }
 
     /**
-     * Save result of analyze to DB
-     * @param task task to save
-     * @param res Response DTO from AI server
+     * Whether the task changes status of its persisted task.
+     * <br/>
+     * Retry of some analyzers does not, unless it retries the analyzer marking the task as <code>DONE</code>.
+     * So the retry never races with the owner analyzer, and never moves the task whose result is saved to dead letter.
+     * @param task task to check
+     * @return true if the task is not a partial retry, or runs an analyzer owning the task
      */
-    @Transactional
-    private void saveResult(DiaryAnalyzeTask task, DiaryAnalyzeResponse res) {
-        Diary diary = diaryRepository.findById(task.getDiaryId())
-                .orElseThrow(()->new IllegalArgumentException("There is no diary : " + task.getDiaryId()));
-
-        // Update entity and save (dirty checking)
-        diary.setAnalyzeResult(res);
-        diaryRepository.save(diary);
+    private boolean ownsStatus(DiaryAnalyzeTask task) {
+        return !task.isPartialRetry() || taskOwners.isEmpty() || taskOwners.stream().anyMatch(task::runs);
     }
 
     /**
-     * Save result of analyze to DB as failure.
+     * Save result of analyze to DB as failure, by analyzers of the task.
      * @param task task to save
      */
     private void saveResultAsFailure(DiaryAnalyzeTask task) {
-        Diary diary = diaryRepository.findById(task.getDiaryId())
-                .orElseThrow(()->new IllegalArgumentException("There is no diary : " + task.getDiaryId()));
+        for(Analyzer<?, ?> analyzer : analyzers) {
+            if(!task.runs(analyzer.getName())) {
+                continue;
+            }
+            try {
+                analyzer.applyFailure(task);
+            } catch (RuntimeException e) {
+                logger.error("Failed to save failure of task. analyzer : {} task : {}", analyzer.getName(), task, e);
+            }
+        }
+    }
+
+    /**
+     * Batch emitted to pipeline
+     * @param tasks tasks of the batch
+     * @param probe id of probe of {@link AnalyzeCircuitBreaker} if the batch is the probe, otherwise 0
+     */
+    private record Dispatch(List<DiaryAnalyzeTask> tasks, long probe) {
+
+        private boolean isProbe() {
+            return probe > 0;
+        }
+    }
+
+    /**
+     * Results or errors of an analyzer for tasks of a batch. Each index is set once
+     */
+    private static final class Outcome<Q, R> {
+
+        private final Analyzer<Q, R> analyzer;
+
+        /**
+         * Tasks not running the analyzer. Neither requested nor applied
+         */
+        private final boolean[] skipped;
+
+        private final AtomicReferenceArray<R> results;
+
+        private final AtomicReferenceArray<Throwable> errors;
+
+        private final AtomicReferenceArray<Boolean> cached;
+
+        private Outcome(Analyzer<Q, R> analyzer, List<DiaryAnalyzeTask> batch) {
+            int size = batch.size();
+            this.analyzer = analyzer;
+            this.skipped = new boolean[size];
+            for(int i = 0; i < size; i++) {
+                skipped[i] = !batch.get(i).runs(analyzer.getName());
+            }
+            this.results = new AtomicReferenceArray<>(size);
+            this.errors = new AtomicReferenceArray<>(size);
+            this.cached = new AtomicReferenceArray<>(size);
+        }
+
+        private void succeed(int index, R result, boolean fromCache) {
+            results.set(index, result);
+            cached.set(index, fromCache);
+        }
+
+        private void fail(int index, Throwable error) {
+            errors.set(index, error);
+        }
+
+        /**
+         * Fail tasks without result or error. (e.g., lookup of cache failed)
+         */
+        private void failRemaining(Throwable error) {
+            for(int i = 0; i < results.length(); i++) {
+                if(!skipped[i] && results.get(i) == null) {
+                    errors.compareAndSet(i, null, error);
+                }
+            }
+        }
+
+        private boolean isSkipped(int index) {
+            return skipped[index];
+        }
+
+        private Throwable errorOf(int index) {
+            Throwable error = errors.get(index);
+            if(error == null && results.get(index) == null) {
+                return new IllegalStateException("There is no result of analyzer : " + analyzer.getName());
+            }
+            return error;
+        }
+
+        private void apply(int index, DiaryAnalyzeTask task) {
+            analyzer.applyResult(task, results.get(index));
+        }
+    }
 
-        // Update entity and save (dirty checking)
-        diary.setAnalyzeAsFail();
-        diaryRepository.save(diary);
+    /**
+     * Metrics of an analyzer
+     */
+    private static final class AnalyzerMetrics {
+
+        private final Timer latency;
+
+        private final Counter success;
+
+        private final Counter cached;
+
+        private final Counter failure;
+
+        private AnalyzerMetrics(String name, MeterRegistry meterRegistry) {
+            this.latency = Timer.builder("diary.analyze.analyzer.latency")
+                    .tag("analyzer", name)
+                    .description("Time to analyze a batch by analyzer")
+                    .register(meterRegistry);
+            this.success = counter(name, "success", meterRegistry);
+            this.cached = counter(name, "cached", meterRegistry);
+            this.failure = counter(name, "failure", meterRegistry);
+        }
+
+        private void record(Outcome<?, ?> outcome) {
+            for(int i = 0; i < outcome.results.length(); i++) {
+                if(outcome.isSkipped(i)) {
+                    continue;
+                }
+                if(outcome.errors.get(i) != null || outcome.results.get(i) == null) {
+                    failure.increment();
+                } else if(Boolean.TRUE.equals(outcome.cached.get(i))) {
+                    cached.increment();
+                } else {
+                    success.increment();
+                }
+            }
+        }
+
+        private static Counter counter(String name, String result, MeterRegistry meterRegistry) {
+            return Counter.builder("diary.analyze.analyzer.results")
+                    .tag("analyzer", name)
+                    .tag("result", result)
+                    .description("Count of tasks analyzed by analyzer")
+                    .register(meterRegistry);
+        }
     }
 }
@@ -1,9 +1,12 @@
 package org.diarymoodanalyzer.service;
 
-import lombok.RequiredArgsConstructor;
+import jakarta.transaction.Transactional;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
 import org.diarymoodanalyzer.domain.User;
 import org.diarymoodanalyzer.dto.request.DailyAvgDepressionScoreRequest;
 import org.diarymoodanalyzer.dto.response.DailyAvgDepressionScoreResponse;
+import org.diarymoodanalyzer.dto.response.MoodSeriesResponse;
+import org.diarymoodanalyzer.dto.response.VadTrajectoryResponse;
 import org.diarymoodanalyzer.repository.DiaryRepository;
 import org.diarymoodanalyzer.repository.UserRepository;
 import org.diarymoodanalyzer.util.AuthenticationUtils;
@@ -13,21 +16,40 @@ import org.springframework.web.server.ResponseStatusException;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Service class to get statistics of diary analyze.
  */
-@RequiredArgsConstructor
 @Service
 public class DiaryAnalyzeStatService {
 
-    private final DiaryRepository diaryRepository;
+    /**
+     * Start of range if not specified
+     */
+    private static final LocalDate EPOCH = LocalDate.of(1970, 1, 1);
 
     private final UserRepository userRepository;
 
+    private final MoodTimeSeriesCache moodTimeSeriesCache;
+
+    private final DiaryRepository diaryRepository;
+
+    private final int maxMovingWindow;
+
+    private final int maxTrajectoryPoints;
+
+    public DiaryAnalyzeStatService(UserRepository userRepository, MoodTimeSeriesCache moodTimeSeriesCache,
+                                   DiaryRepository diaryRepository, DiaryAnalyzeProperties diaryAnalyzeProperties) {
+        this.userRepository = userRepository;
+        this.moodTimeSeriesCache = moodTimeSeriesCache;
+        this.diaryRepository = diaryRepository;
+        this.maxMovingWindow = diaryAnalyzeProperties.getRollup().getMaxMovingWindow();
+        this.maxTrajectoryPoints = Math.max(3, diaryAnalyzeProperties.getRollup().getMaxTrajectoryPoints());
+    }
+
     /**
      * Get current authenticated user's daily average depression score.
      * @param req Request DTO contain date range
@@ -90,38 +112,168 @@ public class DiaryAnalyzeStatService {
     }
 
     /**
-     * Get user's daily average depression score.
+     * Get user's daily average depression score from cached {@link MoodTimeSeries}.
+     * <br/>
+     * Cost depends on count of days in the range, not on count of diaries.
      * @param email email to specify user
      * @param start Start of date range
-     * @param end End of date range
+     * @param end End of date range (inclusive)
      * @return daily average depression score as DTO.
      */
     public DailyAvgDepressionScoreResponse getDailyAvgDepressionScore(String email, LocalDate start, LocalDate end) {
-        List<Object[]> result = diaryRepository.findDailyDepressionScoreAvg(email, start.atStartOfDay(), end.atStartOfDay());
-
-        return convertToDto(result);
+        return convertToDto(getDepressionScoreSeries(email, start, end, MoodTimeSeries.Granularity.DAY, 1));
     }
 
     /**
-     * Get user's daily average depression score. without range
-     * @param email email to specify user\
+     * Get user's daily average depression score from cached {@link MoodTimeSeries}. without range
+     * @param email email to specify user
      * @return daily average depression score as DTO.
      */
     public DailyAvgDepressionScoreResponse getDailyAvgDepressionScore(String email) {
-        List<Object[]> result = diaryRepository.findDailyDepressionScoreAvg(email);
+        return getDailyAvgDepressionScore(email, null, null);
+    }
+
+    /**
+     * Get current authenticated user's average depression score per week, month or moving window.
+     * @param req Request DTO contain date range. Whole history if not specified
+     * @param granularity unit of aggregation
+     * @param window count of days of moving average
+     * @return average depression score per period as DTO.
+     */
+    public MoodSeriesResponse getDepressionScoreSeries(DailyAvgDepressionScoreRequest req,
+                                                       MoodTimeSeries.Granularity granularity, int window) {
+        String currentUserEmail = AuthenticationUtils.getCurrentUserEmail()
+                .orElseThrow(()->new ResponseStatusException(HttpStatus.FORBIDDEN, "you don't have permission"));
+
+        return getDepressionScoreSeries(currentUserEmail, req.getStart(), req.getEnd(), granularity, window);
+    }
+
+    /**
+     * Get target user's average depression score per week, month or moving window.<br/>
+     * User specified by <code>targetEmail</code> should have current authenticated user as own {@link org.diarymoodanalyzer.domain.Expert Expert}.
+     * @param req Request DTO contain date range. Whole history if not specified
+     * @param targetEmail email to specify target user
+     * @param granularity unit of aggregation
+     * @param window count of days of moving average
+     * @return average depression score per period as DTO.
+     */
+    public MoodSeriesResponse getDepressionScoreSeries(DailyAvgDepressionScoreRequest req, String targetEmail,
+                                                       MoodTimeSeries.Granularity granularity, int window) {
+        String currentUserEmail = AuthenticationUtils.getCurrentUserEmail()
+                .orElseThrow(()->new ResponseStatusException(HttpStatus.FORBIDDEN, "you don't have permission"));
+
+        User user = userRepository.findByEmail(targetEmail)
+                .orElseThrow(()->new ResponseStatusException(HttpStatus.NOT_FOUND, "not found user " + targetEmail));
+
+        if(user.getExpert() == null || !currentUserEmail.equals(user.getExpert().getEmail())) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "You have not permission");
+        }
+
+        return getDepressionScoreSeries(targetEmail, req.getStart(), req.getEnd(), granularity, window);
+    }
+
+    /**
+     * Get user's average depression score per period from cached {@link MoodTimeSeries}.
+     * @param email email to specify user
+     * @param start Start of date range. null for the first day with result
+     * @param end End of date range (inclusive). null for the last day with result
+     * @param granularity unit of aggregation
+     * @param window count of days of moving average. 1 to <code>rollup.max-moving-window</code>
+     * @return average depression score per period as DTO.
+     * @throws ResponseStatusException 400 if window is out of range, 404 if there is no user
+     */
+    public MoodSeriesResponse getDepressionScoreSeries(String email, LocalDate start, LocalDate end,
+                                                       MoodTimeSeries.Granularity granularity, int window) {
+        if(granularity == MoodTimeSeries.Granularity.MOVING && (window < 1 || window > maxMovingWindow)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "window should be 1 to " + maxMovingWindow);
+        }
+
+        Long userId = userRepository.findIdByEmail(email);
+        if(userId == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "not found user " + email);
+        }
+
+        return moodTimeSeriesCache.get(userId).aggregate(start, end, granularity, window);
+    }
+
+    /**
+     * Get current authenticated user's VAD score over time.
+     * @param req Request DTO contain date range. Whole history if not specified
+     * @param points max count of points. Downsampled if more diaries in the range
+     * @return VAD score per diary as DTO.
+     */
+    @Transactional // Stream of query is consumed in transaction
+    public VadTrajectoryResponse getVadTrajectory(DailyAvgDepressionScoreRequest req, int points) {
+        String currentUserEmail = AuthenticationUtils.getCurrentUserEmail()
+                .orElseThrow(()->new ResponseStatusException(HttpStatus.FORBIDDEN, "you don't have permission"));
+
+        return getVadTrajectory(currentUserEmail, req.getStart(), req.getEnd(), points);
+    }
+
+    /**
+     * Get target user's VAD score over time.<br/>
+     * User specified by <code>targetEmail</code> should have current authenticated user as own {@link org.diarymoodanalyzer.domain.Expert Expert}.
+     * @param req Request DTO contain date range. Whole history if not specified
+     * @param targetEmail email to specify target user
+     * @param points max count of points. Downsampled if more diaries in the range
+     * @return VAD score per diary as DTO.
+     */
+    @Transactional // Stream of query is consumed in transaction
+    public VadTrajectoryResponse getVadTrajectory(DailyAvgDepressionScoreRequest req, String targetEmail, int points) {
+        String currentUserEmail = AuthenticationUtils.getCurrentUserEmail()
+                .orElseThrow(()->new ResponseStatusException(HttpStatus.FORBIDDEN, "you don't have permission"));
+
+        User user = userRepository.findByEmail(targetEmail)
+                .orElseThrow(()->new ResponseStatusException(HttpStatus.NOT_FOUND, "not found user " + targetEmail));
 
-        return convertToDto(result);
+        if(user.getExpert() == null || !currentUserEmail.equals(user.getExpert().getEmail())) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "You have not permission");
+        }
+
+        return getVadTrajectory(targetEmail, req.getStart(), req.getEnd(), points);
     }
 
     /**
-     * Convert result of native query result to DTO
-     * @param nativeResult result of native query from {@link DiaryRepository DiaryRepository}
-     * @return converted DTO from <code>nativeResult</code>
+     * Get user's VAD score of final results of AI server over time.
+     * <br/>
+     * Rows are streamed from DB into primitive arrays. If there are more than <code>points</code> diaries,
+     * points are selected by LTTB (See {@link VadTrajectory}), so size of response is bounded regardless of range.
+     * @param email email to specify user
+     * @param start Start of date range. null for the first diary
+     * @param end End of date range (inclusive). null for today
+     * @param points max count of points. Clamped to 3 ~ <code>rollup.max-trajectory-points</code>
+     * @return VAD score per diary as DTO.
+     * @throws ResponseStatusException 404 if there is no user
      */
-    private DailyAvgDepressionScoreResponse convertToDto(List<Object[]> nativeResult) {
-        Map<String, Double> map = nativeResult.stream()
-                // Convert LocalDataTime to String
-                .collect(Collectors.toMap(value -> value[0].toString(), value -> (Double)value[1]));
+    @Transactional // Stream of query is consumed in transaction
+    public VadTrajectoryResponse getVadTrajectory(String email, LocalDate start, LocalDate end, int points) {
+        Long userId = userRepository.findIdByEmail(email);
+        if(userId == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "not found user " + email);
+        }
+
+        LocalDateTime from = (start == null ? EPOCH : start).atStartOfDay();
+        LocalDateTime to = (end == null ? LocalDate.now() : end).plusDays(1).atStartOfDay();
+
+        VadTrajectory trajectory = new VadTrajectory((int) Math.min(Integer.MAX_VALUE - 8,
+                diaryRepository.countVadScoreBetween(userId, from, to)));
+        try(Stream<Object[]> rows = diaryRepository.streamVadScoreBetween(userId, from, to)) {
+            rows.forEach(row -> trajectory.add((LocalDateTime) row[0], (Float) row[1], (Float) row[2], (Float) row[3]));
+        }
+
+        return trajectory.toResponse(Math.max(3, Math.min(points, maxTrajectoryPoints)));
+    }
+
+    /**
+     * Convert daily series to DTO
+     * @param series daily series in date order
+     * @return converted DTO from <code>series</code>, keeping date order
+     */
+    private DailyAvgDepressionScoreResponse convertToDto(MoodSeriesResponse series) {
+        Map<String, Double> map = new LinkedHashMap<>();
+        for(int i = 0; i < series.getPeriods().length; i++) {
+            map.put(series.getPeriods()[i], series.getValues()[i]);
+        }
 
         return new DailyAvgDepressionScoreResponse(map);
     }
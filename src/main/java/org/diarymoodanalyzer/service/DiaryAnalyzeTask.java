@@ -1,8 +1,12 @@
 package org.diarymoodanalyzer.service;
 
 import lombok.Getter;
+import lombok.Setter;
 import org.diarymoodanalyzer.domain.Diary;
 
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * Task object for {@link DiaryAnalyzeService DiaryAnalyzeSevice}.
  * Used for rate-limited asynchronous request to AI server.
@@ -10,25 +14,111 @@ import org.diarymoodanalyzer.domain.Diary;
 @Getter
 public class DiaryAnalyzeTask {
 
+    /**
+     * <code>id</code> of {@link org.diarymoodanalyzer.domain.AnalysisTask AnalysisTask} entity.
+     * Null if the task is not persisted yet.
+     */
+    @Setter
+    private Long taskId;
+
     /**
      * <code>id</code> of {@link org.diarymoodanalyzer.domain.Diary Diary} entity.
      * Used for specify Diary to analyze
      */
     private final Long diaryId;
 
+    /**
+     * <code>id</code> of owner of the diary. Used for fair scheduling between users. Nullable
+     */
+    private final Long userId;
+
     /**
      * <code>content</code> of {@link org.diarymoodanalyzer.domain.Diary Diary} entity.
      */
     private final String content;
 
+    /**
+     * <code>contentVersion</code> of {@link org.diarymoodanalyzer.domain.Diary Diary} entity when the task created.
+     * Result is discarded if the diary has newer content.
+     */
+    private final long contentVersion;
+
     /**
      * Retry count. It will be increased when task failed
      */
     private int retryCount = 0;
 
-    public DiaryAnalyzeTask(Diary diary) { this.diaryId = diary.getId(); this.content = diary.getContent(); }
+    /**
+     * Names of analyzers to run. Null if all analyzers run.
+     * <br/>
+     * Set when some analyzers failed, so only they are retried. Not persisted.
+     * If it is lost (e.g., spilled, shared queue or restart), all analyzers run again.
+     */
+    private Set<String> analyzers;
+
+    /**
+     * True if this is a retry of some analyzers, while results of the others are applied.
+     * <br/>
+     * Status of the persisted task is left to the analyzer owning it. (See {@link Analyzer#ownsTask()})
+     * So the retry does not mark the task <code>PENDING</code> or <code>FAILED</code> after it is <code>DONE</code>.
+     */
+    private boolean partialRetry = false;
+
+    public DiaryAnalyzeTask(Diary diary) {
+        this.diaryId = diary.getId(); this.content = diary.getContent(); this.contentVersion = diary.getContentVersion();
+        this.userId = diary.getUser() != null ? diary.getUser().getId() : null;
+    }
+
+    public DiaryAnalyzeTask(Long taskId, Long diaryId, Long userId, String content, long contentVersion, int retryCount) {
+        this.taskId = taskId; this.diaryId = diaryId; this.userId = userId; this.content = content;
+        this.contentVersion = contentVersion; this.retryCount = retryCount;
+    }
 
-    public DiaryAnalyzeTask(Long id, String content) { this.diaryId = id; this.content = content; }
+    /**
+     * Copy of this task running only the given analyzers. Used to retry failed analyzers
+     * @param analyzers names of analyzers to run
+     * @return new task with the same diary, content and retry count
+     */
+    public DiaryAnalyzeTask withAnalyzers(Set<String> analyzers) {
+        DiaryAnalyzeTask task = new DiaryAnalyzeTask(taskId, diaryId, userId, content, contentVersion, retryCount);
+        task.analyzers = Set.copyOf(analyzers);
+        return task;
+    }
+
+    /**
+     * Copy of this task retrying only the given analyzers, while results of the others are applied.
+     * @param analyzers names of failed analyzers
+     * @return new task with the same diary, content and retry count
+     */
+    public DiaryAnalyzeTask retryAnalyzers(Set<String> analyzers) {
+        DiaryAnalyzeTask task = withAnalyzers(analyzers);
+        task.partialRetry = true;
+        return task;
+    }
+
+    /**
+     * Whether the analyzer runs for this task
+     * @param analyzer name of analyzer
+     * @return true if all analyzers run, or the analyzer is one of them
+     */
+    public boolean runs(String analyzer) {
+        return analyzers == null || analyzers.contains(analyzer);
+    }
+
+    /**
+     * Add analyzers of the same task offered again, so they also run. (e.g., two analyzers failed one after another)
+     * @param other task with the same <code>taskId</code>
+     */
+    public void mergeAnalyzers(DiaryAnalyzeTask other) {
+        partialRetry = partialRetry && other.partialRetry;
+        if(analyzers == null || other.analyzers == null) {
+            analyzers = null;
+            return;
+        }
+        Set<String> merged = new HashSet<>(analyzers);
+        merged.addAll(other.analyzers);
+        analyzers = Set.copyOf(merged);
+    }
 
     /**
      * Increase <code>retryCount</code> by 1.
@@ -49,6 +139,6 @@ public class DiaryAnalyzeTask {
     @Override
     public String toString() {
         return getClass().getName() + " Diary id : "
-                + diaryId.toString() + " content " + content;
+                + diaryId.toString() + " version : " + contentVersion + " content " + content;
     }
 }
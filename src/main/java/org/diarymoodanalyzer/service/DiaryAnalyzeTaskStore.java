@@ -0,0 +1,280 @@
+package org.diarymoodanalyzer.service;
+
+import jakarta.transaction.Transactional;
+import lombok.RequiredArgsConstructor;
+import org.diarymoodanalyzer.annotation.SkipLogging;
+import org.diarymoodanalyzer.domain.AnalysisTask;
+import org.diarymoodanalyzer.domain.AnalysisTaskStatus;
+import org.diarymoodanalyzer.exception.NotFoundException;
+import org.diarymoodanalyzer.repository.AnalysisTaskRepository;
+import org.diarymoodanalyzer.repository.DiaryRepository;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Persistent store of {@link DiaryAnalyzeTask}. Backed by <code>analysis_tasks</code> table.
+ * <br/>
+ * Used by {@link DiaryAnalyzeService} to track state of tasks,
+ * so pending and in-flight tasks are not lost when the server restarts.
+ */
+@Service
+@SkipLogging // Called on every dispatch
+@RequiredArgsConstructor
+public class DiaryAnalyzeTaskStore {
+
+    private final AnalysisTaskRepository analysisTaskRepository;
+
+    private final DiaryRepository diaryRepository;
+
+    /**
+     * Max length of <code>last_error</code> column
+     */
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    /**
+     * Save new task as <code>PENDING</code>. <br/>
+     * Join the transaction of caller, so the task is committed with the diary.
+     * @param diaryId id of diary to analyze
+     * @return id of saved task
+     */
+    @Transactional
+    public Long create(Long diaryId) {
+        return analysisTaskRepository.save(new AnalysisTask(diaryId)).getId();
+    }
+
+    /**
+     * Mark tasks as <code>IN_FLIGHT</code> with lease.
+     * @param tasks tasks sent to AI server
+     * @param leaseSeconds length of lease
+     */
+    @Transactional
+    public void markInFlight(List<DiaryAnalyzeTask> tasks, long leaseSeconds) {
+        List<Long> ids = tasks.stream().map(DiaryAnalyzeTask::getTaskId).filter(Objects::nonNull).toList();
+
+        if(!ids.isEmpty()) {
+            analysisTaskRepository.markInFlight(ids, LocalDateTime.now().plusSeconds(leaseSeconds));
+        }
+    }
+
+    /**
+     * Mark task as <code>DONE</code>
+     * @param task task whose result has saved
+     */
+    @Transactional
+    public void markDone(DiaryAnalyzeTask task) {
+        updateStatus(task, AnalysisTaskStatus.DONE, null);
+    }
+
+    /**
+     * Mark tasks as <code>DONE</code> by one query
+     * @param tasks tasks whose result has saved
+     */
+    @Transactional
+    public void markDone(List<DiaryAnalyzeTask> tasks) {
+        List<Long> ids = tasks.stream().map(DiaryAnalyzeTask::getTaskId).filter(Objects::nonNull).toList();
+
+        if(!ids.isEmpty()) {
+            analysisTaskRepository.markDone(ids);
+        }
+    }
+
+    /**
+     * Mark task as <code>PENDING</code> to retry.
+     * @param task task to retry
+     * @param e exception thrown during the task
+     */
+    @Transactional
+    public void markPending(DiaryAnalyzeTask task, Exception e) {
+        updateStatus(task, AnalysisTaskStatus.PENDING, e);
+    }
+
+    /**
+     * Mark task as <code>DONE</code> without result, because newer content of the diary is submitted.
+     * @param task task replaced by newer task
+     */
+    @Transactional
+    public void markSuperseded(DiaryAnalyzeTask task) {
+        if(task.getTaskId() == null) {
+            return;
+        }
+
+        analysisTaskRepository.updateStatus(task.getTaskId(), AnalysisTaskStatus.DONE, task.getRetryCount(),
+                "Superseded by newer content");
+    }
+
+    /**
+     * Mark task as <code>FAILED</code>
+     * @param task task exceeded max retry count
+     * @param e last exception thrown during the task
+     */
+    @Transactional
+    public void markFailed(DiaryAnalyzeTask task, Exception e) {
+        updateStatus(task, AnalysisTaskStatus.FAILED, e);
+    }
+
+    /**
+     * Load a page of <code>PENDING</code> tasks in id order.
+     * @param afterId last task id of previous page. Use 0 for first page
+     * @param size page size
+     * @return tasks with content of diary
+     */
+    @Transactional
+    public List<DiaryAnalyzeTask> findPending(Long afterId, int size) {
+        return toTasks(analysisTaskRepository.findByStatusAfter(
+                AnalysisTaskStatus.PENDING, afterId, PageRequest.of(0, size)));
+    }
+
+    /**
+     * Load a page of <code>FAILED</code> tasks (dead letters) in id order.
+     * @param afterId last task id of previous page. Use 0 for first page
+     * @param size page size
+     * @return entities of failed tasks
+     */
+    @Transactional
+    public List<AnalysisTask> findFailed(Long afterId, int size) {
+        return analysisTaskRepository.findByStatusAfter(AnalysisTaskStatus.FAILED, afterId, PageRequest.of(0, size));
+    }
+
+    /**
+     * Move <code>FAILED</code> task back to <code>PENDING</code> with retry count reset.
+     * @param taskId id of failed task
+     * @return task to submit
+     * @throws NotFoundException if there is no failed task, or the diary has deleted
+     */
+    @Transactional
+    public DiaryAnalyzeTask replay(Long taskId) {
+        AnalysisTask entity = analysisTaskRepository.findById(taskId)
+                .filter(task -> task.getStatus() == AnalysisTaskStatus.FAILED)
+                .orElseThrow(() -> new NotFoundException("There is no failed task : " + taskId));
+
+        entity.setStatus(AnalysisTaskStatus.PENDING);
+        entity.setRetryCount(0);
+
+        return toTasks(List.of(entity)).stream().findFirst()
+                .orElseThrow(() -> new NotFoundException("There is no diary : " + entity.getDiaryId()));
+    }
+
+    /**
+     * Convert entries spilled to disk to {@link DiaryAnalyzeTask} with content of diary.
+     * <br/>
+     * Entry whose content is changed after spilled is marked as superseded, because newer task is submitted.
+     * Entry of deleted diary is marked as <code>FAILED</code>.
+     * @param entries entries read from {@link AnalyzeSpillBuffer}
+     * @return tasks to submit, in the order of entries
+     */
+    @Transactional
+    public List<DiaryAnalyzeTask> loadSpilled(List<AnalyzeSpillBuffer.Entry> entries) {
+        if(entries.isEmpty()) {
+            return List.of();
+        }
+
+        Map<Long, Object[]> contents = loadContents(entries.stream().map(AnalyzeSpillBuffer.Entry::diaryId).toList());
+
+        List<DiaryAnalyzeTask> tasks = new ArrayList<>(entries.size());
+        for(AnalyzeSpillBuffer.Entry entry : entries) {
+            Object[] diary = contents.get(entry.diaryId());
+
+            if(diary == null) {
+                if(entry.taskId() != null) {
+                    analysisTaskRepository.updateStatus(entry.taskId(), AnalysisTaskStatus.FAILED, entry.retryCount(),
+                            "There is no diary : " + entry.diaryId());
+                }
+                continue;
+            }
+
+            DiaryAnalyzeTask task = new DiaryAnalyzeTask(entry.taskId(), entry.diaryId(), (Long) diary[3],
+                    (String) diary[1], (Long) diary[2], entry.retryCount());
+
+            if(AnalyzeSpillBuffer.contentHash(task.getContent()) != entry.contentHash()) {
+                markSuperseded(task);
+                continue;
+            }
+            tasks.add(task);
+        }
+
+        return tasks;
+    }
+
+    /**
+     * Load <code>IN_FLIGHT</code> tasks whose lease has expired and mark them as <code>PENDING</code>.
+     * @param size max count of tasks
+     * @return tasks with content of diary
+     */
+    @Transactional
+    public List<DiaryAnalyzeTask> reclaimLeaseExpired(int size) {
+        List<AnalysisTask> expired = analysisTaskRepository.findLeaseExpired(LocalDateTime.now(), PageRequest.of(0, size));
+
+        expired.forEach(task -> {
+            task.setStatus(AnalysisTaskStatus.PENDING);
+            task.setLeaseExpiresAt(null);
+        });
+
+        return toTasks(expired);
+    }
+
+    private void updateStatus(DiaryAnalyzeTask task, AnalysisTaskStatus status, Exception e) {
+        // Task not persisted. e.g., created by test
+        if(task.getTaskId() == null) {
+            return;
+        }
+
+        analysisTaskRepository.updateStatus(task.getTaskId(), status, task.getRetryCount(), toErrorMessage(e));
+    }
+
+    /**
+     * Convert entities to {@link DiaryAnalyzeTask} with content of diary.
+     * Task of deleted diary will be marked as <code>FAILED</code>.
+     * @param entities entities of tasks
+     * @return tasks to submit
+     */
+    private List<DiaryAnalyzeTask> toTasks(List<AnalysisTask> entities) {
+        if(entities.isEmpty()) {
+            return List.of();
+        }
+
+        Map<Long, Object[]> contents = loadContents(entities.stream().map(AnalysisTask::getDiaryId).toList());
+
+        return entities.stream()
+                .filter(entity -> {
+                    if(contents.containsKey(entity.getDiaryId())) {
+                        return true;
+                    }
+                    // Diary has deleted
+                    entity.setStatus(AnalysisTaskStatus.FAILED);
+                    entity.setLastError("There is no diary : " + entity.getDiaryId());
+                    return false;
+                })
+                .map(entity -> {
+                    Object[] diary = contents.get(entity.getDiaryId());
+                    return new DiaryAnalyzeTask(entity.getId(), entity.getDiaryId(), (Long) diary[3],
+                            (String) diary[1], (Long) diary[2], entity.getRetryCount());
+                })
+                .toList();
+    }
+
+    /**
+     * Load content of diaries by one query
+     * @param diaryIds ids of diaries
+     * @return map of id to <code>id, content, contentVersion, userId</code>
+     */
+    private Map<Long, Object[]> loadContents(List<Long> diaryIds) {
+        return diaryRepository.findContentByIds(diaryIds.stream().distinct().toList())
+                .stream()
+                .collect(Collectors.toMap(value -> (Long) value[0], value -> value));
+    }
+
+    private String toErrorMessage(Exception e) {
+        if(e == null) {
+            return null;
+        }
+        String message = e.getClass().getSimpleName() + " : " + e.getMessage();
+        return message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+    }
+}
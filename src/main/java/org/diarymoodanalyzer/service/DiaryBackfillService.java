@@ -0,0 +1,208 @@
+package org.diarymoodanalyzer.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.diarymoodanalyzer.annotation.SkipLogging;
+import org.diarymoodanalyzer.client.AnalyzeCircuitBreaker;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.diarymoodanalyzer.domain.BackfillCheckpoint;
+import org.diarymoodanalyzer.domain.BackfillStatus;
+import org.diarymoodanalyzer.exception.NotFoundException;
+import org.diarymoodanalyzer.repository.BackfillCheckpointRepository;
+import org.diarymoodanalyzer.repository.DiaryRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+
+/**
+ * Backfill analyze results of diaries failed or never analyzed. (e.g., inserted as test data)
+ * <br/>
+ * Ids are read by keyset pagination, and only a page of content is loaded at a time,
+ * so the job runs over millions of diaries in constant memory.
+ * Tasks of a page and {@link BackfillCheckpoint} are saved in one transaction, and tasks are queued after commit.
+ * After restart, running job continues from the checkpoint.
+ * <br/>
+ * Diaries written after the job started are not included. They are analyzed on write.
+ * Exposes metric <code>diary.analyze.backfill.submitted</code>.
+ */
+@Service
+@SkipLogging // Use scheduled method
+public class DiaryBackfillService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiaryBackfillService.class);
+
+    /**
+     * Name of checkpoint of the job
+     */
+    public static final String JOB_NAME = "diary-analyze";
+
+    private final DiaryRepository diaryRepository;
+
+    private final BackfillCheckpointRepository checkpointRepository;
+
+    private final DiaryAnalyzeService diaryAnalyzeService;
+
+    private final AnalyzeTaskQueue taskQueue;
+
+    private final AnalyzeCircuitBreaker circuitBreaker;
+
+    private final DiaryAnalyzeProperties.Backfill properties;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final Counter submittedCounter;
+
+    public DiaryBackfillService(DiaryRepository diaryRepository, BackfillCheckpointRepository checkpointRepository,
+                                DiaryAnalyzeService diaryAnalyzeService, AnalyzeTaskQueue taskQueue,
+                                AnalyzeCircuitBreaker circuitBreaker, DiaryAnalyzeProperties diaryAnalyzeProperties,
+                                PlatformTransactionManager transactionManager, MeterRegistry meterRegistry) {
+        this.diaryRepository = diaryRepository;
+        this.checkpointRepository = checkpointRepository;
+        this.diaryAnalyzeService = diaryAnalyzeService;
+        this.taskQueue = taskQueue;
+        this.circuitBreaker = circuitBreaker;
+        this.properties = diaryAnalyzeProperties.getBackfill();
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+
+        this.submittedCounter = Counter.builder("diary.analyze.backfill.submitted")
+                .description("Count of diaries submitted by backfill job")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Start the job from the first diary. Diaries up to current max id are included.
+     * @return checkpoint of started job
+     * @throws ResponseStatusException 409 if the job is running or paused
+     */
+    public BackfillCheckpoint start() {
+        BackfillCheckpoint checkpoint = transactionTemplate.execute(status -> {
+            BackfillCheckpoint found = checkpointRepository.findById(JOB_NAME)
+                    .orElseGet(() -> new BackfillCheckpoint(JOB_NAME));
+
+            if(found.getStartedAt() != null && found.getStatus() != BackfillStatus.COMPLETED) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "Backfill is not completed : " + found.getStatus());
+            }
+
+            long maxId = diaryRepository.findMaxId();
+            found.restart(maxId, diaryRepository.countWithoutResult(maxId));
+            return checkpointRepository.save(found);
+        });
+
+        logger.info("Start backfill of analyze results. max id : {} estimated : {}",
+                checkpoint.getMaxDiaryId(), checkpoint.getTotalCount());
+        return checkpoint;
+    }
+
+    /**
+     * Pause running job. Resumed by {@link #resume()}
+     * @return checkpoint of paused job
+     * @throws NotFoundException if the job has never started
+     * @throws ResponseStatusException 409 if the job is not running
+     */
+    public BackfillCheckpoint pause() {
+        return transition(BackfillStatus.RUNNING, BackfillStatus.PAUSED);
+    }
+
+    /**
+     * Resume paused job from the checkpoint
+     * @return checkpoint of resumed job
+     * @throws NotFoundException if the job has never started
+     * @throws ResponseStatusException 409 if the job is not paused
+     */
+    public BackfillCheckpoint resume() {
+        return transition(BackfillStatus.PAUSED, BackfillStatus.RUNNING);
+    }
+
+    /**
+     * Get progress of the job
+     * @return checkpoint of the job
+     * @throws NotFoundException if the job has never started
+     */
+    public BackfillCheckpoint getProgress() {
+        return checkpointRepository.findById(JOB_NAME)
+                .orElseThrow(() -> new NotFoundException("Backfill has never started"));
+    }
+
+    /**
+     * Submit the next page of running job.
+     * <br/>
+     * Skipped while the queue is busy or circuit breaker is not closed, so live traffic goes first.
+     */
+    @Scheduled(fixedDelayString = "${diary-emotion.backfill.interval-millis:1000}")
+    public void submitNextPage() {
+        if(!properties.isEnabled() || isBusy()) {
+            return;
+        }
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                BackfillCheckpoint checkpoint = checkpointRepository.findById(JOB_NAME).orElse(null);
+                if(checkpoint == null || checkpoint.getStatus() != BackfillStatus.RUNNING) {
+                    return;
+                }
+
+                int pageSize = Math.max(1, properties.getPageSize());
+                List<Long> ids = diaryRepository.findIdsWithoutResult(checkpoint.getLastDiaryId(),
+                        checkpoint.getMaxDiaryId(), PageRequest.of(0, pageSize));
+
+                if(!ids.isEmpty()) {
+                    int submitted = submit(ids);
+                    checkpoint.advance(ids.get(ids.size() - 1), submitted);
+                    submittedCounter.increment(submitted);
+                }
+
+                if(ids.size() < pageSize) {
+                    checkpoint.complete();
+                    logger.info("Completed backfill of analyze results. submitted : {}", checkpoint.getSubmittedCount());
+                }
+            });
+        } catch (ObjectOptimisticLockingFailureException e) {
+            // Page is submitted by another node, or the job is paused meanwhile
+            logger.debug("Checkpoint of backfill is changed concurrently. Page is rolled back");
+        }
+    }
+
+    /**
+     * Submit tasks of diaries in the page. Joins the transaction of the checkpoint.
+     * @return count of diaries submitted. Diaries deleted meanwhile are skipped
+     */
+    private int submit(List<Long> ids) {
+        List<Object[]> rows = diaryRepository.findContentByIds(ids);
+        for(Object[] row : rows) {
+            diaryAnalyzeService.submitTask(new DiaryAnalyzeTask(null, (Long) row[0], (Long) row[3],
+                    (String) row[1], (Long) row[2], 0));
+        }
+        return rows.size();
+    }
+
+    private BackfillCheckpoint transition(BackfillStatus from, BackfillStatus to) {
+        BackfillCheckpoint checkpoint = transactionTemplate.execute(status -> {
+            BackfillCheckpoint found = getProgress();
+            if(found.getStatus() != from) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "Backfill is not " + from + " : " + found.getStatus());
+            }
+
+            found.setStatus(to);
+            return checkpointRepository.save(found);
+        });
+
+        logger.info("Backfill of analyze results : {} -> {}. last id : {}", from, to, checkpoint.getLastDiaryId());
+        return checkpoint;
+    }
+
+    /**
+     * Whether live traffic should go first
+     */
+    private boolean isBusy() {
+        return circuitBreaker.isOpen() || taskQueue.size() > properties.getMaxQueueDepth();
+    }
+}
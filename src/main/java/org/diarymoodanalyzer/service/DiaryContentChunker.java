@@ -0,0 +1,158 @@
+package org.diarymoodanalyzer.service;
+
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.diarymoodanalyzer.dto.ai.request.VadScore;
+import org.diarymoodanalyzer.dto.ai.response.DiaryAnalyzeResponse;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Split long content of diary into chunks, and aggregate results of chunks into one result.
+ * <br/>
+ * Content is split on paragraph boundaries first, then on sentence boundaries,
+ * and packed into chunks up to <code>max-tokens</code>. A sentence longer than the budget is split by length.
+ * <br/>
+ * Aggregation (See {@link DiaryAnalyzeProperties.Chunk})
+ * <ul>
+ *     <li>VAD score : mean weighted by length of chunk</li>
+ *     <li>depression score : weighted mean or max</li>
+ *     <li>classification : majority by length, or the one of the chunk with the highest score</li>
+ * </ul>
+ */
+@Component
+public class DiaryContentChunker {
+
+    private static final Pattern PARAGRAPH = Pattern.compile("\\n\\s*\\n");
+
+    /**
+     * Split after end of sentence. (e.g., ".", "!", "?", "…")
+     */
+    private static final Pattern SENTENCE = Pattern.compile("(?<=[.!?。…])\\s+");
+
+    private final DiaryAnalyzeProperties.Chunk properties;
+
+    public DiaryContentChunker(DiaryAnalyzeProperties diaryAnalyzeProperties) {
+        this.properties = diaryAnalyzeProperties.getChunk();
+    }
+
+    /**
+     * Split content into chunks.
+     * @param content content of diary
+     * @return chunks. Content itself if chunking is disabled or content is in the budget
+     */
+    public List<String> split(String content) {
+        int maxChars = maxChars();
+
+        if(!properties.isEnabled() || content == null || content.length() <= maxChars) {
+            return List.of(content == null ? "" : content);
+        }
+
+        List<String> chunks = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+
+        for(String paragraph : PARAGRAPH.split(content)) {
+            // Keep paragraph in one chunk if possible
+            List<String> units = paragraph.length() <= maxChars
+                    ? List.of(paragraph) : Arrays.asList(SENTENCE.split(paragraph));
+
+            for(String unit : units) {
+                String text = unit.strip();
+                if(text.isEmpty()) {
+                    continue;
+                }
+
+                // Sentence longer than budget
+                while(text.length() > maxChars) {
+                    flush(current, chunks);
+                    chunks.add(text.substring(0, maxChars));
+                    text = text.substring(maxChars);
+                }
+
+                if(current.length() > 0 && current.length() + 1 + text.length() > maxChars) {
+                    flush(current, chunks);
+                }
+                if(current.length() > 0) {
+                    current.append('\n');
+                }
+                current.append(text);
+            }
+        }
+        flush(current, chunks);
+
+        return chunks.isEmpty() ? List.of(content) : chunks;
+    }
+
+    /**
+     * Aggregate results of chunks into one result.
+     * @param chunks chunks returned by {@link #split(String)}
+     * @param results results of each chunk, in the same order
+     * @return aggregated result. The result itself if there is only one chunk
+     */
+    public DiaryAnalyzeResponse aggregate(List<String> chunks, List<DiaryAnalyzeResponse> results) {
+        if(chunks.size() != results.size()) {
+            throw new IllegalArgumentException("Count of results does not match : expected "
+                    + chunks.size() + " but " + results.size());
+        }
+        if(results.size() == 1) {
+            return results.get(0);
+        }
+
+        double totalWeight = 0;
+        // Only chunks with VAD score. VAD is averaged over them, not biased toward 0 by chunks without it
+        double vadWeight = 0;
+        double v = 0, a = 0, d = 0, score = 0;
+        int maxScore = Integer.MIN_VALUE;
+        String maxScoreClassification = null;
+        Map<String, Double> votes = new HashMap<>();
+
+        for(int i = 0; i < results.size(); i++) {
+            DiaryAnalyzeResponse res = results.get(i);
+            double weight = Math.max(1, chunks.get(i).length());
+            totalWeight += weight;
+
+            if(res.getVad_score() != null) {
+                vadWeight += weight;
+                v += res.getVad_score().getV() * weight;
+                a += res.getVad_score().getA() * weight;
+                d += res.getVad_score().getD() * weight;
+            }
+
+            score += res.getDepression_score() * weight;
+            if(res.getDepression_score() > maxScore) {
+                maxScore = res.getDepression_score();
+                maxScoreClassification = res.getClassification();
+            }
+
+            if(res.getClassification() != null) {
+                votes.merge(res.getClassification(), weight, Double::sum);
+            }
+        }
+
+        VadScore vad = vadWeight > 0
+                ? new VadScore((float) (v / vadWeight), (float) (a / vadWeight), (float) (d / vadWeight))
+                : null;
+
+        int depressionScore = properties.getScoreStrategy() == DiaryAnalyzeProperties.Chunk.ScoreStrategy.MAX
+                ? maxScore : (int) Math.round(score / totalWeight);
+
+        String classification = properties.getClassificationStrategy() == DiaryAnalyzeProperties.Chunk.ClassificationStrategy.MAX_SEVERITY
+                ? maxScoreClassification
+                : votes.entrySet().stream().max(Map.Entry.comparingByValue()).map(Map.Entry::getKey).orElse(null);
+
+        // All chunks are analyzed by the same model
+        return new DiaryAnalyzeResponse(vad, depressionScore, classification, results.get(0).getModel_version());
+    }
+
+    private int maxChars() {
+        return Math.max(1, (int) (properties.getMaxTokens() * properties.getCharsPerToken()));
+    }
+
+    private void flush(StringBuilder current, List<String> chunks) {
+        if(current.length() > 0) {
+            chunks.add(current.toString());
+            current.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package org.diarymoodanalyzer.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.diarymoodanalyzer.annotation.SkipLogging;
+import org.diarymoodanalyzer.client.AnalyzeCircuitBreaker;
+import org.diarymoodanalyzer.client.AnalyzeModelVersion;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.diarymoodanalyzer.domain.Diary;
+import org.diarymoodanalyzer.repository.DiaryRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Re-analyze diaries whose result is produced by older model.
+ * <br/>
+ * Background job walks diaries in id order by keyset pagination, a page per <code>interval-millis</code>.
+ * The page is skipped while the queue is busy or circuit breaker is not closed, so live traffic goes first.
+ * The walk starts again from the first diary when the model version is changed, and stops at the end.
+ * Results without model version are skipped unless <code>include-unversioned</code> is set.
+ * <br/>
+ * Diaries read by users are re-analyzed on demand by {@link #requestIfStale(Diary)}.
+ * <br/>
+ * Result of older model is kept until the new result is saved, even if re-analysis fails.
+ * Exposes metrics <code>diary.analyze.reanalyze.submitted</code> tagged by source (background, read).
+ */
+@Service
+@SkipLogging // Use scheduled method, and called on every read of diary
+public class DiaryReanalyzeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiaryReanalyzeService.class);
+
+    private final DiaryRepository diaryRepository;
+
+    private final DiaryAnalyzeService diaryAnalyzeService;
+
+    private final AnalyzeTaskQueue taskQueue;
+
+    private final AnalyzeCircuitBreaker circuitBreaker;
+
+    private final AnalyzeModelVersion modelVersion;
+
+    private final DiaryAnalyzeProperties.Reanalyze properties;
+
+    /**
+     * Model version the background walk is running for
+     */
+    private String walkingVersion;
+
+    /**
+     * Last id submitted by the background walk
+     */
+    private long afterId = 0;
+
+    private boolean walkFinished = false;
+
+    /**
+     * Diary id to model version requested on read. Access order, guarded by itself
+     */
+    private final Map<Long, String> requested;
+
+    private final Counter backgroundCounter;
+
+    private final Counter readCounter;
+
+    public DiaryReanalyzeService(DiaryRepository diaryRepository, DiaryAnalyzeService diaryAnalyzeService,
+                                 AnalyzeTaskQueue taskQueue, AnalyzeCircuitBreaker circuitBreaker,
+                                 AnalyzeModelVersion modelVersion, DiaryAnalyzeProperties diaryAnalyzeProperties,
+                                 MeterRegistry meterRegistry) {
+        this.diaryRepository = diaryRepository;
+        this.diaryAnalyzeService = diaryAnalyzeService;
+        this.taskQueue = taskQueue;
+        this.circuitBreaker = circuitBreaker;
+        this.modelVersion = modelVersion;
+        this.properties = diaryAnalyzeProperties.getReanalyze();
+
+        int maxRequested = Math.max(1, properties.getMaxRequested());
+        this.requested = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+                return size() > maxRequested;
+            }
+        };
+
+        this.backgroundCounter = Counter.builder("diary.analyze.reanalyze.submitted")
+                .tag("source", "background")
+                .description("Count of diaries submitted for re-analysis")
+                .register(meterRegistry);
+        this.readCounter = Counter.builder("diary.analyze.reanalyze.submitted")
+                .tag("source", "read")
+                .description("Count of diaries submitted for re-analysis")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Submit the next page of diaries analyzed by older model.
+     * <br/>
+     * Does nothing until the model version is learned from AI server,
+     * because configured version may differ from the served one.
+     */
+    @Scheduled(fixedDelayString = "${diary-emotion.reanalyze.interval-millis:10000}")
+    public synchronized void reanalyzeNextPage() {
+        if(!properties.isEnabled() || !modelVersion.isKnown()) {
+            return;
+        }
+
+        // Current version is switched only after it is settled, so the walk does not restart on every response
+        String version = modelVersion.current();
+        if(!version.equals(walkingVersion)) {
+            logger.info("Start re-analysis of diaries analyzed by model other than {}", version);
+            walkingVersion = version;
+            afterId = 0;
+            walkFinished = false;
+        }
+
+        if(walkFinished || isBusy()) {
+            return;
+        }
+
+        int pageSize = Math.max(1, properties.getPageSize());
+        List<Long> ids = diaryRepository.findIdsAnalyzedByOtherModel(afterId, version,
+                properties.isIncludeUnversioned(), PageRequest.of(0, pageSize));
+
+        if(!ids.isEmpty()) {
+            submit(ids);
+            backgroundCounter.increment(ids.size());
+            afterId = ids.get(ids.size() - 1);
+        }
+
+        if(ids.size() < pageSize) {
+            walkFinished = true;
+            logger.info("Finished re-analysis walk for model {}. last id : {}", version, afterId);
+        }
+    }
+
+    /**
+     * Submit re-analysis of the diary if its result is produced by older model.
+     * <br/>
+     * Each diary is submitted once per model version.
+     * @param diary diary read by user
+     */
+    public void requestIfStale(Diary diary) {
+        if(!properties.isEnabled() || !properties.isOnRead() || !modelVersion.isKnown()
+                || diary.isAnalyzeProvisional() || !diary.isAnalyzeSuccess() || diary.getDepressionScore() == -1) {
+            return;
+        }
+
+        String version = modelVersion.current();
+        if(version.equals(diary.getModelVersion()) || isBusy()
+                || (diary.getModelVersion() == null && !properties.isIncludeUnversioned())) {
+            return;
+        }
+
+        synchronized (requested) {
+            if(version.equals(requested.get(diary.getId()))) {
+                return;
+            }
+            requested.put(diary.getId(), version);
+        }
+
+        diaryAnalyzeService.submitTask(new DiaryAnalyzeTask(diary));
+        readCounter.increment();
+    }
+
+    /**
+     * Submit re-analysis of the diaries in the page, skipped if requested on read already.
+     */
+    private void submit(List<Long> ids) {
+        for(Object[] row : diaryRepository.findContentByIds(ids)) {
+            Long diaryId = (Long) row[0];
+
+            synchronized (requested) {
+                if(Objects.equals(walkingVersion, requested.get(diaryId))) {
+                    continue;
+                }
+            }
+
+            diaryAnalyzeService.submitTask(new DiaryAnalyzeTask(null, diaryId, (Long) row[3],
+                    (String) row[1], (Long) row[2], 0));
+        }
+    }
+
+    /**
+     * Whether live traffic should go first
+     */
+    private boolean isBusy() {
+        return circuitBreaker.isOpen() || taskQueue.size() > properties.getMaxQueueDepth();
+    }
+}
@@ -4,6 +4,7 @@ import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
+import org.diarymoodanalyzer.domain.DailyMoodRollup;
 import org.diarymoodanalyzer.domain.Diary;
 import org.diarymoodanalyzer.domain.Expert;
 import org.diarymoodanalyzer.domain.User;
@@ -24,7 +25,9 @@ import org.springframework.security.core.GrantedAuthority;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @RequiredArgsConstructor
@@ -43,6 +46,14 @@ public class DiaryService {
 
     private final NotificationService notificationService;
 
+    private final AfterCommitDispatcher dispatcher;
+
+    private final LexiconMoodScorer lexiconMoodScorer;
+
+    private final DiaryReanalyzeService diaryReanalyzeService;
+
+    private final DailyMoodRollupService dailyMoodRollupService;
+
     @PersistenceContext
     private final EntityManager entityManager;
 
@@ -65,6 +76,9 @@ public class DiaryService {
                 .content(dto.getContent())
                 .build();
 
+        // Provisional score until AI server answers
+        lexiconMoodScorer.score(diary.getContent()).ifPresent(diary::setProvisionalResult);
+
         //리포지토리에 저장하며 저장된 엔티티 받아옴
         //AUTOINCREMENT id 참조를 위해서는 저장하고 나서 받아와야 함
         Diary savedDiary = diaryRepository.save(diary);
@@ -81,15 +95,19 @@ public class DiaryService {
         Expert expert = user.getExpert();
 
         // Send notification when expert is not null
+        // Sent after commit, so the expert is never notified of rolled back diary
         if(expert != null) {
-            //알림 전송
-            notificationService.sendNotification(currentUserEmail, NotificationRequest.builder()
+            NotificationRequest notification = NotificationRequest.builder()
                     .notificationTypeName("NEW_DIARY")
                     .content("")
                     .values(currentUserEmail)
                     .refLink("/diaries/" + savedDiary.getId())
-                    .targetEmail(user.getExpert() != null ? user.getExpert().getEmail() : "") // Set target
-                    .build());
+                    .targetEmail(expert.getEmail()) // Set target
+                    .build();
+
+            //알림 전송
+            dispatcher.afterCommit("notification of diary " + savedDiary.getId(),
+                    () -> notificationService.sendNotification(currentUserEmail, notification));
         }
 
         return new AddDiaryResponse(savedDiary.getId(), currentUserEmail, dto.getTitle());
@@ -135,11 +153,19 @@ public class DiaryService {
             if(!currentUser.getId().equals(expert.getId())) {
                 throw new ResponseStatusException(HttpStatus.FORBIDDEN, "You have not permission");
             }
+        } else {
+            //그 외의 권한은 거부. 관리자도 원래 권한(USER)으로만 확인된다
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "You have not permission");
         }
 
-        return new GetDiaryByIdResponse(diaryRepository.findById(id).orElseThrow(
+        Diary diary = diaryRepository.findById(id).orElseThrow(
                 () -> new ResponseStatusException(HttpStatus.NOT_FOUND,"not found with diary id : " + id)
-        ));
+        );
+
+        // Re-analyze if the result is produced by older model
+        diaryReanalyzeService.requestIfStale(diary);
+
+        return new GetDiaryByIdResponse(diary);
 
         //Query count : [2, 3]
     }
@@ -172,6 +198,9 @@ public class DiaryService {
 
         Page<Diary> diaries = diaryRepository.findByUserEmail(currentUserEmail, pageable);
 
+        // Re-analyze diaries whose result is produced by older model
+        diaries.forEach(diaryReanalyzeService::requestIfStale);
+
         //리포지토리를 통해 페이지로 받아서 컨트롤러로 반환
         //DTO의 생성자로 매핑하여, 원본 엔티티가 아닌 DTO의 페이지로 리턴한다.
         return diaries.map(GetDiaryByPageResponse::new);
@@ -208,6 +237,9 @@ public class DiaryService {
 
             Page<Diary> diaries = diaryRepository.findByUserEmail(ownerEmail, pageable); //Query
 
+            // Re-analyze diaries whose result is produced by older model
+            diaries.forEach(diaryReanalyzeService::requestIfStale);
+
             //DTO의 생성자로 매핑해서 반환
             return diaries.map(GetDiaryByPageResponse::new);
         } else {
@@ -230,6 +262,14 @@ public class DiaryService {
         return diaryRepository.findByUserEmailOnlyTitle(currentUserEmail, pageable);
     }
 
+    /**
+     * Update title and content of diary. <br/>
+     * If the content is changed, analyze it again. Queued analyze of old content is replaced.
+     * @param id id of diary
+     * @param req Request DTO contain title and content
+     * @return updated diary
+     */
+    @Transactional
     public GetDiaryByIdResponse updateDiaryById(long id, AddDiaryRequest req) {
         // 기존 다이어리 항목 찾기
         Diary diary = diaryRepository.findById(id)
@@ -237,12 +277,26 @@ public class DiaryService {
 
         // 다이어리 필드 업데이트
         diary.setTitle(req.getTitle());
-        diary.setContent(req.getContent());
+        boolean contentChanged = diary.updateContent(req.getContent());
         // 필요한 경우 추가 필드 업데이트
 
+        // Result of old content is cleared by updateContent, and replaced by provisional score of new content if any
+        if(contentChanged) {
+            lexiconMoodScorer.score(diary.getContent()).ifPresent(diary::setProvisionalResult);
+        }
+
         // 업데이트된 다이어리 저장
         diaryRepository.save(diary);
 
+        // Analyze new content
+        if(contentChanged) {
+            diaryAnalyzeService.submitTask(new DiaryAnalyzeTask(diary));
+
+            // Result of old content is removed from daily rollup
+            dispatcher.afterCommit("rollup of diary " + id,
+                    () -> dailyMoodRollupService.refreshDiaries(List.of(id)));
+        }
+
         // 응답 DTO로 변환
         return new GetDiaryByIdResponse(diary);
     }
@@ -259,7 +313,12 @@ public class DiaryService {
             throw new ResponseStatusException(HttpStatus.FORBIDDEN, "You have not permission");
         }
 
+        // Bucket is found before the diary is deleted
+        Set<DailyMoodRollup.Key> keys = dailyMoodRollupService.keysOf(List.of(id));
+
         diaryRepository.deleteById(id);
+
+        dailyMoodRollupService.refresh(keys);
     }
 
     /**
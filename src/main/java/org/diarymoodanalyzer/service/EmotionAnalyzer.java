@@ -0,0 +1,72 @@
+package org.diarymoodanalyzer.service;
+
+import org.diarymoodanalyzer.annotation.SkipLogging;
+import org.diarymoodanalyzer.client.DiaryEmotionClient;
+import org.diarymoodanalyzer.domain.DepressionLevel;
+import org.diarymoodanalyzer.dto.ai.request.DiaryEmotionRequest;
+import org.diarymoodanalyzer.dto.ai.response.DiaryEmotionResponse;
+import org.diarymoodanalyzer.repository.DiaryRepository;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * {@link Analyzer} of <code>depressionLevel</code> by emotion model of the previous AI server.
+ * <br/>
+ * Replaces the queue and poller of <code>DiaryEmotionService</code>.
+ * Disabled by default. Enabled by <code>diary-emotion.analyzers.emotion=true</code>
+ */
+@SuppressWarnings("deprecation")
+@Component
+@SkipLogging // Called on every task
+public class EmotionAnalyzer implements Analyzer<DiaryEmotionRequest, DiaryEmotionResponse> {
+
+    public static final String NAME = "emotion";
+
+    private final DiaryEmotionClient client;
+
+    private final DiaryRepository diaryRepository;
+
+    public EmotionAnalyzer(DiaryEmotionClient client, DiaryRepository diaryRepository) {
+        this.client = client;
+        this.diaryRepository = diaryRepository;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public DiaryEmotionRequest toRequest(String content) {
+        DiaryEmotionRequest req = new DiaryEmotionRequest();
+        req.setDiary(content);
+        return req;
+    }
+
+    @Override
+    public Mono<DiaryEmotionResponse> analyze(DiaryEmotionRequest request) {
+        return client.analyze(request);
+    }
+
+    /**
+     * Set <code>depressionLevel</code> of diary. Value not defined in {@link DepressionLevel} is saved as <code>ERROR</code>
+     * @param task task analyzed
+     * @param result Response DTO from AI server
+     */
+    @Override
+    public void applyResult(DiaryAnalyzeTask task, DiaryEmotionResponse result) {
+        DepressionLevel level;
+        try {
+            level = DepressionLevel.fromValue((byte) result.getOverall_average_weight());
+        } catch (IllegalArgumentException e) {
+            level = DepressionLevel.ERROR;
+        }
+
+        diaryRepository.updateDepressionLevel(task.getDiaryId(), task.getContentVersion(), level.getValue());
+    }
+
+    @Override
+    public void applyFailure(DiaryAnalyzeTask task) {
+        diaryRepository.updateDepressionLevel(task.getDiaryId(), task.getContentVersion(), DepressionLevel.ERROR.getValue());
+    }
+}
@@ -0,0 +1,167 @@
+package org.diarymoodanalyzer.service;
+
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.diarymoodanalyzer.domain.MoodTrend;
+import org.diarymoodanalyzer.dto.request.GetExpertCohortRequest;
+import org.diarymoodanalyzer.dto.response.CohortMemberResponse;
+import org.diarymoodanalyzer.util.AuthenticationUtils;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mood statistics of all users managed by an expert.
+ * <br/>
+ * Computed by one grouped query over {@link org.diarymoodanalyzer.domain.DailyMoodRollup DailyMoodRollup}
+ * of the last 30 days, joined with managed users. Latest score and last diary are read by correlated subqueries
+ * on index <code>(user_id, created_at)</code>. Sorting and pagination run in DB.
+ */
+@Service
+public class ExpertCohortService {
+
+    static final int DEFAULT_PAGE_SIZE = 20;
+
+    static final int MAX_PAGE_SIZE = 100;
+
+    /**
+     * Parameters : first day of 7 days (twice), first and last day of 30 days, expert id
+     */
+    private static final String COHORT_SQL = """
+            SELECT c.* FROM (
+                SELECT u.id AS user_id, u.email AS email,
+                    COALESCE(SUM(CASE WHEN r.rollup_date >= ? THEN r.diary_count END), 0) AS count7,
+                    COALESCE(SUM(CASE WHEN r.rollup_date >= ? THEN r.sum_score END), 0) AS sum7,
+                    COALESCE(SUM(r.diary_count), 0) AS count30,
+                    COALESCE(SUM(r.sum_score), 0) AS sum30,
+                    (SELECT MAX(d.created_at) FROM diaries d WHERE d.user_id = u.id) AS last_diary_at,
+                    (SELECT d.depression_score FROM diaries d WHERE d.user_id = u.id AND %s
+                        ORDER BY d.created_at DESC, d.id DESC LIMIT 1) AS latest_score
+                FROM users u
+                LEFT JOIN daily_mood_rollup r ON r.user_id = u.id AND r.rollup_date >= ? AND r.rollup_date <= ?
+                WHERE u.expert_id = ?
+                GROUP BY u.id, u.email
+            ) c
+            ORDER BY %s
+            LIMIT ? OFFSET ?
+            """;
+
+    private static final String COUNT_SQL = "SELECT COUNT(*) FROM users WHERE expert_id = ?";
+
+    /**
+     * ORDER BY per <code>sortBy</code>. <code>%1$s</code> is direction. Users without value go last in both directions
+     */
+    private static final Map<String, String> ORDERS = Map.of(
+            "risk", """
+                    CASE WHEN c.count7 = 0 THEN 1 ELSE 0 END, c.sum7 * 1.0 / NULLIF(c.count7, 0) %1$s,
+                        CASE WHEN c.latest_score IS NULL THEN 1 ELSE 0 END, c.latest_score %1$s, c.user_id""",
+            "latestScore", "CASE WHEN c.latest_score IS NULL THEN 1 ELSE 0 END, c.latest_score %1$s, c.user_id",
+            "avg30", """
+                    CASE WHEN c.count30 = 0 THEN 1 ELSE 0 END, c.sum30 * 1.0 / NULLIF(c.count30, 0) %1$s, c.user_id""",
+            "lastDiaryAt", "CASE WHEN c.last_diary_at IS NULL THEN 1 ELSE 0 END, c.last_diary_at %1$s, c.user_id",
+            "email", "c.email %1$s"
+    );
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final double trendThreshold;
+
+    public ExpertCohortService(JdbcTemplate jdbcTemplate, DiaryAnalyzeProperties diaryAnalyzeProperties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.trendThreshold = diaryAnalyzeProperties.getRollup().getTrendThreshold();
+    }
+
+    /**
+     * Get statistics of users managed by current authenticated expert
+     * @param req Request DTO contain page and sort. Highest risk first by default
+     * @return page of statistics per user
+     * @throws ResponseStatusException 403 if not authenticated, 400 if <code>sortBy</code> is not supported
+     */
+    public Page<CohortMemberResponse> getCohort(GetExpertCohortRequest req) {
+        Long expertId = AuthenticationUtils.getCurrentUserId();
+        if(expertId == null) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "You have not permission");
+        }
+
+        return getCohort(expertId, req, LocalDate.now());
+    }
+
+    /**
+     * Get statistics of users managed by the expert
+     * @param expertId id of expert
+     * @param req Request DTO contain page and sort
+     * @param today last day of averages
+     * @return page of statistics per user
+     */
+    public Page<CohortMemberResponse> getCohort(Long expertId, GetExpertCohortRequest req, LocalDate today) {
+        String order = ORDERS.get(req.getSortBy());
+        if(order == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "not supported sortBy : " + req.getSortBy());
+        }
+
+        int size = req.getSize() <= 0 ? DEFAULT_PAGE_SIZE : Math.min(req.getSize(), MAX_PAGE_SIZE);
+        int page = Math.max(0, req.getPage());
+
+        String sql = COHORT_SQL.formatted(DailyMoodRollupService.HAS_RESULT,
+                order.formatted(req.isAscending() ? "ASC" : "DESC"));
+        Date first7 = Date.valueOf(today.minusDays(6));
+
+        List<CohortMemberResponse> content = jdbcTemplate.query(sql, (rs, rowNum) -> toResponse(rs),
+                first7, first7, Date.valueOf(today.minusDays(29)), Date.valueOf(today), expertId,
+                size, (long) page * size);
+
+        Long total = jdbcTemplate.queryForObject(COUNT_SQL, Long.class, expertId);
+
+        return new PageImpl<>(content, PageRequest.of(page, size), total == null ? 0 : total);
+    }
+
+    private CohortMemberResponse toResponse(ResultSet rs) throws SQLException {
+        long count7 = rs.getLong("count7");
+        long sum7 = rs.getLong("sum7");
+        long count30 = rs.getLong("count30");
+        long sum30 = rs.getLong("sum30");
+
+        int latestScore = rs.getInt("latest_score");
+        Integer latest = rs.wasNull() ? null : latestScore;
+        Timestamp lastDiaryAt = rs.getTimestamp("last_diary_at");
+
+        return new CohortMemberResponse(
+                rs.getString("email"),
+                latest,
+                count7 == 0 ? null : (double) sum7 / count7,
+                count30 == 0 ? null : (double) sum30 / count30,
+                count7,
+                count30,
+                trendOf(count7, sum7, count30 - count7, sum30 - sum7),
+                lastDiaryAt == null ? null : lastDiaryAt.toLocalDateTime()
+        );
+    }
+
+    /**
+     * Compare average of the last 7 days with the days before
+     */
+    MoodTrend trendOf(long recentCount, long recentSum, long previousCount, long previousSum) {
+        if(recentCount == 0 || previousCount == 0) {
+            return MoodTrend.UNKNOWN;
+        }
+
+        double diff = (double) recentSum / recentCount - (double) previousSum / previousCount;
+        if(diff > trendThreshold) {
+            return MoodTrend.UP;
+        } else if(diff < -trendThreshold) {
+            return MoodTrend.DOWN;
+        }
+        return MoodTrend.FLAT;
+    }
+}
@@ -0,0 +1,312 @@
+package org.diarymoodanalyzer.service;
+
+import org.diarymoodanalyzer.annotation.SkipLogging;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.diarymoodanalyzer.dto.ai.request.VadScore;
+import org.diarymoodanalyzer.dto.ai.response.DiaryAnalyzeResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+/**
+ * Local scorer of Korean diary by mood lexicon. Used for provisional score until AI server answers.
+ * <br/>
+ * Each word is matched with the longest lexicon term as its prefix, so inflected forms are matched by stem.
+ * (e.g., "우울" matches "우울했다") A match may continue over one space. (e.g., "죽고 싶다")
+ * Negation by preceding "안", "못" or following "않~", "못~" moves the term to the opposite side of neutral.
+ * <br/>
+ * Score is the mean of matched terms. VAD score in [1, 9] and depression score in [0, 100] like AI server.
+ * <br/>
+ * Lexicon is loaded into an open-addressing table of 64-bit hashes of terms,
+ * and words are hashed incrementally without allocation. Scoring a long diary takes tens of microseconds.
+ */
+@Component
+@SkipLogging // Called on every write of diary
+public class LexiconMoodScorer {
+
+    private static final Logger logger = LoggerFactory.getLogger(LexiconMoodScorer.class);
+
+    private static final float NEUTRAL_VAD = 5.0f;
+
+    private static final float NEUTRAL_DEPRESSION = 50.0f;
+
+    /**
+     * Ratio of distance from neutral kept by negated term
+     */
+    private static final float NEGATION_RATIO = 0.5f;
+
+    private static final int MIN_TERM_LENGTH = 2;
+
+    private final boolean enabled;
+
+    private final LexiconTable table;
+
+    public LexiconMoodScorer(DiaryAnalyzeProperties diaryAnalyzeProperties, ResourceLoader resourceLoader) {
+        DiaryAnalyzeProperties.Provisional properties = diaryAnalyzeProperties.getProvisional();
+        this.enabled = properties.isEnabled();
+        this.table = enabled ? load(resourceLoader.getResource(properties.getLexicon())) : new LexiconTable(0);
+    }
+
+    /**
+     * Score content of diary by lexicon.
+     * @param content content of diary
+     * @return provisional result without classification. Empty if disabled or no term is matched
+     */
+    public Optional<DiaryAnalyzeResponse> score(String content) {
+        if(!enabled || content == null || table.size() == 0) {
+            return Optional.empty();
+        }
+
+        // Sum of valence, arousal, dominance and depression
+        double[] sums = new double[4];
+        int matches = 0;
+
+        // Match of previous word. Added after checking negation by the next word
+        int pending = -1;
+        boolean pendingNegated = false;
+        boolean negator = false;
+
+        int length = content.length();
+        int i = 0;
+        while(i < length) {
+            while(i < length && !Character.isLetterOrDigit(content.charAt(i))) {
+                i++;
+            }
+            if(i >= length) {
+                break;
+            }
+
+            int start = i;
+            while(i < length && Character.isLetterOrDigit(content.charAt(i))) {
+                i++;
+            }
+            int wordLength = i - start;
+            char first = content.charAt(start);
+
+            // "~지 않다", "~지 못했다"
+            boolean negatesPrevious = first == '않' || (first == '못' && wordLength > 1);
+
+            if(pending >= 0) {
+                add(sums, pending, pendingNegated || negatesPrevious);
+                matches++;
+                pending = -1;
+            }
+
+            if(negatesPrevious) {
+                negator = false;
+                continue;
+            }
+
+            // "안 ~", "못 ~"
+            if(wordLength == 1 && (first == '안' || first == '못')) {
+                negator = true;
+                continue;
+            }
+
+            long match = table.longestPrefix(content, start);
+            if(match >= 0) {
+                pending = (int) (match >>> 32);
+                pendingNegated = negator;
+                // Skip the next word consumed by the match
+                i = Math.max(i, (int) match);
+            }
+            negator = false;
+        }
+
+        if(pending >= 0) {
+            add(sums, pending, pendingNegated);
+            matches++;
+        }
+
+        if(matches == 0) {
+            return Optional.empty();
+        }
+
+        VadScore vad = new VadScore((float) (sums[0] / matches), (float) (sums[1] / matches), (float) (sums[2] / matches));
+        int depressionScore = (int) Math.max(0, Math.min(100, Math.round(sums[3] / matches)));
+
+        return Optional.of(new DiaryAnalyzeResponse(vad, depressionScore, null));
+    }
+
+    /**
+     * Add values of the term in the slot to sums. Negated term keeps only valence and depression flipped
+     */
+    private void add(double[] sums, int slot, boolean negated) {
+        float[] values = table.values;
+        int base = slot * 4;
+        sums[0] += negated ? negate(values[base], NEUTRAL_VAD) : values[base];
+        sums[1] += values[base + 1];
+        sums[2] += values[base + 2];
+        sums[3] += negated ? negate(values[base + 3], NEUTRAL_DEPRESSION) : values[base + 3];
+    }
+
+    private static float negate(float value, float neutral) {
+        return neutral + (neutral - value) * NEGATION_RATIO;
+    }
+
+    private static LexiconTable load(Resource resource) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8))) {
+            LexiconTable table = new LexiconTable(1024);
+
+            String line;
+            while((line = reader.readLine()) != null) {
+                if(line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] columns = line.split("\t");
+                if(columns.length < 5 || columns[0].strip().length() < MIN_TERM_LENGTH) {
+                    logger.warn("Skip invalid lexicon line : {}", line);
+                    continue;
+                }
+
+                table.put(columns[0].strip(), Float.parseFloat(columns[1]), Float.parseFloat(columns[2]),
+                        Float.parseFloat(columns[3]), Float.parseFloat(columns[4]));
+            }
+
+            logger.info("Loaded mood lexicon : {} terms from {}", table.size(), resource);
+            return table;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load mood lexicon : " + resource, e);
+        }
+    }
+
+    /**
+     * Open-addressing hash table of lexicon. Key is FNV-1a hash of term, value is 4 floats per slot.
+     */
+    private static final class LexiconTable {
+
+        private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+        private static final long FNV_PRIME = 0x100000001b3L;
+
+        /**
+         * Hash of term per slot. 0 means empty
+         */
+        private long[] keys;
+
+        /**
+         * valence, arousal, dominance and depression per slot
+         */
+        private float[] values;
+
+        private int size = 0;
+
+        private int maxTermLength = 0;
+
+        private LexiconTable(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(2, expected * 2) - 1) << 1;
+            this.keys = new long[capacity];
+            this.values = new float[capacity * 4];
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private void put(String term, float v, float a, float d, float depression) {
+            if((size + 1) * 2 > keys.length) {
+                resize();
+            }
+
+            long hash = FNV_OFFSET;
+            for(int i = 0; i < term.length(); i++) {
+                hash = next(hash, term.charAt(i));
+            }
+
+            int slot = slotOf(nonZero(hash));
+            if(keys[slot] == 0) {
+                keys[slot] = nonZero(hash);
+                size++;
+            }
+            values[slot * 4] = v;
+            values[slot * 4 + 1] = a;
+            values[slot * 4 + 2] = d;
+            values[slot * 4 + 3] = depression;
+            maxTermLength = Math.max(maxTermLength, term.length());
+        }
+
+        /**
+         * Find the longest term which is prefix of the word starting at <code>start</code>.
+         * The match may continue over one whitespace.
+         * @return <code>slot &lt;&lt; 32 | end</code> of the match. -1 if there is no match
+         */
+        private long longestPrefix(String content, int start) {
+            long hash = FNV_OFFSET;
+            long match = -1;
+            int count = 0;
+            boolean crossed = false;
+
+            int length = content.length();
+            for(int i = start; i < length && count < maxTermLength; i++) {
+                char c = content.charAt(i);
+
+                if(!Character.isLetterOrDigit(c)) {
+                    // Cross one space between words. e.g., "죽고 싶다"
+                    if(crossed || c != ' ' || i + 1 >= length || !Character.isLetterOrDigit(content.charAt(i + 1))) {
+                        break;
+                    }
+                    crossed = true;
+                    continue;
+                }
+
+                hash = next(hash, c);
+                count++;
+
+                if(count >= MIN_TERM_LENGTH) {
+                    int slot = slotOf(nonZero(hash));
+                    if(keys[slot] != 0) {
+                        match = ((long) slot << 32) | (i + 1);
+                    }
+                }
+            }
+
+            return match;
+        }
+
+        /**
+         * Slot of the key, or empty slot to insert it (linear probing)
+         */
+        private int slotOf(long key) {
+            int mask = keys.length - 1;
+            int slot = (int) (key ^ (key >>> 32)) & mask;
+            while(keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            float[] oldValues = values;
+
+            keys = new long[oldKeys.length * 2];
+            values = new float[keys.length * 4];
+
+            for(int i = 0; i < oldKeys.length; i++) {
+                if(oldKeys[i] != 0) {
+                    int slot = slotOf(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    System.arraycopy(oldValues, i * 4, values, slot * 4, 4);
+                }
+            }
+        }
+
+        private static long next(long hash, char c) {
+            return (hash ^ c) * FNV_PRIME;
+        }
+
+        private static long nonZero(long hash) {
+            return hash == 0 ? 1 : hash;
+        }
+    }
+}
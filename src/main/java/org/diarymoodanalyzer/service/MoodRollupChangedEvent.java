@@ -0,0 +1,17 @@
+package org.diarymoodanalyzer.service;
+
+import java.util.Set;
+
+/**
+ * Published by {@link DailyMoodRollupService} after rollups of users are committed.
+ * <br/>
+ * Relayed to other nodes by {@link RedisStatsInvalidationRelay}, which publishes it again there as remote.
+ * @param userIds id of users whose rollups are changed
+ * @param remote true if the change is made by other node
+ */
+public record MoodRollupChangedEvent(Set<Long> userIds, boolean remote) {
+
+    public MoodRollupChangedEvent(Set<Long> userIds) {
+        this(userIds, false);
+    }
+}
@@ -0,0 +1,218 @@
+package org.diarymoodanalyzer.service;
+
+import org.diarymoodanalyzer.domain.DailyMoodRollup;
+import org.diarymoodanalyzer.dto.response.MoodSeriesResponse;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable time series of depression score of a user, one bucket per day.
+ * <br/>
+ * Buckets are kept in primitive arrays indexed by days from the first day, with prefix sums.
+ * So any range, week, month or moving window is aggregated by one scan of the range without boxing,
+ * and sum of a window is computed in O(1).
+ * <br/>
+ * Built from {@link DailyMoodRollup}, and cached by {@link MoodTimeSeriesCache}.
+ */
+public final class MoodTimeSeries {
+
+    /**
+     * Series of user without any result
+     */
+    public static final MoodTimeSeries EMPTY = new MoodTimeSeries(null, new int[0], new long[0]);
+
+    /**
+     * Unit of aggregation
+     */
+    public enum Granularity {
+        DAY, WEEK, MONTH,
+        /**
+         * Average of <code>window</code> days ending at each day
+         */
+        MOVING
+    }
+
+    /**
+     * Day of index 0. null if empty
+     */
+    private final LocalDate firstDay;
+
+    /**
+     * Count of diaries per day
+     */
+    private final int[] counts;
+
+    /**
+     * Sum of depression score per day
+     */
+    private final long[] sums;
+
+    /**
+     * <code>prefixCounts[i]</code> is sum of <code>counts[0..i-1]</code>
+     */
+    private final long[] prefixCounts;
+
+    /**
+     * <code>prefixSums[i]</code> is sum of <code>sums[0..i-1]</code>
+     */
+    private final long[] prefixSums;
+
+    private MoodTimeSeries(LocalDate firstDay, int[] counts, long[] sums) {
+        this.firstDay = firstDay;
+        this.counts = counts;
+        this.sums = sums;
+
+        this.prefixCounts = new long[counts.length + 1];
+        this.prefixSums = new long[sums.length + 1];
+        for(int i = 0; i < counts.length; i++) {
+            prefixCounts[i + 1] = prefixCounts[i] + counts[i];
+            prefixSums[i + 1] = prefixSums[i] + sums[i];
+        }
+    }
+
+    /**
+     * Build series from rollups of a user
+     * @param rollups rollups in date order
+     * @return series from the first to the last day of rollups
+     */
+    public static MoodTimeSeries of(List<DailyMoodRollup> rollups) {
+        if(rollups.isEmpty()) {
+            return EMPTY;
+        }
+
+        LocalDate first = rollups.get(0).getDay();
+        int length = (int) ChronoUnit.DAYS.between(first, rollups.get(rollups.size() - 1).getDay()) + 1;
+
+        int[] counts = new int[length];
+        long[] sums = new long[length];
+        for(DailyMoodRollup rollup : rollups) {
+            int index = (int) ChronoUnit.DAYS.between(first, rollup.getDay());
+            counts[index] += rollup.getCount();
+            sums[index] += rollup.getSumScore();
+        }
+        return of(first, counts, sums);
+    }
+
+    /**
+     * Build series from day buckets
+     * @param firstDay day of index 0
+     * @param counts count of diaries per day
+     * @param sums sum of depression score per day
+     * @return series owning the arrays
+     */
+    static MoodTimeSeries of(LocalDate firstDay, int[] counts, long[] sums) {
+        return new MoodTimeSeries(firstDay, counts, sums);
+    }
+
+    /**
+     * Aggregate average depression score in the range.
+     * <br/>
+     * Periods without diary are omitted. Week starts on Monday and is labeled by the date of Monday,
+     * month is labeled by <code>yyyy-MM</code>.
+     * Moving average of a day includes <code>window - 1</code> days before it, even if they are before <code>start</code>.
+     * @param start first day of the range (inclusive). null for the first day with result
+     * @param end last day of the range (inclusive). null for the last day with result
+     * @param granularity unit of aggregation
+     * @param window count of days of {@link Granularity#MOVING}. Ignored by others
+     * @return averages and counts of diaries per period, in date order
+     */
+    public MoodSeriesResponse aggregate(LocalDate start, LocalDate end, Granularity granularity, int window) {
+        if(firstDay == null) {
+            return new MoodSeriesResponse(granularity.name(), window, new String[0], new double[0], new int[0]);
+        }
+
+        int from = start == null ? 0 : (int) Math.max(0, ChronoUnit.DAYS.between(firstDay, start));
+        int to = end == null ? counts.length - 1
+                : (int) Math.min(counts.length - 1, ChronoUnit.DAYS.between(firstDay, end));
+
+        return switch (granularity) {
+            case DAY -> moving(from, to, granularity, 1);
+            case MOVING -> moving(from, to, granularity, window);
+            case WEEK, MONTH -> periods(from, to, granularity);
+        };
+    }
+
+    /**
+     * Average of <code>window</code> days ending at each day in <code>[from, to]</code>
+     */
+    private MoodSeriesResponse moving(int from, int to, Granularity granularity, int window) {
+        Points points = new Points(Math.max(0, to - from + 1));
+
+        for(int i = from; i <= to; i++) {
+            int windowStart = Math.max(0, i - window + 1);
+            long count = prefixCounts[i + 1] - prefixCounts[windowStart];
+            if(count > 0) {
+                points.add(firstDay.plusDays(i).toString(), prefixSums[i + 1] - prefixSums[windowStart], count);
+            }
+        }
+        return points.toResponse(granularity, window);
+    }
+
+    /**
+     * Average per calendar week or month overlapping <code>[from, to]</code>
+     */
+    private MoodSeriesResponse periods(int from, int to, Granularity granularity) {
+        Points points = new Points(Math.max(0, (to - from) / (granularity == Granularity.WEEK ? 7 : 28) + 2));
+
+        int i = from;
+        while(i <= to) {
+            LocalDate day = firstDay.plusDays(i);
+            LocalDate next;
+            String label;
+            if(granularity == Granularity.WEEK) {
+                LocalDate monday = day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                next = monday.plusWeeks(1);
+                label = monday.toString();
+            } else {
+                next = day.with(TemporalAdjusters.firstDayOfNextMonth());
+                label = day.toString().substring(0, 7);
+            }
+
+            int periodEnd = (int) Math.min(to + 1, ChronoUnit.DAYS.between(firstDay, next));
+            long count = prefixCounts[periodEnd] - prefixCounts[i];
+            if(count > 0) {
+                points.add(label, prefixSums[periodEnd] - prefixSums[i], count);
+            }
+            i = periodEnd;
+        }
+        return points.toResponse(granularity, 0);
+    }
+
+    /**
+     * Growable arrays of points
+     */
+    private static final class Points {
+        private String[] periods;
+        private double[] values;
+        private int[] counts;
+        private int size;
+
+        private Points(int capacity) {
+            periods = new String[Math.max(1, capacity)];
+            values = new double[periods.length];
+            counts = new int[periods.length];
+        }
+
+        private void add(String period, long sum, long count) {
+            if(size == periods.length) {
+                periods = Arrays.copyOf(periods, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            periods[size] = period;
+            values[size] = (double) sum / count;
+            counts[size] = (int) count;
+            size++;
+        }
+
+        private MoodSeriesResponse toResponse(Granularity granularity, int window) {
+            return new MoodSeriesResponse(granularity.name(), window, Arrays.copyOf(periods, size),
+                    Arrays.copyOf(values, size), Arrays.copyOf(counts, size));
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.diarymoodanalyzer.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.diarymoodanalyzer.annotation.SkipLogging;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.diarymoodanalyzer.repository.DailyMoodRollupRepository;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process LRU cache of {@link MoodTimeSeries} per user. Serves every stats response of the user.
+ * <br/>
+ * One entry covers all ranges and granularities of the user, so invalidation per user is exact.
+ * Entry is invalidated by {@link MoodRollupChangedEvent} when a result of the user is saved, changed or deleted,
+ * on this node or on other nodes. (See {@link RedisStatsInvalidationRelay})
+ * Entry also expires after <code>rollup.series-ttl-millis</code>, in case an invalidation is lost.
+ * <br/>
+ * Exposes metrics <code>diary.stats.series.*</code> (hits, misses, hit.ratio, evictions, invalidations, size).
+ */
+@Component
+@SkipLogging // Called for every stats request
+public class MoodTimeSeriesCache {
+
+    private final DailyMoodRollupRepository rollupRepository;
+
+    private final long ttlMillis;
+
+    /**
+     * User id to series. Access order, guarded by itself
+     */
+    private final Map<Long, Entry> entries;
+
+    /**
+     * Incremented on every invalidation. Series loaded across an invalidation is not cached
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final Counter hitCounter;
+
+    private final Counter missCounter;
+
+    private final Counter evictionCounter;
+
+    private final Counter localInvalidationCounter;
+
+    private final Counter remoteInvalidationCounter;
+
+    public MoodTimeSeriesCache(DailyMoodRollupRepository rollupRepository, DiaryAnalyzeProperties diaryAnalyzeProperties,
+                               MeterRegistry meterRegistry) {
+        this.rollupRepository = rollupRepository;
+        this.ttlMillis = diaryAnalyzeProperties.getRollup().getSeriesTtlMillis();
+
+        int maxSize = Math.max(1, diaryAnalyzeProperties.getRollup().getSeriesCacheSize());
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                if(size() > maxSize) {
+                    evictionCounter.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        this.hitCounter = meterRegistry.counter("diary.stats.series.hits");
+        this.missCounter = meterRegistry.counter("diary.stats.series.misses");
+        this.evictionCounter = meterRegistry.counter("diary.stats.series.evictions");
+        this.localInvalidationCounter = meterRegistry.counter("diary.stats.series.invalidations", "source", "local");
+        this.remoteInvalidationCounter = meterRegistry.counter("diary.stats.series.invalidations", "source", "remote");
+        Gauge.builder("diary.stats.series.hit.ratio", this, MoodTimeSeriesCache::hitRatio)
+                .description("Ratio of requests served from cached time series")
+                .register(meterRegistry);
+        Gauge.builder("diary.stats.series.size", this, MoodTimeSeriesCache::size)
+                .description("Count of cached time series")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Get series of the user. Loaded from rollups on miss
+     * @param userId id of user
+     * @return series of the user. {@link MoodTimeSeries#EMPTY} if no result
+     */
+    public MoodTimeSeries get(Long userId) {
+        long now = System.currentTimeMillis();
+
+        synchronized (entries) {
+            Entry entry = entries.get(userId);
+            if(entry != null && now - entry.loadedAt() < ttlMillis) {
+                hitCounter.increment();
+                return entry.series();
+            }
+        }
+
+        missCounter.increment();
+        long loadedGeneration = generation.get();
+        MoodTimeSeries series = MoodTimeSeries.of(rollupRepository.findByUserId(userId));
+
+        synchronized (entries) {
+            // Skip if a result has landed while loading
+            if(generation.get() == loadedGeneration) {
+                entries.put(userId, new Entry(series, now));
+            }
+        }
+        return series;
+    }
+
+    /**
+     * Invalidate series of users whose rollups are changed
+     */
+    @EventListener
+    public void onRollupChanged(MoodRollupChangedEvent event) {
+        (event.remote() ? remoteInvalidationCounter : localInvalidationCounter).increment(event.userIds().size());
+
+        synchronized (entries) {
+            generation.incrementAndGet();
+            event.userIds().forEach(entries::remove);
+        }
+    }
+
+    private double hitRatio() {
+        double hits = hitCounter.count();
+        double total = hits + missCounter.count();
+        return total == 0 ? 0 : hits / total;
+    }
+
+    private int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private record Entry(MoodTimeSeries series, long loadedAt) {
+    }
+}
@@ -1,9 +1,18 @@
 package org.diarymoodanalyzer.service;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StreamOperations;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
@@ -235,4 +244,145 @@ public class RedisService {
     public void delete(String key) {
         redisTemplate.delete(key);
     }
+
+    /**
+     * Save given `value` as given `key` with `ttl` only if the key does not exist. Used as lock (SET NX PX)
+     * @param key key
+     * @param value value to save. (e.g., name of owner)
+     * @param ttl TTL, released automatically even if the owner crashed
+     * @return true if saved
+     */
+    public boolean saveIfAbsent(String key, String value, Duration ttl) {
+        return Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(key, value, ttl));
+    }
+
+    /**
+     * Publish message to channel. (PUBLISH)
+     * @param channel name of channel
+     * @param message message to publish
+     */
+    public void publish(String channel, String message) {
+        redisTemplate.convertAndSend(channel, message);
+    }
+
+    /**
+     * Append entry to stream. (XADD)
+     * @param key key of stream
+     * @param fields fields of entry
+     * @return id of added entry
+     */
+    public RecordId streamAdd(String key, Map<String, String> fields) {
+        return redisTemplate.<String, String>opsForStream().add(key, fields);
+    }
+
+    /**
+     * Read entries of stream in id order, regardless of consumer group. (XRANGE)
+     * @param key key of stream
+     * @param after id of the last entry of previous page (exclusive). null for the first page
+     * @param count max count of entries
+     * @return entries after <code>after</code>
+     */
+    public List<MapRecord<String, String, String>> streamRange(String key, RecordId after, long count) {
+        Range<String> range = after == null ? Range.unbounded()
+                : Range.rightUnbounded(Range.Bound.exclusive(after.getValue()));
+
+        List<MapRecord<String, String, String>> records = redisTemplate.<String, String>opsForStream()
+                .range(key, range, Limit.limit().count((int) count));
+
+        return records == null ? List.of() : records;
+    }
+
+    /**
+     * Create consumer group of stream if not exists. Stream is created if not exists. (XGROUP CREATE MKSTREAM)
+     * @param key key of stream
+     * @param group name of consumer group
+     */
+    public void streamCreateGroup(String key, String group) {
+        try {
+            redisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                    .xGroupCreate(key.getBytes(StandardCharsets.UTF_8), group, ReadOffset.from("0"), true));
+        } catch (RuntimeException e) {
+            // Group already exists
+            if(e.getMessage() == null || !e.getMessage().contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Read new entries of stream as a consumer of group without blocking. (XREADGROUP ... >)
+     * @param key key of stream
+     * @param group name of consumer group
+     * @param consumer name of consumer
+     * @param count max count of entries
+     * @return entries delivered to the consumer. Empty if there is no new entry
+     */
+    public List<MapRecord<String, String, String>> streamReadGroup(String key, String group, String consumer, long count) {
+        List<MapRecord<String, String, String>> records = redisTemplate.<String, String>opsForStream().read(
+                Consumer.from(group, consumer),
+                StreamReadOptions.empty().count(count),
+                StreamOffset.create(key, ReadOffset.lastConsumed()));
+
+        return records == null ? List.of() : records;
+    }
+
+    /**
+     * Read entries of stream delivered to the consumer but not acknowledged yet. (XREADGROUP ... 0)
+     * @param key key of stream
+     * @param group name of consumer group
+     * @param consumer name of consumer
+     * @param count max count of entries
+     * @return pending entries of the consumer
+     */
+    public List<MapRecord<String, String, String>> streamReadPending(String key, String group, String consumer, long count) {
+        List<MapRecord<String, String, String>> records = redisTemplate.<String, String>opsForStream().read(
+                Consumer.from(group, consumer),
+                StreamReadOptions.empty().count(count),
+                StreamOffset.create(key, ReadOffset.from("0")));
+
+        return records == null ? List.of() : records;
+    }
+
+    /**
+     * Acknowledge entries and delete them from stream. (XACK, XDEL)
+     * @param key key of stream
+     * @param group name of consumer group
+     * @param ids id of entries
+     */
+    public void streamAckAndDelete(String key, String group, RecordId... ids) {
+        StreamOperations<String, String, String> ops = redisTemplate.opsForStream();
+        ops.acknowledge(key, group, ids);
+        ops.delete(key, ids);
+    }
+
+    /**
+     * Claim entries delivered to other consumers but not acknowledged for <code>minIdle</code>. (XPENDING, XCLAIM)
+     * @param key key of stream
+     * @param group name of consumer group
+     * @param consumer name of new owner
+     * @param minIdle min idle time of entries to claim
+     * @param count max count of pending entries to inspect
+     * @return claimed entries
+     */
+    public List<MapRecord<String, String, String>> streamClaimIdle(String key, String group, String consumer,
+                                                                   Duration minIdle, long count) {
+        StreamOperations<String, String, String> ops = redisTemplate.opsForStream();
+
+        PendingMessages pending = ops.pending(key, group, Range.unbounded(), count);
+        if(pending == null || pending.isEmpty()) {
+            return List.of();
+        }
+
+        RecordId[] ids = pending.stream()
+                .filter(message -> !message.getConsumerName().equals(consumer))
+                .filter(message -> message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) >= 0)
+                .map(PendingMessage::getId)
+                .toArray(RecordId[]::new);
+        if(ids.length == 0) {
+            return List.of();
+        }
+
+        List<MapRecord<String, String, String>> claimed = ops.claim(key, group, consumer, minIdle, ids);
+        return claimed == null ? List.of() : claimed;
+    }
 }
@@ -0,0 +1,138 @@
+package org.diarymoodanalyzer.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.diarymoodanalyzer.annotation.SkipLogging;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Relay {@link MoodRollupChangedEvent} between nodes by Redis pub/sub,
+ * so {@link MoodTimeSeriesCache} of every node is invalidated when a result lands on any node.
+ * <br/>
+ * Message is <code>node|id,id,...</code>. Messages of this node are ignored.
+ * Publishing runs on a dedicated single thread with bounded queue, so an outage of Redis does not block
+ * the result write path. When the queue is full, the message is dropped instead of running on the caller.
+ * Lost messages are covered by <code>series-ttl-millis</code>.
+ * <br/>
+ * Exposes metrics <code>diary.stats.invalidation.relayed</code> (direction : sent, received, dropped).
+ */
+@Component
+@ConditionalOnProperty(prefix = "diary-emotion.rollup", name = "invalidation", havingValue = "redis")
+@SkipLogging // Called on every flush of results
+public class RedisStatsInvalidationRelay implements MessageListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisStatsInvalidationRelay.class);
+
+    private final RedisService redisService;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * Publish messages. Not the shared executor, whose <code>CallerRunsPolicy</code> would run PUBLISH
+     * on the flush thread of results when its queue is full
+     */
+    private final ThreadPoolTaskExecutor executor;
+
+    private final String channel;
+
+    /**
+     * e.g., "12345@hostname". Unique per process
+     */
+    private final String nodeName = ManagementFactory.getRuntimeMXBean().getName();
+
+    private final Counter sentCounter;
+
+    private final Counter receivedCounter;
+
+    private final Counter droppedCounter;
+
+    public RedisStatsInvalidationRelay(RedisService redisService, RedisMessageListenerContainer listenerContainer,
+                                       ApplicationEventPublisher eventPublisher,
+                                       DiaryAnalyzeProperties diaryAnalyzeProperties, MeterRegistry meterRegistry) {
+        this.redisService = redisService;
+        this.eventPublisher = eventPublisher;
+        this.channel = diaryAnalyzeProperties.getRollup().getInvalidationChannel();
+
+        this.sentCounter = meterRegistry.counter("diary.stats.invalidation.relayed", "direction", "sent");
+        this.receivedCounter = meterRegistry.counter("diary.stats.invalidation.relayed", "direction", "received");
+        this.droppedCounter = meterRegistry.counter("diary.stats.invalidation.relayed", "direction", "dropped");
+
+        this.executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(Math.max(1, diaryAnalyzeProperties.getRollup().getInvalidationQueueCapacity()));
+        executor.setThreadNamePrefix("stats-invalidation-");
+        executor.setRejectedExecutionHandler((task, pool) -> droppedCounter.increment());
+        executor.initialize();
+
+        listenerContainer.addMessageListener(this, new ChannelTopic(channel));
+    }
+
+    /**
+     * Send change made by this node to other nodes
+     */
+    @EventListener
+    public void onRollupChanged(MoodRollupChangedEvent event) {
+        if(event.remote() || event.userIds().isEmpty()) {
+            return;
+        }
+
+        String message = nodeName + "|" + event.userIds().stream().map(String::valueOf).collect(Collectors.joining(","));
+        executor.execute(() -> {
+            try {
+                redisService.publish(channel, message);
+                sentCounter.increment();
+            } catch (RuntimeException e) {
+                logger.warn("Failed to publish invalidation of stats. users : {}", event.userIds(), e);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Apply change made by other node
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+
+        int separator = body.lastIndexOf('|');
+        if(separator < 0 || body.substring(0, separator).equals(nodeName)) {
+            return;
+        }
+
+        try {
+            Set<Long> userIds = Arrays.stream(body.substring(separator + 1).split(","))
+                    .filter(id -> !id.isBlank())
+                    .map(Long::valueOf)
+                    .collect(Collectors.toSet());
+
+            receivedCounter.increment();
+            eventPublisher.publishEvent(new MoodRollupChangedEvent(userIds, true));
+        } catch (NumberFormatException e) {
+            logger.warn("Ignore malformed invalidation of stats : {}", body);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package org.diarymoodanalyzer.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.diarymoodanalyzer.annotation.SkipLogging;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * {@link AnalyzeTaskQueue} shared by all nodes via Redis Streams consumer group.
+ * <br/>
+ * Each node reads new entries as a consumer of the group, so a busy node does not build up backlog
+ * while other nodes are idle. A node holds at most <code>max-pending</code> entries without acknowledgement.
+ * <br/>
+ * Entries are acknowledged and deleted when the task is finished.
+ * Entries of crashed consumer are claimed by other nodes after <code>claim-idle-millis</code>.
+ * <br/>
+ * Coalescing is not done in this mode. Stale results are still discarded by <code>contentVersion</code>.
+ */
+@Component
+@ConditionalOnProperty(prefix = "diary-emotion.queue", name = "mode", havingValue = "redis")
+@SkipLogging // Called on every dispatch
+public class RedisStreamTaskQueue implements AnalyzeTaskQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisStreamTaskQueue.class);
+
+    /**
+     * Count of entries read at once while scanning the stream
+     */
+    private static final int RECOVERY_PAGE_SIZE = 1000;
+
+    private final RedisService redisService;
+
+    private final DiaryAnalyzeProperties.Queue properties;
+
+    private final String consumerName;
+
+    /**
+     * Entries read from stream and waiting for dispatch. Guarded by this
+     */
+    private final Deque<DiaryAnalyzeTask> buffer = new ArrayDeque<>();
+
+    /**
+     * Id of entries not acknowledged yet, by task. Guarded by this
+     */
+    private final Map<DiaryAnalyzeTask, RecordId> held = new IdentityHashMap<>();
+
+    private final Counter claimedCounter;
+
+    public RedisStreamTaskQueue(RedisService redisService, DiaryAnalyzeProperties diaryAnalyzeProperties,
+                                MeterRegistry meterRegistry) {
+        this.redisService = redisService;
+        this.properties = diaryAnalyzeProperties.getQueue();
+
+        String name = properties.getConsumerName();
+        // e.g., "12345@hostname". Unique per process
+        this.consumerName = name == null || name.isBlank() ? ManagementFactory.getRuntimeMXBean().getName() : name;
+
+        Gauge.builder("diary.analyze.queue.depth", this, RedisStreamTaskQueue::size)
+                .description("Count of tasks waiting for dispatch")
+                .register(meterRegistry);
+        Gauge.builder("diary.analyze.queue.held", this, RedisStreamTaskQueue::heldSize)
+                .description("Count of stream entries held by this node without acknowledgement")
+                .register(meterRegistry);
+        this.claimedCounter = Counter.builder("diary.analyze.queue.claimed")
+                .description("Count of stream entries claimed from other consumers")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Create consumer group, and take back entries delivered to this consumer before restart
+     */
+    @PostConstruct
+    public void init() {
+        redisService.streamCreateGroup(properties.getStreamKey(), properties.getGroup());
+
+        List<MapRecord<String, String, String>> pending = redisService.streamReadPending(
+                properties.getStreamKey(), properties.getGroup(), consumerName, properties.getMaxPending());
+        synchronized (this) {
+            pending.forEach(this::hold);
+        }
+
+        logger.info("Joined analyze stream {} as {} of {}. pending : {}",
+                properties.getStreamKey(), consumerName, properties.getGroup(), pending.size());
+    }
+
+    @Override
+    public DiaryAnalyzeTask offer(DiaryAnalyzeTask task) {
+        Map<String, String> fields = new HashMap<>();
+        fields.put("taskId", task.getTaskId() == null ? "" : task.getTaskId().toString());
+        fields.put("diaryId", task.getDiaryId().toString());
+        fields.put("userId", task.getUserId() == null ? "" : task.getUserId().toString());
+        fields.put("contentVersion", Long.toString(task.getContentVersion()));
+        fields.put("retryCount", Integer.toString(task.getRetryCount()));
+        fields.put("content", task.getContent());
+
+        try {
+            redisService.streamAdd(properties.getStreamKey(), fields);
+        } catch (RuntimeException e) {
+            // Task is kept as PENDING in DB, so it will be recovered on restart
+            logger.error("Failed to add task to stream : {}", task, e);
+        }
+        return null;
+    }
+
+    /**
+     * Run recovery on one node at a time, and skip tasks whose entry is still in the stream.
+     * <br/>
+     * Entries survive restart of nodes, either not delivered yet or pending in the group.
+     * So re-adding every <code>PENDING</code> task on each restart would duplicate them.
+     * If another node is recovering, recovery is skipped because it adds all tasks to the shared stream.
+     */
+    @Override
+    public void recover(Consumer<Predicate<DiaryAnalyzeTask>> recovery) {
+        String lockKey = properties.getStreamKey() + ":recovery";
+        if(!redisService.saveIfAbsent(lockKey, consumerName, Duration.ofMillis(properties.getRecoveryLockMillis()))) {
+            logger.info("Skip recovery of analyze tasks. Another node is recovering : {}", redisService.get(lockKey));
+            return;
+        }
+
+        try {
+            Set<Long> queued = queuedTaskIds();
+            recovery.accept(task -> task.getTaskId() == null || !queued.contains(task.getTaskId()));
+        } finally {
+            if(consumerName.equals(redisService.get(lockKey))) {
+                redisService.delete(lockKey);
+            }
+        }
+    }
+
+    @Override
+    public synchronized int drainTo(Collection<DiaryAnalyzeTask> collection, int maxElements) {
+        int count = 0;
+
+        while(count < maxElements && !buffer.isEmpty()) {
+            collection.add(buffer.poll());
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Read new entries from stream if local buffer is empty.
+     * @return true if there is no task to dispatch
+     */
+    @Override
+    public synchronized boolean isEmpty() {
+        if(buffer.isEmpty()) {
+            fetch();
+        }
+        return buffer.isEmpty();
+    }
+
+    @Override
+    public synchronized int size() {
+        return buffer.size();
+    }
+
+    @Override
+    public void acknowledge(DiaryAnalyzeTask task) {
+        RecordId id;
+        synchronized (this) {
+            id = held.remove(task);
+        }
+
+        if(id == null) {
+            return;
+        }
+
+        try {
+            redisService.streamAckAndDelete(properties.getStreamKey(), properties.getGroup(), id);
+        } catch (RuntimeException e) {
+            // Entry will be claimed and processed again. Result is idempotent
+            logger.warn("Failed to acknowledge stream entry : {}", id, e);
+        }
+    }
+
+    /**
+     * Claim entries held by crashed or hung consumers.
+     */
+    @Scheduled(fixedDelayString = "${diary-emotion.queue.claim-interval-millis:30000}")
+    public void claimIdleEntries() {
+        int room;
+        synchronized (this) {
+            room = properties.getMaxPending() - held.size();
+        }
+        if(room <= 0) {
+            return;
+        }
+
+        try {
+            List<MapRecord<String, String, String>> claimed = redisService.streamClaimIdle(
+                    properties.getStreamKey(), properties.getGroup(), consumerName,
+                    Duration.ofMillis(properties.getClaimIdleMillis()), room);
+
+            synchronized (this) {
+                claimed.forEach(this::hold);
+            }
+
+            if(!claimed.isEmpty()) {
+                claimedCounter.increment(claimed.size());
+                logger.warn("Claimed idle entries of analyze stream : {}", claimed.size());
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Failed to claim idle entries of analyze stream", e);
+        }
+    }
+
+    /**
+     * Scan all entries of stream, delivered or not
+     * @return id of tasks in stream
+     */
+    private Set<Long> queuedTaskIds() {
+        Set<Long> ids = new HashSet<>();
+
+        RecordId after = null;
+        List<MapRecord<String, String, String>> page;
+        do {
+            page = redisService.streamRange(properties.getStreamKey(), after, RECOVERY_PAGE_SIZE);
+            for(MapRecord<String, String, String> record : page) {
+                String taskId = record.getValue().get("taskId");
+                if(taskId != null && !taskId.isEmpty()) {
+                    ids.add(Long.valueOf(taskId));
+                }
+            }
+            if(!page.isEmpty()) {
+                after = page.get(page.size() - 1).getId();
+            }
+        } while(page.size() == RECOVERY_PAGE_SIZE);
+
+        return ids;
+    }
+
+    /**
+     * Read new entries up to <code>max-pending</code>. Caller should hold the lock
+     */
+    private void fetch() {
+        int room = properties.getMaxPending() - held.size();
+        if(room <= 0) {
+            return;
+        }
+
+        try {
+            redisService.streamReadGroup(properties.getStreamKey(), properties.getGroup(), consumerName, room)
+                    .forEach(this::hold);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to read analyze stream", e);
+        }
+    }
+
+    /**
+     * Convert entry to task and hold it until acknowledged. Caller should hold the lock
+     * @param record entry of stream
+     */
+    private void hold(MapRecord<String, String, String> record) {
+        Map<String, String> fields = record.getValue();
+
+        try {
+            String taskId = fields.get("taskId");
+            String userId = fields.get("userId");
+            DiaryAnalyzeTask task = new DiaryAnalyzeTask(
+                    taskId == null || taskId.isEmpty() ? null : Long.valueOf(taskId),
+                    Long.valueOf(fields.get("diaryId")),
+                    userId == null || userId.isEmpty() ? null : Long.valueOf(userId),
+                    fields.get("content"),
+                    Long.parseLong(fields.get("contentVersion")),
+                    Integer.parseInt(fields.get("retryCount")));
+
+            buffer.offer(task);
+            held.put(task, record.getId());
+        } catch (RuntimeException e) {
+            // Malformed entry. Drop it not to block the stream
+            logger.error("Drop malformed entry of analyze stream : {}", record.getId(), e);
+            redisService.streamAckAndDelete(properties.getStreamKey(), properties.getGroup(), record.getId());
+        }
+    }
+
+    private synchronized int heldSize() {
+        return held.size();
+    }
+}
@@ -0,0 +1,214 @@
+package org.diarymoodanalyzer.service;
+
+import org.diarymoodanalyzer.annotation.SkipLogging;
+import org.diarymoodanalyzer.client.DiaryAnalyzeClient;
+import org.diarymoodanalyzer.dto.ai.request.DiaryAnalyzeRequest;
+import org.diarymoodanalyzer.dto.ai.request.VadScore;
+import org.diarymoodanalyzer.dto.ai.response.DiaryAnalyzeResponse;
+import org.diarymoodanalyzer.repository.DiaryRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+
+/**
+ * {@link Analyzer} of VAD score, depression score and classification by {@link DiaryAnalyzeClient}.
+ * <br/>
+ * Long content is split by {@link DiaryContentChunker}, and results are cached by {@link AnalyzeResultCache}.
+ * Results are saved in batches by {@link AnalyzeResultWriter}, which marks the task as <code>DONE</code>.
+ * So this analyzer is applied after the others.
+ */
+@Order(Ordered.LOWEST_PRECEDENCE)
+@Component
+@SkipLogging // Called on every task
+public class VadAnalyzer implements Analyzer<DiaryAnalyzeRequest, DiaryAnalyzeResponse> {
+
+    private static final Logger logger = LoggerFactory.getLogger(VadAnalyzer.class);
+
+    public static final String NAME = "vad";
+
+    private final DiaryAnalyzeClient client;
+
+    private final DiaryContentChunker chunker;
+
+    private final AnalyzeResultCache resultCache;
+
+    private final AnalyzeResultWriter resultWriter;
+
+    private final AnalyzeTaskQueue taskQueue;
+
+    private final DiaryRepository diaryRepository;
+
+    private final DiaryAnalyzeTaskStore taskStore;
+
+    private final DailyMoodRollupService rollupService;
+
+    private BiConsumer<DiaryAnalyzeTask, Exception> failureHandler = (task, e) ->
+            logger.error("Failed to save result : {}", task, e);
+
+    public VadAnalyzer(DiaryAnalyzeClient client, DiaryContentChunker chunker, AnalyzeResultCache resultCache,
+                       AnalyzeResultWriter resultWriter, AnalyzeTaskQueue taskQueue,
+                       DiaryRepository diaryRepository, DiaryAnalyzeTaskStore taskStore,
+                       DailyMoodRollupService rollupService) {
+        this.client = client;
+        this.chunker = chunker;
+        this.resultCache = resultCache;
+        this.resultWriter = resultWriter;
+        this.taskQueue = taskQueue;
+        this.diaryRepository = diaryRepository;
+        this.taskStore = taskStore;
+        this.rollupService = rollupService;
+
+        resultWriter.setFallback(this::saveResultOrRecover);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean ownsTask() {
+        return true;
+    }
+
+    @Override
+    public DiaryAnalyzeRequest toRequest(String content) {
+        DiaryAnalyzeRequest req = new DiaryAnalyzeRequest();
+        req.setDiaryContent(content);
+        return req;
+    }
+
+    @Override
+    public Mono<DiaryAnalyzeResponse> analyze(DiaryAnalyzeRequest request) {
+        return client.analyze(request);
+    }
+
+    @Override
+    public boolean isBatchSupported() {
+        return client.isBatchSupported();
+    }
+
+    @Override
+    public Mono<List<DiaryAnalyzeResponse>> analyzeBatch(List<DiaryAnalyzeRequest> requests) {
+        return client.analyzeBatch(requests);
+    }
+
+    @Override
+    public List<String> split(String content) {
+        return chunker.split(content);
+    }
+
+    @Override
+    public DiaryAnalyzeResponse aggregate(List<String> chunks, List<DiaryAnalyzeResponse> results) {
+        return chunker.aggregate(chunks, results);
+    }
+
+    @Override
+    public Optional<DiaryAnalyzeResponse> findCached(String content) {
+        return resultCache.get(content);
+    }
+
+    @Override
+    public void cache(String content, DiaryAnalyzeResponse result) {
+        resultCache.put(content, result);
+    }
+
+    /**
+     * Pass result of task to {@link AnalyzeResultWriter}. It is saved by batch update later.
+     * <br/>
+     * Result is also reported to queue, to boost user with high-severity result.
+     * @param task task to save
+     * @param result Response DTO from AI server
+     */
+    @Override
+    public void applyResult(DiaryAnalyzeTask task, DiaryAnalyzeResponse result) {
+        resultWriter.write(task, result);
+        taskQueue.reportResult(task, result);
+    }
+
+    /**
+     * Save result of analyze to DB as failure.
+     * <br/>
+     * Ignored if the diary has newer content, which is still being analyzed.
+     * Provisional score by local lexicon and result of previous model (re-analysis) are kept.
+     * @param task task to save
+     */
+    @Override
+    public void applyFailure(DiaryAnalyzeTask task) {
+        // Same as Diary.setAnalyzeAsFail
+        // Diary with result is not updated, so rollup does not change
+        diaryRepository.updateAnalyzeFailure(task.getDiaryId(), task.getContentVersion());
+    }
+
+    @Override
+    public void setFailureHandler(BiConsumer<DiaryAnalyzeTask, Exception> failureHandler) {
+        this.failureHandler = failureHandler;
+    }
+
+    /**
+     * Save result not applied by batch update one by one. If failed to save, pass it to failure handler.
+     * <br/>
+     * Fallback of {@link AnalyzeResultWriter}. (e.g., stale result, or batch update failed)
+     * @param task task to save
+     * @param res Response DTO from AI server
+     */
+    private void saveResultOrRecover(DiaryAnalyzeTask task, DiaryAnalyzeResponse res) {
+        try {
+            saveResult(task, res);
+        } catch (Exception e) {
+            failureHandler.accept(task, e);
+        }
+    }
+
+    /**
+     * Save result of analyze to DB.
+     * <br/>
+     * Only analyze columns are updated, guarded by <code>contentVersion</code>.
+     * If the diary has newer content than the task, the result is discarded.
+     * The task for newer content will save its own result.
+     * @param task task to save
+     * @param res Response DTO from AI server
+     */
+    private void saveResult(DiaryAnalyzeTask task, DiaryAnalyzeResponse res) {
+        VadScore vad = res.getVad_score();
+        int updated = diaryRepository.updateAnalyzeResult(task.getDiaryId(), task.getContentVersion(),
+                vad == null ? null : vad.getV(), vad == null ? null : vad.getA(), vad == null ? null : vad.getD(),
+                res.getDepression_score(), res.getClassification(), res.getModel_version());
+
+        if(updated == 0 && isStale(task)) {
+            logger.debug("Discard stale result. diary : {} version : {}", task.getDiaryId(), task.getContentVersion());
+            taskStore.markSuperseded(task);
+            return;
+        }
+
+        taskStore.markDone(task);
+        rollupService.refreshDiaries(List.of(task.getDiaryId()));
+    }
+
+    /**
+     * Check why the result of the task is not applied.
+     * @param task task whose result is not applied
+     * @return true if the diary has newer content than the task
+     * @throws IllegalArgumentException if there is no diary
+     * @throws IllegalStateException if the task is newer than the diary. (Update of content is not committed yet)
+     */
+    private boolean isStale(DiaryAnalyzeTask task) {
+        Long version = diaryRepository.findContentVersionById(task.getDiaryId());
+
+        if(version == null) {
+            throw new IllegalArgumentException("There is no diary : " + task.getDiaryId());
+        }
+        if(task.getContentVersion() > version) {
+            // Retried by failure handler
+            throw new IllegalStateException("Content of diary is not committed yet : " + task.getDiaryId());
+        }
+        return task.getContentVersion() < version;
+    }
+}
@@ -0,0 +1,130 @@
+package org.diarymoodanalyzer.service;
+
+import org.diarymoodanalyzer.dto.response.VadTrajectoryResponse;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * VAD scores of diaries in <code>createdAt</code> order, kept in primitive arrays.
+ * <br/>
+ * Downsampled by Largest-Triangle-Three-Buckets (LTTB), which keeps peaks and troughs of the curve
+ * unlike averaging. Area of triangle is summed over v, a and d, so each selected point is a real diary
+ * with all three scores.
+ */
+final class VadTrajectory {
+
+    private LocalDateTime[] createdAt;
+
+    private float[] v;
+
+    private float[] a;
+
+    private float[] d;
+
+    private int size;
+
+    VadTrajectory(int capacity) {
+        int length = Math.max(1, capacity);
+        createdAt = new LocalDateTime[length];
+        v = new float[length];
+        a = new float[length];
+        d = new float[length];
+    }
+
+    void add(LocalDateTime time, float v, float a, float d) {
+        if(size == createdAt.length) {
+            createdAt = Arrays.copyOf(createdAt, size * 2);
+            this.v = Arrays.copyOf(this.v, size * 2);
+            this.a = Arrays.copyOf(this.a, size * 2);
+            this.d = Arrays.copyOf(this.d, size * 2);
+        }
+        createdAt[size] = time;
+        this.v[size] = v;
+        this.a[size] = a;
+        this.d[size] = d;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Select at most <code>threshold</code> points by LTTB. The first and the last points are always kept.
+     * @param threshold max count of points. At least 3
+     * @return response with selected points, or all points if not more than <code>threshold</code>
+     */
+    VadTrajectoryResponse toResponse(int threshold) {
+        if(size <= threshold || threshold < 3) {
+            return new VadTrajectoryResponse(size, false, Arrays.copyOf(createdAt, size),
+                    Arrays.copyOf(v, size), Arrays.copyOf(a, size), Arrays.copyOf(d, size));
+        }
+
+        double[] x = new double[size];
+        for(int i = 0; i < size; i++) {
+            x[i] = createdAt[i].toEpochSecond(ZoneOffset.UTC);
+        }
+
+        int[] selected = new int[threshold];
+        int count = 0;
+        selected[count++] = 0;
+
+        // Bucket size. The first and the last points are buckets of their own
+        double every = (double) (size - 2) / (threshold - 2);
+        int prev = 0;
+
+        for(int i = 0; i < threshold - 2; i++) {
+            // Average of the next bucket, as the third vertex
+            int avgStart = (int) Math.floor((i + 1) * every) + 1;
+            int avgEnd = Math.min((int) Math.floor((i + 2) * every) + 1, size);
+            double avgX = 0, avgV = 0, avgA = 0, avgD = 0;
+            for(int j = avgStart; j < avgEnd; j++) {
+                avgX += x[j];
+                avgV += v[j];
+                avgA += a[j];
+                avgD += d[j];
+            }
+            int avgCount = avgEnd - avgStart;
+            avgX /= avgCount;
+            avgV /= avgCount;
+            avgA /= avgCount;
+            avgD /= avgCount;
+
+            // Point of the current bucket with the largest triangle
+            int from = (int) Math.floor(i * every) + 1;
+            int to = (int) Math.floor((i + 1) * every) + 1;
+            double maxArea = -1;
+            int maxIndex = from;
+            for(int j = from; j < to; j++) {
+                double dx1 = x[prev] - avgX;
+                double dx2 = x[prev] - x[j];
+                double area = Math.abs(dx1 * (v[j] - v[prev]) - dx2 * (avgV - v[prev]))
+                        + Math.abs(dx1 * (a[j] - a[prev]) - dx2 * (avgA - a[prev]))
+                        + Math.abs(dx1 * (d[j] - d[prev]) - dx2 * (avgD - d[prev]));
+                if(area > maxArea) {
+                    maxArea = area;
+                    maxIndex = j;
+                }
+            }
+
+            selected[count++] = maxIndex;
+            prev = maxIndex;
+        }
+
+        selected[count++] = size - 1;
+
+        LocalDateTime[] times = new LocalDateTime[count];
+        float[] sv = new float[count];
+        float[] sa = new float[count];
+        float[] sd = new float[count];
+        for(int i = 0; i < count; i++) {
+            times[i] = createdAt[selected[i]];
+            sv[i] = v[selected[i]];
+            sa[i] = a[selected[i]];
+            sd[i] = d[selected[i]];
+        }
+        return new VadTrajectoryResponse(size, true, times, sv, sa, sd);
+    }
+}
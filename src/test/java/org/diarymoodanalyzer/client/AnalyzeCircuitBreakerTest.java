@@ -0,0 +1,140 @@
+package org.diarymoodanalyzer.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.diarymoodanalyzer.client.AnalyzeConcurrencyLimiterTest.responseError;
+
+public class AnalyzeCircuitBreakerTest {
+
+    private DiaryAnalyzeProperties properties;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private final List<String> transitions = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() {
+        properties = new DiaryAnalyzeProperties();
+        meterRegistry = new SimpleMeterRegistry();
+        transitions.clear();
+    }
+
+    @DisplayName("onError: 연속 실패가 failureThreshold에 이르면 열리고, 열린 동안 허가되지 않는다.")
+    @Test
+    public void onErrorOpensAfterThreshold() {
+        properties.getCircuitBreaker().setFailureThreshold(3);
+        AnalyzeCircuitBreaker breaker = createBreaker();
+
+        breaker.onError(new TimeoutException());
+        breaker.onError(new TimeoutException());
+        assertThat(breaker.getState()).isEqualTo(AnalyzeCircuitBreaker.State.CLOSED);
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+
+        breaker.onError(new TimeoutException());
+
+        assertThat(breaker.getState()).isEqualTo(AnalyzeCircuitBreaker.State.OPEN);
+        assertThat(breaker.isOpen()).isTrue();
+        assertThat(breaker.tryAcquirePermission()).isFalse();
+        assertThat(transitions).containsExactly("CLOSED->OPEN");
+        assertThat(meterRegistry.counter("diary.analyze.breaker.transitions", "to", "OPEN").count()).isEqualTo(1);
+    }
+
+    @DisplayName("onError, onSuccess: 성공이나 4xx 응답은 연속 실패를 초기화한다.")
+    @Test
+    public void successResetsFailures() {
+        properties.getCircuitBreaker().setFailureThreshold(2);
+        AnalyzeCircuitBreaker breaker = createBreaker();
+
+        breaker.onError(new TimeoutException());
+        breaker.onSuccess();
+        breaker.onError(responseError(503, "Service Unavailable"));
+        breaker.onError(responseError(400, "Bad Request"));
+        breaker.onError(new TimeoutException());
+
+        assertThat(breaker.getState()).isEqualTo(AnalyzeCircuitBreaker.State.CLOSED);
+    }
+
+    @DisplayName("tryAcquirePermission: openMillis가 지나면 반열림으로 바뀌고, 탐색 요청 하나만 허가된다.")
+    @Test
+    public void tryAcquirePermissionGivesSingleProbe() {
+        AnalyzeCircuitBreaker breaker = createOpenBreaker();
+
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+        assertThat(breaker.getState()).isEqualTo(AnalyzeCircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquirePermission()).isFalse();
+
+        breaker.cancelPermission();
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+        assertThat(breaker.currentProbe()).isEqualTo(2);
+    }
+
+    @DisplayName("onSuccess: 탐색 요청이 성공하면 닫힌다.")
+    @Test
+    public void onSuccessClosesOnProbe() {
+        AnalyzeCircuitBreaker breaker = createOpenBreaker();
+        breaker.tryAcquirePermission();
+
+        breaker.onSuccess();
+
+        assertThat(breaker.getState()).isEqualTo(AnalyzeCircuitBreaker.State.CLOSED);
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+        assertThat(transitions).containsExactly("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED");
+    }
+
+    @DisplayName("onError: 탐색 요청이 실패하면 다시 열린다.")
+    @Test
+    public void onErrorReopensOnProbe() {
+        AnalyzeCircuitBreaker breaker = createOpenBreaker();
+        breaker.tryAcquirePermission();
+        properties.getCircuitBreaker().setOpenMillis(60_000);
+
+        breaker.onError(new TimeoutException());
+
+        assertThat(breaker.getState()).isEqualTo(AnalyzeCircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquirePermission()).isFalse();
+        assertThat(transitions).containsExactly("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->OPEN");
+    }
+
+    @DisplayName("finishProbe: 진행 중인 탐색만 끝내고, 이전 탐색의 id로는 끝내지 않는다.")
+    @Test
+    public void finishProbeOnlyCurrent() {
+        AnalyzeCircuitBreaker breaker = createOpenBreaker();
+        breaker.tryAcquirePermission();
+        long stale = breaker.currentProbe();
+        breaker.cancelPermission();
+        breaker.tryAcquirePermission();
+
+        breaker.finishProbe(stale);
+        assertThat(breaker.tryAcquirePermission()).isFalse();
+
+        breaker.finishProbe(breaker.currentProbe());
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+        assertThat(breaker.getState()).isEqualTo(AnalyzeCircuitBreaker.State.HALF_OPEN);
+    }
+
+    private AnalyzeCircuitBreaker createBreaker() {
+        AnalyzeCircuitBreaker breaker = new AnalyzeCircuitBreaker(properties, meterRegistry);
+        breaker.addListener((from, to) -> transitions.add(from + "->" + to));
+        return breaker;
+    }
+
+    /**
+     * Create breaker which is OPEN and moves to HALF_OPEN on next permission
+     */
+    private AnalyzeCircuitBreaker createOpenBreaker() {
+        properties.getCircuitBreaker().setFailureThreshold(1);
+        properties.getCircuitBreaker().setOpenMillis(0);
+        AnalyzeCircuitBreaker breaker = createBreaker();
+        breaker.onError(new TimeoutException());
+        return breaker;
+    }
+}
@@ -0,0 +1,133 @@
+package org.diarymoodanalyzer.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class AnalyzeConcurrencyLimiterTest {
+
+    private static final long RTT = 10_000_000;
+
+    private DiaryAnalyzeProperties properties;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void setUp() {
+        properties = new DiaryAnalyzeProperties();
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @DisplayName("tryAcquire: 한도만큼만 허가되고, 반납하면 다시 허가된다.")
+    @Test
+    public void tryAcquireUpToLimit() {
+        AnalyzeConcurrencyLimiter limiter = createLimiter();
+
+        for(int i = 0; i < 4; i++) {
+            assertThat(limiter.tryAcquire()).isTrue();
+        }
+        assertThat(limiter.tryAcquire()).isFalse();
+        assertThat(meterRegistry.counter("diary.analyze.limiter.rejected").count()).isEqualTo(1);
+
+        limiter.release();
+        assertThat(limiter.tryAcquire()).isTrue();
+        assertThat(limiter.getInFlight()).isEqualTo(4);
+    }
+
+    @DisplayName("tryAcquireUpTo: 남은 허가만큼만 가져가고, 거절로 집계하지 않는다.")
+    @Test
+    public void tryAcquireUpToRemaining() {
+        AnalyzeConcurrencyLimiter limiter = createLimiter();
+        limiter.tryAcquire();
+
+        assertThat(limiter.tryAcquireUpTo(10)).isEqualTo(3);
+        assertThat(limiter.tryAcquireUpTo(10)).isZero();
+        assertThat(meterRegistry.counter("diary.analyze.limiter.rejected").count()).isZero();
+
+        limiter.release(3);
+        assertThat(limiter.getInFlight()).isEqualTo(1);
+    }
+
+    @DisplayName("onSuccess: 한도를 사용 중이고 지연이 안정적이면 왕복마다 약 1씩 늘어나고, 유휴 상태에서는 늘지 않는다.")
+    @Test
+    public void onSuccessIncreasesAdditively() {
+        AnalyzeConcurrencyLimiter limiter = createLimiter();
+        limiter.tryAcquireUpTo(4);
+
+        // One round trip of the whole limit
+        for(int i = 0; i < 4; i++) {
+            limiter.onSuccess(RTT);
+        }
+        assertThat(limiter.getLimit()).isBetween(4.9, 5.0);
+
+        limiter.release(4);
+        double idle = limiter.getLimit();
+        limiter.onSuccess(RTT);
+        assertThat(limiter.getLimit()).isEqualTo(idle);
+    }
+
+    @DisplayName("onSuccess: 지연이 평균의 rttTolerance 배를 넘으면 backoffRatio 배로 줄어든다.")
+    @Test
+    public void onSuccessBacksOffOnLatency() {
+        AnalyzeConcurrencyLimiter limiter = createLimiter();
+        limiter.onSuccess(RTT);
+
+        limiter.onSuccess(RTT * 10);
+
+        assertThat(limiter.getLimit()).isCloseTo(4 * properties.getLimiter().getBackoffRatio(), within(1e-9));
+    }
+
+    @DisplayName("onError: 시간 초과나 5xx, 429이면 줄어들고, 4xx이면 유지된다.")
+    @Test
+    public void onErrorBacksOffOnOverload() {
+        AnalyzeConcurrencyLimiter limiter = createLimiter();
+        double ratio = properties.getLimiter().getBackoffRatio();
+
+        limiter.onError(new TimeoutException());
+        assertThat(limiter.getLimit()).isCloseTo(4 * ratio, within(1e-9));
+
+        limiter.onError(responseError(429, "Too Many Requests"));
+        assertThat(limiter.getLimit()).isCloseTo(4 * ratio * ratio, within(1e-9));
+
+        limiter.onError(responseError(400, "Bad Request"));
+        assertThat(limiter.getLimit()).isCloseTo(4 * ratio * ratio, within(1e-9));
+        assertThat(meterRegistry.counter("diary.analyze.limiter.dropped").count()).isEqualTo(2);
+    }
+
+    @DisplayName("onError, onSuccess: 한도는 minLimit과 maxInFlight 사이로 유지되고, reset하면 초기값으로 돌아간다.")
+    @Test
+    public void limitIsClamped() {
+        properties.getBatch().setMaxInFlight(5);
+        AnalyzeConcurrencyLimiter limiter = createLimiter();
+
+        for(int i = 0; i < 100; i++) {
+            limiter.onError(new TimeoutException());
+        }
+        assertThat(limiter.getLimit()).isEqualTo(1.0);
+
+        limiter.reset();
+        limiter.tryAcquireUpTo(4);
+        for(int i = 0; i < 100; i++) {
+            limiter.onSuccess(RTT);
+        }
+        assertThat(limiter.getLimit()).isEqualTo(5.0);
+    }
+
+    private AnalyzeConcurrencyLimiter createLimiter() {
+        return new AnalyzeConcurrencyLimiter(properties, meterRegistry);
+    }
+
+    static WebClientResponseException responseError(int status, String reason) {
+        return WebClientResponseException.create(status, reason, new HttpHeaders(), new byte[0], StandardCharsets.UTF_8);
+    }
+}
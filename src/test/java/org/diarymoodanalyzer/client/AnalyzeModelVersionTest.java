@@ -0,0 +1,71 @@
+package org.diarymoodanalyzer.client;
+
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.diarymoodanalyzer.dto.ai.response.DiaryAnalyzeResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AnalyzeModelVersionTest {
+
+    private DiaryAnalyzeProperties properties;
+
+    @BeforeEach
+    public void setUp() {
+        properties = new DiaryAnalyzeProperties();
+        properties.setModelVersionSettleCount(3);
+    }
+
+    @DisplayName("resolve: 새 버전이 settle-count번 연속으로 응답되어야 현재 버전이 바뀐다.")
+    @Test
+    public void resolveSwitchesAfterSettled() {
+        AnalyzeModelVersion modelVersion = new AnalyzeModelVersion(properties);
+
+        resolve(modelVersion, "v1", 3);
+        assertThat(modelVersion.current()).isEqualTo("v1");
+
+        resolve(modelVersion, "v2", 2);
+        assertThat(modelVersion.current()).isEqualTo("v1");
+
+        resolve(modelVersion, "v2", 1);
+        assertThat(modelVersion.current()).isEqualTo("v2");
+    }
+
+    @DisplayName("resolve: 여러 버전이 섞여 응답되면 현재 버전이 바뀌지 않는다.")
+    @Test
+    public void resolveKeepsCurrentOnMixedVersions() {
+        AnalyzeModelVersion modelVersion = new AnalyzeModelVersion(properties);
+        resolve(modelVersion, "v1", 3);
+
+        for(int i = 0; i < 10; i++) {
+            resolve(modelVersion, "v2", 2);
+            resolve(modelVersion, "v1", 1);
+        }
+
+        assertThat(modelVersion.current()).isEqualTo("v1");
+    }
+
+    @DisplayName("resolve: 버전이 응답되지 않으면 결과의 버전은 비워두고, 현재 버전은 설정된 버전이다.")
+    @Test
+    public void resolveLeavesUnversionedNull() {
+        AnalyzeModelVersion modelVersion = new AnalyzeModelVersion(properties);
+        DiaryAnalyzeResponse res = new DiaryAnalyzeResponse();
+
+        modelVersion.resolve(new HttpHeaders(), res);
+
+        assertThat(res.getModel_version()).isNull();
+        assertThat(modelVersion.isKnown()).isFalse();
+        assertThat(modelVersion.current()).isEqualTo(properties.getModelVersion());
+    }
+
+    private void resolve(AnalyzeModelVersion modelVersion, String version, int times) {
+        for(int i = 0; i < times; i++) {
+            DiaryAnalyzeResponse res = new DiaryAnalyzeResponse();
+            res.setModel_version(version);
+            modelVersion.resolve(new HttpHeaders(), res);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package org.diarymoodanalyzer.client;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.diarymoodanalyzer.dto.ai.request.DiaryAnalyzeRequest;
+import org.diarymoodanalyzer.dto.ai.response.DiaryAnalyzeResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Test {@link DiaryAnalyzeClient} with pool of stub replicas. No Spring context or AI server is required.
+ */
+public class DiaryAnalyzeClientTest {
+
+    private static final String RESULT = """
+            {"vad_score": {"v": 5.0, "a": 5.0, "d": 5.0}, "depression_score": 10, "classification": "normal"}
+            """;
+
+    private final List<StubReplica> replicas = new ArrayList<>();
+
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        replicas.add(new StubReplica());
+        replicas.add(new StubReplica());
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        replicas.forEach(replica -> replica.server.stop(0));
+    }
+
+    @DisplayName("analyze: 동시 요청은 처리 중인 요청이 적은 replica로 분산된다.")
+    @Test
+    public void analyzeBalancesLeastOutstanding() {
+        replicas.forEach(replica -> replica.delayMillis.set(200));
+        DiaryAnalyzeClient client = createClient(createProperties());
+
+        List<DiaryAnalyzeResponse> results = Flux.range(0, 8)
+                .flatMap(i -> client.analyze(request()))
+                .collectList()
+                .block();
+
+        assertThat(results).hasSize(8);
+        assertThat(replicas.get(0).hits.get()).isEqualTo(4);
+        assertThat(replicas.get(1).hits.get()).isEqualTo(4);
+    }
+
+    @DisplayName("analyze: 연속으로 실패한 replica는 제외되고, 나머지 replica로 요청을 보낸다.")
+    @Test
+    public void analyzeEjectsFailingReplica() {
+        replicas.get(0).status.set(503);
+        DiaryAnalyzeProperties properties = createProperties();
+        DiaryAnalyzeClient client = createClient(properties);
+
+        int failures = 0;
+        for(int i = 0; i < 10; i++) {
+            try {
+                client.sendRequest(request());
+            } catch (RuntimeException e) {
+                failures++;
+            }
+        }
+
+        assertThat(failures).isEqualTo(properties.getPool().getEjectFailureThreshold());
+        assertThat(replicas.get(0).hits.get()).isEqualTo(properties.getPool().getEjectFailureThreshold());
+    }
+
+    @DisplayName("analyze: p95 이후에도 응답이 없으면 다른 replica로 hedged request를 보낸다.")
+    @Test
+    public void analyzeHedgesSlowReplica() {
+        DiaryAnalyzeProperties properties = createProperties();
+        properties.getPool().setHedgeEnabled(true);
+        properties.getPool().setHedgeMinDelayMillis(50);
+        DiaryAnalyzeClient client = createClient(properties);
+
+        // Collect latencies for p95
+        for(int i = 0; i < 32; i++) {
+            client.sendRequest(request());
+        }
+
+        replicas.get(0).delayMillis.set(3000);
+
+        long start = System.currentTimeMillis();
+        List<DiaryAnalyzeResponse> results = Flux.range(0, 2)
+                .flatMap(i -> client.analyze(request()))
+                .collectList()
+                .block();
+
+        assertThat(results).hasSize(2);
+        assertThat(System.currentTimeMillis() - start).isLessThan(2000);
+        assertThat(meterRegistry.counter("diary.analyze.pool.hedged").count()).isGreaterThan(0);
+    }
+
+    @DisplayName("analyze: primary replica가 빠르게 실패해도 hedged request의 응답을 사용하고, 모두 실패하면 primary의 에러를 반환한다.")
+    @Test
+    public void analyzeHedgesFailedReplica() {
+        DiaryAnalyzeProperties properties = createProperties();
+        properties.getPool().setHedgeEnabled(true);
+        properties.getPool().setHedgeMinDelayMillis(50);
+        DiaryAnalyzeClient client = createClient(properties);
+
+        // Collect latencies for p95
+        for(int i = 0; i < 32; i++) {
+            client.sendRequest(request());
+        }
+
+        replicas.get(0).status.set(503);
+
+        for(int i = 0; i < 4; i++) {
+            assertThat(client.sendRequest(request())).isNotNull();
+        }
+        assertThat(meterRegistry.counter("diary.analyze.pool.hedged").count()).isGreaterThan(0);
+
+        replicas.get(1).status.set(503);
+
+        assertThatThrownBy(() -> client.sendRequest(request()))
+                .isInstanceOf(WebClientResponseException.class);
+    }
+
+    @DisplayName("analyze: 한도에 남은 허가가 없으면 hedged request를 보내지 않는다.")
+    @Test
+    public void analyzeSkipsHedgeWithoutPermit() {
+        DiaryAnalyzeProperties properties = createProperties();
+        properties.getPool().setHedgeEnabled(true);
+        properties.getPool().setHedgeMinDelayMillis(50);
+        AnalyzeConcurrencyLimiter limiter = new AnalyzeConcurrencyLimiter(properties, meterRegistry);
+        DiaryAnalyzeClient client = createClient(properties, limiter, new AnalyzeModelVersion(properties));
+
+        // Collect latencies for p95
+        for(int i = 0; i < 32; i++) {
+            client.sendRequest(request());
+        }
+        int hits = replicas.get(0).hits.get() + replicas.get(1).hits.get();
+
+        replicas.forEach(replica -> replica.delayMillis.set(300));
+        // Callers hold every permit
+        int permits = limiter.tryAcquireUpTo(Integer.MAX_VALUE);
+
+        assertThat(client.sendRequest(request())).isNotNull();
+
+        assertThat(replicas.get(0).hits.get() + replicas.get(1).hits.get()).isEqualTo(hits + 1);
+        assertThat(meterRegistry.counter("diary.analyze.pool.hedged").count()).isZero();
+        assertThat(meterRegistry.counter("diary.analyze.pool.hedge.skipped").count()).isEqualTo(1);
+        assertThat(limiter.getInFlight()).isEqualTo(permits);
+    }
+
+    @DisplayName("analyze: 응답 헤더의 모델 버전을 결과에 기록하고, 헤더가 없으면 버전을 비워두고 현재 버전으로 기억하지 않는다.")
+    @Test
+    public void analyzeRecordsModelVersion() {
+        DiaryAnalyzeProperties properties = createProperties();
+        properties.setUrls(List.of(replicas.get(0).url()));
+        properties.setModelVersionSettleCount(2);
+        AnalyzeModelVersion modelVersion = new AnalyzeModelVersion(properties);
+        DiaryAnalyzeClient client = createClient(properties, modelVersion);
+
+        DiaryAnalyzeResponse withoutHeader = client.sendRequest(request());
+        assertThat(withoutHeader.getModel_version()).isNull();
+        // Configured version is not reported by AI server. Re-analysis does not start
+        assertThat(modelVersion.isKnown()).isFalse();
+        assertThat(modelVersion.current()).isEqualTo(properties.getModelVersion());
+
+        replicas.get(0).modelVersion.set("kobert-2");
+        DiaryAnalyzeResponse withHeader = client.sendRequest(request());
+
+        assertThat(withHeader.getModel_version()).isEqualTo("kobert-2");
+        // Not settled yet
+        assertThat(modelVersion.isKnown()).isFalse();
+
+        client.sendRequest(request());
+        assertThat(modelVersion.current()).isEqualTo("kobert-2");
+        assertThat(modelVersion.isKnown()).isTrue();
+    }
+
+    private DiaryAnalyzeProperties createProperties() {
+        DiaryAnalyzeProperties properties = new DiaryAnalyzeProperties();
+        properties.setUrls(replicas.stream().map(StubReplica::url).toList());
+        properties.setTimeoutMillis(5000);
+        return properties;
+    }
+
+    private DiaryAnalyzeClient createClient(DiaryAnalyzeProperties properties) {
+        return createClient(properties, new AnalyzeModelVersion(properties));
+    }
+
+    private DiaryAnalyzeClient createClient(DiaryAnalyzeProperties properties, AnalyzeModelVersion modelVersion) {
+        return createClient(properties, new AnalyzeConcurrencyLimiter(properties, meterRegistry), modelVersion);
+    }
+
+    private DiaryAnalyzeClient createClient(DiaryAnalyzeProperties properties, AnalyzeConcurrencyLimiter limiter,
+                                            AnalyzeModelVersion modelVersion) {
+        AnalyzeEndpointPool pool = new AnalyzeEndpointPool(WebClient.builder(), properties, meterRegistry);
+        return new DiaryAnalyzeClient(properties, pool,
+                limiter,
+                new AnalyzeCircuitBreaker(properties, meterRegistry),
+                modelVersion,
+                meterRegistry);
+    }
+
+    private DiaryAnalyzeRequest request() {
+        DiaryAnalyzeRequest req = new DiaryAnalyzeRequest();
+        req.setDiaryContent("오늘은 조금 피곤했지만 괜찮았다.");
+        return req;
+    }
+
+    /**
+     * Stub of AI server replica. Response delay and status can be changed
+     */
+    private static class StubReplica {
+
+        private final HttpServer server;
+
+        private final AtomicInteger hits = new AtomicInteger();
+
+        private final AtomicLong delayMillis = new AtomicLong();
+
+        private final AtomicInteger status = new AtomicInteger(200);
+
+        private final AtomicReference<String> modelVersion = new AtomicReference<>();
+
+        private StubReplica() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.createContext("/analyze", exchange -> {
+                hits.incrementAndGet();
+                exchange.getRequestBody().readAllBytes();
+
+                try {
+                    Thread.sleep(delayMillis.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                byte[] body = RESULT.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                if(modelVersion.get() != null) {
+                    exchange.getResponseHeaders().add(AnalyzeModelVersion.HEADER, modelVersion.get());
+                }
+                exchange.sendResponseHeaders(status.get(), body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+        }
+
+        private String url() {
+            return "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+    }
+}
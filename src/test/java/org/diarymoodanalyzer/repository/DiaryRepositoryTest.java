@@ -0,0 +1,176 @@
+package org.diarymoodanalyzer.repository;
+
+import org.diarymoodanalyzer.domain.AnalysisTask;
+import org.diarymoodanalyzer.domain.AnalysisTaskStatus;
+import org.diarymoodanalyzer.domain.Diary;
+import org.diarymoodanalyzer.domain.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+public class DiaryRepositoryTest {
+
+    @Autowired
+    private DiaryRepository diaryRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private AnalysisTaskRepository analysisTaskRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    private Diary diary;
+
+    @BeforeEach
+    public void setUp() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+
+        User user = userRepository.save(User.builder()
+                .email(UUID.randomUUID() + "@email.com")
+                .password("testPassword")
+                .build());
+
+        diary = diaryRepository.save(Diary.builder()
+                .user(user)
+                .title("title")
+                .content("content")
+                .build());
+    }
+
+    @DisplayName("updateAnalyzeResult: 내용 수정 후 도착한 이전 버전의 분석 결과는 거부되고, 수정한 내용은 유지된다.")
+    @Test
+    public void updateAnalyzeResultRejectsStaleVersion() {
+        long analyzedVersion = diary.getContentVersion();
+
+        // Edit by user
+        transactionTemplate.executeWithoutResult(status -> {
+            Diary found = diaryRepository.findById(diary.getId()).orElseThrow();
+            found.setTitle("edited title");
+            found.updateContent("edited content");
+        });
+
+        // Late result of old content
+        int updated = diaryRepository.updateAnalyzeResult(diary.getId(), analyzedVersion,
+                5.0f, 5.0f, 5.0f, 42, "normal", "v1");
+
+        Diary result = diaryRepository.findById(diary.getId()).orElseThrow();
+
+        assertThat(updated).isZero();
+        assertThat(result.getTitle()).isEqualTo("edited title");
+        assertThat(result.getContent()).isEqualTo("edited content");
+        assertThat(result.getContentVersion()).isEqualTo(analyzedVersion + 1);
+        assertThat(result.getDepressionScore()).isNotEqualTo(42);
+    }
+
+    @DisplayName("updateAnalyzeResult: 제목 수정과 분석 결과 저장이 동시에 일어나도 두 변경이 모두 유지된다.")
+    @Test
+    public void updateAnalyzeResultKeepsConcurrentEdit() throws Exception {
+        CountDownLatch loaded = new CountDownLatch(1);
+        CountDownLatch resultSaved = new CountDownLatch(1);
+
+        // Edit by user. Entity is loaded before the result is saved, and flushed after that
+        CompletableFuture<Void> edit = CompletableFuture.runAsync(() ->
+                transactionTemplate.executeWithoutResult(status -> {
+                    Diary found = diaryRepository.findById(diary.getId()).orElseThrow();
+                    loaded.countDown();
+
+                    try {
+                        resultSaved.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+
+                    found.setTitle("edited title");
+                }));
+
+        assertThat(loaded.await(5, TimeUnit.SECONDS)).isTrue();
+
+        int updated = diaryRepository.updateAnalyzeResult(diary.getId(), diary.getContentVersion(),
+                5.0f, 4.0f, 3.0f, 42, "normal", "v1");
+        resultSaved.countDown();
+
+        edit.get(10, TimeUnit.SECONDS);
+
+        Diary result = diaryRepository.findById(diary.getId()).orElseThrow();
+
+        assertThat(updated).isEqualTo(1);
+        assertThat(result.getTitle()).isEqualTo("edited title");
+        assertThat(result.getContent()).isEqualTo("content");
+        assertThat(result.getDepressionScore()).isEqualTo(42);
+        assertThat(result.getClassification()).isEqualTo("normal");
+        assertThat(result.getVadScore().getV()).isEqualTo(5.0f);
+    }
+
+    @DisplayName("findIdsWithoutResult: 분석되지 않았거나 실패한 일기만 반환하고, 대기 중인 작업이 있는 일기는 제외한다.")
+    @Test
+    public void findIdsWithoutResultSelectsBackfillTargets() {
+        long afterId = diary.getId() - 1;
+        long maxId = diary.getId();
+
+        // Never analyzed
+        assertThat(diaryRepository.findIdsWithoutResult(afterId, maxId, PageRequest.of(0, 10)))
+                .containsExactly(diary.getId());
+
+        // Waiting task
+        AnalysisTask task = analysisTaskRepository.save(new AnalysisTask(diary.getId()));
+        assertThat(diaryRepository.findIdsWithoutResult(afterId, maxId, PageRequest.of(0, 10))).isEmpty();
+
+        // Analyzed
+        task.setStatus(AnalysisTaskStatus.DONE);
+        analysisTaskRepository.save(task);
+        diaryRepository.updateAnalyzeResult(diary.getId(), diary.getContentVersion(),
+                5.0f, 5.0f, 5.0f, 42, "normal", "v1");
+        assertThat(diaryRepository.findIdsWithoutResult(afterId, maxId, PageRequest.of(0, 10))).isEmpty();
+
+        // Failed
+        diaryRepository.updateAnalyzeResult(diary.getId(), diary.getContentVersion(),
+                null, null, null, -1, null, null);
+        assertThat(diaryRepository.findIdsWithoutResult(afterId, maxId, PageRequest.of(0, 10)))
+                .containsExactly(diary.getId());
+        assertThat(diaryRepository.countWithoutResult(maxId)).isPositive();
+    }
+
+    @DisplayName("findIdsAnalyzedByOtherModel: 다른 모델의 결과만 반환하고, 버전이 없는 결과는 포함하도록 설정한 경우에만 반환한다.")
+    @Test
+    public void findIdsAnalyzedByOtherModelSkipsUnversioned() {
+        long afterId = diary.getId() - 1;
+
+        // Saved before model version was recorded
+        diaryRepository.updateAnalyzeResult(diary.getId(), diary.getContentVersion(),
+                5.0f, 5.0f, 5.0f, 42, "normal", null);
+        assertThat(diaryRepository.findIdsAnalyzedByOtherModel(afterId, "v2", false, PageRequest.of(0, 10)))
+                .doesNotContain(diary.getId());
+        assertThat(diaryRepository.findIdsAnalyzedByOtherModel(afterId, "v2", true, PageRequest.of(0, 10)))
+                .contains(diary.getId());
+
+        // Older model
+        diaryRepository.updateAnalyzeResult(diary.getId(), diary.getContentVersion(),
+                5.0f, 5.0f, 5.0f, 42, "normal", "v1");
+        assertThat(diaryRepository.findIdsAnalyzedByOtherModel(afterId, "v2", false, PageRequest.of(0, 10)))
+                .contains(diary.getId());
+
+        // Current model
+        diaryRepository.updateAnalyzeResult(diary.getId(), diary.getContentVersion(),
+                5.0f, 5.0f, 5.0f, 42, "normal", "v2");
+        assertThat(diaryRepository.findIdsAnalyzedByOtherModel(afterId, "v2", true, PageRequest.of(0, 10)))
+                .doesNotContain(diary.getId());
+    }
+}
@@ -0,0 +1,56 @@
+package org.diarymoodanalyzer.service;
+
+import org.diarymoodanalyzer.domain.User;
+import org.diarymoodanalyzer.domain.UserAuthority;
+import org.diarymoodanalyzer.repository.UserRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = "admin.emails=Admin@Bootstrap.com")
+public class AdminProvisioningServiceTest {
+
+    @Autowired
+    private AdminProvisioningService adminProvisioningService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @DisplayName("provision: admin.emails에 설정된 기존 사용자에게만 ADMIN 권한을 부여한다.")
+    @Test
+    public void provisionGrantsConfiguredUser() {
+        User admin = userRepository.save(User.builder()
+                .email("admin@bootstrap.com")
+                .password("testPassword")
+                .build());
+        User other = userRepository.save(User.builder()
+                .email("other@bootstrap.com")
+                .password("testPassword")
+                .build());
+
+        assertThat(adminProvisioningService.provision()).isEqualTo(1);
+
+        User granted = userRepository.findById(admin.getId()).orElseThrow();
+        assertThat(granted.isAdmin()).isTrue();
+        assertThat(granted.getAuthority()).isEqualTo(UserAuthority.USER);
+        assertThat(userRepository.findById(other.getId()).orElseThrow().isAdmin()).isFalse();
+
+        // Already granted
+        assertThat(adminProvisioningService.provision()).isZero();
+    }
+
+    @DisplayName("grantIfConfigured: 가입하는 사용자의 이메일이 설정되어 있으면 기존 USER 권한에 더해 ADMIN 권한을 부여한다.")
+    @Test
+    public void grantIfConfiguredOnSignUp() {
+        User user = User.builder()
+                .email("admin@bootstrap.com")
+                .password("testPassword")
+                .build();
+
+        assertThat(adminProvisioningService.grantIfConfigured(user)).isTrue();
+        assertThat(user.getAuthorities()).extracting(Object::toString).containsExactly("ROLE_USER", "ROLE_ADMIN");
+    }
+}
@@ -0,0 +1,68 @@
+package org.diarymoodanalyzer.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+public class AfterCommitDispatcherTest {
+
+    @Autowired
+    private AfterCommitDispatcher dispatcher;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    public void setUp() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @DisplayName("afterCommit: 트랜잭션이 커밋된 후에 실행된다.")
+    @Test
+    public void afterCommitRunsAfterCommit() {
+        AtomicInteger count = new AtomicInteger();
+
+        transactionTemplate.executeWithoutResult(status -> {
+            dispatcher.afterCommit("test", count::incrementAndGet);
+
+            // Not yet committed
+            assertThat(count.get()).isZero();
+        });
+
+        assertThat(count.get()).isEqualTo(1);
+    }
+
+    @DisplayName("afterCommit: 트랜잭션이 롤백되면 실행되지 않는다.")
+    @Test
+    public void afterCommitDroppedOnRollback() {
+        AtomicInteger count = new AtomicInteger();
+
+        transactionTemplate.executeWithoutResult(status -> {
+            dispatcher.afterCommit("test", count::incrementAndGet);
+            status.setRollbackOnly();
+        });
+
+        assertThat(count.get()).isZero();
+    }
+
+    @DisplayName("afterCommit: 트랜잭션이 없으면 즉시 실행된다.")
+    @Test
+    public void afterCommitRunsImmediatelyWithoutTransaction() {
+        AtomicInteger count = new AtomicInteger();
+
+        dispatcher.afterCommit("test", count::incrementAndGet);
+
+        assertThat(count.get()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,200 @@
+package org.diarymoodanalyzer.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.diarymoodanalyzer.domain.Diary;
+import org.diarymoodanalyzer.domain.User;
+import org.diarymoodanalyzer.dto.ai.request.VadScore;
+import org.diarymoodanalyzer.dto.ai.response.DiaryAnalyzeResponse;
+import org.diarymoodanalyzer.repository.DiaryRepository;
+import org.diarymoodanalyzer.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+
+import javax.sql.DataSource;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+public class AnalyzeResultWriterTest {
+
+    @Autowired
+    private DiaryRepository diaryRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private DailyMoodRollupService dailyMoodRollupService;
+
+    private DiaryAnalyzeProperties properties;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private StubTaskStore taskStore;
+
+    private final List<DiaryAnalyzeTask> notApplied = new ArrayList<>();
+
+    private User user;
+
+    @BeforeEach
+    public void setUp() {
+        properties = new DiaryAnalyzeProperties();
+        meterRegistry = new SimpleMeterRegistry();
+        taskStore = new StubTaskStore();
+        notApplied.clear();
+        user = userRepository.save(User.builder()
+                .email(UUID.randomUUID() + "@email.com")
+                .password("testPassword")
+                .build());
+    }
+
+    @DisplayName("flush: 버퍼의 결과를 한 번에 저장하고, 저장된 작업을 완료 처리한다.")
+    @Test
+    public void flushAppliesBuffered() {
+        AnalyzeResultWriter writer = createWriter(new JdbcTemplate(dataSource));
+        Diary first = saveDiary();
+        Diary second = saveDiary();
+
+        writer.write(taskOf(first, first.getContentVersion()), result(30, "v1"));
+        writer.write(taskOf(second, second.getContentVersion()), result(70, null));
+
+        // Not saved until flush
+        assertThat(diaryRepository.findById(first.getId()).orElseThrow().getModelVersion()).isNull();
+
+        writer.flush();
+
+        Diary savedFirst = diaryRepository.findById(first.getId()).orElseThrow();
+        assertThat(savedFirst.getDepressionScore()).isEqualTo(30);
+        assertThat(savedFirst.getModelVersion()).isEqualTo("v1");
+        assertThat(savedFirst.isAnalyzeProvisional()).isFalse();
+        assertThat(diaryRepository.findById(second.getId()).orElseThrow().getDepressionScore()).isEqualTo(70);
+
+        assertThat(taskStore.done).extracting(DiaryAnalyzeTask::getDiaryId).containsExactly(first.getId(), second.getId());
+        assertThat(notApplied).isEmpty();
+        assertThat(meterRegistry.counter("diary.analyze.writer.flushed").count()).isEqualTo(2);
+    }
+
+    @DisplayName("write: 버퍼가 batchSize만큼 차면 호출한 스레드에서 저장한다.")
+    @Test
+    public void writeFlushesWhenFull() {
+        properties.getWriter().setBatchSize(2);
+        AnalyzeResultWriter writer = createWriter(new JdbcTemplate(dataSource));
+        Diary first = saveDiary();
+        Diary second = saveDiary();
+
+        writer.write(taskOf(first, first.getContentVersion()), result(30, "v1"));
+        assertThat(taskStore.done).isEmpty();
+
+        writer.write(taskOf(second, second.getContentVersion()), result(70, "v1"));
+
+        assertThat(taskStore.done).hasSize(2);
+        assertThat(diaryRepository.findById(second.getId()).orElseThrow().getDepressionScore()).isEqualTo(70);
+    }
+
+    @DisplayName("flush: 내용이 바뀌었거나 삭제된 일기의 결과는 저장하지 않고 fallback으로 넘긴다.")
+    @Test
+    public void flushGuardsContentVersion() {
+        AnalyzeResultWriter writer = createWriter(new JdbcTemplate(dataSource));
+        Diary edited = saveDiary();
+        DiaryAnalyzeTask stale = taskOf(edited, edited.getContentVersion());
+        edited.updateContent("edited content");
+        diaryRepository.save(edited);
+        Diary deleted = saveDiary();
+        DiaryAnalyzeTask orphan = taskOf(deleted, deleted.getContentVersion());
+        diaryRepository.deleteById(deleted.getId());
+        Diary current = saveDiary();
+
+        writer.write(stale, result(30, "v1"));
+        writer.write(orphan, result(30, "v1"));
+        writer.write(taskOf(current, current.getContentVersion()), result(50, "v1"));
+        writer.flush();
+
+        assertThat(diaryRepository.findById(edited.getId()).orElseThrow().getModelVersion()).isNull();
+        assertThat(notApplied).containsExactly(stale, orphan);
+        assertThat(taskStore.done).extracting(DiaryAnalyzeTask::getDiaryId).containsExactly(current.getId());
+        assertThat(meterRegistry.counter("diary.analyze.writer.fallback").count()).isEqualTo(2);
+    }
+
+    @DisplayName("flush: 일괄 저장이 실패하면 모든 결과를 fallback으로 넘기고, 완료 처리하지 않는다.")
+    @Test
+    public void flushPassesFailedBatchToFallback() {
+        JdbcTemplate failing = new JdbcTemplate(dataSource) {
+            @Override
+            public <T> int[][] batchUpdate(String sql, Collection<T> batchArgs, int batchSize,
+                                           ParameterizedPreparedStatementSetter<T> pss) {
+                throw new TransientDataAccessResourceException("DB is down");
+            }
+        };
+        AnalyzeResultWriter writer = createWriter(failing);
+        Diary first = saveDiary();
+        Diary second = saveDiary();
+        DiaryAnalyzeTask firstTask = taskOf(first, first.getContentVersion());
+        DiaryAnalyzeTask secondTask = taskOf(second, second.getContentVersion());
+
+        writer.write(firstTask, result(30, "v1"));
+        writer.write(secondTask, result(70, "v1"));
+        writer.flush();
+
+        assertThat(notApplied).containsExactly(firstTask, secondTask);
+        assertThat(taskStore.done).isEmpty();
+
+        // Buffer is emptied
+        writer.flush();
+        assertThat(notApplied).hasSize(2);
+    }
+
+    private AnalyzeResultWriter createWriter(JdbcTemplate jdbcTemplate) {
+        AnalyzeResultWriter writer = new AnalyzeResultWriter(jdbcTemplate, taskStore, dailyMoodRollupService,
+                properties, meterRegistry);
+        writer.setFallback((task, res) -> notApplied.add(task));
+        return writer;
+    }
+
+    private Diary saveDiary() {
+        return diaryRepository.save(Diary.builder()
+                .user(user)
+                .title("title")
+                .content("content")
+                .build());
+    }
+
+    private DiaryAnalyzeTask taskOf(Diary diary, long contentVersion) {
+        return new DiaryAnalyzeTask(null, diary.getId(), user.getId(), diary.getContent(), contentVersion, 0);
+    }
+
+    private DiaryAnalyzeResponse result(int score, String modelVersion) {
+        return new DiaryAnalyzeResponse(new VadScore(5.0f, 5.0f, 5.0f), score, "normal", modelVersion);
+    }
+
+    /**
+     * Record tasks marked as done
+     */
+    private static class StubTaskStore extends DiaryAnalyzeTaskStore {
+
+        private final List<DiaryAnalyzeTask> done = new ArrayList<>();
+
+        private StubTaskStore() {
+            super(null, null);
+        }
+
+        @Override
+        public void markDone(List<DiaryAnalyzeTask> tasks) {
+            done.addAll(tasks);
+        }
+    }
+}
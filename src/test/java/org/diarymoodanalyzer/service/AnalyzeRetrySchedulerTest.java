@@ -0,0 +1,107 @@
+package org.diarymoodanalyzer.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.diarymoodanalyzer.client.AnalyzeErrorClass;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AnalyzeRetrySchedulerTest {
+
+    private DiaryAnalyzeProperties properties;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private AnalyzeRetryScheduler scheduler;
+
+    @BeforeEach
+    public void setUp() {
+        properties = new DiaryAnalyzeProperties();
+        meterRegistry = new SimpleMeterRegistry();
+        scheduler = new AnalyzeRetryScheduler(properties, meterRegistry);
+    }
+
+    @DisplayName("backoffMillis: 지연은 시도마다 multiplier 배로 늘어나고, maxDelayMillis를 넘지 않는다.")
+    @Test
+    public void backoffMillisGrowsExponentially() {
+        DiaryAnalyzeProperties.RetryPolicy policy = new DiaryAnalyzeProperties.RetryPolicy(10, 1000);
+        policy.setJitterRatio(0);
+        policy.setMaxDelayMillis(5000);
+
+        assertThat(AnalyzeRetryScheduler.backoffMillis(policy, 1)).isEqualTo(1000);
+        assertThat(AnalyzeRetryScheduler.backoffMillis(policy, 2)).isEqualTo(2000);
+        assertThat(AnalyzeRetryScheduler.backoffMillis(policy, 3)).isEqualTo(4000);
+        assertThat(AnalyzeRetryScheduler.backoffMillis(policy, 4)).isEqualTo(5000);
+        assertThat(AnalyzeRetryScheduler.backoffMillis(policy, 20)).isEqualTo(5000);
+    }
+
+    @DisplayName("backoffMillis: 지터는 지연의 jitterRatio 만큼만 줄인다.")
+    @Test
+    public void backoffMillisJitterWithinRatio() {
+        DiaryAnalyzeProperties.RetryPolicy policy = new DiaryAnalyzeProperties.RetryPolicy(10, 1000);
+        policy.setJitterRatio(0.5);
+
+        for(int i = 0; i < 100; i++) {
+            assertThat(AnalyzeRetryScheduler.backoffMillis(policy, 2)).isBetween(1000L, 2000L);
+        }
+    }
+
+    @DisplayName("policyOf: 오류 종류마다 설정된 정책을 사용한다.")
+    @Test
+    public void policyOfErrorClass() {
+        DiaryAnalyzeProperties.Retry retry = properties.getRetry();
+
+        assertThat(scheduler.policyOf(AnalyzeErrorClass.TIMEOUT)).isSameAs(retry.getTimeout());
+        assertThat(scheduler.policyOf(AnalyzeErrorClass.SERVER_ERROR)).isSameAs(retry.getServerError());
+        assertThat(scheduler.policyOf(AnalyzeErrorClass.CLIENT_ERROR)).isSameAs(retry.getClientError());
+        assertThat(scheduler.policyOf(AnalyzeErrorClass.OTHER)).isSameAs(retry.getOther());
+
+        // 4xx is not retried, timeout is retried with longer delay
+        assertThat(scheduler.policyOf(AnalyzeErrorClass.CLIENT_ERROR).getMaxAttempts()).isEqualTo(1);
+        assertThat(scheduler.policyOf(AnalyzeErrorClass.TIMEOUT).getInitialDelayMillis())
+                .isGreaterThan(scheduler.policyOf(AnalyzeErrorClass.OTHER).getInitialDelayMillis());
+    }
+
+    @DisplayName("schedule: 오류 종류의 정책과 재시도 횟수로 지연을 정한다.")
+    @Test
+    public void scheduleUsesPolicyOfErrorClass() {
+        properties.getRetry().getTimeout().setJitterRatio(0);
+        properties.getRetry().getOther().setJitterRatio(0);
+
+        assertThat(scheduler.schedule(createTask(1L, 1), AnalyzeErrorClass.TIMEOUT)).isEqualTo(2000);
+        assertThat(scheduler.schedule(createTask(2L, 3), AnalyzeErrorClass.TIMEOUT)).isEqualTo(8000);
+        assertThat(scheduler.schedule(createTask(3L, 1), AnalyzeErrorClass.OTHER)).isEqualTo(500);
+
+        assertThat(scheduler.size()).isEqualTo(3);
+        assertThat(meterRegistry.counter("diary.analyze.retry.attempts", "error", "TIMEOUT").count()).isEqualTo(2);
+    }
+
+    @DisplayName("releaseDue: 지연이 지난 작업만 꺼낸다.")
+    @Test
+    public void releaseDueOnlyDue() throws InterruptedException {
+        DiaryAnalyzeProperties.RetryPolicy other = properties.getRetry().getOther();
+        other.setInitialDelayMillis(0);
+        other.setJitterRatio(0);
+        properties.getRetry().getTimeout().setJitterRatio(0);
+
+        scheduler.schedule(createTask(1L, 1), AnalyzeErrorClass.OTHER);
+        scheduler.schedule(createTask(2L, 1), AnalyzeErrorClass.TIMEOUT);
+        Thread.sleep(10);
+
+        List<DiaryAnalyzeTask> released = new ArrayList<>();
+        assertThat(scheduler.releaseDue(released::add)).isEqualTo(1);
+
+        assertThat(released).extracting(DiaryAnalyzeTask::getDiaryId).containsExactly(1L);
+        assertThat(scheduler.size()).isEqualTo(1);
+    }
+
+    private DiaryAnalyzeTask createTask(Long diaryId, int retryCount) {
+        return new DiaryAnalyzeTask(diaryId, diaryId, 1L, "content", 0, retryCount);
+    }
+}
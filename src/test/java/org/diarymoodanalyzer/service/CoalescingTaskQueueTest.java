@@ -0,0 +1,276 @@
+package org.diarymoodanalyzer.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.diarymoodanalyzer.dto.ai.response.DiaryAnalyzeResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Simulate dispatch of {@link CoalescingTaskQueue} by draining it in batches, like {@link DiaryAnalyzeService}.
+ */
+public class CoalescingTaskQueueTest {
+
+    private static final int BATCH_SIZE = 8;
+
+    private DiaryAnalyzeProperties properties;
+
+    private long nextDiaryId = 1;
+
+    /**
+     * Content of diaries in DB
+     */
+    private final Map<Long, String> contents = new HashMap<>();
+
+    /**
+     * If true, loading spilled tasks fails like DB is down
+     */
+    private boolean failLoad = false;
+
+    @TempDir
+    Path spillDir;
+
+    @BeforeEach
+    public void setUp() {
+        properties = new DiaryAnalyzeProperties();
+        properties.getSpill().setDir(spillDir.toString());
+        nextDiaryId = 1;
+        contents.clear();
+        failLoad = false;
+    }
+
+    @DisplayName("drainTo: 한 사용자가 대량으로 추가해도, 다른 사용자의 태스크는 대기하지 않고 처리된다.")
+    @Test
+    public void drainToIsolatesBulkUser() {
+        CoalescingTaskQueue queue = createQueue();
+
+        // Bulk import of user 1, then users 2 and 3 write diaries
+        offer(queue, 1L, 1000);
+        offer(queue, 2L, 5);
+        offer(queue, 3L, 5);
+
+        List<DiaryAnalyzeTask> dispatched = drainAll(queue);
+
+        // Tasks of users 2 and 3 are done within their fair share, not after 1000 tasks
+        int lastOfOthers = lastIndexOf(dispatched, 2L, 3L);
+        assertThat(lastOfOthers).isLessThan(3 * 5);
+        assertThat(dispatched).hasSize(1010);
+    }
+
+    @DisplayName("drainTo: 대기 중인 사용자들은 같은 비율로 처리된다.")
+    @Test
+    public void drainToSharesEqually() {
+        CoalescingTaskQueue queue = createQueue();
+
+        offer(queue, 1L, 100);
+        offer(queue, 2L, 100);
+        offer(queue, 3L, 100);
+
+        Map<Long, Integer> counts = countByUser(drain(queue, 3));
+
+        // Each user gets 8 tasks of the first 24
+        assertThat(counts).containsEntry(1L, 8).containsEntry(2L, 8).containsEntry(3L, 8);
+    }
+
+    @DisplayName("drainTo: 마지막 결과의 심각도가 높은 사용자는 boostWeight 배만큼 더 처리된다.")
+    @Test
+    public void drainToBoostsHighSeverityUser() {
+        properties.getFair().setBoostWeight(2.0);
+        CoalescingTaskQueue queue = createQueue();
+
+        queue.reportResult(new DiaryAnalyzeTask(0L, 0L, 2L, "", 0, 0),
+                new DiaryAnalyzeResponse(null, properties.getFair().getBoostScoreThreshold(), null));
+
+        offer(queue, 1L, 100);
+        offer(queue, 2L, 100);
+
+        Map<Long, Integer> counts = countByUser(drain(queue, 6));
+
+        assertThat(queue.isBoosted(2L)).isTrue();
+        assertThat(counts).containsEntry(1L, 16).containsEntry(2L, 32);
+    }
+
+    @DisplayName("drainTo: 비활성화 되면 추가된 순서대로 처리된다.")
+    @Test
+    public void drainToIsFifoWhenDisabled() {
+        properties.getFair().setEnabled(false);
+        CoalescingTaskQueue queue = createQueue();
+
+        offer(queue, 1L, 20);
+        offer(queue, 2L, 5);
+
+        List<DiaryAnalyzeTask> dispatched = drainAll(queue);
+
+        assertThat(dispatched.subList(0, 20)).allMatch(task -> task.getUserId().equals(1L));
+    }
+
+    @DisplayName("offer: 같은 다이어리의 태스크는 최신 내용 하나만 남고, 사용자별 대기 수가 집계된다.")
+    @Test
+    public void offerCoalescesPerDiary() {
+        CoalescingTaskQueue queue = createQueue();
+
+        DiaryAnalyzeTask old = new DiaryAnalyzeTask(1L, 100L, 1L, "old", 0, 0);
+        DiaryAnalyzeTask newer = new DiaryAnalyzeTask(2L, 100L, 1L, "new", 1, 0);
+        offer(queue, 2L, 3);
+
+        assertThat(queue.offer(old)).isNull();
+        assertThat(queue.offer(newer)).isSameAs(old);
+        assertThat(queue.depthByUser()).containsEntry(1L, 1).containsEntry(2L, 3);
+
+        List<DiaryAnalyzeTask> dispatched = drainAll(queue);
+
+        assertThat(dispatched).hasSize(4).contains(newer).doesNotContain(old);
+        assertThat(queue.isEmpty()).isTrue();
+        assertThat(queue.depthByUser()).isEmpty();
+    }
+
+    @DisplayName("drainTo: 메모리 한도를 넘은 태스크는 디스크로 넘겨지고, 내용을 다시 읽어 순서대로 처리된다.")
+    @Test
+    public void drainToReplaysSpilledTasksInOrder() {
+        properties.getSpill().setMaxInMemory(10);
+        properties.getSpill().setSegmentBytes(AnalyzeSpillBuffer.ENTRY_BYTES * 16);
+        properties.getFair().setEnabled(false);
+        CoalescingTaskQueue queue = createQueue();
+
+        offer(queue, 1L, 100);
+
+        // Content of diary 50 is changed after spilled. Newer task is submitted for it
+        contents.put(50L, "edited");
+
+        assertThat(queue.size()).isEqualTo(100);
+        assertThat(queue.depthByUser()).containsEntry(null, 10);
+
+        List<DiaryAnalyzeTask> dispatched = drainAll(queue);
+
+        assertThat(dispatched).hasSize(99);
+        assertThat(dispatched).extracting(DiaryAnalyzeTask::getDiaryId).isSorted().doesNotContain(50L);
+        assertThat(dispatched).allMatch(task -> task.getContent().equals(contents.get(task.getDiaryId())));
+        assertThat(queue.isEmpty()).isTrue();
+    }
+
+    @DisplayName("offer: 다른 사용자의 태스크가 디스크에 남아 있어도, 새 사용자의 태스크는 메모리에 추가되어 바로 처리된다.")
+    @Test
+    public void offerDoesNotSpillBehindOtherUser() {
+        properties.getSpill().setMaxInMemory(10);
+        CoalescingTaskQueue queue = createQueue();
+
+        // User 1 overflows the queue
+        offer(queue, 1L, 100);
+        offer(queue, 2L, 3);
+
+        assertThat(queue.depthByUser()).containsEntry(1L, 10).containsEntry(2L, 3);
+
+        List<DiaryAnalyzeTask> dispatched = drainAll(queue);
+
+        assertThat(lastIndexOf(dispatched, 2L)).isLessThan(2 * 3);
+        assertThat(dispatched).hasSize(103);
+        assertThat(dispatched).filteredOn(task -> task.getUserId().equals(1L))
+                .extracting(DiaryAnalyzeTask::getDiaryId).isSorted();
+    }
+
+    @DisplayName("drainTo: 디스크에 넘겨진 태스크를 읽지 못하면 버리지 않고, 다음에 다시 읽는다.")
+    @Test
+    public void drainToKeepsSpilledTasksWhenLoadFailed() {
+        properties.getSpill().setMaxInMemory(10);
+        properties.getFair().setEnabled(false);
+        CoalescingTaskQueue queue = createQueue();
+
+        offer(queue, 1L, 30);
+
+        failLoad = true;
+        List<DiaryAnalyzeTask> dispatched = drain(queue, 5);
+
+        // Only tasks in memory are dispatched
+        assertThat(dispatched).hasSize(10);
+        assertThat(queue.size()).isEqualTo(20);
+
+        failLoad = false;
+        dispatched.addAll(drainAll(queue));
+
+        assertThat(dispatched).hasSize(30);
+        assertThat(dispatched).extracting(DiaryAnalyzeTask::getDiaryId).isSorted();
+        assertThat(queue.isEmpty()).isTrue();
+    }
+
+    private CoalescingTaskQueue createQueue() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        return new CoalescingTaskQueue(properties, new AnalyzeSpillBuffer(properties, meterRegistry),
+                new StubTaskStore(), meterRegistry);
+    }
+
+    private void offer(CoalescingTaskQueue queue, Long userId, int count) {
+        for(int i = 0; i < count; i++) {
+            long diaryId = nextDiaryId++;
+            contents.put(diaryId, "content " + diaryId);
+            queue.offer(new DiaryAnalyzeTask(diaryId, diaryId, userId, contents.get(diaryId), 0, 0));
+        }
+    }
+
+    /**
+     * Drain queue by batches
+     */
+    private List<DiaryAnalyzeTask> drain(CoalescingTaskQueue queue, int batches) {
+        List<DiaryAnalyzeTask> dispatched = new ArrayList<>();
+        for(int i = 0; i < batches && !queue.isEmpty(); i++) {
+            queue.drainTo(dispatched, BATCH_SIZE);
+        }
+        return dispatched;
+    }
+
+    private List<DiaryAnalyzeTask> drainAll(CoalescingTaskQueue queue) {
+        return drain(queue, Integer.MAX_VALUE);
+    }
+
+    private int lastIndexOf(List<DiaryAnalyzeTask> tasks, Long... userIds) {
+        List<Long> targets = List.of(userIds);
+        int last = -1;
+        for(int i = 0; i < tasks.size(); i++) {
+            if(targets.contains(tasks.get(i).getUserId())) {
+                last = i;
+            }
+        }
+        return last;
+    }
+
+    private Map<Long, Integer> countByUser(List<DiaryAnalyzeTask> tasks) {
+        Map<Long, Integer> counts = new HashMap<>();
+        tasks.forEach(task -> counts.merge(task.getUserId(), 1, Integer::sum));
+        return counts;
+    }
+
+    /**
+     * Load content of spilled tasks from {@link #contents} instead of DB. Fails if {@link #failLoad} is set
+     */
+    private class StubTaskStore extends DiaryAnalyzeTaskStore {
+
+        private StubTaskStore() {
+            super(null, null);
+        }
+
+        @Override
+        public List<DiaryAnalyzeTask> loadSpilled(List<AnalyzeSpillBuffer.Entry> entries) {
+            if(failLoad) {
+                throw new IllegalStateException("DB is down");
+            }
+            return entries.stream()
+                    .filter(entry -> AnalyzeSpillBuffer.contentHash(contents.get(entry.diaryId())) == entry.contentHash())
+                    .map(entry -> new DiaryAnalyzeTask(entry.taskId(), entry.diaryId(), entry.userId(),
+                            contents.get(entry.diaryId()), 0, entry.retryCount()))
+                    .toList();
+        }
+
+        @Override
+        public void markSuperseded(DiaryAnalyzeTask task) {
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package org.diarymoodanalyzer.service;
+
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.diarymoodanalyzer.domain.DailyMoodRollup;
+import org.diarymoodanalyzer.domain.Diary;
+import org.diarymoodanalyzer.domain.User;
+import org.diarymoodanalyzer.repository.DailyMoodRollupRepository;
+import org.diarymoodanalyzer.repository.DiaryRepository;
+import org.diarymoodanalyzer.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.sql.DataSource;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+public class DailyMoodRollupServiceTest {
+
+    @Autowired
+    private DailyMoodRollupService dailyMoodRollupService;
+
+    @Autowired
+    private DailyMoodRollupRepository dailyMoodRollupRepository;
+
+    @Autowired
+    private MoodTimeSeriesCache moodTimeSeriesCache;
+
+    @Autowired
+    private DiaryRepository diaryRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ThreadPoolTaskExecutor executor;
+
+    @Autowired
+    private DiaryAnalyzeProperties diaryAnalyzeProperties;
+
+    private User user;
+
+    @BeforeEach
+    public void setUp() {
+        user = userRepository.save(User.builder()
+                .email(UUID.randomUUID() + "@email.com")
+                .password("testPassword")
+                .build());
+    }
+
+    @DisplayName("refreshDiaries: 분석 결과가 저장되거나 일기가 삭제되면 해당 날짜의 집계만 다시 계산된다.")
+    @Test
+    public void refreshDiariesMaintainsBucket() {
+        Diary first = saveAnalyzedDiary(10);
+        Diary second = saveAnalyzedDiary(30);
+        // Not analyzed yet. Not included
+        saveDiary();
+
+        dailyMoodRollupService.refreshDiaries(List.of(first.getId(), second.getId()));
+
+        List<DailyMoodRollup> rollups = dailyMoodRollupRepository.findByUserId(user.getId());
+        assertThat(rollups).hasSize(1);
+        assertThat(rollups.get(0).getCount()).isEqualTo(2);
+        assertThat(rollups.get(0).getAvgScore()).isEqualTo(20.0);
+        assertThat(rollups.get(0).getMinScore()).isEqualTo(10);
+        assertThat(rollups.get(0).getMaxScore()).isEqualTo(30);
+
+        // Delete diary with max score
+        Set<DailyMoodRollup.Key> keys = dailyMoodRollupService.keysOf(List.of(second.getId()));
+        diaryRepository.deleteById(second.getId());
+        dailyMoodRollupService.refresh(keys);
+
+        rollups = dailyMoodRollupRepository.findByUserId(user.getId());
+        assertThat(rollups).hasSize(1);
+        assertThat(rollups.get(0).getCount()).isEqualTo(1);
+        assertThat(rollups.get(0).getMaxScore()).isEqualTo(10);
+
+        // Delete the last diary with result. Bucket is removed
+        keys = dailyMoodRollupService.keysOf(List.of(first.getId()));
+        diaryRepository.deleteById(first.getId());
+        dailyMoodRollupService.refresh(keys);
+
+        assertThat(dailyMoodRollupRepository.findByUserId(user.getId())).isEmpty();
+    }
+
+    @DisplayName("rebuild: 기존 일기로부터 모든 집계를 다시 만든다.")
+    @Test
+    public void rebuildAggregatesExistingDiaries() {
+        saveAnalyzedDiary(40);
+        saveAnalyzedDiary(60);
+
+        dailyMoodRollupService.rebuild();
+
+        List<DailyMoodRollup> rollups = dailyMoodRollupRepository.findByUserId(user.getId());
+        assertThat(rollups).hasSize(1);
+        assertThat(rollups.get(0).getCount()).isEqualTo(2);
+        assertThat(rollups.get(0).getAvgScore()).isEqualTo(50.0);
+        assertThat(rollups.get(0).getVadCount()).isEqualTo(2);
+    }
+
+    @DisplayName("refreshDiaries: 집계가 갱신되면 캐시된 통계도 무효화되어 새 결과가 바로 반영된다.")
+    @Test
+    public void refreshDiariesInvalidatesCachedSeries() {
+        Diary first = saveAnalyzedDiary(10);
+        dailyMoodRollupService.refreshDiaries(List.of(first.getId()));
+
+        assertThat(moodTimeSeriesCache.get(user.getId())
+                .aggregate(null, null, MoodTimeSeries.Granularity.DAY, 1).getValues()).containsExactly(10.0);
+
+        Diary second = saveAnalyzedDiary(30);
+        dailyMoodRollupService.refreshDiaries(List.of(second.getId()));
+
+        assertThat(moodTimeSeriesCache.get(user.getId())
+                .aggregate(null, null, MoodTimeSeries.Granularity.DAY, 1).getValues()).containsExactly(20.0);
+    }
+
+    @DisplayName("refresh: 같은 집계를 동시에 다시 계산해도 실패하지 않고, 결과가 하나만 남는다.")
+    @Test
+    public void refreshConcurrently() throws Exception {
+        Diary first = saveAnalyzedDiary(10);
+        Diary second = saveAnalyzedDiary(30);
+        Set<DailyMoodRollup.Key> keys = dailyMoodRollupService.keysOf(List.of(first.getId(), second.getId()));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for(int i = 0; i < 20; i++) {
+                futures.add(executor.submit(() -> dailyMoodRollupService.refresh(keys)));
+            }
+            for(Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(dailyMoodRollupService.failedCount()).isZero();
+        List<DailyMoodRollup> rollups = dailyMoodRollupRepository.findByUserId(user.getId());
+        assertThat(rollups).hasSize(1);
+        assertThat(rollups.get(0).getCount()).isEqualTo(2);
+    }
+
+    @DisplayName("refresh: 집계 갱신이 실패하면 캐시를 무효화하지 않고, 다시 시도해 성공하면 무효화한다.")
+    @Test
+    public void refreshRetriesFailedKeys() {
+        AtomicBoolean failing = new AtomicBoolean(true);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource) {
+            @Override
+            public <T> int[][] batchUpdate(String sql, Collection<T> batchArgs, int batchSize,
+                                           ParameterizedPreparedStatementSetter<T> pss) {
+                if(failing.get()) {
+                    throw new TransientDataAccessResourceException("DB is down");
+                }
+                return super.batchUpdate(sql, batchArgs, batchSize, pss);
+            }
+        };
+        List<Object> events = new ArrayList<>();
+        DailyMoodRollupService service = new DailyMoodRollupService(jdbcTemplate, diaryRepository,
+                dailyMoodRollupRepository, transactionManager, executor, events::add, diaryAnalyzeProperties);
+
+        Diary diary = saveAnalyzedDiary(10);
+        service.refreshDiaries(List.of(diary.getId()));
+
+        // Stale rollup is not loaded to cache
+        assertThat(dailyMoodRollupRepository.findByUserId(user.getId())).isEmpty();
+        assertThat(events).isEmpty();
+        assertThat(service.failedCount()).isEqualTo(1);
+
+        failing.set(false);
+        service.retryFailed();
+
+        assertThat(dailyMoodRollupRepository.findByUserId(user.getId())).hasSize(1);
+        assertThat(events).containsExactly(new MoodRollupChangedEvent(Set.of(user.getId())));
+        assertThat(service.failedCount()).isZero();
+    }
+
+    private Diary saveDiary() {
+        return diaryRepository.save(Diary.builder()
+                .user(user)
+                .title("title")
+                .content("content")
+                .build());
+    }
+
+    private Diary saveAnalyzedDiary(int score) {
+        Diary diary = saveDiary();
+        diaryRepository.updateAnalyzeResult(diary.getId(), diary.getContentVersion(),
+                0.5f, 0.5f, 0.5f, score, "normal", "v1");
+        return diary;
+    }
+}
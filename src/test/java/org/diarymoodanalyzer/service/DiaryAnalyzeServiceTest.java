@@ -0,0 +1,327 @@
+package org.diarymoodanalyzer.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.diarymoodanalyzer.client.AnalyzeCircuitBreaker;
+import org.diarymoodanalyzer.client.AnalyzeConcurrencyLimiter;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.publisher.Mono;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test {@link DiaryAnalyzeService} with stub analyzer, queue and task store. No Spring context or AI server is required.
+ */
+public class DiaryAnalyzeServiceTest {
+
+    private DiaryAnalyzeProperties properties;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private AnalyzeCircuitBreaker circuitBreaker;
+
+    private StubQueue taskQueue;
+
+    private StubTaskStore taskStore;
+
+    private DiaryAnalyzeService service;
+
+    @BeforeEach
+    public void setUp() {
+        properties = new DiaryAnalyzeProperties();
+        properties.getCircuitBreaker().setFailureThreshold(1);
+        properties.getCircuitBreaker().setOpenMillis(0);
+        meterRegistry = new SimpleMeterRegistry();
+        circuitBreaker = new AnalyzeCircuitBreaker(properties, meterRegistry);
+        taskQueue = new StubQueue();
+        taskStore = new StubTaskStore();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if(service != null) {
+            service.stopPipeline();
+        }
+    }
+
+    @DisplayName("processQueue: HALF_OPEN 상태의 probe가 캐시로 처리되면 권한을 반납하고, 다음 probe를 보낸다.")
+    @Test
+    public void probeServedFromCacheGivesBackPermission() throws InterruptedException {
+        StubAnalyzer analyzer = new StubAnalyzer("stub", Set.of("cached"), 0);
+        service = createService(analyzer);
+
+        openThenHalfOpen();
+
+        taskQueue.offer(new DiaryAnalyzeTask(1L, 1L, 1L, "cached", 0, 0));
+        taskQueue.offer(new DiaryAnalyzeTask(2L, 2L, 1L, "not cached", 0, 0));
+
+        // Probe of the cached task. No request is sent
+        service.processQueue();
+        awaitApplied(analyzer, 1);
+        assertThat(analyzer.requests.get()).isZero();
+        assertThat(circuitBreaker.getState()).isEqualTo(AnalyzeCircuitBreaker.State.HALF_OPEN);
+
+        // Next probe is allowed, and its response closes the breaker
+        service.processQueue();
+        awaitApplied(analyzer, 2);
+        assertThat(analyzer.requests.get()).isEqualTo(1);
+        assertThat(circuitBreaker.getState()).isEqualTo(AnalyzeCircuitBreaker.State.CLOSED);
+    }
+
+    @DisplayName("processQueue: 한 분석기가 실패하면 다른 분석기의 결과는 적용되고, 실패한 분석기만 다시 시도된다.")
+    @Test
+    public void failedAnalyzerIsRetriedAlone() throws InterruptedException {
+        properties.getRetry().getOther().setInitialDelayMillis(0);
+        properties.getRetry().getOther().setJitterRatio(0);
+        StubAnalyzer failing = new StubAnalyzer("failing", Set.of(), 1);
+        StubAnalyzer succeeding = new StubAnalyzer("succeeding", Set.of(), 0);
+        service = createService(failing, succeeding);
+
+        taskQueue.offer(new DiaryAnalyzeTask(1L, 1L, 1L, "content", 0, 0));
+
+        service.processQueue();
+        awaitApplied(succeeding, 1);
+        assertThat(failing.applied).isEmpty();
+
+        // Retry runs the failed analyzer only
+        service.processQueue();
+        awaitApplied(failing, 1);
+        assertThat(failing.requests.get()).isEqualTo(2);
+        assertThat(succeeding.requests.get()).isEqualTo(1);
+        assertThat(succeeding.applied).hasSize(1);
+    }
+
+    @DisplayName("handleTaskFailure: 작업을 소유하지 않은 분석기의 재시도는 작업 상태를 바꾸지 않고, 재시도를 모두 실패해도 dead letter로 옮기지 않는다.")
+    @Test
+    public void partialRetryLeavesTaskStatus() throws InterruptedException {
+        properties.getRetry().getOther().setMaxAttempts(2);
+        properties.getRetry().getOther().setInitialDelayMillis(0);
+        properties.getRetry().getOther().setJitterRatio(0);
+        StubAnalyzer failing = new StubAnalyzer("failing", Set.of(), 10);
+        StubAnalyzer owner = new StubAnalyzer("owner", Set.of(), 0);
+        owner.owner = true;
+        service = createService(failing, owner);
+
+        taskQueue.offer(new DiaryAnalyzeTask(1L, 1L, 1L, "content", 0, 0));
+
+        service.processQueue();
+        awaitApplied(owner, 1);
+
+        // Retry of the failed analyzer fails again, and exceeds max attempts
+        service.processQueue();
+        long deadline = System.currentTimeMillis() + 5000;
+        while(failing.requests.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+
+        assertThat(failing.requests.get()).isEqualTo(2);
+        assertThat(taskStore.inFlight).containsExactly(1L);
+        assertThat(taskStore.pending).isEmpty();
+        assertThat(taskStore.failed).isEmpty();
+        assertThat(taskQueue.isEmpty()).isTrue();
+    }
+
+    @DisplayName("applyOutcomes: 작업을 소유한 분석기가 실행되지 않는 작업은 결과가 적용되면 완료 처리된다.")
+    @Test
+    public void taskWithoutOwnerIsMarkedDone() throws InterruptedException {
+        StubAnalyzer other = new StubAnalyzer("other", Set.of(), 0);
+        StubAnalyzer owner = new StubAnalyzer("owner", Set.of(), 0);
+        owner.owner = true;
+        service = createService(other, owner);
+
+        taskQueue.offer(new DiaryAnalyzeTask(1L, 1L, 1L, "content", 0, 0).withAnalyzers(Set.of("other")));
+        taskQueue.offer(new DiaryAnalyzeTask(2L, 2L, 1L, "content", 0, 0));
+
+        service.processQueue();
+        awaitApplied(other, 2);
+
+        assertThat(owner.applied).containsExactly(2L);
+        // Task 2 is marked as DONE by the owner
+        assertThat(taskStore.done).containsExactly(1L);
+    }
+
+    private void openThenHalfOpen() {
+        circuitBreaker.onError(new WebClientRequestException(new ConnectException("refused"),
+                HttpMethod.POST, URI.create("http://localhost"), new HttpHeaders()));
+        assertThat(circuitBreaker.getState()).isEqualTo(AnalyzeCircuitBreaker.State.OPEN);
+    }
+
+    private DiaryAnalyzeService createService(StubAnalyzer... analyzers) {
+        DiaryAnalyzeService created = new DiaryAnalyzeService(taskQueue, List.of(analyzers),
+                new AnalyzeConcurrencyLimiter(properties, meterRegistry), circuitBreaker, taskStore,
+                new AnalyzeRetryScheduler(properties, meterRegistry), new AfterCommitDispatcher(null),
+                properties, meterRegistry);
+        created.startPipeline();
+        return created;
+    }
+
+    private void awaitApplied(StubAnalyzer analyzer, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while(analyzer.applied.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(analyzer.applied).hasSize(count);
+        // Permission is given back after results are applied
+        Thread.sleep(50);
+    }
+
+    /**
+     * Analyzer whose cache holds the given contents, and fails the first <code>failures</code> requests.
+     * Counts requests, and reports successful ones to breaker like the client
+     */
+    private class StubAnalyzer implements Analyzer<String, String> {
+
+        private final String name;
+
+        private final Set<String> cachedContents;
+
+        private final AtomicInteger failures;
+
+        private final AtomicInteger requests = new AtomicInteger();
+
+        private final Queue<Long> applied = new ConcurrentLinkedQueue<>();
+
+        private boolean owner = false;
+
+        private StubAnalyzer(String name, Set<String> cachedContents, int failures) {
+            this.name = name;
+            this.cachedContents = cachedContents;
+            this.failures = new AtomicInteger(failures);
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public boolean ownsTask() {
+            return owner;
+        }
+
+        @Override
+        public String toRequest(String content) {
+            return content;
+        }
+
+        @Override
+        public Mono<String> analyze(String request) {
+            return Mono.fromCallable(() -> {
+                requests.incrementAndGet();
+                if(failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("Failed to analyze : " + request);
+                }
+                circuitBreaker.onSuccess();
+                return request;
+            });
+        }
+
+        @Override
+        public Optional<String> findCached(String content) {
+            return cachedContents.contains(content) ? Optional.of(content) : Optional.empty();
+        }
+
+        @Override
+        public void applyResult(DiaryAnalyzeTask task, String result) {
+            applied.add(task.getDiaryId());
+        }
+
+        @Override
+        public void applyFailure(DiaryAnalyzeTask task) {
+        }
+    }
+
+    /**
+     * In-memory FIFO queue without coalescing
+     */
+    private static class StubQueue implements AnalyzeTaskQueue {
+
+        private final Queue<DiaryAnalyzeTask> tasks = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public DiaryAnalyzeTask offer(DiaryAnalyzeTask task) {
+            tasks.add(task);
+            return null;
+        }
+
+        @Override
+        public int drainTo(Collection<DiaryAnalyzeTask> collection, int maxElements) {
+            int count = 0;
+            DiaryAnalyzeTask task;
+            while(count < maxElements && (task = tasks.poll()) != null) {
+                collection.add(task);
+                count++;
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return tasks.isEmpty();
+        }
+
+        @Override
+        public int size() {
+            return tasks.size();
+        }
+    }
+
+    /**
+     * Task store without DB. Records ids of tasks by status
+     */
+    private static class StubTaskStore extends DiaryAnalyzeTaskStore {
+
+        private final Queue<Long> inFlight = new ConcurrentLinkedQueue<>();
+
+        private final Queue<Long> pending = new ConcurrentLinkedQueue<>();
+
+        private final Queue<Long> failed = new ConcurrentLinkedQueue<>();
+
+        private final Queue<Long> done = new ConcurrentLinkedQueue<>();
+
+        private StubTaskStore() {
+            super(null, null);
+        }
+
+        @Override
+        public void markInFlight(List<DiaryAnalyzeTask> tasks, long leaseSeconds) {
+            tasks.forEach(task -> inFlight.add(task.getTaskId()));
+        }
+
+        @Override
+        public void markPending(DiaryAnalyzeTask task, Exception e) {
+            pending.add(task.getTaskId());
+        }
+
+        @Override
+        public void markFailed(DiaryAnalyzeTask task, Exception e) {
+            failed.add(task.getTaskId());
+        }
+
+        @Override
+        public void markDone(DiaryAnalyzeTask task) {
+            done.add(task.getTaskId());
+        }
+
+        @Override
+        public void markSuperseded(DiaryAnalyzeTask task) {
+        }
+    }
+}
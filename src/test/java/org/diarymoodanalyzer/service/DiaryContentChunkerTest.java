@@ -0,0 +1,47 @@
+package org.diarymoodanalyzer.service;
+
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.diarymoodanalyzer.dto.ai.request.VadScore;
+import org.diarymoodanalyzer.dto.ai.response.DiaryAnalyzeResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class DiaryContentChunkerTest {
+
+    private final DiaryContentChunker chunker = new DiaryContentChunker(new DiaryAnalyzeProperties());
+
+    @DisplayName("aggregate: VAD가 없는 청크는 VAD 평균에서 제외되고, 점수 평균에는 포함된다.")
+    @Test
+    public void aggregateSkipsChunkWithoutVad() {
+        List<String> chunks = List.of("a".repeat(100), "b".repeat(100), "c".repeat(200));
+        List<DiaryAnalyzeResponse> results = List.of(
+                new DiaryAnalyzeResponse(new VadScore(6f, 4f, 2f), 30, "normal", "v1"),
+                new DiaryAnalyzeResponse(new VadScore(8f, 6f, 4f), 50, "normal", "v1"),
+                // VAD is missing
+                new DiaryAnalyzeResponse(null, 70, "normal", "v1"));
+
+        DiaryAnalyzeResponse aggregated = chunker.aggregate(chunks, results);
+
+        // Weighted by length of the first two chunks only
+        assertThat(aggregated.getVad_score().getV()).isCloseTo(7f, within(0.001f));
+        assertThat(aggregated.getVad_score().getA()).isCloseTo(5f, within(0.001f));
+        assertThat(aggregated.getVad_score().getD()).isCloseTo(3f, within(0.001f));
+        // (30 * 100 + 50 * 100 + 70 * 200) / 400
+        assertThat(aggregated.getDepression_score()).isEqualTo(55);
+    }
+
+    @DisplayName("aggregate: 모든 청크에 VAD가 없으면 VAD는 null이다.")
+    @Test
+    public void aggregateWithoutVad() {
+        DiaryAnalyzeResponse aggregated = chunker.aggregate(List.of("first", "second"), List.of(
+                new DiaryAnalyzeResponse(null, 10, "normal", "v1"),
+                new DiaryAnalyzeResponse(null, 20, "normal", "v1")));
+
+        assertThat(aggregated.getVad_score()).isNull();
+    }
+}
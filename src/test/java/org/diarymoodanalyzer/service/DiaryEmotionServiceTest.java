@@ -13,7 +13,7 @@ import org.springframework.boot.test.context.SpringBootTest;
 import static org.assertj.core.api.Assertions.assertThat;
 
 @Deprecated
-@SpringBootTest
+@SpringBootTest(properties = "diary-emotion.analyzers.emotion=true")
 public class DiaryEmotionServiceTest {
 
     @Autowired
@@ -0,0 +1,122 @@
+package org.diarymoodanalyzer.service;
+
+import org.diarymoodanalyzer.domain.Diary;
+import org.diarymoodanalyzer.domain.Expert;
+import org.diarymoodanalyzer.domain.MoodTrend;
+import org.diarymoodanalyzer.domain.User;
+import org.diarymoodanalyzer.dto.request.GetExpertCohortRequest;
+import org.diarymoodanalyzer.dto.response.CohortMemberResponse;
+import org.diarymoodanalyzer.repository.DiaryRepository;
+import org.diarymoodanalyzer.repository.ExpertRepository;
+import org.diarymoodanalyzer.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+public class ExpertCohortServiceTest {
+
+    @Autowired
+    private ExpertCohortService expertCohortService;
+
+    @Autowired
+    private DailyMoodRollupService dailyMoodRollupService;
+
+    @Autowired
+    private ExpertRepository expertRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private DiaryRepository diaryRepository;
+
+    private Expert expert;
+
+    private User high;
+
+    private User low;
+
+    private User silent;
+
+    @BeforeEach
+    public void setUp() {
+        expert = expertRepository.save(new Expert(UUID.randomUUID() + "@expert.com", "testPassword"));
+
+        high = saveManagedUser();
+        low = saveManagedUser();
+        silent = saveManagedUser();
+
+        Diary first = saveAnalyzedDiary(high, 80);
+        Diary second = saveAnalyzedDiary(high, 60);
+        Diary third = saveAnalyzedDiary(low, 20);
+        dailyMoodRollupService.refreshDiaries(List.of(first.getId(), second.getId(), third.getId()));
+    }
+
+    @DisplayName("getCohort: 관리하는 사용자 전체의 통계를 위험도(7일 평균) 순으로 반환하고, 결과가 없는 사용자는 마지막에 둔다.")
+    @Test
+    public void getCohortSortedByRisk() {
+        Page<CohortMemberResponse> page = expertCohortService.getCohort(expert.getId(), new GetExpertCohortRequest(),
+                LocalDate.now());
+
+        assertThat(page.getTotalElements()).isEqualTo(3);
+        assertThat(page.getContent()).extracting(CohortMemberResponse::getEmail)
+                .containsExactly(high.getEmail(), low.getEmail(), silent.getEmail());
+
+        CohortMemberResponse first = page.getContent().get(0);
+        assertThat(first.getAvg7()).isEqualTo(70.0);
+        assertThat(first.getAvg30()).isEqualTo(70.0);
+        assertThat(first.getCount7()).isEqualTo(2);
+        assertThat(first.getLatestScore()).isEqualTo(60);
+        assertThat(first.getTrend()).isEqualTo(MoodTrend.UNKNOWN);
+        assertThat(first.getLastDiaryAt()).isNotNull();
+
+        CohortMemberResponse last = page.getContent().get(2);
+        assertThat(last.getAvg7()).isNull();
+        assertThat(last.getLatestScore()).isNull();
+        assertThat(last.getLastDiaryAt()).isNull();
+    }
+
+    @DisplayName("getCohort: 페이지 크기만큼 나누어 반환한다.")
+    @Test
+    public void getCohortPaginated() {
+        GetExpertCohortRequest req = new GetExpertCohortRequest();
+        req.setPage(1);
+        req.setSize(2);
+
+        Page<CohortMemberResponse> page = expertCohortService.getCohort(expert.getId(), req, LocalDate.now());
+
+        assertThat(page.getTotalPages()).isEqualTo(2);
+        assertThat(page.getContent()).extracting(CohortMemberResponse::getEmail)
+                .containsExactly(silent.getEmail());
+    }
+
+    private User saveManagedUser() {
+        User user = User.builder()
+                .email(UUID.randomUUID() + "@email.com")
+                .password("testPassword")
+                .build();
+        user.setExpert(expert);
+        return userRepository.save(user);
+    }
+
+    private Diary saveAnalyzedDiary(User user, int score) {
+        Diary diary = diaryRepository.save(Diary.builder()
+                .user(user)
+                .title("title")
+                .content("content")
+                .build());
+        diaryRepository.updateAnalyzeResult(diary.getId(), diary.getContentVersion(),
+                0.5f, 0.5f, 0.5f, score, "normal", "v1");
+        return diary;
+    }
+}
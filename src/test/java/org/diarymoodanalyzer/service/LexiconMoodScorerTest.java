@@ -0,0 +1,52 @@
+package org.diarymoodanalyzer.service;
+
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.diarymoodanalyzer.dto.ai.response.DiaryAnalyzeResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test {@link LexiconMoodScorer} with default lexicon. Latency is measured by <code>LexiconMoodScorerBenchmark</code>
+ */
+public class LexiconMoodScorerTest {
+
+    private final LexiconMoodScorer scorer = new LexiconMoodScorer(new DiaryAnalyzeProperties(), new DefaultResourceLoader());
+
+    @DisplayName("score: 부정적인 일기는 긍정적인 일기보다 우울 점수가 높고, valence가 낮다.")
+    @Test
+    public void scoreSeparatesNegativeFromPositive() {
+        DiaryAnalyzeResponse positive = scorer.score("친구랑 재밌게 놀았다! 오늘은 정말 행복했다.").orElseThrow();
+        DiaryAnalyzeResponse negative = scorer.score("요즘 너무 우울하고 외롭다. 아무것도 하기 싫고 무기력하다.").orElseThrow();
+
+        assertThat(negative.getDepression_score()).isGreaterThan(positive.getDepression_score());
+        assertThat(negative.getVad_score().getV()).isLessThan(positive.getVad_score().getV());
+        assertThat(positive.getVad_score().getV()).isBetween(1.0f, 9.0f);
+        assertThat(positive.getClassification()).isNull();
+    }
+
+    @DisplayName("score: 부정 표현(안, 않다)은 점수를 반대쪽으로 옮긴다.")
+    @Test
+    public void scoreHandlesNegation() {
+        int happy = scorer.score("행복했다").orElseThrow().getDepression_score();
+        int notHappy = scorer.score("행복하지 않다").orElseThrow().getDepression_score();
+        int notGood = scorer.score("안 좋은 하루").orElseThrow().getDepression_score();
+
+        assertThat(notHappy).isGreaterThan(50).isGreaterThan(happy);
+        assertThat(notGood).isGreaterThan(50);
+    }
+
+    @DisplayName("score: 일치하는 단어가 없거나 비활성화 되어 있으면 결과가 없다.")
+    @Test
+    public void scoreIsEmptyWithoutEvidence() {
+        DiaryAnalyzeProperties properties = new DiaryAnalyzeProperties();
+        properties.getProvisional().setEnabled(false);
+        LexiconMoodScorer disabled = new LexiconMoodScorer(properties, new DefaultResourceLoader());
+
+        assertThat(scorer.score("아무 일도 없었다")).isEmpty();
+        assertThat(scorer.score("")).isEmpty();
+        assertThat(disabled.score("오늘은 정말 행복했다.")).isEmpty();
+    }
+}
@@ -0,0 +1,58 @@
+package org.diarymoodanalyzer.service;
+
+import org.diarymoodanalyzer.dto.response.MoodSeriesResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MoodTimeSeriesTest {
+
+    // 2024-01-01 is Monday. Results on 01-01 (10), 01-03 (30) and 02-01 (40, 60)
+    private final MoodTimeSeries series = createSeries();
+
+    @DisplayName("aggregate: 주 단위는 월요일부터, 월 단위는 1일부터 묶고, 결과가 없는 기간은 생략한다.")
+    @Test
+    public void aggregateByWeekAndMonth() {
+        MoodSeriesResponse weekly = series.aggregate(null, null, MoodTimeSeries.Granularity.WEEK, 0);
+
+        assertThat(weekly.getPeriods()).containsExactly("2024-01-01", "2024-01-29");
+        assertThat(weekly.getValues()).containsExactly(20.0, 50.0);
+        assertThat(weekly.getCounts()).containsExactly(2, 2);
+
+        MoodSeriesResponse monthly = series.aggregate(null, null, MoodTimeSeries.Granularity.MONTH, 0);
+
+        assertThat(monthly.getPeriods()).containsExactly("2024-01", "2024-02");
+        assertThat(monthly.getValues()).containsExactly(20.0, 50.0);
+    }
+
+    @DisplayName("aggregate: 이동 평균은 범위 이전의 날짜도 창에 포함한다.")
+    @Test
+    public void aggregateMovingAverage() {
+        MoodSeriesResponse moving = series.aggregate(LocalDate.of(2024, 1, 2), LocalDate.of(2024, 1, 4),
+                MoodTimeSeries.Granularity.MOVING, 3);
+
+        assertThat(moving.getPeriods()).containsExactly("2024-01-02", "2024-01-03", "2024-01-04");
+        assertThat(moving.getValues()).containsExactly(10.0, 20.0, 30.0);
+        assertThat(moving.getCounts()).containsExactly(1, 2, 1);
+    }
+
+    @DisplayName("aggregate: 결과가 없는 사용자나 범위는 빈 배열을 반환한다.")
+    @Test
+    public void aggregateEmpty() {
+        assertThat(MoodTimeSeries.EMPTY.aggregate(null, null, MoodTimeSeries.Granularity.DAY, 1).getPeriods()).isEmpty();
+        assertThat(series.aggregate(LocalDate.of(2025, 1, 1), null, MoodTimeSeries.Granularity.MONTH, 0).getPeriods())
+                .isEmpty();
+    }
+
+    private static MoodTimeSeries createSeries() {
+        int[] counts = new int[32];
+        long[] sums = new long[32];
+        counts[0] = 1; sums[0] = 10;
+        counts[2] = 1; sums[2] = 30;
+        counts[31] = 2; sums[31] = 100;
+        return MoodTimeSeries.of(LocalDate.of(2024, 1, 1), counts, sums);
+    }
+}
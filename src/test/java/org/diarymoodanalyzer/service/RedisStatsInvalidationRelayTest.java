@@ -0,0 +1,151 @@
+package org.diarymoodanalyzer.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.diarymoodanalyzer.config.DiaryAnalyzeProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test {@link RedisStatsInvalidationRelay} with stub {@link RedisService}. No Redis is required.
+ */
+public class RedisStatsInvalidationRelayTest {
+
+    private static final String NODE_NAME = ManagementFactory.getRuntimeMXBean().getName();
+
+    private DiaryAnalyzeProperties properties;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private final Queue<Object> events = new ConcurrentLinkedQueue<>();
+
+    private StubRedisService redisService;
+
+    private RedisStatsInvalidationRelay relay;
+
+    @BeforeEach
+    public void setUp() {
+        properties = new DiaryAnalyzeProperties();
+        meterRegistry = new SimpleMeterRegistry();
+        redisService = new StubRedisService();
+        events.clear();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        redisService.release.countDown();
+        if(relay != null) {
+            relay.close();
+        }
+    }
+
+    @DisplayName("onMessage: 다른 노드의 메시지는 사용자 id로 해석되어 원격 이벤트로 발행된다.")
+    @Test
+    public void onMessageParsesUserIds() {
+        relay = createRelay();
+
+        relay.onMessage(message("other@node|1,2,,3"), null);
+
+        assertThat(events).containsExactly(new MoodRollupChangedEvent(Set.of(1L, 2L, 3L), true));
+        assertThat(received()).isEqualTo(1);
+    }
+
+    @DisplayName("onMessage: 이 노드가 보낸 메시지와 형식이 잘못된 메시지는 무시된다.")
+    @Test
+    public void onMessageIgnoresOwnAndMalformed() {
+        relay = createRelay();
+
+        relay.onMessage(message(NODE_NAME + "|1,2"), null);
+        relay.onMessage(message("no separator"), null);
+        relay.onMessage(message("other@node|1,abc"), null);
+
+        assertThat(events).isEmpty();
+        assertThat(received()).isZero();
+    }
+
+    @DisplayName("onRollupChanged: 발행은 전용 스레드에서 실행되고, 대기열이 가득 차면 호출한 스레드에서 실행하지 않고 버린다.")
+    @Test
+    public void onRollupChangedDropsOnOverflow() throws InterruptedException {
+        properties.getRollup().setInvalidationQueueCapacity(1);
+        redisService.blocking = true;
+        relay = createRelay();
+
+        // First is running and blocked, second waits in queue, the others are dropped
+        for(long userId = 1; userId <= 5; userId++) {
+            relay.onRollupChanged(new MoodRollupChangedEvent(Set.of(userId)));
+        }
+        // Remote change is not relayed again
+        relay.onRollupChanged(new MoodRollupChangedEvent(Set.of(6L), true));
+
+        assertThat(redisService.callers).doesNotContain(Thread.currentThread());
+        assertThat(meterRegistry.counter("diary.stats.invalidation.relayed", "direction", "dropped").count())
+                .isEqualTo(3);
+
+        redisService.release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while(redisService.messages.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(redisService.messages).containsExactly(NODE_NAME + "|1", NODE_NAME + "|2");
+        assertThat(redisService.callers).doesNotContain(Thread.currentThread());
+    }
+
+    private RedisStatsInvalidationRelay createRelay() {
+        return new RedisStatsInvalidationRelay(redisService, new RedisMessageListenerContainer(), events::add,
+                properties, meterRegistry);
+    }
+
+    private DefaultMessage message(String body) {
+        return new DefaultMessage(properties.getRollup().getInvalidationChannel().getBytes(StandardCharsets.UTF_8),
+                body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private double received() {
+        return meterRegistry.counter("diary.stats.invalidation.relayed", "direction", "received").count();
+    }
+
+    /**
+     * Record published messages and threads publishing them. Blocks until released if <code>blocking</code> is set
+     */
+    private static class StubRedisService extends RedisService {
+
+        private final Queue<String> messages = new ConcurrentLinkedQueue<>();
+
+        private final Queue<Thread> callers = new ConcurrentLinkedQueue<>();
+
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        private volatile boolean blocking = false;
+
+        private StubRedisService() {
+            super(null);
+        }
+
+        @Override
+        public void publish(String channel, String message) {
+            callers.add(Thread.currentThread());
+            if(blocking) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            messages.add(message);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.diarymoodanalyzer.service;
+
+import org.diarymoodanalyzer.dto.response.VadTrajectoryResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class VadTrajectoryTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 21, 0);
+
+    @DisplayName("toResponse: 점의 수가 기준 이하이면 모든 점을 그대로 반환한다.")
+    @Test
+    public void toResponseKeepsShortTrajectory() {
+        VadTrajectory trajectory = createTrajectory(10, -1);
+
+        VadTrajectoryResponse res = trajectory.toResponse(10);
+
+        assertThat(res.isDownsampled()).isFalse();
+        assertThat(res.getTotal()).isEqualTo(10);
+        assertThat(res.getCreatedAt()).hasSize(10);
+    }
+
+    @DisplayName("toResponse: 기준보다 많으면 처음과 끝, 그리고 급격한 변화(피크)를 유지하며 줄인다.")
+    @Test
+    public void toResponseDownsamplesKeepingPeak() {
+        VadTrajectory trajectory = createTrajectory(10000, 4321);
+
+        VadTrajectoryResponse res = trajectory.toResponse(100);
+
+        assertThat(res.isDownsampled()).isTrue();
+        assertThat(res.getTotal()).isEqualTo(10000);
+        assertThat(res.getCreatedAt()).hasSize(100);
+        assertThat(res.getCreatedAt()[0]).isEqualTo(START);
+        assertThat(res.getCreatedAt()[99]).isEqualTo(START.plusDays(9999));
+        assertThat(res.getCreatedAt()).isSorted();
+        assertThat(res.getV()).contains(9.0f);
+    }
+
+    /**
+     * Flat trajectory of one diary per day, with a peak of valence at <code>peak</code>
+     */
+    private static VadTrajectory createTrajectory(int size, int peak) {
+        VadTrajectory trajectory = new VadTrajectory(size);
+        for(int i = 0; i < size; i++) {
+            trajectory.add(START.plusDays(i), i == peak ? 9.0f : 5.0f, 5.0f, 5.0f);
+        }
+        return trajectory;
+    }
+}